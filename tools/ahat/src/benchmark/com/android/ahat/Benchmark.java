@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.dominators.Dominators;
+import com.android.ahat.dominators.SemiNcaDominators;
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Diff;
+import com.android.ahat.heapdump.Duplicates;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
+import com.android.ahat.heapdump.Reachability;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks the phases of loading, diffing and viewing heap dumps, on
+ * given heap dumps or on synthetic heap dumps written by
+ * {@link HprofGenerator}.
+ */
+public class Benchmark {
+  private Benchmark() {
+  }
+
+  private static void help(PrintStream out) {
+    out.println("java -jar ahat-benchmarks.jar [OPTIONS] [FILE]");
+    out.println("  Benchmark loading and viewing the given heap dump FILE, or a");
+    out.println("  generated heap dump if no FILE is given.");
+    out.println("");
+    out.println("OPTIONS:");
+    out.println("  --baseline FILE");
+    out.println("     Benchmark diffing against the given baseline heap dump FILE.");
+    out.println("     Defaults to a generated heap dump with a different seed.");
+    out.println("  --generate FILE");
+    out.println("     Write a generated heap dump to FILE and exit.");
+    out.println("  --iterations N");
+    out.println("     Measure each phase N times. Defaults to 5.");
+    out.println("  --warmup N");
+    out.println("     Run each phase N times before measuring it. Defaults to 1.");
+    out.println("  --threads N");
+    out.println("     Use N threads to parse and diff heap dumps. Defaults to 1, so that all");
+    out.println("     memory allocated is measured.");
+    out.println("  --dominators-graph N");
+    out.println("     Compare dominators algorithms on a random graph with N nodes.");
+    out.println("     Defaults to 10000. Use 0 to skip.");
+    out.println("");
+    out.println("GENERATOR OPTIONS:");
+    out.println("  --objects N            Number of instances. Defaults to 1000000.");
+    out.println("  --fanout N             Reference fields per instance. Defaults to 3.");
+    out.println("  --chain-depth N        Instances per chain. Defaults to 100.");
+    out.println("  --classes N            Number of classes. Defaults to 1000.");
+    out.println("  --big-arrays N         Number of big arrays. Defaults to 10.");
+    out.println("  --big-array-length N   Elements per big array. Defaults to 1000000.");
+    out.println("  --native-allocations N Registered native allocations. Defaults to 10000.");
+    out.println("  --sites N              Allocation sites. Defaults to 100.");
+    out.println("  --roots N              Root instances. Defaults to 1000.");
+    out.println("  --seed N               Random seed. Defaults to 0.");
+    out.println("");
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    public void write(int b) throws IOException {
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+    }
+  }
+
+  /**
+   * Main entry for the ahat benchmarks.
+   *
+   * @param args the command line arguments
+   * @throws IOException if a heap dump could not be read or written
+   * @throws HprofFormatException if a heap dump is not valid
+   */
+  public static void main(String[] args) throws IOException, HprofFormatException {
+    HprofGenerator generator = new HprofGenerator();
+    File hprof = null;
+    File hprofbase = null;
+    File generate = null;
+    int iterations = 5;
+    int warmup = 1;
+    int threads = 1;
+    int graphNodes = 10000;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("--help".equals(arg)) {
+        help(System.out);
+        return;
+      } else if (!arg.startsWith("--")) {
+        hprof = new File(arg);
+        continue;
+      } else if (i + 1 == args.length) {
+        System.err.println("missing value for " + arg);
+        help(System.err);
+        return;
+      }
+
+      String value = args[++i];
+      switch (arg) {
+        case "--baseline": hprofbase = new File(value); break;
+        case "--generate": generate = new File(value); break;
+        case "--iterations": iterations = Integer.parseInt(value); break;
+        case "--warmup": warmup = Integer.parseInt(value); break;
+        case "--threads": threads = Integer.parseInt(value); break;
+        case "--dominators-graph": graphNodes = Integer.parseInt(value); break;
+        case "--objects": generator.objects = Integer.parseInt(value); break;
+        case "--fanout": generator.fanout = Integer.parseInt(value); break;
+        case "--chain-depth": generator.chainDepth = Integer.parseInt(value); break;
+        case "--classes": generator.classes = Integer.parseInt(value); break;
+        case "--big-arrays": generator.bigArrays = Integer.parseInt(value); break;
+        case "--big-array-length": generator.bigArrayLength = Integer.parseInt(value); break;
+        case "--native-allocations": generator.nativeAllocations = Integer.parseInt(value); break;
+        case "--sites": generator.sites = Integer.parseInt(value); break;
+        case "--roots": generator.roots = Integer.parseInt(value); break;
+        case "--seed": generator.seed = Long.parseLong(value); break;
+        default:
+          System.err.println("unknown option " + arg);
+          help(System.err);
+          return;
+      }
+    }
+
+    if (generator.objects < 1 || generator.fanout < 1 || generator.chainDepth < 1
+        || generator.classes < 1 || iterations < 1 || warmup < 0 || threads < 1) {
+      System.err.println("invalid options.");
+      help(System.err);
+      return;
+    }
+
+    if (generate != null) {
+      generator.write(generate);
+      return;
+    }
+
+    List<File> generated = new ArrayList<File>();
+    try {
+      if (hprof == null) {
+        hprof = File.createTempFile("ahat-benchmark", ".hprof");
+        generated.add(hprof);
+        System.out.println("Generating '" + hprof + "' ...");
+        generator.write(hprof);
+      }
+      if (hprofbase == null) {
+        hprofbase = File.createTempFile("ahat-benchmark-base", ".hprof");
+        generated.add(hprofbase);
+        System.out.println("Generating '" + hprofbase + "' ...");
+        generator.seed++;
+        generator.write(hprofbase);
+      }
+
+      PhaseTimer timer = new PhaseTimer();
+      for (int i = 0; i < warmup + iterations; ++i) {
+        timer.setRecording(i >= warmup);
+        System.out.println(String.format("%s %d ...",
+              i < warmup ? "Warmup" : "Iteration", i < warmup ? i + 1 : i - warmup + 1));
+        run(timer, hprof, hprofbase, threads);
+      }
+      for (int i = 0; i < warmup + iterations; ++i) {
+        timer.setRecording(i >= warmup);
+        dominators(timer, graphNodes);
+      }
+      timer.report(System.out);
+    } finally {
+      for (File file : generated) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Loads and diffs the given heap dumps and renders pages for them.
+   */
+  private static void run(PhaseTimer timer, File hprof, File hprofbase, int threads)
+      throws IOException, HprofFormatException {
+    AhatSnapshot snapshot = new Parser(hprof).progress(timer).threads(threads).parse();
+    List<AhatInstance> instances = new ArrayList<AhatInstance>();
+    snapshot.getRootSite().getObjects(null, null, instances);
+    timer.setInstances(instances.size());
+
+    AhatSnapshot baseline = new Parser(hprofbase).threads(threads).parse();
+    timer.time("Diffing", "inst", instances.size(), () -> Diff.snapshots(snapshot, baseline, threads));
+    timer.time("Finding duplicates", "inst", instances.size(),
+        () -> Duplicates.find(snapshot, threads));
+
+    List<AhatInstance> rooted = snapshot.getRooted();
+    List<String> objects = new ArrayList<String>();
+    for (int i = 0; i < rooted.size() && i < 10; ++i) {
+      objects.add("/object?id=" + rooted.get(i).getId());
+    }
+    render(timer, "Rendering /",
+        new OverviewHandler(snapshot, hprof, hprofbase, Reachability.SOFT, null), "/");
+    render(timer, "Rendering /rooted", new RootedHandler(snapshot), "/rooted");
+    render(timer, "Rendering /object", new ObjectHandler(snapshot),
+        objects.toArray(new String[0]));
+    render(timer, "Rendering /objects", new ObjectsHandler(snapshot),
+        "/objects?class=java.lang.Object&subclass=1",
+        "/objects?class=com.example.synthetic.Class1&subclass=1&heap=app");
+    render(timer, "Rendering /site", new SiteHandler(snapshot), "/site?id=0", "/site?id=1");
+    render(timer, "Rendering /duplicates", new DuplicatesHandler(snapshot, threads), "/duplicates");
+  }
+
+  /**
+   * Renders the pages with the given uris using the given handler.
+   */
+  private static void render(PhaseTimer timer, String name, AhatHandler handler, String... uris) {
+    timer.time(name, "pages", uris.length, () -> {
+      for (String uri : uris) {
+        PrintStream ps = new PrintStream(new NullOutputStream());
+        HtmlDoc doc = new HtmlDoc(ps, DocString.text("ahat"), DocString.uri("style.css"));
+        doc.menu(Menu.getMenu());
+        try {
+          handler.handle(doc, new Query(DocString.uri(uri)));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        doc.close();
+      }
+    });
+  }
+
+  /**
+   * A random graph for comparing dominators algorithms.
+   */
+  private static class Graph implements Dominators.Graph<Integer> {
+    public final int[] offsets;
+    public final int[] targets;
+    private final Object[] mStates;
+
+    public Graph(int numNodes, long seed) {
+      Random random = new Random(seed);
+      offsets = new int[numNodes + 1];
+      targets = new int[3 * numNodes];
+      for (int i = 0; i < numNodes; ++i) {
+        offsets[i] = 3 * i;
+        for (int j = 0; j < 3; ++j) {
+          targets[3 * i + j] = 1 + random.nextInt(numNodes - 1);
+        }
+      }
+      offsets[numNodes] = targets.length;
+      mStates = new Object[numNodes];
+    }
+
+    @Override
+    public void setDominatorsComputationState(Integer node, Object state) {
+      mStates[node] = state;
+    }
+
+    @Override
+    public Object getDominatorsComputationState(Integer node) {
+      return mStates[node];
+    }
+
+    @Override
+    public List<Integer> getReferencesForDominators(Integer node) {
+      List<Integer> refs = new ArrayList<Integer>();
+      for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+        refs.add(targets[i]);
+      }
+      return refs;
+    }
+
+    @Override
+    public void setDominator(Integer node, Integer dominator) {
+    }
+  }
+
+  /**
+   * Compares the dominators algorithms on a random graph with the given
+   * number of nodes.
+   */
+  private static void dominators(PhaseTimer timer, int numNodes) {
+    if (numNodes < 2) {
+      return;
+    }
+
+    Dominators<Integer> iterative = new Dominators<Integer>(new Graph(numNodes, 42));
+    iterative.algorithm(Dominators.Algorithm.ITERATIVE);
+    timer.time("Dominators (iterative)", "nodes", numNodes, () -> iterative.computeDominators(0));
+
+    Dominators<Integer> semiNca = new Dominators<Integer>(new Graph(numNodes, 42));
+    semiNca.algorithm(Dominators.Algorithm.SEMI_NCA);
+    timer.time("Dominators (semi-nca)", "nodes", numNodes, () -> semiNca.computeDominators(0));
+
+    Graph compact = new Graph(numNodes, 42);
+    timer.time("Dominators (semi-nca, int graph)", "nodes", numNodes, () -> {
+      new SemiNcaDominators(numNodes, compact.offsets, compact.targets).computeDominators(0);
+    });
+  }
+}
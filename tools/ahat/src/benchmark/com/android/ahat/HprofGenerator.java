@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes synthetic Android heap dumps with a configurable shape, for
+ * benchmarking ahat on heap dumps of the sizes seen in practice without
+ * having to capture and store them.
+ * <p>
+ * The heap consists of instances of a hierarchy of generated classes, each
+ * with a number of reference fields. The first reference field of each
+ * instance links it to the next instance in a chain, and the remaining
+ * reference fields point to random instances. Big object and primitive
+ * arrays, registered native allocations and allocation sites are added on
+ * top of that. The same options and seed always produce the same heap dump.
+ */
+class HprofGenerator {
+  // Hprof record tags.
+  private static final int STRING = 0x01;
+  private static final int LOAD_CLASS = 0x02;
+  private static final int STACK_FRAME = 0x04;
+  private static final int STACK_TRACE = 0x05;
+  private static final int HEAP_DUMP_SEGMENT = 0x1c;
+  private static final int HEAP_DUMP_END = 0x2c;
+
+  // Heap dump sub-record tags.
+  private static final int ROOT_JNI_GLOBAL = 0x01;
+  private static final int ROOT_STICKY_CLASS = 0x05;
+  private static final int HEAP_DUMP_INFO = 0xfe;
+  private static final int CLASS_DUMP = 0x20;
+  private static final int INSTANCE_DUMP = 0x21;
+  private static final int OBJECT_ARRAY_DUMP = 0x22;
+  private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+
+  // Basic type codes.
+  private static final int OBJECT = 2;
+  private static final int BYTE = 8;
+  private static final int INT = 10;
+  private static final int LONG = 11;
+
+  // The size of heap dump segments to write.
+  private static final int SEGMENT_SIZE = 1 << 20;
+
+  // Ids of instances are allocated sequentially, starting from this id.
+  private static final long FIRST_ID = 0x10000000L;
+
+  /**
+   * The number of instances of the generated classes.
+   */
+  public int objects = 1000000;
+
+  /**
+   * The number of reference fields of each generated class.
+   */
+  public int fanout = 3;
+
+  /**
+   * The number of instances linked together in each chain.
+   */
+  public int chainDepth = 100;
+
+  /**
+   * The number of generated classes.
+   */
+  public int classes = 1000;
+
+  /**
+   * The number of big arrays, half of which are object arrays and half of
+   * which are byte arrays.
+   */
+  public int bigArrays = 10;
+
+  /**
+   * The number of elements of each big array.
+   */
+  public int bigArrayLength = 1000000;
+
+  /**
+   * The number of registered native allocations.
+   */
+  public int nativeAllocations = 10000;
+
+  /**
+   * The number of distinct allocation sites.
+   */
+  public int sites = 100;
+
+  /**
+   * The number of instances that are JNI global roots.
+   */
+  public int roots = 1000;
+
+  /**
+   * The seed for choosing random references.
+   */
+  public long seed = 0;
+
+  // State of the heap dump being written.
+  private DataOutputStream mOut;
+  private ByteArrayOutputStream mSegmentBytes;
+  private DataOutputStream mSegment;
+  private Map<String, Long> mStrings;
+  private long mNextId;
+  private int mNextClassSerial;
+
+  /**
+   * Writes a heap dump with the configured shape to the given file.
+   *
+   * @param file the file to write the heap dump to
+   * @throws IOException if the heap dump could not be written
+   */
+  public void write(File file) throws IOException {
+    Random random = new Random(seed);
+    mSegmentBytes = new ByteArrayOutputStream();
+    mSegment = new DataOutputStream(mSegmentBytes);
+    mStrings = new HashMap<String, Long>();
+    mNextId = 1;
+    mNextClassSerial = 1;
+    mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    try {
+      mOut.write("JAVA PROFILE 1.0.3".getBytes(StandardCharsets.US_ASCII));
+      mOut.writeByte(0);
+      mOut.writeInt(4);       // Identifier size.
+      mOut.writeLong(0);      // Timestamp.
+      writeHeap(random);
+    } finally {
+      mOut.close();
+    }
+  }
+
+  // The ids of the instances, arrays and native allocation objects are
+  // computed from their index, so they can be referred to before they are
+  // written.
+  private static long objectId(int index) {
+    return FIRST_ID + 8L * index;
+  }
+
+  private long arrayId(int index) {
+    return objectId(objects + index);
+  }
+
+  private long cleanerId(int index) {
+    return objectId(objects + bigArrays + 3 * index);
+  }
+
+  private long thunkId(int index) {
+    return cleanerId(index) + 8;
+  }
+
+  private long registryId(int index) {
+    return cleanerId(index) + 16;
+  }
+
+  private void writeHeap(Random random) throws IOException {
+    // Classes. Class 0 declares the fields of all the generated classes,
+    // and each other generated class k extends class (k - 1) / 2.
+    long cObject = loadClass("java.lang.Object");
+    long cClass = loadClass("java.lang.Class");
+    long cObjectArray = loadClass("java.lang.Object[]");
+    long cByteArray = loadClass("byte[]");
+    long cReference = loadClass("java.lang.ref.Reference");
+    long cPhantom = loadClass("java.lang.ref.PhantomReference");
+    long cCleaner = loadClass("sun.misc.Cleaner");
+    long cThunk = loadClass("libcore.util.NativeAllocationRegistry$CleanerThunk");
+    long cRegistry = loadClass("libcore.util.NativeAllocationRegistry");
+    long[] generated = new long[classes];
+    for (int k = 0; k < classes; ++k) {
+      generated[k] = loadClass("com.example.synthetic.Class" + k);
+    }
+
+    // Allocation sites. Stack trace t has frames for t, t / 4, t / 16, ...,
+    // which forms a tree of sites. Stack trace 0 has no frames.
+    long method = string("allocate");
+    long signature = string("()V");
+    long file = string("Synthetic.java");
+    long[] frames = new long[sites + 1];
+    for (int t = 1; t <= sites; ++t) {
+      frames[t] = mNextId++;
+      record(STACK_FRAME, 24);
+      mOut.writeInt((int)frames[t]);
+      mOut.writeInt((int)method);
+      mOut.writeInt((int)signature);
+      mOut.writeInt((int)file);
+      mOut.writeInt(1);
+      mOut.writeInt(t);
+    }
+    record(STACK_TRACE, 12);
+    mOut.writeInt(0);
+    mOut.writeInt(0);
+    mOut.writeInt(0);
+    for (int t = 1; t <= sites; ++t) {
+      int depth = 0;
+      for (int f = t; f > 0; f /= 4) {
+        depth++;
+      }
+      record(STACK_TRACE, 12 + 4 * depth);
+      mOut.writeInt(t);
+      mOut.writeInt(0);
+      mOut.writeInt(depth);
+      for (int f = t; f > 0; f /= 4) {
+        mOut.writeInt((int)frames[f]);
+      }
+    }
+
+    byte[] nodeTypes = new byte[fanout + 1];
+    long[] nodeFields = new long[fanout + 1];
+    for (int i = 0; i < fanout; ++i) {
+      nodeFields[i] = string("ref" + i);
+      nodeTypes[i] = OBJECT;
+    }
+    nodeFields[fanout] = string("value");
+    nodeTypes[fanout] = INT;
+
+    heap(3, "zygote");
+    classDump(cObject, 0, 0, new long[0], new byte[0]);
+    classDump(cClass, cObject, 0, new long[0], new byte[0]);
+    classDump(cObjectArray, cObject, 0, new long[0], new byte[0]);
+    classDump(cByteArray, cObject, 0, new long[0], new byte[0]);
+    classDump(cReference, cObject, 4, new long[] { string("referent") }, new byte[] { OBJECT });
+    classDump(cPhantom, cReference, 4, new long[0], new byte[0]);
+    classDump(cCleaner, cPhantom, 12, new long[] { string("next"), string("thunk") },
+        new byte[] { OBJECT, OBJECT });
+    classDump(cThunk, cObject, 4, new long[] { string("this$0") }, new byte[] { OBJECT });
+    classDump(cRegistry, cObject, 8, new long[] { string("size") }, new byte[] { LONG });
+    int instanceSize = 4 * fanout + 4;
+    for (int k = 0; k < classes; ++k) {
+      if (k == 0) {
+        classDump(generated[k], cObject, instanceSize, nodeFields, nodeTypes);
+      } else {
+        classDump(generated[k], generated[(k - 1) / 2], instanceSize, new long[0], new byte[0]);
+      }
+    }
+
+    // Instances of the generated classes. The first third are in the
+    // zygote heap and the rest are in the app heap.
+    for (int i = 0; i < objects; ++i) {
+      if (i == objects / 3) {
+        heap(1, "app");
+      }
+      segment(INSTANCE_DUMP);
+      mSegment.writeInt((int)objectId(i));
+      mSegment.writeInt(sites == 0 ? 0 : 1 + random.nextInt(sites));
+      mSegment.writeInt((int)generated[random.nextInt(classes)]);
+      mSegment.writeInt(instanceSize);
+      for (int f = 0; f < fanout; ++f) {
+        long ref = 0;
+        if (f == 0) {
+          if ((i + 1) % chainDepth != 0 && i + 1 < objects) {
+            ref = objectId(i + 1);
+          }
+        } else if (random.nextInt(4) != 0) {
+          ref = objectId(random.nextInt(objects));
+        }
+        mSegment.writeInt((int)ref);
+      }
+      mSegment.writeInt(i);
+    }
+
+    // Big arrays. These may make a heap dump segment larger than
+    // SEGMENT_SIZE, which is fine.
+    for (int a = 0; a < bigArrays; ++a) {
+      if (a % 2 == 0) {
+        segment(OBJECT_ARRAY_DUMP);
+        mSegment.writeInt((int)arrayId(a));
+        mSegment.writeInt(0);
+        mSegment.writeInt(bigArrayLength);
+        mSegment.writeInt((int)cObjectArray);
+        for (int e = 0; e < bigArrayLength; ++e) {
+          mSegment.writeInt((int)objectId(random.nextInt(objects)));
+        }
+      } else {
+        segment(PRIMITIVE_ARRAY_DUMP);
+        mSegment.writeInt((int)arrayId(a));
+        mSegment.writeInt(0);
+        mSegment.writeInt(bigArrayLength);
+        mSegment.writeByte(BYTE);
+        for (int e = 0; e < bigArrayLength; ++e) {
+          mSegment.writeByte(e);
+        }
+      }
+    }
+
+    // Registered native allocations, each with its own cleaner, thunk and
+    // registry.
+    for (int n = 0; n < nativeAllocations; ++n) {
+      segment(INSTANCE_DUMP);
+      mSegment.writeInt((int)cleanerId(n));
+      mSegment.writeInt(0);
+      mSegment.writeInt((int)cCleaner);
+      mSegment.writeInt(12);
+      mSegment.writeInt(0);
+      mSegment.writeInt((int)thunkId(n));
+      mSegment.writeInt((int)objectId(random.nextInt(objects)));
+
+      segment(INSTANCE_DUMP);
+      mSegment.writeInt((int)thunkId(n));
+      mSegment.writeInt(0);
+      mSegment.writeInt((int)cThunk);
+      mSegment.writeInt(4);
+      mSegment.writeInt((int)registryId(n));
+
+      segment(INSTANCE_DUMP);
+      mSegment.writeInt((int)registryId(n));
+      mSegment.writeInt(0);
+      mSegment.writeInt((int)cRegistry);
+      mSegment.writeInt(8);
+      mSegment.writeLong(1 + random.nextInt(1 << 16));
+    }
+
+    // Roots. The cleaners are kept reachable from a root, as they would be
+    // by the cleaner queue in a real heap.
+    for (int r = 0; r < roots && objects > 0; ++r) {
+      segment(ROOT_JNI_GLOBAL);
+      mSegment.writeInt((int)objectId(random.nextInt(objects)));
+      mSegment.writeInt(0);
+    }
+    for (int a = 0; a < bigArrays; ++a) {
+      segment(ROOT_JNI_GLOBAL);
+      mSegment.writeInt((int)arrayId(a));
+      mSegment.writeInt(0);
+    }
+    for (int n = 0; n < nativeAllocations; ++n) {
+      segment(ROOT_JNI_GLOBAL);
+      mSegment.writeInt((int)cleanerId(n));
+      mSegment.writeInt(0);
+    }
+    long[] core = new long[] {
+      cObject, cClass, cObjectArray, cByteArray, cReference, cPhantom, cCleaner, cThunk, cRegistry
+    };
+    for (long c : core) {
+      segment(ROOT_STICKY_CLASS);
+      mSegment.writeInt((int)c);
+    }
+    for (long c : generated) {
+      segment(ROOT_STICKY_CLASS);
+      mSegment.writeInt((int)c);
+    }
+
+    flushSegment();
+    record(HEAP_DUMP_END, 0);
+  }
+
+  /**
+   * Writes the header of a top level record with the given tag and length.
+   */
+  private void record(int tag, int length) throws IOException {
+    mOut.writeByte(tag);
+    mOut.writeInt(0);
+    mOut.writeInt(length);
+  }
+
+  /**
+   * Returns the id of the given string, writing a string record for it if
+   * it hasn't been written already.
+   */
+  private long string(String value) throws IOException {
+    Long id = mStrings.get(value);
+    if (id == null) {
+      id = mNextId++;
+      mStrings.put(value, id);
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      record(STRING, 4 + bytes.length);
+      mOut.writeInt((int)(long)id);
+      mOut.write(bytes);
+    }
+    return id;
+  }
+
+  /**
+   * Writes a load class record for a class with the given name and returns
+   * the id of the class object.
+   */
+  private long loadClass(String name) throws IOException {
+    long nameId = string(name);
+    long id = mNextId++;
+    record(LOAD_CLASS, 16);
+    mOut.writeInt(mNextClassSerial++);
+    mOut.writeInt((int)id);
+    mOut.writeInt(0);
+    mOut.writeInt((int)nameId);
+    return id;
+  }
+
+  /**
+   * Starts a heap dump sub-record with the given tag, first writing out the
+   * current heap dump segment if it is full.
+   */
+  private void segment(int tag) throws IOException {
+    if (mSegmentBytes.size() >= SEGMENT_SIZE) {
+      flushSegment();
+    }
+    mSegment.writeByte(tag);
+  }
+
+  private void flushSegment() throws IOException {
+    if (mSegmentBytes.size() > 0) {
+      record(HEAP_DUMP_SEGMENT, mSegmentBytes.size());
+      mSegmentBytes.writeTo(mOut);
+      mSegmentBytes.reset();
+    }
+  }
+
+  /**
+   * Starts dumping the instances of the heap with the given type and name.
+   */
+  private void heap(int type, String name) throws IOException {
+    long nameId = string(name);
+    segment(HEAP_DUMP_INFO);
+    mSegment.writeInt(type);
+    mSegment.writeInt((int)nameId);
+  }
+
+  private void classDump(long id, long superClass, int instanceSize, long[] fieldNames,
+      byte[] fieldTypes) throws IOException {
+    segment(CLASS_DUMP);
+    mSegment.writeInt((int)id);
+    mSegment.writeInt(0);                 // Stack trace serial number.
+    mSegment.writeInt((int)superClass);
+    mSegment.writeInt(0);                 // Class loader.
+    mSegment.writeInt(0);                 // Signers.
+    mSegment.writeInt(0);                 // Protection domain.
+    mSegment.writeInt(0);                 // Reserved.
+    mSegment.writeInt(0);                 // Reserved.
+    mSegment.writeInt(instanceSize);
+    mSegment.writeShort(0);               // Constant pool size.
+    mSegment.writeShort(0);               // Number of static fields.
+    mSegment.writeShort(fieldNames.length);
+    for (int i = 0; i < fieldNames.length; ++i) {
+      mSegment.writeInt((int)fieldNames[i]);
+      mSegment.writeByte(fieldTypes[i]);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.progress.Progress;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the time taken and memory allocated by named phases of work.
+ * <p>
+ * Phases of loading a heap dump are measured by using the PhaseTimer as the
+ * parser's {@link Progress}, which is told when each phase starts and ends.
+ * Other phases are measured with {@link #time}.
+ * <p>
+ * Allocation is measured for the calling thread only, so it doesn't include
+ * memory allocated by worker threads of phases that use more than one
+ * thread.
+ */
+class PhaseTimer implements Progress {
+  private static final com.sun.management.ThreadMXBean THREADS
+    = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+  /**
+   * The measurements of a phase across all the times it was run.
+   */
+  private static class Phase {
+    public final String unit;
+    public long items;
+    public List<Long> nanos = new ArrayList<Long>();
+    public List<Long> bytes = new ArrayList<Long>();
+
+    public Phase(String unit) {
+      this.unit = unit;
+    }
+  }
+
+  private final Map<String, Phase> mPhases = new LinkedHashMap<String, Phase>();
+  private boolean mRecording = true;
+  private long mItems;
+  private String mCurrent;
+  private long mStartNanos;
+  private long mStartBytes;
+
+  /**
+   * Sets whether measurements are recorded. Measurements are not recorded
+   * while warming up.
+   */
+  public void setRecording(boolean recording) {
+    mRecording = recording;
+  }
+
+  /**
+   * Sets the number of instances processed by the phases of loading a heap
+   * dump, for reporting their throughput.
+   */
+  public void setInstances(long instances) {
+    mItems = instances;
+    for (Phase phase : mPhases.values()) {
+      if (phase.unit.equals("inst")) {
+        phase.items = instances;
+      }
+    }
+  }
+
+  @Override
+  public void start(String description, long duration) {
+    mCurrent = description;
+    mStartBytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    mStartNanos = System.nanoTime();
+  }
+
+  @Override
+  public void advance(long n) {
+  }
+
+  @Override
+  public void update(long current) {
+  }
+
+  @Override
+  public void done() {
+    record(mCurrent, "inst", mItems);
+    mCurrent = null;
+  }
+
+  /**
+   * Measures a phase of work that processes the given number of items.
+   *
+   * @param name the name of the phase
+   * @param unit the name of the items processed by the phase
+   * @param items the number of items processed by the phase
+   * @param work the work to measure
+   */
+  public void time(String name, String unit, long items, Runnable work) {
+    start(name, items);
+    work.run();
+    record(name, unit, items);
+    mCurrent = null;
+  }
+
+  private void record(String name, String unit, long items) {
+    long nanos = System.nanoTime() - mStartNanos;
+    long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - mStartBytes;
+    if (!mRecording) {
+      return;
+    }
+
+    Phase phase = mPhases.get(name);
+    if (phase == null) {
+      phase = new Phase(unit);
+      mPhases.put(name, phase);
+    }
+    phase.items = items;
+    phase.nanos.add(nanos);
+    phase.bytes.add(bytes);
+  }
+
+  private static long median(List<Long> values) {
+    long[] sorted = new long[values.size()];
+    for (int i = 0; i < sorted.length; ++i) {
+      sorted[i] = values.get(i);
+    }
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  /**
+   * Prints the median time, throughput, allocation and allocation rate of
+   * each phase, in the order the phases were first run.
+   */
+  public void report(PrintStream out) {
+    out.println(String.format("%-34s %10s %10s %16s %12s %12s",
+          "PHASE", "MEDIAN ms", "MIN ms", "THROUGHPUT", "ALLOC MB", "ALLOC MB/s"));
+    for (Map.Entry<String, Phase> entry : mPhases.entrySet()) {
+      Phase phase = entry.getValue();
+      long nanos = median(phase.nanos);
+      long min = Long.MAX_VALUE;
+      for (long n : phase.nanos) {
+        min = Math.min(min, n);
+      }
+      double seconds = Math.max(nanos, 1) / 1e9;
+      double megabytes = median(phase.bytes) / (1024.0 * 1024.0);
+      out.println(String.format("%-34s %10.1f %10.1f %16s %12.1f %12.1f",
+            entry.getKey(),
+            nanos / 1e6,
+            min / 1e6,
+            throughput(phase.items / seconds, phase.unit),
+            megabytes,
+            megabytes / seconds));
+    }
+  }
+
+  private static String throughput(double perSecond, String unit) {
+    if (perSecond >= 1e6) {
+      return String.format("%.1fM %s/s", perSecond / 1e6, unit);
+    } else if (perSecond >= 1e3) {
+      return String.format("%.1fK %s/s", perSecond / 1e3, unit);
+    }
+    return String.format("%.1f %s/s", perSecond, unit);
+  }
+}
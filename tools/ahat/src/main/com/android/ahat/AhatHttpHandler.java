@@ -18,31 +18,55 @@ package com.android.ahat;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
 /**
  * AhatHttpHandler.
  *
  * HttpHandler for AhatHandlers.
+ *
+ * Pages are rendered once and then served from the given cache, keyed by the
+ * normalized query for the page, for as long as they remain in the cache.
+ * Pages too large to fit in the cache are rendered each time they are
+ * requested.
  */
 class AhatHttpHandler implements HttpHandler {
 
   private AhatHandler mAhatHandler;
+  private ResponseCache mCache;
 
-  public AhatHttpHandler(AhatHandler handler) {
+  public AhatHttpHandler(AhatHandler handler, ResponseCache cache) {
     mAhatHandler = handler;
+    mCache = cache;
   }
 
   @Override
   public void handle(HttpExchange exchange) throws IOException {
+    Query query = new Query(exchange.getRequestURI());
+    String key = query.normalized();
     exchange.getResponseHeaders().add("Content-Type", "text/html;charset=utf-8");
+
+    byte[] page = mCache.getPage(key);
+    if (page != null) {
+      exchange.sendResponseHeaders(200, page.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(page);
+      }
+      return;
+    }
+
     exchange.sendResponseHeaders(200, 0);
-    PrintStream ps = new PrintStream(exchange.getResponseBody());
+    CopyingOutputStream copy = new CopyingOutputStream(exchange.getResponseBody(),
+        mCache.getCapacity());
+    PrintStream ps = new PrintStream(copy);
     try {
       HtmlDoc doc = new HtmlDoc(ps, DocString.text("ahat"), DocString.uri("style.css"));
       doc.menu(Menu.getMenu());
-      mAhatHandler.handle(doc, new Query(exchange.getRequestURI()));
+      mAhatHandler.handle(doc, query);
       doc.close();
     } catch (RuntimeException e) {
       // Print runtime exceptions to standard error for debugging purposes,
@@ -52,5 +76,59 @@ class AhatHttpHandler implements HttpHandler {
       throw e;
     }
     ps.close();
+
+    page = copy.getCopy();
+    if (page != null && !ps.checkError()) {
+      mCache.putPage(key, page);
+    }
+  }
+
+  /**
+   * An output stream that keeps a copy of everything written to it, up to a
+   * limit, so the page can be cached after it has been sent.
+   */
+  private static class CopyingOutputStream extends FilterOutputStream {
+    private final long mLimit;
+    private ByteArrayOutputStream mCopy = new ByteArrayOutputStream();
+
+    public CopyingOutputStream(OutputStream out, long limit) {
+      super(out);
+      mLimit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      if (reserve(1)) {
+        mCopy.write(b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      if (reserve(len)) {
+        mCopy.write(b, off, len);
+      }
+    }
+
+    /**
+     * Returns true if the given number of bytes can be added to the copy
+     * without exceeding the limit. Otherwise discards the copy.
+     */
+    private boolean reserve(int len) {
+      if (mCopy != null && mCopy.size() + (long)len > mLimit) {
+        mCopy = null;
+      }
+      return mCopy != null;
+    }
+
+    /**
+     * Returns a copy of everything written to the stream, or null if more
+     * than the limit was written.
+     */
+    public byte[] getCopy() {
+      return mCopy == null ? null : mCopy.toByteArray();
+    }
   }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Duplicates;
+import com.android.ahat.heapdump.Size;
+import java.io.IOException;
+import java.util.List;
+
+class DuplicatesHandler implements AhatHandler {
+  private static final String STRINGS_ID = "strings";
+  private static final String ARRAYS_ID = "arrays";
+  private static final String SITES_ID = "sites";
+
+  private AhatSnapshot mSnapshot;
+  private int mThreads;
+
+  // The duplicates of the snapshot, found the first time the page is
+  // rendered.
+  private Duplicates mDuplicates;
+
+  public DuplicatesHandler(AhatSnapshot snapshot, int threads) {
+    mSnapshot = snapshot;
+    mThreads = threads;
+  }
+
+  private synchronized Duplicates getDuplicates() {
+    if (mDuplicates == null) {
+      mDuplicates = Duplicates.find(mSnapshot, mThreads);
+    }
+    return mDuplicates;
+  }
+
+  @Override
+  public void handle(Doc doc, Query query) throws IOException {
+    Duplicates duplicates = getDuplicates();
+    doc.title("Duplicates");
+    doc.println(DocString.text(
+          "Sizes are the retained sizes of all but the largest instance with the same contents."));
+
+    doc.section("Summary");
+    doc.descriptions();
+    doc.description(DocString.text("Wasted"),
+        DocString.size(duplicates.getWastedSize().getSize(), false));
+    doc.description(DocString.text("Duplicated strings"),
+        DocString.format("%,d", duplicates.getStrings().size()));
+    doc.description(DocString.text("Duplicated arrays"),
+        DocString.format("%,d", duplicates.getArrays().size()));
+    doc.end();
+
+    doc.section("Strings");
+    printGroups(doc, query, STRINGS_ID, duplicates.getStrings(), "String");
+
+    doc.section("Primitive Arrays");
+    printGroups(doc, query, ARRAYS_ID, duplicates.getArrays(), "Array");
+
+    doc.section("Allocation Sites");
+    if (duplicates.getSites().isEmpty()) {
+      doc.println(DocString.text("(none)"));
+    } else {
+      SizeTable.table(doc, new Column("Duplicates", Column.Align.RIGHT), false,
+          new Column("Site"));
+      SubsetSelector<Duplicates.SiteWaste> selector
+        = new SubsetSelector<Duplicates.SiteWaste>(query, SITES_ID, duplicates.getSites());
+      for (Duplicates.SiteWaste site : selector.selected()) {
+        SizeTable.row(doc, DocString.format("%,d", site.getNumDuplicates()),
+            site.getWastedSize(), Size.ZERO,
+            Summarizer.summarize(site.getSite()));
+      }
+      SizeTable.end(doc);
+      selector.render(doc);
+    }
+  }
+
+  /**
+   * Prints the given groups of duplicates with the size wasted by each
+   * group, the number of instances in the group and the instance kept.
+   */
+  private static void printGroups(Doc doc, Query query, String id,
+      List<Duplicates.Group> groups, String description) {
+    if (groups.isEmpty()) {
+      doc.println(DocString.text("(none)"));
+      return;
+    }
+
+    SizeTable.table(doc, new Column("Count", Column.Align.RIGHT), false,
+        new Column(description));
+    SubsetSelector<Duplicates.Group> selector
+      = new SubsetSelector<Duplicates.Group>(query, id, groups);
+    for (Duplicates.Group group : selector.selected()) {
+      SizeTable.row(doc, DocString.format("%,d", group.getInstances().size()),
+          group.getWastedSize(), Size.ZERO,
+          Summarizer.summarize(group.getKept()));
+    }
+    SizeTable.end(doc);
+    selector.render(doc);
+  }
+}
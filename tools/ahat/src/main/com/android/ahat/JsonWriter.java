@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes JSON to a stream, one value at a time.
+ * <p>
+ * Objects and arrays are started and ended explicitly, and object members
+ * are written as a name followed by a value. Commas and indentation are
+ * inserted automatically.
+ */
+class JsonWriter {
+  private final PrintStream mOut;
+
+  // For each object or array being written, whether it has no members yet.
+  private final Deque<Boolean> mEmpty = new ArrayDeque<Boolean>();
+
+  // Whether the next value is the value of an object member, following its
+  // name.
+  private boolean mAfterName = false;
+
+  public JsonWriter(PrintStream out) {
+    mOut = out;
+  }
+
+  /**
+   * Writes the separator and indentation needed before the next value.
+   */
+  private void beforeValue() {
+    if (mAfterName) {
+      mAfterName = false;
+      return;
+    }
+    if (!mEmpty.isEmpty()) {
+      if (!mEmpty.pop()) {
+        mOut.print(',');
+      }
+      mEmpty.push(false);
+      newline();
+    }
+  }
+
+  private void newline() {
+    mOut.print('\n');
+    for (int i = 0; i < mEmpty.size(); ++i) {
+      mOut.print("  ");
+    }
+  }
+
+  private JsonWriter begin(char c) {
+    beforeValue();
+    mOut.print(c);
+    mEmpty.push(true);
+    return this;
+  }
+
+  private JsonWriter end(char c) {
+    boolean empty = mEmpty.pop();
+    if (!empty) {
+      newline();
+    }
+    mOut.print(c);
+    return this;
+  }
+
+  public JsonWriter beginObject() {
+    return begin('{');
+  }
+
+  public JsonWriter endObject() {
+    return end('}');
+  }
+
+  public JsonWriter beginArray() {
+    return begin('[');
+  }
+
+  public JsonWriter endArray() {
+    return end(']');
+  }
+
+  /**
+   * Writes the name of the next member of the current object.
+   */
+  public JsonWriter name(String name) {
+    beforeValue();
+    string(name);
+    mOut.print(": ");
+    mAfterName = true;
+    return this;
+  }
+
+  /**
+   * Writes a string value, or null if the string is null.
+   */
+  public JsonWriter value(String value) {
+    beforeValue();
+    if (value == null) {
+      mOut.print("null");
+    } else {
+      string(value);
+    }
+    return this;
+  }
+
+  public JsonWriter value(long value) {
+    beforeValue();
+    mOut.print(value);
+    return this;
+  }
+
+  public JsonWriter value(boolean value) {
+    beforeValue();
+    mOut.print(value);
+    return this;
+  }
+
+  private void string(String str) {
+    mOut.print('"');
+    for (int i = 0; i < str.length(); ++i) {
+      char c = str.charAt(i);
+      switch (c) {
+        case '"': mOut.print("\\\""); break;
+        case '\\': mOut.print("\\\\"); break;
+        case '\n': mOut.print("\\n"); break;
+        case '\r': mOut.print("\\r"); break;
+        case '\t': mOut.print("\\t"); break;
+        default:
+          if (c < 0x20 || Character.isSurrogate(c)) {
+            // Surrogates are escaped so that unpaired surrogates, which
+            // can't be encoded, don't make the output invalid.
+            mOut.printf("\\u%04x", (int)c);
+          } else {
+            mOut.print(c);
+          }
+          break;
+      }
+    }
+    mOut.print('"');
+  }
+
+  /**
+   * Ends the output with a newline and flushes it. The stream written to
+   * is left open.
+   */
+  public void finish() {
+    mOut.print('\n');
+    mOut.flush();
+  }
+}
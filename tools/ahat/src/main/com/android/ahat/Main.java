@@ -30,6 +30,9 @@ import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executors;
 
 /**
@@ -43,18 +46,58 @@ public class Main {
     out.println("java -jar ahat.jar [OPTIONS] FILE");
     out.println("  Launch an http server for viewing the given Android heap dump FILE.");
     out.println("");
+    out.println("java -jar ahat.jar --report OUT [OPTIONS] FILE");
+    out.println("  Write a JSON report of the given Android heap dump FILE to OUT instead");
+    out.println("  of launching an http server. Use - for OUT to write the report to");
+    out.println("  standard output. If FILE is a directory, write a report for each .hprof,");
+    out.println("  .hprof.gz and .hprof.zst file in the directory to the directory OUT.");
+    out.println("");
+    out.println("Heap dump files may be gzip or zstd compressed. They are decompressed to a");
+    out.println("temporary file next to the heap dump while they are parsed. Zstd compressed");
+    out.println("heap dumps are decompressed using the zstd command.");
+    out.println("");
     out.println("OPTIONS:");
     out.println("  -p <port>");
     out.println("     Serve pages on the given port. Defaults to 7100.");
     out.println("  --proguard-map FILE");
-    out.println("     Use the proguard map FILE to deobfuscate the heap dump.");
+    out.println("     Use the proguard map FILE to deobfuscate the heap dump. Only the");
+    out.println("     classes in FILE are read up front. The fields and methods of a class");
+    out.println("     are read when they are first needed.");
     out.println("  --baseline FILE");
     out.println("     Diff the heap dump against the given baseline heap dump FILE.");
     out.println("  --baseline-proguard-map FILE");
     out.println("     Use the proguard map FILE to deobfuscate the baseline heap dump.");
+    out.println("  --trend FILE");
+    out.println("     Include the heap dump FILE in a trend of heap dumps of the same");
+    out.println("     process taken over time, showing which classes, allocation sites");
+    out.println("     and rooted instances keep growing. Give --trend once for each earlier");
+    out.println("     heap dump, in the order they were taken. The heap dump being viewed");
+    out.println("     is the last heap dump of the trend.");
     out.println("  --retained [strong | soft | finalizer | weak | phantom | unreachable]");
     out.println("     The weakest reachability of instances to treat as retained.");
     out.println("     Defaults to soft");
+    out.println("  --threads N");
+    out.println("     Use N threads to parse and diff heap dumps and to find duplicates.");
+    out.println("     Defaults to the number of available processors.");
+    out.println("  --no-index-cache");
+    out.println("     Don't read or write an index cache next to each heap dump and proguard");
+    out.println("     map FILE. By default the results of analyzing a heap dump and the");
+    out.println("     index of the classes in a proguard map are saved to FILE.ahat-index");
+    out.println("     and reused when the same file is opened again.");
+    out.println("  --server-threads N");
+    out.println("     Use N threads to serve pages.");
+    out.println("     Defaults to the number of available processors.");
+    out.println("  --cache-size MB");
+    out.println("     Use up to MB megabytes of memory to cache rendered pages and");
+    out.println("     sorted lists of instances. Defaults to 64. Use 0 to disable caching.");
+    out.println("  --report-jobs N");
+    out.println("     Analyze up to N heap dumps at a time when writing reports for a");
+    out.println("     directory of heap dumps. Defaults to 1. The --baseline heap dump is");
+    out.println("     parsed again for each heap dump, so up to N copies of it are held in");
+    out.println("     memory at a time.");
+    out.println("  --report-top N");
+    out.println("     Include the N largest instances, classes and child sites in reports.");
+    out.println("     Defaults to 20.");
     out.println("");
   }
 
@@ -64,10 +107,17 @@ public class Main {
    * heap dump.
    */
   private static AhatSnapshot loadHeapDump(File hprof,
-      ProguardMap map, Progress progress, Reachability retained) {
+      ProguardMap map, Progress progress, Reachability retained, int threads,
+      boolean indexCache) {
     System.out.println("Processing '" + hprof + "' ...");
     try {
-      return new Parser(hprof).map(map).progress(progress).retained(retained).parse();
+      return new Parser(hprof)
+        .map(map)
+        .progress(progress)
+        .retained(retained)
+        .threads(threads)
+        .indexCache(indexCache)
+        .parse();
     } catch (IOException e) {
       System.err.println("Unable to load '" + hprof + "':");
       e.printStackTrace();
@@ -79,6 +129,38 @@ public class Main {
     throw new AssertionError("Unreachable");
   }
 
+  /**
+   * Writes reports for the given heap dump, or for each heap dump in the
+   * given directory, without launching a server.
+   * Returns the exit status of the application.
+   */
+  private static int writeReports(File hprof, File out, int jobs, Report report) {
+    if (hprof.isDirectory()) {
+      List<File> hprofs = new ArrayList<File>();
+      for (File file : hprof.listFiles()) {
+        String name = file.getName();
+        if (file.isFile() && (name.endsWith(".hprof") || name.endsWith(".hprof.gz")
+              || name.endsWith(".hprof.zst"))) {
+          hprofs.add(file);
+        }
+      }
+      Collections.sort(hprofs);
+      return report.writeAll(hprofs, out, jobs) ? 0 : 1;
+    }
+
+    try {
+      report.write(hprof, out);
+      return 0;
+    } catch (IOException e) {
+      System.err.println("Unable to write report for '" + hprof + "':");
+      e.printStackTrace();
+    } catch (HprofFormatException e) {
+      System.err.println("'" + hprof + "' does not appear to be a valid Java heap dump:");
+      e.printStackTrace();
+    }
+    return 1;
+  }
+
   /**
    * Main entry for ahat heap dump viewer.
    * Launches an http server on localhost for viewing a given heap dump.
@@ -98,29 +180,27 @@ public class Main {
 
     File hprof = null;
     File hprofbase = null;
-    ProguardMap map = new ProguardMap();
-    ProguardMap mapbase = new ProguardMap();
+    List<File> trendFiles = new ArrayList<File>();
+    File mapFile = null;
+    File mapbaseFile = null;
     Reachability retained = Reachability.SOFT;
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean indexCache = true;
+    int serverThreads = Runtime.getRuntime().availableProcessors();
+    long cacheSize = 64;
+    File report = null;
+    int reportJobs = 1;
+    int reportTop = 20;
     for (int i = 0; i < args.length; i++) {
       if ("-p".equals(args[i]) && i + 1 < args.length) {
         i++;
         port = Integer.parseInt(args[i]);
       } else if ("--proguard-map".equals(args[i]) && i + 1 < args.length) {
         i++;
-        try {
-          map.readFromFile(new File(args[i]));
-        } catch (IOException | ParseException ex) {
-          System.out.println("Unable to read proguard map: " + ex);
-          System.out.println("The proguard map will not be used.");
-        }
+        mapFile = new File(args[i]);
       } else if ("--baseline-proguard-map".equals(args[i]) && i + 1 < args.length) {
         i++;
-        try {
-          mapbase.readFromFile(new File(args[i]));
-        } catch (IOException | ParseException ex) {
-          System.out.println("Unable to read baseline proguard map: " + ex);
-          System.out.println("The proguard map will not be used.");
-        }
+        mapbaseFile = new File(args[i]);
       } else if ("--baseline".equals(args[i]) && i + 1 < args.length) {
         i++;
         if (hprofbase != null) {
@@ -129,6 +209,9 @@ public class Main {
           return;
         }
         hprofbase = new File(args[i]);
+      } else if ("--trend".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        trendFiles.add(new File(args[i]));
       } else if ("--retained".equals(args[i]) && i + 1 < args.length) {
         i++;
         switch (args[i]) {
@@ -143,6 +226,51 @@ public class Main {
             help(System.err);
             return;
         }
+      } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        threads = Integer.parseInt(args[i]);
+        if (threads < 1) {
+          System.err.println("Invalid number of threads: " + args[i]);
+          help(System.err);
+          return;
+        }
+      } else if ("--no-index-cache".equals(args[i])) {
+        indexCache = false;
+      } else if ("--server-threads".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        serverThreads = Integer.parseInt(args[i]);
+        if (serverThreads < 1) {
+          System.err.println("Invalid number of server threads: " + args[i]);
+          help(System.err);
+          return;
+        }
+      } else if ("--cache-size".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        cacheSize = Long.parseLong(args[i]);
+        if (cacheSize < 0) {
+          System.err.println("Invalid cache size: " + args[i]);
+          help(System.err);
+          return;
+        }
+      } else if ("--report".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        report = new File(args[i]);
+      } else if ("--report-jobs".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        reportJobs = Integer.parseInt(args[i]);
+        if (reportJobs < 1) {
+          System.err.println("Invalid number of report jobs: " + args[i]);
+          help(System.err);
+          return;
+        }
+      } else if ("--report-top".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        reportTop = Integer.parseInt(args[i]);
+        if (reportTop < 0) {
+          System.err.println("Invalid number of report elements: " + args[i]);
+          help(System.err);
+          return;
+        }
       } else {
         if (hprof != null) {
           System.err.println("multiple input files.");
@@ -159,6 +287,48 @@ public class Main {
       return;
     }
 
+    if (report != null && !trendFiles.isEmpty()) {
+      System.err.println("--trend is not supported with --report.");
+      help(System.err);
+      return;
+    }
+
+    if (report != null && report.getPath().equals("-") && hprof.isDirectory()) {
+      System.err.println("reports for a directory of heap dumps can't be written to"
+          + " standard output.");
+      help(System.err);
+      return;
+    }
+
+    // The proguard maps are read once all the options are known, so that
+    // --no-index-cache applies to them wherever it is given.
+    ProguardMap map = new ProguardMap();
+    if (mapFile != null) {
+      try {
+        map.readIndexFromFile(mapFile, indexCache);
+      } catch (IOException | ParseException ex) {
+        System.err.println("Unable to read proguard map: " + ex);
+        System.err.println("The proguard map will not be used.");
+      }
+    }
+    ProguardMap mapbase = new ProguardMap();
+    if (mapbaseFile != null && mapbaseFile.equals(mapFile)) {
+      // Share the classes read from the map between both heap dumps.
+      mapbase = map;
+    } else if (mapbaseFile != null) {
+      try {
+        mapbase.readIndexFromFile(mapbaseFile, indexCache);
+      } catch (IOException | ParseException ex) {
+        System.err.println("Unable to read baseline proguard map: " + ex);
+        System.err.println("The proguard map will not be used.");
+      }
+    }
+
+    if (report != null) {
+      System.exit(writeReports(hprof, report, reportJobs,
+            new Report(map, hprofbase, mapbase, retained, threads, indexCache, reportTop)));
+    }
+
     // Launch the server before parsing the hprof file so we get
     // BindExceptions quickly.
     InetAddress loopback = InetAddress.getLoopbackAddress();
@@ -173,23 +343,49 @@ public class Main {
       System.exit(1);
     }
 
-    AhatSnapshot ahat = loadHeapDump(hprof, map, new AsciiProgress(), retained);
+    // Load the earlier heap dumps of the trend one at a time, keeping only
+    // their summaries.
+    Trend trend = null;
+    if (!trendFiles.isEmpty()) {
+      trend = new Trend();
+      for (File file : trendFiles) {
+        trend.add(file, loadHeapDump(file, map, new AsciiProgress(), retained, threads,
+              indexCache));
+      }
+    }
+
+    AhatSnapshot ahat = loadHeapDump(hprof, map, new AsciiProgress(), retained, threads,
+        indexCache);
+    if (trend != null) {
+      trend.add(hprof, ahat);
+    }
+
     if (hprofbase != null) {
-      AhatSnapshot base = loadHeapDump(hprofbase, mapbase, new AsciiProgress(), retained);
+      AhatSnapshot base = loadHeapDump(hprofbase, mapbase, new AsciiProgress(),
+          retained, threads, indexCache);
 
       System.out.println("Diffing heap dumps ...");
-      Diff.snapshots(ahat, base);
+      Diff.snapshots(ahat, base, threads);
     }
 
-    server.createContext("/",
-        new AhatHttpHandler(new OverviewHandler(ahat, hprof, hprofbase, retained)));
-    server.createContext("/rooted", new AhatHttpHandler(new RootedHandler(ahat)));
-    server.createContext("/object", new AhatHttpHandler(new ObjectHandler(ahat)));
-    server.createContext("/objects", new AhatHttpHandler(new ObjectsHandler(ahat)));
-    server.createContext("/site", new AhatHttpHandler(new SiteHandler(ahat)));
+    // Pages are rendered from the snapshots, which don't change once they
+    // have been loaded, so pages can be rendered concurrently and cached.
+    ResponseCache cache = new ResponseCache(cacheSize * 1024 * 1024);
+    server.createContext("/", new AhatHttpHandler(
+          new OverviewHandler(ahat, hprof, hprofbase, retained, trend), cache));
+    server.createContext("/rooted", new AhatHttpHandler(new RootedHandler(ahat), cache));
+    server.createContext("/object", new AhatHttpHandler(new ObjectHandler(ahat), cache));
+    server.createContext("/objects",
+        new AhatHttpHandler(new ObjectsHandler(ahat, cache), cache));
+    server.createContext("/site", new AhatHttpHandler(new SiteHandler(ahat), cache));
+    server.createContext("/duplicates",
+        new AhatHttpHandler(new DuplicatesHandler(ahat, threads), cache));
+    if (trend != null) {
+      server.createContext("/trend", new AhatHttpHandler(new TrendHandler(trend), cache));
+    }
     server.createContext("/bitmap", new BitmapHandler(ahat));
     server.createContext("/style.css", new StaticHandler("etc/style.css", "text/css"));
-    server.setExecutor(Executors.newFixedThreadPool(1));
+    server.setExecutor(Executors.newFixedThreadPool(serverThreads));
     System.out.println("Server started on http://localhost:" + port);
 
     server.start();
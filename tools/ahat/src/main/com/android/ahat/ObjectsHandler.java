@@ -23,17 +23,26 @@ import com.android.ahat.heapdump.Site;
 import com.android.ahat.heapdump.Sort;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.function.Predicate;
 
 class ObjectsHandler implements AhatHandler {
   private static final String OBJECTS_ID = "objects";
 
   private AhatSnapshot mSnapshot;
+  private ResponseCache mCache;
 
   public ObjectsHandler(AhatSnapshot snapshot) {
+    this(snapshot, new ResponseCache(0));
+  }
+
+  /**
+   * Constructs a handler that caches the sorted lists of instances shown
+   * on its pages in the given cache, so that showing all of the instances
+   * of a long list again doesn't require sorting them again.
+   */
+  public ObjectsHandler(AhatSnapshot snapshot, ResponseCache cache) {
     mSnapshot = snapshot;
+    mCache = cache;
   }
 
   /**
@@ -49,13 +58,8 @@ class ObjectsHandler implements AhatHandler {
    */
   public static List<AhatInstance> getObjects(
       Site site, String className, boolean subclass, String heapName) {
-    Predicate<AhatInstance> predicate = (x) -> {
-      return (heapName == null || x.getHeap().getName().equals(heapName))
-        && (subclass ? x.isInstanceOfClass(className) : className.equals(x.getClassName()));
-    };
-
     List<AhatInstance> insts = new ArrayList<AhatInstance>();
-    site.getObjects(predicate, x -> insts.add(x));
+    site.getObjects(heapName, className, subclass, insts);
     return insts;
   }
 
@@ -67,8 +71,12 @@ class ObjectsHandler implements AhatHandler {
     boolean subclass = (query.getInt("subclass", 0) != 0);
     Site site = mSnapshot.getSite(id);
 
-    List<AhatInstance> insts = getObjects(site, className, subclass, heapName);
-    Collections.sort(insts, Sort.defaultInstanceCompare(mSnapshot));
+    // Only the instances shown on the page need to be sorted. The list of
+    // instances doesn't depend on how many of them are shown.
+    String key = query.with(OBJECTS_ID, null).toString();
+    List<AhatInstance> insts = SubsetSelector.sortSelected(query, OBJECTS_ID,
+        getObjects(site, className, subclass, heapName),
+        Sort.defaultInstanceCompare(mSnapshot), mCache, key);
 
     doc.title("Instances");
 
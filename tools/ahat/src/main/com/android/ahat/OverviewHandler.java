@@ -32,12 +32,15 @@ class OverviewHandler implements AhatHandler {
   private File mHprof;
   private File mBaseHprof;
   private Reachability mRetained;
+  private Trend mTrend;
 
-  public OverviewHandler(AhatSnapshot snapshot, File hprof, File basehprof, Reachability retained) {
+  public OverviewHandler(AhatSnapshot snapshot, File hprof, File basehprof,
+      Reachability retained, Trend trend) {
     mSnapshot = snapshot;
     mHprof = hprof;
     mBaseHprof = basehprof;
     mRetained = retained;
+    mTrend = trend;
   }
 
   @Override
@@ -56,6 +59,11 @@ class OverviewHandler implements AhatHandler {
     if (mBaseHprof != null) {
       doc.description(DocString.text("baseline hprof file"), DocString.text(mBaseHprof.toString()));
     }
+    if (mTrend != null) {
+      doc.description(DocString.text("trend"),
+          DocString.link(DocString.uri("trend"),
+            DocString.format("%d heap dumps", mTrend.getFiles().size())));
+    }
     doc.end();
 
     doc.section("Bytes Retained by Heap");
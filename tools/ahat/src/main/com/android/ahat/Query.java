@@ -86,12 +86,30 @@ class Query {
    * test.
    */
   public URI with(String name, String value) {
+    Map<String, String> params = new TreeMap<String, String>(mParams);
+    params.put(name, value);
+    return DocString.uri(toString(params));
+  }
+
+  /**
+   * Return a string that identifies the current page, with the query
+   * parameters sorted alphabetically and only the last value of each
+   * parameter included. Queries for the same page have the same normalized
+   * string regardless of the order and repetition of their parameters.
+   */
+  public String normalized() {
+    return toString(new TreeMap<String, String>(mParams));
+  }
+
+  /**
+   * Return the path of the current page with the given query parameters,
+   * omitting parameters with null values.
+   */
+  private String toString(Map<String, String> params) {
     StringBuilder newQuery = new StringBuilder();
     newQuery.append(mUri.getRawPath());
     newQuery.append('?');
 
-    Map<String, String> params = new TreeMap<String, String>(mParams);
-    params.put(name, value);
     String and = "";
     for (Map.Entry<String, String> entry : params.entrySet()) {
       if (entry.getValue() != null) {
@@ -102,7 +120,7 @@ class Query {
         and = "&";
       }
     }
-    return DocString.uri(newQuery.toString());
+    return newQuery.toString();
   }
 
   /**
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatBitmapInstance;
+import com.android.ahat.heapdump.AhatHeap;
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Diff;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
+import com.android.ahat.heapdump.Reachability;
+import com.android.ahat.heapdump.RootType;
+import com.android.ahat.heapdump.Site;
+import com.android.ahat.heapdump.Size;
+import com.android.ahat.heapdump.Sort;
+import com.android.ahat.progress.NullProgress;
+import com.android.ahat.proguard.ProguardMap;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes machine readable reports of heap dumps in JSON, for analyzing heap
+ * dumps without serving pages, such as to check for memory regressions in
+ * continuous integration.
+ * <p>
+ * A report has the sizes of each heap, the instances and classes with the
+ * largest sizes, duplicate bitmaps, the rooted instances and the tree of
+ * allocation sites. If a baseline heap dump is given, each heap dump is
+ * diffed against it and the report includes the corresponding sizes of
+ * the baseline.
+ */
+class Report {
+  private final ProguardMap mMap;
+  private final File mBaseline;
+  private final ProguardMap mBaselineMap;
+  private final Reachability mRetained;
+  private final int mThreads;
+  private final boolean mIndexCache;
+  private final int mTop;
+
+  /**
+   * Constructs a report writer.
+   *
+   * @param map the proguard map to deobfuscate heap dumps with
+   * @param baseline the baseline heap dump to diff against, or null
+   * @param baselineMap the proguard map to deobfuscate the baseline with
+   * @param retained the weakest reachability of instances to treat as retained
+   * @param threads the number of threads to parse each heap dump with
+   * @param indexCache whether to use index caches next to heap dumps
+   * @param top the number of elements to include in lists of the largest
+   *            instances, classes and sites
+   */
+  public Report(ProguardMap map, File baseline, ProguardMap baselineMap,
+      Reachability retained, int threads, boolean indexCache, int top) {
+    mMap = map;
+    mBaseline = baseline;
+    mBaselineMap = baselineMap;
+    mRetained = retained;
+    mThreads = threads;
+    mIndexCache = indexCache;
+    mTop = top;
+  }
+
+  private AhatSnapshot parse(File hprof, ProguardMap map)
+      throws IOException, HprofFormatException {
+    return new Parser(hprof)
+      .map(map)
+      .progress(new NullProgress())
+      .retained(mRetained)
+      .threads(mThreads)
+      .indexCache(mIndexCache)
+      .parse();
+  }
+
+  /**
+   * Writes a report of the given heap dump to the given file, or to standard
+   * output if the file is "-".
+   * <p>
+   * The baseline heap dump, if any, is parsed again for each report, because
+   * diffing modifies both snapshots.
+   */
+  public void write(File hprof, File out) throws IOException, HprofFormatException {
+    AhatSnapshot snapshot = parse(hprof, mMap);
+    if (mBaseline != null) {
+      Diff.snapshots(snapshot, parse(mBaseline, mBaselineMap), mThreads);
+    }
+
+    if (out.getPath().equals("-")) {
+      write(new JsonWriter(System.out), snapshot, hprof);
+      return;
+    }
+
+    try (PrintStream ps = new PrintStream(
+          new BufferedOutputStream(new FileOutputStream(out)), false, "UTF-8")) {
+      write(new JsonWriter(ps), snapshot, hprof);
+      if (ps.checkError()) {
+        throw new IOException("Error writing " + out);
+      }
+    }
+  }
+
+  /**
+   * Writes a report for each of the given heap dumps to the given directory,
+   * analyzing up to the given number of heap dumps at a time. Each report is
+   * named after its heap dump, with a .json suffix. Errors are reported to
+   * standard error.
+   *
+   * @return true if all the reports were written successfully
+   */
+  public boolean writeAll(List<File> hprofs, File dir, int jobs) {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      System.err.println("Unable to create directory '" + dir + "'");
+      return false;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(jobs);
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (File hprof : hprofs) {
+        File out = new File(dir, hprof.getName() + ".json");
+        futures.add(executor.submit(() -> {
+          System.out.println("Processing '" + hprof + "' ...");
+          write(hprof, out);
+          return null;
+        }));
+      }
+
+      boolean success = true;
+      for (int i = 0; i < futures.size(); ++i) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          System.err.println("Unable to write report for '" + hprofs.get(i) + "':");
+          e.getCause().printStackTrace();
+          success = false;
+        }
+      }
+      return success;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Writes a report of the given snapshot.
+   */
+  void write(JsonWriter json, AhatSnapshot snapshot, File hprof) {
+    boolean diffed = snapshot.isDiffed();
+    json.beginObject();
+    String version = Report.class.getPackage().getImplementationVersion();
+    if (version != null) {
+      // The version is only known when running from the ahat jar.
+      json.name("ahat").value(version);
+    }
+    json.name("hprof").value(hprof.getPath());
+    json.name("baseline").value(mBaseline == null ? null : mBaseline.getPath());
+    json.name("retained").value(mRetained.toString());
+
+    json.name("heaps").beginArray();
+    Size total = Size.ZERO;
+    Size totalBase = Size.ZERO;
+    for (AhatHeap heap : snapshot.getHeaps()) {
+      json.beginObject();
+      json.name("name").value(heap.getName());
+      size(json, "size", heap.getSize());
+      if (diffed) {
+        size(json, "baselineSize", heap.getBaseline().getSize());
+      }
+      json.endObject();
+      total = total.plus(heap.getSize());
+      totalBase = totalBase.plus(heap.getBaseline().getSize());
+    }
+    json.endArray();
+    size(json, "totalSize", total);
+    if (diffed) {
+      size(json, "baselineTotalSize", totalBase);
+    }
+
+    json.name("topRetained").beginArray();
+    for (AhatInstance inst : topRetained(snapshot)) {
+      instance(json, inst, diffed);
+    }
+    json.endArray();
+
+    json.name("topClasses").beginArray();
+    for (ClassInfo info : topClasses(snapshot)) {
+      json.beginObject();
+      json.name("name").value(info.name);
+      json.name("instances").value(info.numInstances);
+      size(json, "size", info.size);
+      if (diffed) {
+        json.name("baselineInstances").value(info.numBaselineInstances);
+        size(json, "baselineSize", info.baselineSize);
+      }
+      json.endObject();
+    }
+    json.endArray();
+
+    json.name("duplicateBitmaps").beginArray();
+    List<List<AhatBitmapInstance>> duplicates = snapshot.findDuplicateBitmaps();
+    if (duplicates != null) {
+      for (List<AhatBitmapInstance> list : duplicates) {
+        json.beginArray();
+        for (AhatBitmapInstance inst : list) {
+          instance(json, inst, diffed);
+        }
+        json.endArray();
+      }
+    }
+    json.endArray();
+
+    List<AhatInstance> rooted = new ArrayList<AhatInstance>();
+    for (AhatInstance inst : snapshot.getRooted()) {
+      if (!inst.isPlaceHolder()) {
+        rooted.add(inst);
+      }
+    }
+    json.name("rooted").beginObject();
+    json.name("count").value(rooted.size());
+    Collections.sort(rooted, Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
+    json.name("top").beginArray();
+    for (AhatInstance inst : rooted.subList(0, Math.min(mTop, rooted.size()))) {
+      instance(json, inst, diffed);
+    }
+    json.endArray();
+    json.endObject();
+
+    json.name("sites");
+    site(json, snapshot.getRootSite(), diffed);
+    json.endObject();
+    json.finish();
+  }
+
+  private static void size(JsonWriter json, String name, Size size) {
+    json.name(name).beginObject();
+    json.name("java").value(size.getJavaSize());
+    json.name("native").value(size.getRegisteredNativeSize());
+    json.endObject();
+  }
+
+  private static void instance(JsonWriter json, AhatInstance inst, boolean diffed) {
+    json.beginObject();
+    json.name("id").value(String.format("0x%x", inst.getId()));
+    json.name("class").value(inst.getClassName());
+    json.name("heap").value(inst.getHeap().getName());
+    String str = inst.asString(200);
+    if (str != null) {
+      json.name("string").value(str);
+    }
+    Collection<RootType> rootTypes = inst.getRootTypes();
+    if (rootTypes != null) {
+      json.name("rootTypes").beginArray();
+      for (RootType type : rootTypes) {
+        json.value(type.toString());
+      }
+      json.endArray();
+    }
+    size(json, "size", inst.getSize());
+    size(json, "retainedSize", inst.getTotalRetainedSize());
+    if (diffed) {
+      AhatInstance base = inst.getBaseline();
+      json.name("baseline").value(!base.isPlaceHolder());
+      size(json, "baselineRetainedSize", base.getTotalRetainedSize());
+    }
+    json.endObject();
+  }
+
+  /**
+   * Returns the instances of the snapshot with the largest retained sizes,
+   * largest first.
+   */
+  private List<AhatInstance> topRetained(AhatSnapshot snapshot) {
+    // An instance never retains more than the instance that dominates it,
+    // so the instances can be visited in order of decreasing retained size
+    // by always visiting the largest instance dominated by a visited
+    // instance next.
+    PriorityQueue<AhatInstance> queue
+      = new PriorityQueue<AhatInstance>(Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
+    queue.addAll(snapshot.getRooted());
+    List<AhatInstance> top = new ArrayList<AhatInstance>();
+    while (top.size() < mTop && !queue.isEmpty()) {
+      AhatInstance inst = queue.poll();
+      if (!inst.isPlaceHolder()) {
+        top.add(inst);
+        queue.addAll(inst.getDominated());
+      }
+    }
+    return top;
+  }
+
+  private static class ClassInfo {
+    public final String name;
+    public long numInstances = 0;
+    public Size size = Size.ZERO;
+    public long numBaselineInstances = 0;
+    public Size baselineSize = Size.ZERO;
+
+    public ClassInfo(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Returns the classes with the largest total shallow size of instances,
+   * largest first.
+   */
+  private List<ClassInfo> topClasses(AhatSnapshot snapshot) {
+    // The objects infos of a site include the objects allocated under its
+    // child sites, so those of the root site cover every object once.
+    Map<String, ClassInfo> classes = new HashMap<String, ClassInfo>();
+    for (Site.ObjectsInfo info : snapshot.getRootSite().getObjectsInfos()) {
+      ClassInfo cls = classes.computeIfAbsent(info.getClassName(), ClassInfo::new);
+      cls.numInstances += info.numInstances;
+      cls.size = cls.size.plus(info.numBytes);
+      cls.numBaselineInstances += info.getBaseline().numInstances;
+      cls.baselineSize = cls.baselineSize.plus(info.getBaseline().numBytes);
+    }
+
+    List<ClassInfo> top = new ArrayList<ClassInfo>(classes.values());
+    Collections.sort(top, Comparator.comparing((ClassInfo cls) -> cls.size).reversed()
+        .thenComparing(cls -> cls.name));
+    return top.subList(0, Math.min(mTop, top.size()));
+  }
+
+  /**
+   * Writes the given site and, recursively, its largest child sites.
+   */
+  private void site(JsonWriter json, Site site, boolean diffed) {
+    json.beginObject();
+    json.name("id").value(site.getId());
+    json.name("method").value(site.getMethodName());
+    json.name("signature").value(site.getSignature());
+    json.name("filename").value(site.getFilename());
+    json.name("line").value(site.getLineNumber());
+    size(json, "size", site.getTotalSize());
+    if (diffed) {
+      size(json, "baselineSize", site.getBaseline().getTotalSize());
+    }
+
+    List<Site> children = new ArrayList<Site>(site.getChildren());
+    if (!children.isEmpty()) {
+      Collections.sort(children,
+          Comparator.comparing(Site::getTotalSize).reversed());
+
+      // Recursion should be okay here because the stack depth is limited by
+      // a reasonable amount (128 frames or so).
+      json.name("children").beginArray();
+      for (Site child : children.subList(0, Math.min(mTop, children.size()))) {
+        site(json, child, diffed);
+      }
+      json.endArray();
+    }
+    json.endObject();
+  }
+}
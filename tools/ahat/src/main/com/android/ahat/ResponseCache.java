@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A least recently used cache of the results of handling requests, such as
+ * rendered pages and sorted lists of instances, shared by all the threads
+ * serving requests.
+ * <p>
+ * The cache is bounded by an estimate of the number of bytes of memory used
+ * by the cached values rather than by the number of cached values, because
+ * the values vary in size from a few hundred bytes to hundreds of megabytes.
+ */
+class ResponseCache {
+  // Estimated number of bytes of memory used by a list, not counting its
+  // elements, and by each element of a list.
+  private static final long LIST_OVERHEAD = 64;
+  private static final long LIST_ELEMENT_SIZE = 8;
+
+  private static class Entry {
+    public final Object value;
+    public final long size;
+
+    public Entry(Object value, long size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+  private final long mCapacity;
+  private final LinkedHashMap<String, Entry> mEntries;
+  private long mSize = 0;
+
+  /**
+   * Constructs an empty cache.
+   *
+   * @param capacity the maximum number of bytes of values to cache. A
+   *                 capacity of 0 disables caching.
+   */
+  public ResponseCache(long capacity) {
+    mCapacity = capacity;
+    mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, /* accessOrder */ true);
+  }
+
+  /**
+   * Returns the maximum number of bytes of values to cache.
+   */
+  public long getCapacity() {
+    return mCapacity;
+  }
+
+  /**
+   * Returns the estimated number of bytes of values currently cached.
+   */
+  public synchronized long getSize() {
+    return mSize;
+  }
+
+  /**
+   * Returns the cached value for the given key, or null if there is no
+   * cached value for the key.
+   */
+  public synchronized Object get(String key) {
+    Entry entry = mEntries.get(key);
+    return entry == null ? null : entry.value;
+  }
+
+  /**
+   * Caches a value for the given key, evicting the least recently used
+   * values as needed to stay within the capacity of the cache. Values larger
+   * than the capacity of the cache are not cached.
+   *
+   * @param key the key to cache the value for
+   * @param value the value to cache
+   * @param size the estimated number of bytes of memory used by the value
+   */
+  public synchronized void put(String key, Object value, long size) {
+    if (size > mCapacity) {
+      return;
+    }
+
+    Entry old = mEntries.put(key, new Entry(value, size));
+    if (old != null) {
+      mSize -= old.size;
+    }
+    mSize += size;
+
+    Iterator<Entry> iter = mEntries.values().iterator();
+    while (mSize > mCapacity) {
+      mSize -= iter.next().size;
+      iter.remove();
+    }
+  }
+
+  /**
+   * Returns the cached page for the given key, or null if there is no cached
+   * page for the key.
+   */
+  public byte[] getPage(String key) {
+    return (byte[])get("page:" + key);
+  }
+
+  /**
+   * Caches the rendered page for the given key.
+   */
+  public void putPage(String key, byte[] page) {
+    put("page:" + key, page, page.length);
+  }
+
+  /**
+   * Returns the cached list for the given key, computing and caching it if
+   * there is no cached list for the key. The list may be computed more than
+   * once if it is requested concurrently from multiple threads.
+   * <p>
+   * The returned list is shared and must not be modified.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> List<T> getList(String key, Supplier<List<T>> compute) {
+    key = "list:" + key;
+    List<T> list = (List<T>)get(key);
+    if (list == null) {
+      list = compute.get();
+      put(key, list, LIST_OVERHEAD + LIST_ELEMENT_SIZE * list.size());
+    }
+    return list;
+  }
+}
@@ -16,7 +16,11 @@
 
 package com.android.ahat;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 /**
  * The SubsetSelector is that can be added to a page that lets the
@@ -60,6 +64,97 @@ class SubsetSelector<T> {
     return mElements.subList(mLimit, mElements.size());
   }
 
+  /**
+   * Sorts the elements that will be selected for the given query to the
+   * front of the list, without sorting the remaining elements. This is much
+   * faster than sorting the entire list when a small subset of a long list
+   * of elements is selected. As with Collections.sort, elements that compare
+   * equal keep their relative order.
+   *
+   * @param query the query for the current page
+   * @param id the name of the query parameter key that holds the limit
+   * @param elements the elements to select from, which are reordered
+   * @param compare the order to sort the selected elements in
+   */
+  public static <T> void sortSelected(Query query, String id, List<T> elements,
+      Comparator<? super T> compare) {
+    int size = elements.size();
+    int limit = getSelectedLimit(query, id, size);
+    if (limit == 0) {
+      return;
+    }
+    if (limit > size / 2) {
+      Collections.sort(elements, compare);
+      return;
+    }
+
+    // Find the indices of the first limit elements in sorted order, using a
+    // heap with the last of those elements found so far on top.
+    Comparator<Integer> order = (a, b) -> {
+      int c = compare.compare(elements.get(a), elements.get(b));
+      return c != 0 ? c : Integer.compare(a, b);
+    };
+    PriorityQueue<Integer> heap = new PriorityQueue<Integer>(limit + 1, order.reversed());
+    for (int i = 0; i < size; ++i) {
+      heap.add(i);
+      if (heap.size() > limit) {
+        heap.poll();
+      }
+    }
+
+    int[] first = new int[limit];
+    for (int i = limit - 1; i >= 0; --i) {
+      first[i] = heap.poll();
+    }
+
+    // Move the selected elements to the front, followed by the rest of the
+    // elements in their original order.
+    boolean[] isSelected = new boolean[size];
+    List<T> sorted = new ArrayList<T>(size);
+    for (int index : first) {
+      sorted.add(elements.get(index));
+      isSelected[index] = true;
+    }
+    for (int i = 0; i < size; ++i) {
+      if (!isSelected[i]) {
+        sorted.add(elements.get(i));
+      }
+    }
+    for (int i = 0; i < size; ++i) {
+      elements.set(i, sorted.get(i));
+    }
+  }
+
+  /**
+   * Sorts the elements that will be selected for the given query to the
+   * front of the list, as with sortSelected, but caches the list when all of
+   * it is sorted. Sorting all of a long list is slow, so the sorted list is
+   * cached under the given key and reused for later queries that show most
+   * or all of the same elements.
+   *
+   * @param query the query for the current page
+   * @param id the name of the query parameter key that holds the limit
+   * @param elements the elements to select from, which may be reordered
+   * @param compare the order to sort the selected elements in
+   * @param cache the cache to keep sorted lists in
+   * @param key the key of the sorted list in the cache, which must not
+   *            depend on the limit
+   * @return the elements with the selected elements sorted to the front,
+   *         which may be a cached list that must not be modified
+   */
+  public static <T> List<T> sortSelected(Query query, String id, List<T> elements,
+      Comparator<? super T> compare, ResponseCache cache, String key) {
+    int limit = getSelectedLimit(query, id, elements.size());
+    if (limit > elements.size() / 2) {
+      return cache.getList(key, () -> {
+        Collections.sort(elements, compare);
+        return elements;
+      });
+    }
+    sortSelected(query, id, elements, compare);
+    return elements;
+  }
+
   /**
    * Returns the currently selected limit.
    * @param query the current page query
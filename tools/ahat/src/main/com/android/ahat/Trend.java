@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Site;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The trend of a series of heap dumps of the same process taken over time,
+ * for finding the classes, allocation sites and dominator subtrees that keep
+ * growing from one heap dump to the next.
+ * <p>
+ * Each heap dump is summarized when it is added to the trend, so that only
+ * one heap dump needs to be loaded at a time. The summaries are kept as time
+ * series of sizes, one per class, allocation site and kind of root, in
+ * tables shared by all the heap dumps.
+ */
+class Trend {
+  /**
+   * A table of time series with a size and a count for each heap dump of
+   * the trend.
+   * <p>
+   * Each series is identified by a string key, and given a dense id the
+   * first time it is seen. The values for each heap dump are stored in
+   * arrays indexed by series id. Series first seen in a later heap dump are
+   * beyond the end of the arrays of the earlier heap dumps, and their values
+   * for the earlier heap dumps are zero.
+   */
+  static class Table {
+    private final Map<String, Integer> mIds = new HashMap<String, Integer>();
+    private final List<String> mLabels = new ArrayList<String>();
+    private final List<long[]> mSizes = new ArrayList<long[]>();
+    private final List<long[]> mCounts = new ArrayList<long[]>();
+
+    // The values of the heap dump being added, and the id each series has
+    // in that heap dump, such as the id of a site.
+    private long[] mNextSizes = new long[16];
+    private long[] mNextCounts = new long[16];
+    private long[] mLinkIds = new long[16];
+
+    /**
+     * Adds the given size and count to the series with the given key for
+     * the heap dump being added.
+     *
+     * @param key the key identifying the series across heap dumps
+     * @param label the text to show for the series
+     * @param size the size to add to the series
+     * @param count the count to add to the series
+     * @param linkId an id of the series in the heap dump being added
+     */
+    void add(String key, String label, long size, long count, long linkId) {
+      Integer id = mIds.get(key);
+      if (id == null) {
+        id = mLabels.size();
+        mIds.put(key, id);
+        mLabels.add(label);
+        if (id == mNextSizes.length) {
+          mNextSizes = Arrays.copyOf(mNextSizes, 2 * id);
+          mNextCounts = Arrays.copyOf(mNextCounts, 2 * id);
+          mLinkIds = Arrays.copyOf(mLinkIds, 2 * id);
+        }
+      }
+      mNextSizes[id] += size;
+      mNextCounts[id] += count;
+      mLinkIds[id] = linkId;
+    }
+
+    /**
+     * Finishes adding the values of a heap dump.
+     */
+    void commit() {
+      mSizes.add(Arrays.copyOf(mNextSizes, mLabels.size()));
+      mCounts.add(Arrays.copyOf(mNextCounts, mLabels.size()));
+      Arrays.fill(mNextSizes, 0);
+      Arrays.fill(mNextCounts, 0);
+    }
+
+    /**
+     * Returns the number of series in the table.
+     */
+    int size() {
+      return mLabels.size();
+    }
+
+    /**
+     * Returns the number of heap dumps in the table.
+     */
+    int getNumDumps() {
+      return mSizes.size();
+    }
+
+    String getLabel(int id) {
+      return mLabels.get(id);
+    }
+
+    long getSize(int id, int dump) {
+      long[] sizes = mSizes.get(dump);
+      return id < sizes.length ? sizes[id] : 0;
+    }
+
+    long getCount(int id, int dump) {
+      long[] counts = mCounts.get(dump);
+      return id < counts.length ? counts[id] : 0;
+    }
+
+    /**
+     * Returns the id of the series in the last heap dump added, or -1 if
+     * the series is not in the last heap dump.
+     */
+    long getLinkId(int id) {
+      int last = getNumDumps() - 1;
+      return last >= 0 && getCount(id, last) > 0 ? mLinkIds[id] : -1;
+    }
+
+    /**
+     * Returns the growth in size of the series from the first heap dump to
+     * the last.
+     */
+    long getGrowth(int id) {
+      return getNumDumps() == 0 ? 0 : getSize(id, getNumDumps() - 1) - getSize(id, 0);
+    }
+
+    /**
+     * Returns the growth in count of the series from the first heap dump to
+     * the last.
+     */
+    long getCountGrowth(int id) {
+      return getNumDumps() == 0 ? 0 : getCount(id, getNumDumps() - 1) - getCount(id, 0);
+    }
+
+    /**
+     * Returns true if the size of the series grows from the first heap dump
+     * to the last without ever shrinking in between.
+     */
+    boolean isMonotonic(int id) {
+      for (int i = 1; i < getNumDumps(); ++i) {
+        if (getSize(id, i) < getSize(id, i - 1)) {
+          return false;
+        }
+      }
+      return getGrowth(id) > 0;
+    }
+
+    /**
+     * Returns the ids of the series ranked by growth: series that grow
+     * monotonically first, then by decreasing growth in size.
+     */
+    List<Integer> ranked() {
+      List<Integer> ids = new ArrayList<Integer>(size());
+      boolean[] monotonic = new boolean[size()];
+      long[] growth = new long[size()];
+      for (int i = 0; i < size(); ++i) {
+        ids.add(i);
+        monotonic[i] = isMonotonic(i);
+        growth[i] = getGrowth(i);
+      }
+      Collections.sort(ids, (a, b) -> {
+        if (monotonic[a] != monotonic[b]) {
+          return monotonic[a] ? -1 : 1;
+        }
+        int cmp = Long.compare(growth[b], growth[a]);
+        return cmp != 0 ? cmp : getLabel(a).compareTo(getLabel(b));
+      });
+      return ids;
+    }
+  }
+
+  private final List<File> mFiles = new ArrayList<File>();
+  private final Table mClasses = new Table();
+  private final Table mSites = new Table();
+  private final Table mRoots = new Table();
+
+  /**
+   * Adds a summary of the given heap dump to the trend. Heap dumps must be
+   * added in the order they were taken. The snapshot is not referenced
+   * after this returns.
+   *
+   * @param file the file the heap dump was loaded from
+   * @param snapshot the heap dump to add
+   */
+  void add(File file, AhatSnapshot snapshot) {
+    mFiles.add(file);
+
+    // The objects infos of a site include the objects allocated under its
+    // child sites, so those of the root site cover every object once.
+    for (Site.ObjectsInfo info : snapshot.getRootSite().getObjectsInfos()) {
+      String className = info.getClassName();
+      mClasses.add(className, className, info.numBytes.getSize(), info.numInstances, 0);
+    }
+    addSite(snapshot.getRootSite(), "");
+
+    // Group rooted instances by class, treating each class object as a
+    // class of its own, because the statics of a class are a common source
+    // of leaks.
+    for (AhatInstance inst : snapshot.getRooted()) {
+      String label = inst.isClassObj()
+        ? "class " + inst.asClassObj().getName()
+        : inst.getClassName();
+      mRoots.add(label, label, inst.getTotalRetainedSize().getSize(), 1, inst.getId());
+    }
+
+    mClasses.commit();
+    mSites.commit();
+    mRoots.commit();
+  }
+
+  /**
+   * Adds the given site and its child sites to the sites table.
+   *
+   * @param site the site to add
+   * @param parentKey the key of the parent of the site
+   */
+  private void addSite(Site site, String parentKey) {
+    // Sites are matched between heap dumps by their stack frame and the
+    // stack frames of their parents, as when diffing heap dumps.
+    String label = site.getMethodName() + site.getSignature() + " - " + site.getFilename();
+    if (site.getLineNumber() > 0) {
+      label += ":" + site.getLineNumber();
+    }
+    String key = parentKey + "\n" + label;
+
+    // The objects infos of the site already include its child sites.
+    long count = 0;
+    for (Site.ObjectsInfo info : site.getObjectsInfos()) {
+      count += info.numInstances;
+    }
+    mSites.add(key, label, site.getTotalSize().getSize(), count, site.getId());
+
+    // Recursion should be okay here because the stack depth is limited by a
+    // reasonable amount (128 frames or so).
+    for (Site child : site.getChildren()) {
+      addSite(child, key);
+    }
+  }
+
+  /**
+   * Returns the files of the heap dumps in the trend, in the order they were
+   * added.
+   */
+  List<File> getFiles() {
+    return mFiles;
+  }
+
+  /**
+   * Returns the total shallow size and number of instances of each class.
+   */
+  Table getClasses() {
+    return mClasses;
+  }
+
+  /**
+   * Returns the total shallow size and number of instances allocated under
+   * each site.
+   */
+  Table getSites() {
+    return mSites;
+  }
+
+  /**
+   * Returns the total retained size and number of rooted instances of each
+   * class.
+   */
+  Table getRoots() {
+    return mRoots;
+  }
+}
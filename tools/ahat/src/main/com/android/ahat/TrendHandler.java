@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+class TrendHandler implements AhatHandler {
+  private static final String CLASSES_ID = "classes";
+  private static final String SITES_ID = "sites";
+  private static final String ROOTS_ID = "roots";
+
+  private Trend mTrend;
+
+  public TrendHandler(Trend trend) {
+    mTrend = trend;
+  }
+
+  /**
+   * Returns the link for a series of a table in the heap dump being viewed,
+   * which is the last heap dump of the trend, or null if there is no link.
+   */
+  private interface Linker {
+    URI link(Trend.Table table, int id);
+  }
+
+  @Override
+  public void handle(Doc doc, Query query) throws IOException {
+    doc.title("Trend");
+
+    doc.section("Heap Dumps");
+    doc.descriptions();
+    List<File> files = mTrend.getFiles();
+    for (int i = 0; i < files.size(); ++i) {
+      doc.description(DocString.format("#%d", i + 1), DocString.text(files.get(i).toString()));
+    }
+    doc.end();
+
+    doc.section("Classes");
+    printTable(doc, query, CLASSES_ID, mTrend.getClasses(), "Class", "Instances",
+        (table, id) -> table.getLinkId(id) < 0 ? null
+          : DocString.formattedUri("objects?class=%s", table.getLabel(id)));
+
+    doc.section("Allocation Sites");
+    printTable(doc, query, SITES_ID, mTrend.getSites(), "Site", "Instances",
+        (table, id) -> table.getLinkId(id) < 0 ? null
+          : DocString.formattedUri("site?id=%d", table.getLinkId(id)));
+
+    doc.section("Retained by Rooted Instances");
+    printTable(doc, query, ROOTS_ID, mTrend.getRoots(), "Rooted Class", "Rooted",
+        (table, id) -> table.getLinkId(id) < 0
+          || table.getCount(id, table.getNumDumps() - 1) != 1 ? null
+          : DocString.formattedUri("object?id=0x%x", table.getLinkId(id)));
+  }
+
+  /**
+   * Prints the series of the given table ranked by growth, with the size of
+   * each series in each heap dump.
+   */
+  private static void printTable(Doc doc, Query query, String id, Trend.Table table,
+      String description, String countDescription, Linker linker) {
+    int numDumps = table.getNumDumps();
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column("Growth", Column.Align.RIGHT));
+    columns.add(new Column(countDescription + " Δ", Column.Align.RIGHT));
+    columns.add(new Column("Monotonic"));
+    for (int i = 0; i < numDumps; ++i) {
+      columns.add(new Column(String.format("#%d", i + 1), Column.Align.RIGHT));
+    }
+    columns.add(new Column(description));
+    doc.table(columns.toArray(new Column[columns.size()]));
+
+    SubsetSelector<Integer> selector = new SubsetSelector<Integer>(query, id, table.ranked());
+    for (int series : selector.selected()) {
+      List<DocString> values = new ArrayList<DocString>();
+      values.add(DocString.delta(false, false, table.getSize(series, numDumps - 1),
+            table.getSize(series, 0)));
+      values.add(DocString.delta(false, false, table.getCount(series, numDumps - 1),
+            table.getCount(series, 0)));
+      values.add(DocString.text(table.isMonotonic(series) ? "yes" : ""));
+      for (int i = 0; i < numDumps; ++i) {
+        values.add(DocString.size(table.getSize(series, i), false));
+      }
+
+      DocString label = DocString.text(table.getLabel(series));
+      URI link = linker.link(table, series);
+      values.add(link == null ? label : DocString.link(link, label));
+      doc.row(values.toArray(new DocString[values.size()]));
+    }
+    doc.end();
+    selector.render(doc);
+  }
+}
@@ -19,8 +19,10 @@ package com.android.ahat.dominators;
 import com.android.ahat.progress.NullProgress;
 import com.android.ahat.progress.Progress;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
+import java.util.List;
 import java.util.Queue;
 
 /**
@@ -34,6 +36,25 @@ public class Dominators<Node> {
 
   private Progress progress = new NullProgress();
   private long numNodes = 0;
+  private Algorithm algorithm = Algorithm.ITERATIVE;
+
+  /**
+   * Algorithms available for computing dominators.
+   */
+  public enum Algorithm {
+    /**
+     * Incremental algorithm that works directly on the nodes of the graph.
+     * This is the default.
+     */
+    ITERATIVE,
+
+    /**
+     * The Semi-NCA algorithm, run on a compact copy of the graph.
+     * See {@link SemiNcaDominators}. This is typically faster and uses less
+     * memory for large graphs.
+     */
+    SEMI_NCA
+  }
 
   /**
    * Interface for a directed graph to perform immediate dominators
@@ -123,6 +144,19 @@ public class Dominators<Node> {
     return this;
   }
 
+  /**
+   * Sets the algorithm to use for the dominators computation. Both
+   * algorithms compute the same dominators, but may call
+   * {@link Graph#setDominator} for the nodes in a different order.
+   *
+   * @param algorithm the algorithm to use
+   * @return this Dominators object
+   */
+  public Dominators<Node> algorithm(Algorithm algorithm) {
+    this.algorithm = algorithm;
+    return this;
+  }
+
   // NodeS is information associated with a particular node for the
   // purposes of computing dominators.
   // By convention we use the suffix 'S' to name instances of NodeS.
@@ -279,6 +313,11 @@ public class Dominators<Node> {
    * @param root the root node of the dominators computation
    */
   public void computeDominators(Node root) {
+    if (algorithm == Algorithm.SEMI_NCA) {
+      computeDominatorsSemiNca(root);
+      return;
+    }
+
     long id = 0;
 
     // The set of nodes xS such that xS.revisit != null.
@@ -459,6 +498,47 @@ public class Dominators<Node> {
     }
   }
 
+  private void computeDominatorsSemiNca(Node root) {
+    // Number the nodes reachable from the root in the order they are
+    // discovered and collect their edges in compressed sparse row form.
+    List<Node> nodes = new ArrayList<Node>();
+    int[] offsets = new int[16];
+    int[] targets = new int[16];
+    int numEdges = 0;
+    graph.setDominatorsComputationState(root, 0);
+    nodes.add(root);
+    for (int i = 0; i < nodes.size(); ++i) {
+      if (i + 1 >= offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      offsets[i] = numEdges;
+      for (Node child : graph.getReferencesForDominators(nodes.get(i))) {
+        Integer index = (Integer)graph.getDominatorsComputationState(child);
+        if (index == null) {
+          index = nodes.size();
+          graph.setDominatorsComputationState(child, index);
+          nodes.add(child);
+        }
+        if (numEdges == targets.length) {
+          targets = Arrays.copyOf(targets, targets.length * 2);
+        }
+        targets[numEdges++] = index;
+      }
+    }
+    offsets[nodes.size()] = numEdges;
+
+    int[] dominators = new SemiNcaDominators(nodes.size(), offsets, targets)
+      .progress(progress)
+      .computeDominators(0);
+
+    for (Node node : nodes) {
+      graph.setDominatorsComputationState(node, null);
+    }
+    for (int i = 1; i < nodes.size(); ++i) {
+      graph.setDominator(nodes.get(i), nodes.get(dominators[i]));
+    }
+  }
+
   // Returns true if there is a path from srcS to dstS of nodes with ascending
   // ids (not including dstS.id).
   private static boolean isReachableAscending(NodeS srcS, NodeS dstS) {
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.dominators;
+
+import com.android.ahat.progress.NullProgress;
+import com.android.ahat.progress.Progress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Computes the immediate dominators of a directed graph whose nodes are
+ * numbered from 0 and whose edges are given in compressed sparse row form.
+ * <p>
+ * This uses the Semi-NCA algorithm of Georgiadis and Tarjan, which computes
+ * the semidominators of the nodes as in the Lengauer-Tarjan algorithm, then
+ * derives the immediate dominators as nearest common ancestors in the depth
+ * first search tree. All of the state of the computation is kept in a
+ * handful of int arrays, which makes it suitable for graphs with hundreds
+ * of millions of nodes and edges.
+ * <p>
+ * The depth first search and the semidominators computation are inherently
+ * sequential. Building the incoming edges of the graph and translating the
+ * results back to the caller's node numbering are done using multiple
+ * threads, as configured with {@link #threads}.
+ */
+public class SemiNcaDominators {
+  // Number of nodes handled by each task run in parallel.
+  private static final int TASK_SIZE = 1 << 16;
+
+  private final int numNodes;
+  private final int[] offsets;
+  private final int[] targets;
+
+  private Progress progress = new NullProgress();
+  private int threads = 1;
+  private int[] preorder = null;
+
+  /**
+   * Constructs an object to do dominators computation on the given graph.
+   * The outgoing edges of node <code>i</code> are the entries of
+   * <code>targets</code> from index <code>offsets[i]</code> up to, but not
+   * including, index <code>offsets[i + 1]</code>.
+   *
+   * @param numNodes the number of nodes in the graph
+   * @param offsets the offsets into targets of the edges of each node, with
+   *                <code>numNodes + 1</code> entries
+   * @param targets the destination nodes of the edges of the graph
+   */
+  public SemiNcaDominators(int numNodes, int[] offsets, int[] targets) {
+    if (offsets.length < numNodes + 1) {
+      throw new IllegalArgumentException("offsets.length < numNodes + 1");
+    }
+    this.numNodes = numNodes;
+    this.offsets = offsets;
+    this.targets = targets;
+  }
+
+  /**
+   * Sets up a progress tracker for the dominators computation.
+   *
+   * @param progress the progress tracker to use
+   * @return this SemiNcaDominators object
+   */
+  public SemiNcaDominators progress(Progress progress) {
+    this.progress = progress;
+    return this;
+  }
+
+  /**
+   * Sets the number of threads to use for the parts of the dominators
+   * computation that can be done in parallel. The default is 1.
+   *
+   * @param threads the number of threads to use
+   * @return this SemiNcaDominators object
+   * @throws IllegalArgumentException if threads is less than 1
+   */
+  public SemiNcaDominators threads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads < 1");
+    }
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * Computes the immediate dominators of all nodes reachable from the
+   * <code>root</code> node.
+   *
+   * @param root the root node of the dominators computation
+   * @return the immediate dominator of each node, or -1 for the root node
+   *         and nodes not reachable from the root node
+   */
+  public int[] computeDominators(int root) {
+    ExecutorService executor = threads == 1 ? null : Executors.newFixedThreadPool(threads);
+    try {
+      return computeDominators(root, executor);
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Returns the nodes reachable from the root in the depth first search
+   * order used by the most recent dominators computation, starting with the
+   * root node. Every node comes after its immediate dominator in this order,
+   * so visiting the nodes in reverse order visits every node before its
+   * immediate dominator.
+   *
+   * @return the nodes reachable from the root in depth first search order,
+   *         or null if the dominators have not been computed
+   */
+  public int[] getPreorder() {
+    return preorder;
+  }
+
+  private int[] computeDominators(int root, ExecutorService executor) {
+    // Nodes are renumbered by the order they are first visited in a depth
+    // first search from the root. All of the arrays below except for 'pre'
+    // are indexed by that preorder number, which has the property that a
+    // node's dominators all have smaller numbers than the node itself.
+    int[] pre = new int[numNodes];
+    Arrays.fill(pre, -1);
+    int[] vertex = new int[numNodes];
+    int[] parent = new int[numNodes];
+
+    // 1. Number the nodes with a depth first search. The search stack is
+    // kept as the preorder number of each node on the stack and the
+    // position of the next of its edges to visit.
+    progress.start("Initializing dominators", numNodes);
+    int n = 0;
+    {
+      int[] stackNode = new int[numNodes];
+      int[] stackEdge = new int[numNodes];
+      int sp = 0;
+      pre[root] = n;
+      vertex[n] = root;
+      parent[n] = -1;
+      stackNode[sp] = n++;
+      stackEdge[sp++] = offsets[root];
+      while (sp > 0) {
+        int v = stackNode[sp - 1];
+        int edge = stackEdge[sp - 1];
+        if (edge == offsets[vertex[v] + 1]) {
+          sp--;
+          continue;
+        }
+        stackEdge[sp - 1] = edge + 1;
+        int target = targets[edge];
+        if (pre[target] == -1) {
+          pre[target] = n;
+          vertex[n] = target;
+          parent[n] = v;
+          stackNode[sp] = n++;
+          stackEdge[sp++] = offsets[target];
+          if ((n % TASK_SIZE) == 0) {
+            progress.advance(TASK_SIZE);
+          }
+        }
+      }
+    }
+    progress.done();
+
+    // 2. Collect the incoming edges of each reachable node, by preorder
+    // number. The order of the incoming edges of a node doesn't matter, so
+    // they can be filled in concurrently.
+    final int numReached = n;
+    final int[] predOffsets = new int[numReached + 1];
+    final int[] preds;
+    {
+      AtomicIntegerArray counts = new AtomicIntegerArray(numReached + 1);
+      forEachRange(executor, numReached, (start, end) -> {
+        for (int v = start; v < end; ++v) {
+          int node = vertex[v];
+          for (int edge = offsets[node]; edge < offsets[node + 1]; ++edge) {
+            counts.incrementAndGet(pre[targets[edge]]);
+          }
+        }
+      });
+
+      int count = 0;
+      for (int v = 0; v < numReached; ++v) {
+        predOffsets[v] = count;
+        count += counts.get(v);
+        counts.set(v, predOffsets[v]);
+      }
+      predOffsets[numReached] = count;
+
+      preds = new int[count];
+      forEachRange(executor, numReached, (start, end) -> {
+        for (int v = start; v < end; ++v) {
+          int node = vertex[v];
+          for (int edge = offsets[node]; edge < offsets[node + 1]; ++edge) {
+            preds[counts.getAndIncrement(pre[targets[edge]])] = v;
+          }
+        }
+      });
+    }
+
+    // 3. Compute the semidominator of each node in reverse preorder, using
+    // a forest of the nodes processed so far with path compression. The
+    // label of a node in the forest is the smallest semidominator on its
+    // compressed path. Unreachable nodes were given no preorder number and
+    // are not sources of any incoming edges.
+    progress.start("Resolving dominators", numReached);
+    int[] semi = new int[numReached];
+    int[] label = new int[numReached];
+    int[] ancestor = new int[numReached];
+    int[] stack = new int[numReached];
+    for (int v = 0; v < numReached; ++v) {
+      semi[v] = v;
+      label[v] = v;
+      ancestor[v] = -1;
+    }
+    for (int w = numReached - 1; w > 0; --w) {
+      int s = semi[w];
+      for (int i = predOffsets[w]; i < predOffsets[w + 1]; ++i) {
+        int v = preds[i];
+        if (ancestor[v] != -1) {
+          compress(v, ancestor, label, stack);
+        }
+        if (label[v] < s) {
+          s = label[v];
+        }
+      }
+      semi[w] = s;
+      label[w] = s;
+      ancestor[w] = parent[w];
+      if ((w % TASK_SIZE) == 0) {
+        progress.advance(TASK_SIZE);
+      }
+    }
+
+    // 4. The immediate dominator of each node is the nearest common
+    // ancestor in the depth first search tree of its parent and its
+    // semidominator, which is found by walking up the dominator tree from
+    // the parent. The dominators are computed in place of the parents,
+    // which are no longer needed once a node's dominator is known.
+    int[] idom = parent;
+    for (int w = 1; w < numReached; ++w) {
+      int d = idom[w];
+      while (d > semi[w]) {
+        d = idom[d];
+      }
+      idom[w] = d;
+    }
+    progress.done();
+
+    // 5. Translate the dominators back to the original node numbers.
+    preorder = Arrays.copyOf(vertex, numReached);
+    int[] dominators = pre;
+    Arrays.fill(dominators, -1);
+    forEachRange(executor, numReached, (start, end) -> {
+      for (int w = Math.max(1, start); w < end; ++w) {
+        dominators[vertex[w]] = vertex[idom[w]];
+      }
+    });
+    return dominators;
+  }
+
+  /**
+   * Compresses the path from v to the root of its tree in the forest of
+   * processed nodes, so that v's ancestor is the root of the tree and v's
+   * label is the smallest semidominator on the path. This is done
+   * iteratively, using the given stack, to support arbitrarily long paths.
+   */
+  private static void compress(int v, int[] ancestor, int[] label, int[] stack) {
+    int sp = 0;
+    for (int x = v; ancestor[ancestor[x]] != -1; x = ancestor[x]) {
+      stack[sp++] = x;
+    }
+    while (sp > 0) {
+      int x = stack[--sp];
+      int a = ancestor[x];
+      if (label[a] < label[x]) {
+        label[x] = label[a];
+      }
+      ancestor[x] = ancestor[a];
+    }
+  }
+
+  private interface RangeTask {
+    void run(int start, int end);
+  }
+
+  /**
+   * Runs the given task over consecutive ranges covering [0, size), in
+   * parallel if an executor is provided.
+   */
+  private static void forEachRange(ExecutorService executor, int size, RangeTask task) {
+    if (executor == null) {
+      task.run(0, size);
+      return;
+    }
+
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int start = 0; start < size; start += TASK_SIZE) {
+      int from = start;
+      int end = Math.min(size, start + TASK_SIZE);
+      futures.add(executor.submit(() -> task.run(from, end)));
+    }
+
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while computing dominators", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new AssertionError(cause);
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+}
@@ -41,6 +41,12 @@ public class AhatArrayInstance extends AhatInstance {
   private char[] mCharArray;    // null if not a char array.
   private final int mRefSize;
 
+  // Position in the heap dump of the elements of a primitive array, or -1
+  // for an object array. The elements are stored in the heap dump in the same
+  // form for every primitive type, so their contents can be compared by
+  // reading them straight from the heap dump.
+  private long mElementsPosition = -1;
+
   AhatArrayInstance(long id, int refSize) {
     super(id);
     mRefSize = refSize;
@@ -183,14 +189,35 @@ public class AhatArrayInstance extends AhatInstance {
     };
   }
 
-  @Override
-  long getExtraJavaSize() {
-    int length = getLength();
-    if (length == 0) {
+  /**
+   * Sets the position in the heap dump of the elements of a primitive array.
+   */
+  void setElementsPosition(long position) {
+    mElementsPosition = position;
+  }
+
+  /**
+   * Returns the position in the heap dump of the elements of a primitive
+   * array, or -1 if this is an object array.
+   */
+  long getElementsPosition() {
+    return mElementsPosition;
+  }
+
+  /**
+   * Returns the size in bytes of each element of the array, or 0 if the
+   * array is empty.
+   */
+  int getElementSize() {
+    if (getLength() == 0) {
       return 0;
     }
+    return Value.getType(mValues.get(0)).size(mRefSize);
+  }
 
-    return Value.getType(mValues.get(0)).size(mRefSize) * getLength();
+  @Override
+  long getExtraJavaSize() {
+    return (long)getElementSize() * getLength();
   }
 
   /**
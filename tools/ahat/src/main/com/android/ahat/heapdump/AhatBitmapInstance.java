@@ -75,14 +75,22 @@ public class AhatBitmapInstance extends AhatClassInstance implements Comparable<
       this.referenced = new HashSet<Long>(count);
       this.instances = TreeMultimap.create();
     }
+
+    /**
+     * Returns true if the given instance is referenced from the bitmap dump
+     * data. Such instances are not counted as part of the heap.
+     */
+    boolean isReferenced(AhatInstance inst) {
+      return referenced.contains(inst.getId());
+    }
   };
 
   /**
    * find the BitmapDumpData that is included in the heap dump
    *
    * @param root root of the heap dump
-   * @param instances all the instances from where the bitmap dump data will be excluded
-   * @return true if valid bitmap dump data is found, false if not
+   * @param instances all the instances of the heap dump
+   * @return the bitmap dump data if valid bitmap dump data is found, null if not
    */
   public static BitmapDumpData findBitmapDumpData(SuperRoot root, Instances<AhatInstance> instances) {
     final BitmapDumpData result;
@@ -129,11 +137,6 @@ public class AhatBitmapInstance extends AhatClassInstance implements Comparable<
         }
       }
     }
-
-    /* remove all instances referenced from BitmapDumpData,
-     * these instances shall *not* be counted
-     */
-    instances.removeIf(i -> { return result.referenced.contains(i.getId()); });
     return result;
   }
 
@@ -44,18 +44,24 @@ public class AhatClassInstance extends AhatInstance {
         : new AhatClassInstance(objectId);
   }
 
-  // Instance fields of the object. These are stored in order of the instance
-  // field descriptors from the class object, starting with this class first,
-  // followed by the super class, and so on. We store the values separate from
-  // the field types and names to save memory.
-  private Value[] mFields;
+  // Position in the heap dump of the instance field values of the object.
+  // The values are stored in order of the instance field descriptors from the
+  // class object, starting with this class first, followed by the super
+  // class, and so on. Most field values are never looked at, so to save
+  // memory they are read from the heap dump on demand rather than stored
+  // with the instance.
+  private long mFieldsPosition;
 
   AhatClassInstance(long id) {
     super(id);
   }
 
-  void initialize(Value[] fields) {
-    mFields = fields;
+  void initialize(long fieldsPosition) {
+    mFieldsPosition = fieldsPosition;
+  }
+
+  long getFieldsPosition() {
+    return mFieldsPosition;
   }
 
   @Override
@@ -119,7 +125,7 @@ public class AhatClassInstance extends AhatInstance {
    * @return Iterable over the instance field values.
    */
   public Iterable<FieldValue> getInstanceFields() {
-    return new InstanceFieldIterator(mFields, getClassObj());
+    return new InstanceFieldIterator(getStore(), mFieldsPosition, getClassObj());
   }
 
   @Override
@@ -323,10 +329,11 @@ public class AhatClassInstance extends AhatInstance {
 
   private static class InstanceFieldIterator implements Iterable<FieldValue>,
                                                         Iterator<FieldValue> {
-    // The complete list of instance field values to iterate over, including
-    // superclass field values.
-    private Value[] mValues;
-    private int mValueIndex;
+    // The heap dump to read the instance field values from, including
+    // superclass field values, and the position of the next value to read.
+    private final Parser.HprofBuffer mHprof;
+    private final Instances<AhatInstance> mInstances;
+    private long mPosition;
 
     // The list of field descriptors specific to the current class in the
     // class hierarchy, not including superclass field descriptors.
@@ -336,10 +343,11 @@ public class AhatClassInstance extends AhatInstance {
     private int mFieldIndex;
     private AhatClassObj mNextClassObj;
 
-    public InstanceFieldIterator(Value[] values, AhatClassObj classObj) {
-      mValues = values;
+    public InstanceFieldIterator(InstanceStore store, long position, AhatClassObj classObj) {
+      mHprof = store.getHprof();
+      mInstances = store.getInstances();
+      mPosition = position;
       mFields = classObj.getInstanceFields();
-      mValueIndex = 0;
       mFieldIndex = 0;
       mNextClassObj = classObj.getSuperClassObj();
     }
@@ -363,7 +371,8 @@ public class AhatClassInstance extends AhatInstance {
         throw new NoSuchElementException();
       }
       Field field = mFields[mFieldIndex++];
-      Value value = mValues[mValueIndex++];
+      Value value = mHprof.getValue(mPosition, field.type, mInstances);
+      mPosition += field.type.size(mHprof.getIdSize());
       return new FieldValue(field.name, field.type, value);
     }
 
@@ -378,7 +387,7 @@ public class AhatClassInstance extends AhatInstance {
    * For example, returns Reachability.WEAK for an instance of
    * java.lang.ref.WeakReference.
    */
-  private Reachability getJavaLangRefType() {
+  Reachability getJavaLangRefType() {
     AhatClassObj cls = getClassObj();
     while (cls != null) {
       switch (cls.getName()) {
@@ -16,16 +16,16 @@
 
 package com.android.ahat.heapdump;
 
+import com.android.ahat.dominators.SemiNcaDominators;
 import com.android.ahat.progress.Progress;
 import java.awt.image.BufferedImage;
-import java.util.ArrayDeque;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.EnumMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.RandomAccess;
 
 /**
  * A Java instance from a parsed heap dump. It is the base class used for all
@@ -47,26 +47,23 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
   // Field initialized via addRegisterednativeSize.
   private long mRegisteredNativeSize = 0;
 
-  // Fields initialized in computeReachability().
-  private Reachability mReachability = Reachability.UNREACHABLE;
-  private AhatInstance mNextInstanceToGcRoot;
-  private String mNextInstanceToGcRootField;
-  private ArrayList<AhatInstance> mReverseReferences;
+  // The store holding the columnar state of this instance, such as its
+  // reachability, dominator and retained sizes, and the index of this
+  // instance in that store. mStore is null for instances that are not part
+  // of a snapshot, such as placeholder instances.
+  private InstanceStore mStore;
+  private int mIndex = InstanceStore.NONE;
 
-  // Fields initialized in DominatorsComputation.computeDominators().
-  // mDominated - the list of instances immediately dominated by this instance.
-  // mRetainedSizes - retained size indexed by heap index.
-  private AhatInstance mImmediateDominator;
-  private List<AhatInstance> mDominated = new ArrayList<AhatInstance>();
-  private Size[] mRetainedSizes;
+  // Placeholder instances added to the instances dominated by this instance
+  // when diffing, or null if none have been added. The instances dominated
+  // in the snapshot itself are kept in the store.
+  private List<AhatInstance> mDominatedPlaceHolders;
 
   // The baseline instance for purposes of diff.
   private AhatInstance mBaseline;
 
-  // temporary user data associated with this instance. This is used for a
-  // couple different purposes:
-  // 1. During parsing of instances, to store temporary field data.
-  // 2. During dominators computation, to store the dominators computation state.
+  // temporary user data associated with this instance. This is used
+  // during parsing of instances, to store temporary field data.
   private Object mTemporaryUserData;
 
   AhatInstance(long id) {
@@ -83,6 +80,25 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
     mClassObj = classObj;
   }
 
+  /**
+   * Associates this instance with the store holding its columnar state.
+   */
+  void setStore(InstanceStore store, int index) {
+    mStore = store;
+    mIndex = index;
+  }
+
+  InstanceStore getStore() {
+    return mStore;
+  }
+
+  /**
+   * Returns the dense index of this instance in its store.
+   */
+  int getIndex() {
+    return mIndex;
+  }
+
   /**
    * Returns a unique identifier for this instance.
    *
@@ -100,7 +116,15 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the shallow size of the object
    */
   public Size getSize() {
-    return new Size(mClassObj.getInstanceSize() + getExtraJavaSize(), mRegisteredNativeSize);
+    return new Size(getJavaSize(), mRegisteredNativeSize);
+  }
+
+  /**
+   * Returns the shallow number of bytes used for this object on the Java
+   * heap, as included in getSize().
+   */
+  long getJavaSize() {
+    return mClassObj.getInstanceSize() + getExtraJavaSize();
   }
 
   /**
@@ -124,8 +148,12 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    */
   public Size getRetainedSize(AhatHeap heap) {
     int index = heap.getIndex();
-    if (mRetainedSizes != null && 0 <= index && index < mRetainedSizes.length) {
-      return mRetainedSizes[heap.getIndex()];
+    if (mStore != null && 0 <= index && index < mStore.getNumHeaps()) {
+      long javaSize = mStore.getRetainedJavaSize(index, mIndex);
+      long nativeSize = mStore.getRetainedNativeSize(index, mIndex);
+      if (javaSize != 0 || nativeSize != 0) {
+        return new Size(javaSize, nativeSize);
+      }
     }
     return Size.ZERO;
   }
@@ -138,13 +166,15 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the total retained size of the object
    */
   public Size getTotalRetainedSize() {
-    Size size = Size.ZERO;
-    if (mRetainedSizes != null) {
-      for (int i = 0; i < mRetainedSizes.length; i++) {
-        size = size.plus(mRetainedSizes[i]);
+    long javaSize = 0;
+    long nativeSize = 0;
+    if (mStore != null) {
+      for (int i = 0; i < mStore.getNumHeaps(); i++) {
+        javaSize += mStore.getRetainedJavaSize(i, mIndex);
+        nativeSize += mStore.getRetainedNativeSize(i, mIndex);
       }
     }
-    return size;
+    return (javaSize == 0 && nativeSize == 0) ? Size.ZERO : new Size(javaSize, nativeSize);
   }
 
   /**
@@ -160,7 +190,7 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the reachability of the instance.
    */
   public Reachability getReachability() {
-    return mReachability;
+    return mStore == null ? Reachability.UNREACHABLE : mStore.getReachability(mIndex);
   }
 
   /**
@@ -171,7 +201,7 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return true if the object is strongly reachable
    */
   public boolean isStronglyReachable() {
-    return mReachability == Reachability.STRONG;
+    return getReachability() == Reachability.STRONG;
   }
 
   /**
@@ -203,7 +233,7 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return true if the object is completely unreachable
    */
   public boolean isUnreachable() {
-    return mReachability == Reachability.UNREACHABLE;
+    return getReachability() == Reachability.UNREACHABLE;
   }
 
   /**
@@ -264,19 +294,62 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the immediate dominator of this instance
    */
   public AhatInstance getImmediateDominator() {
-    if (mImmediateDominator instanceof SuperRoot) {
+    if (mStore == null) {
+      return null;
+    }
+    AhatInstance dominator = mStore.get(mStore.getImmediateDominator(mIndex));
+    if (dominator instanceof SuperRoot) {
       return null;
     }
-    return mImmediateDominator;
+    return dominator;
   }
 
   /**
    * Returns a list of objects immediately dominated by this instance.
+   * The objects are in order of increasing id.
    *
    * @return list of immediately dominated objects
    */
   public List<AhatInstance> getDominated() {
-    return mDominated;
+    return new DominatedList();
+  }
+
+  /**
+   * A view of the instances immediately dominated by this instance, followed
+   * by any placeholder instances added to it when diffing.
+   */
+  private class DominatedList extends AbstractList<AhatInstance> implements RandomAccess {
+    private int numStored() {
+      return mStore == null ? 0 : mStore.getNumDominated(mIndex);
+    }
+
+    @Override
+    public AhatInstance get(int i) {
+      int stored = numStored();
+      if (i >= 0 && i < stored) {
+        return mStore.getDominated(mIndex, i);
+      }
+      if (mDominatedPlaceHolders == null) {
+        throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + stored);
+      }
+      return mDominatedPlaceHolders.get(i - stored);
+    }
+
+    @Override
+    public int size() {
+      int placeholders = mDominatedPlaceHolders == null ? 0 : mDominatedPlaceHolders.size();
+      return numStored() + placeholders;
+    }
+
+    @Override
+    public boolean add(AhatInstance inst) {
+      if (mDominatedPlaceHolders == null) {
+        mDominatedPlaceHolders = new ArrayList<AhatInstance>();
+      }
+      mDominatedPlaceHolders.add(inst);
+      modCount++;
+      return true;
+    }
   }
 
   /**
@@ -428,10 +501,10 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the objects referencing this object
    */
   public List<AhatInstance> getReverseReferences() {
-    if (mReverseReferences != null) {
-      return mReverseReferences;
+    if (mStore == null) {
+      return Collections.emptyList();
     }
-    return Collections.emptyList();
+    return mStore.getReverseReferences(mIndex);
   }
 
   /**
@@ -656,7 +729,34 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
     if (inst.isRoot()) {
       return null;
     }
-    return new PathElement(inst.mNextInstanceToGcRoot, inst.mNextInstanceToGcRootField);
+    AhatInstance next = inst.mStore.get(inst.mStore.getNextInstanceToGcRoot(inst.mIndex));
+    return new PathElement(next, next.getFieldToGcRootPath(inst));
+  }
+
+  /**
+   * Returns the description of the field of this instance that was followed
+   * to first reach the given instance when computing reachability.
+   * <p>
+   * The field is not stored during the reachability computation to save
+   * space. Instead it is recovered from the order references are visited in:
+   * references are visited breadth first, in order of the strength of the
+   * path to them, and in iteration order for paths of the same strength.
+   */
+  private String getFieldToGcRootPath(AhatInstance inst) {
+    Reachability reachability = getReachability();
+    String field = null;
+    Reachability fieldReachability = Reachability.UNREACHABLE;
+    for (Reference ref : getReferences()) {
+      if (ref.ref == inst) {
+        Reachability pathReachability = ref.reachability.notWeakerThan(reachability)
+            ? reachability : ref.reachability;
+        if (field == null || !fieldReachability.notWeakerThan(pathReachability)) {
+          field = ref.field;
+          fieldReachability = pathReachability;
+        }
+      }
+    }
+    return field;
   }
 
   /**
@@ -708,11 +808,10 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
 
   /**
    * Determine the reachability of the all instances reachable from the given
-   * root instance. Initializes the following fields:
-   *   mReachability
-   *   mNextInstanceToGcRoot
-   *   mNextInstanceToGcRootField
-   *   mReverseReferences
+   * root instance. Initializes the following state:
+   *   reachability
+   *   next instance to gc root
+   *   reverse references
    *
    * @param progress used to track progress of the traversal.
    * @param numInsts upper bound on the total number of instances reachable
@@ -723,92 +822,254 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
     // Start by doing a breadth first search through strong references.
     // Then continue the breadth first through each weaker kind of reference.
     progress.start("Computing reachability", numInsts);
-    EnumMap<Reachability, Queue<Reference>> queues = new EnumMap<>(Reachability.class);
-    for (Reachability reachability : Reachability.values()) {
-      queues.put(reachability, new ArrayDeque<Reference>());
+    Reachability[] reachabilities = Reachability.values();
+    EdgeQueue[] queues = new EdgeQueue[reachabilities.length];
+    for (int i = 0; i < queues.length; ++i) {
+      queues[i] = new EdgeQueue();
     }
 
+    AhatInstance superRoot = root;
+    InstanceStore store = superRoot.mStore;
+    store.setReachability(superRoot.mIndex, Reachability.STRONG);
+
+    // The indices of the instances reached, other than the super root, in
+    // the order they were first seen.
+    int[] order = new int[superRoot.mIndex];
+    int numReached = 0;
     for (Reference ref : root.getReferences()) {
-      queues.get(Reachability.STRONG).add(ref);
+      queues[Reachability.STRONG.ordinal()].add(superRoot.mIndex, ref.ref.mIndex);
     }
 
-    for (Reachability reachability : Reachability.values()) {
-      Queue<Reference> queue = queues.get(reachability);
+    for (Reachability reachability : reachabilities) {
+      EdgeQueue queue = queues[reachability.ordinal()];
       while (!queue.isEmpty()) {
-        Reference ref = queue.poll();
-        if (ref.ref.mReachability == Reachability.UNREACHABLE) {
-          // This is the first time we have seen ref.ref.
+        long edge = queue.poll();
+        int src = EdgeQueue.src(edge);
+        AhatInstance ref = store.get(EdgeQueue.dst(edge));
+        if (store.getReachability(ref.mIndex) == Reachability.UNREACHABLE) {
+          // This is the first time we have seen ref.
           progress.advance();
-          ref.ref.mReachability = reachability;
-          ref.ref.mNextInstanceToGcRoot = ref.src;
-          ref.ref.mNextInstanceToGcRootField = ref.field;
-          ref.ref.mReverseReferences = new ArrayList<AhatInstance>();
-
-          for (Reference childRef : ref.ref.getReferences()) {
-            if (childRef.reachability.notWeakerThan(reachability)) {
-              queue.add(childRef);
+          store.setReachability(ref.mIndex, reachability);
+          store.setNextInstanceToGcRoot(ref.mIndex, src);
+          order[numReached++] = ref.mIndex;
+
+          int end = store.getReferencesEnd(ref.mIndex);
+          for (int i = store.getReferencesStart(ref.mIndex); i < end; ++i) {
+            Reachability childReachability = store.isStrongReference(i)
+                ? Reachability.STRONG : ref.asClassInstance().getJavaLangRefType();
+            if (childReachability.notWeakerThan(reachability)) {
+              queue.add(ref.mIndex, store.getReferenceTarget(i));
             } else {
-              queues.get(childRef.reachability).add(childRef);
+              queues[childReachability.ordinal()].add(ref.mIndex, store.getReferenceTarget(i));
             }
           }
         }
-
-        // Note: We specifically exclude 'root' from the reverse references
-        // because it is a fake SuperRoot instance not present in the original
-        // heap dump.
-        if (ref.src != root) {
-          ref.ref.mReverseReferences.add(ref.src);
-        }
       }
     }
+    computeReverseReferences(store, order, numReached);
     progress.done();
   }
 
   /**
-   * Recursively compute the retained size of the given instance and all
-   * other instances it dominates.
+   * Records the reverse references of the instances in the store once their
+   * reachability is known. The references of every reached instance are
+   * recorded, in the same order as the reachability traversal visits them:
+   * by the reachability of the reference, then by the order in which the
+   * referring instances were reached.
+   *
+   * Note: We specifically exclude the super root from the reverse references
+   * because it is a fake SuperRoot instance not present in the original heap
+   * dump.
+   *
+   * @param order the indices of the reached instances, other than the super
+   *              root, in the order they were first reached.
+   * @param numReached the number of reached instances in order.
    */
-  static void computeRetainedSize(AhatInstance inst, int numHeaps) {
-    // Note: We can't use a recursive implementation because it can lead to
-    // stack overflow. Use an iterative implementation instead.
-    //
-    // Objects not yet processed will have mRetainedSizes set to null.
-    // Once prepared, an object will have mRetaiedSizes set to an array of 0
-    // sizes.
-    Deque<AhatInstance> deque = new ArrayDeque<AhatInstance>();
-    deque.push(inst);
+  private static void computeReverseReferences(InstanceStore store, int[] order,
+      int numReached) {
+    int[] offsets = new int[store.size() + 1];
+    for (int n = 0; n < numReached; ++n) {
+      int src = order[n];
+      int end = store.getReferencesEnd(src);
+      for (int i = store.getReferencesStart(src); i < end; ++i) {
+        offsets[store.getReferenceTarget(i) + 1]++;
+      }
+    }
+    for (int index = 0; index < store.size(); ++index) {
+      offsets[index + 1] += offsets[index];
+    }
 
-    while (!deque.isEmpty()) {
-      inst = deque.pop();
-      if (inst.mRetainedSizes == null) {
-        inst.mRetainedSizes = new Size[numHeaps];
-        for (int i = 0; i < numHeaps; i++) {
-          inst.mRetainedSizes[i] = Size.ZERO;
-        }
-        if (!(inst instanceof SuperRoot)) {
-          inst.mRetainedSizes[inst.mHeap.getIndex()] =
-            inst.mRetainedSizes[inst.mHeap.getIndex()].plus(inst.getSize());
-        }
-        deque.push(inst);
-        for (AhatInstance dominated : inst.mDominated) {
-          deque.push(dominated);
+    // References weaker than the instance they are from are visited along
+    // with the references of instances of their own reachability, ahead of
+    // those, so they are set aside until all of the instances of stronger
+    // reachability have been recorded. There are few of them, because they
+    // are only ever through the 'referent' field of a Reference.
+    int[] refs = new int[offsets[store.size()]];
+    int[] next = Arrays.copyOf(offsets, store.size());
+    Reachability[] reachabilities = Reachability.values();
+    EdgeQueue[] deferred = new EdgeQueue[reachabilities.length];
+    for (int i = 0; i < deferred.length; ++i) {
+      deferred[i] = new EdgeQueue();
+    }
+    int flushed = 0;
+    for (int n = 0; n < numReached; ++n) {
+      int src = order[n];
+      Reachability reachability = store.getReachability(src);
+      for (; flushed <= reachability.ordinal(); ++flushed) {
+        addDeferredReferences(store, deferred[flushed], refs, next);
+      }
+
+      int end = store.getReferencesEnd(src);
+      for (int i = store.getReferencesStart(src); i < end; ++i) {
+        Reachability refReachability = store.isStrongReference(i)
+            ? Reachability.STRONG : store.get(src).asClassInstance().getJavaLangRefType();
+        if (refReachability.notWeakerThan(reachability)) {
+          refs[next[store.getReferenceTarget(i)]++] = src;
+        } else {
+          deferred[refReachability.ordinal()].add(src, i);
         }
-      } else {
-        for (AhatInstance dominated : inst.mDominated) {
-          for (int i = 0; i < numHeaps; i++) {
-            inst.mRetainedSizes[i] = inst.mRetainedSizes[i].plus(dominated.mRetainedSizes[i]);
-          }
+      }
+    }
+    for (; flushed < deferred.length; ++flushed) {
+      addDeferredReferences(store, deferred[flushed], refs, next);
+    }
+    store.setReverseReferences(offsets, refs);
+  }
+
+  /**
+   * Records the reverse references set aside in the given queue, each
+   * stored as the index of the referring instance and the position of the
+   * reference.
+   */
+  private static void addDeferredReferences(InstanceStore store, EdgeQueue queue,
+      int[] refs, int[] next) {
+    while (!queue.isEmpty()) {
+      long edge = queue.poll();
+      refs[next[store.getReferenceTarget(EdgeQueue.dst(edge))]++] = EdgeQueue.src(edge);
+    }
+  }
+
+  /**
+   * A first in, first out queue of references between instances, each
+   * stored as the indices of the referring and referenced instances packed
+   * into a single long.
+   */
+  private static class EdgeQueue {
+    private long[] mEdges = new long[16];
+    private int mHead = 0;
+    private int mSize = 0;
+
+    public void add(int src, int dst) {
+      if (mSize == mEdges.length) {
+        long[] edges = new long[2 * mSize];
+        for (int i = 0; i < mSize; ++i) {
+          edges[i] = mEdges[(mHead + i) % mEdges.length];
         }
+        mEdges = edges;
+        mHead = 0;
       }
+      mEdges[(mHead + mSize++) % mEdges.length] = ((long)src << 32) | (dst & 0xFFFFFFFFL);
+    }
+
+    public boolean isEmpty() {
+      return mSize == 0;
+    }
+
+    public long poll() {
+      long edge = mEdges[mHead];
+      mHead = (mHead + 1) % mEdges.length;
+      mSize--;
+      return edge;
+    }
+
+    public static int src(long edge) {
+      return (int)(edge >>> 32);
+    }
+
+    public static int dst(long edge) {
+      return (int)edge;
     }
   }
 
-  Iterable<AhatInstance> getReferencesForDominators(Reachability retained) {
-    return new DominatorReferenceIterator(retained, getReferences());
+  /**
+   * Compute the immediate dominators of all instances reachable from the
+   * given root instance, considering only references that are at least as
+   * strong as the given retained reachability. Initializes the following
+   * state:
+   *   immediate dominator
+   *   dominated instances
+   *
+   * @param threads number of threads to use for the computation.
+   * @param progress used to track progress of the computation.
+   * @return the indices of the instances reachable from the root, ordered
+   *         such that each instance comes after its immediate dominator.
+   */
+  static int[] computeDominators(SuperRoot root, Reachability retained, int threads,
+      Progress progress) {
+    // Collect the retained references in compressed sparse row form, with
+    // the super root's references to the roots last.
+    InstanceStore store = root.getStore();
+    int superRoot = root.getIndex();
+    List<AhatInstance> roots = root.getRoots();
+    int[] offsets = new int[store.size() + 1];
+    int[] targets = new int[store.getReferencesStart(superRoot) + roots.size()];
+    int numTargets = 0;
+    for (int index = 0; index < superRoot; ++index) {
+      offsets[index] = numTargets;
+      int end = store.getReferencesEnd(index);
+      for (int i = store.getReferencesStart(index); i < end; ++i) {
+        if (store.isStrongReference(i)
+            || store.get(index).asClassInstance().getJavaLangRefType().notWeakerThan(retained)) {
+          targets[numTargets++] = store.getReferenceTarget(i);
+        }
+      }
+    }
+    offsets[superRoot] = numTargets;
+    for (AhatInstance inst : roots) {
+      targets[numTargets++] = inst.mIndex;
+    }
+    offsets[superRoot + 1] = numTargets;
+
+    SemiNcaDominators computation = new SemiNcaDominators(store.size(), offsets, targets)
+      .progress(progress)
+      .threads(threads);
+    int[] dominators = computation.computeDominators(superRoot);
+    for (int index = 0; index < dominators.length; ++index) {
+      if (dominators[index] != InstanceStore.NONE) {
+        store.setImmediateDominator(index, dominators[index]);
+      }
+    }
+    store.computeDominated();
+    return computation.getPreorder();
   }
 
-  void setDominator(AhatInstance dominator) {
-    mImmediateDominator = dominator;
-    mImmediateDominator.mDominated.add(this);
+  /**
+   * Compute the retained sizes of all instances reachable from the given
+   * root instance, based on the immediate dominators recorded for them.
+   *
+   * @param order the indices of the reachable instances, ordered such that
+   *              each instance comes after its immediate dominator, as
+   *              returned by computeDominators().
+   * @param threads number of threads to use for the computation.
+   * @param progress used to track progress of the computation.
+   */
+  static void computeRetainedSize(SuperRoot root, int[] order, int threads,
+      Progress progress) {
+    // Start with the shallow size of each instance, then add the retained
+    // size of each instance to its immediate dominator, working up from the
+    // leaves of the dominator tree. Each of those takes one unit of progress
+    // per instance.
+    progress.start("Computing retained sizes", 2L * order.length);
+    InstanceStore store = root.getStore();
+    for (int index : order) {
+      AhatInstance inst = store.get(index);
+      if (inst != root) {
+        store.addRetainedSize(inst.mHeap.getIndex(), index,
+            inst.getJavaSize(), inst.mRegisteredNativeSize);
+      }
+      progress.advance();
+    }
+    store.accumulateRetainedSizes(order, threads, progress);
+    progress.done();
   }
 }
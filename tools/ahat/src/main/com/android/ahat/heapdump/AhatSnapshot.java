@@ -16,8 +16,8 @@
 
 package com.android.ahat.heapdump;
 
-import com.android.ahat.dominators.Dominators;
 import com.android.ahat.progress.Progress;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -31,7 +31,7 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
   private final SuperRoot mSuperRoot;
 
   // List of all ahat instances.
-  private final Instances<AhatInstance> mInstances;
+  private Instances<AhatInstance> mInstances;
 
   private List<AhatHeap> mHeaps;
 
@@ -40,19 +40,38 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
   private AhatBitmapInstance.BitmapDumpData mBitmapDumpData = null;
 
   AhatSnapshot(SuperRoot root,
-               Instances<AhatInstance> instances,
+               InstanceStore store,
                List<AhatHeap> heaps,
                Site rootSite,
                Progress progress,
-               Reachability retained) {
+               Reachability retained,
+               int threads,
+               boolean analyzed) {
     mSuperRoot = root;
-    mInstances = instances;
+    mInstances = store.getInstances();
     mHeaps = heaps;
     mRootSite = rootSite;
 
-    AhatInstance.computeReachability(mSuperRoot, progress, mInstances.size());
+    // The reachability, dominators and retained sizes of the instances may
+    // already have been restored from an index cache.
+    if (!analyzed) {
+      AhatInstance.computeReachability(mSuperRoot, progress, mInstances.size());
+    }
 
     mBitmapDumpData = AhatBitmapInstance.findBitmapDumpData(mSuperRoot, mInstances);
+    if (mBitmapDumpData != null) {
+      // Instances referenced from the bitmap dump data shall not be counted.
+      // They are left out of the snapshot's instances, but not the instance
+      // store, which must keep the indices it has already assigned and
+      // still resolves references to them.
+      List<AhatInstance> counted = new ArrayList<AhatInstance>();
+      for (AhatInstance inst : mInstances) {
+        if (!mBitmapDumpData.isReferenced(inst)) {
+          counted.add(inst);
+        }
+      }
+      mInstances = new Instances<AhatInstance>(counted);
+    }
 
     for (AhatInstance inst : mInstances) {
       // Add this instance to its site.
@@ -69,36 +88,27 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
       }
     }
 
-    Dominators.Graph<AhatInstance> graph = new Dominators.Graph<AhatInstance>() {
-      @Override
-      public void setDominatorsComputationState(AhatInstance node, Object state) {
-        node.setTemporaryUserData(state);
-      }
-
-      @Override
-      public Object getDominatorsComputationState(AhatInstance node) {
-        return node.getTemporaryUserData();
-      }
-
-      @Override
-      public Iterable<AhatInstance> getReferencesForDominators(AhatInstance node) {
-        return node.getReferencesForDominators(retained);
-      }
-
-      @Override
-      public void setDominator(AhatInstance node, AhatInstance dominator) {
-        node.setDominator(dominator);
-      }
-    };
-    new Dominators(graph).progress(progress, mInstances.size()).computeDominators(mSuperRoot);
-
-    AhatInstance.computeRetainedSize(mSuperRoot, mHeaps.size());
+    if (!analyzed) {
+      int[] order = AhatInstance.computeDominators(mSuperRoot, retained, threads, progress);
+      AhatInstance.computeRetainedSize(mSuperRoot, order, threads, progress);
+    }
 
     for (AhatHeap heap : mHeaps) {
       heap.addToSize(mSuperRoot.getRetainedSize(heap));
     }
 
-    mRootSite.prepareForUse(0, mHeaps.size(), retained);
+    progress.start("Preparing sites", mInstances.size());
+    mRootSite.prepareForUse(0, mHeaps.size(), retained, progress);
+    mRootSite.indexObjects();
+    progress.done();
+  }
+
+  /**
+   * Returns the store holding the columnar state of the instances of this
+   * snapshot.
+   */
+  InstanceStore getStore() {
+    return mSuperRoot.getStore();
   }
 
   /**
@@ -161,7 +171,8 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
    * Returns a collection of "rooted" instances.
    * An instance is "rooted" if it is a GC root, or if it is retained by more
    * than one GC root. These are reachable instances that are not immediately
-   * dominated by any other instance in the heap.
+   * dominated by any other instance in the heap. The instances are in order
+   * of increasing id.
    *
    * @return collection of rooted instances
    */
@@ -18,12 +18,18 @@ package com.android.ahat.heapdump;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Provides a static method to diff two heap dumps.
@@ -119,6 +125,64 @@ public class Diff {
       return new Key(inst);
     }
 
+    /**
+     * Returns true if the given instance has this key. This is equivalent to
+     * equals(keyFor(inst)), but checks the fields that are cheap to compute
+     * before the string value.
+     */
+    public boolean matches(AhatInstance inst) {
+      AhatArrayInstance array = inst.asArrayInstance();
+      if (!mClass.equals(inst.getClassName())
+          || !mHeapName.equals(inst.getHeap().getName())
+          || !mClassName.equals(inst.isClassObj() ? inst.asClassObj().getName() : "")
+          || mArrayLength != (array == null ? 0 : array.getLength())) {
+        return false;
+      }
+      String string = inst.asString();
+      return mStringValue.equals(string == null ? "" : string);
+    }
+
+    /**
+     * Returns a 64 bit hash of the key of the given instance, for matching
+     * instances without constructing their keys. Instances with equal keys
+     * have equal hashes.
+     */
+    public static long hashFor(AhatInstance inst) {
+      String string = inst.asString();
+      AhatArrayInstance array = inst.asArrayInstance();
+      long hash = hash(HASH_SEED, inst.getClassName());
+      hash = hash(hash, inst.getHeap().getName());
+      hash = hash(hash, string == null ? "" : string);
+      hash = hash(hash, inst.isClassObj() ? inst.asClassObj().getName() : "");
+      return mix(hash + (array == null ? 0 : array.getLength()));
+    }
+
+    private static final long HASH_SEED = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    /**
+     * Combines the given hash with a hash of the given string, using 64 bit
+     * FNV-1a over the string's characters. The string's length is included
+     * so that the hash of a sequence of strings depends on where each string
+     * ends.
+     */
+    private static long hash(long hash, String str) {
+      for (int i = 0; i < str.length(); ++i) {
+        hash = (hash ^ str.charAt(i)) * HASH_PRIME;
+      }
+      return (hash ^ str.length()) * HASH_PRIME;
+    }
+
+    /**
+     * Returns the given hash with its bits mixed by the finalizer of
+     * MurmurHash3, so that hashes of similar keys differ in all bits.
+     */
+    private static long mix(long hash) {
+      hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+      hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      return hash ^ (hash >>> 33);
+    }
+
     @Override
     public boolean equals(Object other) {
       if (!(other instanceof Key)) {
@@ -179,68 +243,310 @@ public class Diff {
   }
 
   /**
-   * Recursively diff two dominator trees of instances.
+   * State shared by all the tasks diffing the dominator trees of two
+   * snapshots.
+   */
+  private static class InstancesDiff {
+    // The key hashes of the instances of each snapshot, by instance index.
+    public final long[] aKeys;
+    public final long[] bKeys;
+
+    // Lists of the placeholders created by each task.
+    public final Queue<List<AhatInstance>> placeholders
+      = new ConcurrentLinkedQueue<List<AhatInstance>>();
+
+    public InstancesDiff(long[] aKeys, long[] bKeys) {
+      this.aKeys = aKeys;
+      this.bKeys = bKeys;
+    }
+  }
+
+  /**
+   * Diff two lists of instances, each list being the instances immediately
+   * dominated by an instance in one of the snapshots, or the rooted instances
+   * of one of the snapshots.
    * PlaceHolder objects are appended to the lists as needed to ensure every
-   * object has a corresponding baseline in the other list. All PlaceHolder
-   * objects are also appended to the given placeholders list, so their Site
-   * info can be updated later on.
+   * object has a corresponding baseline in the other list, and are also
+   * appended to the given placeholders list. Pairs of lists of instances
+   * dominated by instances matched with each other are pushed to the given
+   * deque to be diffed in turn.
    */
-  private static void instances(List<AhatInstance> a, List<AhatInstance> b,
-      List<AhatInstance> placeholders) {
-    // Don't actually use recursion, because we could easily smash the stack.
-    // Instead we iterate.
-    Deque<InstanceListPair> deque = new ArrayDeque<InstanceListPair>();
-    deque.push(new InstanceListPair(a, b));
-    while (!deque.isEmpty()) {
-      InstanceListPair p = deque.pop();
-
-      // Group instances of the same equivalence class together.
-      Map<Key, InstanceListPair> byKey = new HashMap<Key, InstanceListPair>();
-      for (AhatInstance inst : p.a) {
-        Key key = Key.keyFor(inst);
-        InstanceListPair pair = byKey.get(key);
-        if (pair == null) {
-          pair = new InstanceListPair();
-          byKey.put(key, pair);
+  private static void instances(InstancesDiff diff, InstanceListPair p,
+      Deque<InstanceListPair> deque, List<AhatInstance> placeholders) {
+    int asize = p.a.size();
+    int bsize = p.b.size();
+    if (asize == 0 || bsize == 0) {
+      // Nothing can be matched.
+      for (int i = 0; i < asize; i++) {
+        p.b.add(createPlaceHolders(p.a.get(i), placeholders));
+      }
+      for (int i = 0; i < bsize; i++) {
+        p.a.add(createPlaceHolders(p.b.get(i), placeholders));
+      }
+      return;
+    }
+
+    // Group instances of the same equivalence class together, numbering the
+    // groups in the order they are first seen. The groups are formed by key
+    // hash, and checked against the actual keys where it matters below.
+    IdIndex groupsByHash = new IdIndex(asize + bsize);
+    int numGroups = 0;
+    int[] groups = new int[asize + bsize];
+    for (int i = 0; i < asize + bsize; i++) {
+      long hash = i < asize
+        ? diff.aKeys[p.a.get(i).getIndex()]
+        : diff.bKeys[p.b.get(i - asize).getIndex()];
+      int group = groupsByHash.get(hash);
+      if (group == IdIndex.NONE) {
+        group = numGroups++;
+        groupsByHash.put(hash, group);
+      }
+      groups[i] = group;
+    }
+
+    // Lay out the instances of each group contiguously, in their original
+    // order: a[astarts[g] .. astarts[g+1]) are the instances of group g in
+    // p.a, and likewise for b.
+    int[] astarts = new int[numGroups + 1];
+    int[] bstarts = new int[numGroups + 1];
+    for (int i = 0; i < asize + bsize; i++) {
+      (i < asize ? astarts : bstarts)[groups[i] + 1]++;
+    }
+    for (int g = 0; g < numGroups; g++) {
+      astarts[g + 1] += astarts[g];
+      bstarts[g + 1] += bstarts[g];
+    }
+    AhatInstance[] a = new AhatInstance[asize];
+    AhatInstance[] b = new AhatInstance[bsize];
+    int[] anext = Arrays.copyOf(astarts, numGroups);
+    int[] bnext = Arrays.copyOf(bstarts, numGroups);
+    for (int i = 0; i < asize; i++) {
+      a[anext[groups[i]]++] = p.a.get(i);
+    }
+    for (int i = 0; i < bsize; i++) {
+      b[bnext[groups[asize + i]]++] = p.b.get(i);
+    }
+
+    for (int g = 0; g < numGroups; g++) {
+      int astart = astarts[g];
+      int aend = astarts[g + 1];
+      int bstart = bstarts[g];
+      int bend = bstarts[g + 1];
+      if (astart < aend && bstart < bend && !sameKey(a, astart, aend, b, bstart, bend)) {
+        // The group mixes instances of different keys whose hashes collide.
+        // Split it by actual key.
+        Map<Key, InstanceListPair> byKey = new HashMap<Key, InstanceListPair>();
+        for (int i = astart; i < aend; i++) {
+          byKey.computeIfAbsent(Key.keyFor(a[i]), k -> new InstanceListPair()).a.add(a[i]);
+        }
+        for (int i = bstart; i < bend; i++) {
+          byKey.computeIfAbsent(Key.keyFor(b[i]), k -> new InstanceListPair()).b.add(b[i]);
+        }
+        for (InstanceListPair pair : byKey.values()) {
+          AhatInstance[] pa = pair.a.toArray(new AhatInstance[pair.a.size()]);
+          AhatInstance[] pb = pair.b.toArray(new AhatInstance[pair.b.size()]);
+          match(pa, 0, pa.length, pb, 0, pb.length, p, deque, placeholders);
         }
-        pair.a.add(inst);
+      } else {
+        match(a, astart, aend, b, bstart, bend, p, deque, placeholders);
+      }
+    }
+  }
+
+  /**
+   * Returns true if all the instances in the given ranges have the same key.
+   */
+  private static boolean sameKey(AhatInstance[] a, int astart, int aend,
+      AhatInstance[] b, int bstart, int bend) {
+    Key key = Key.keyFor(a[astart]);
+    for (int i = astart + 1; i < aend; i++) {
+      if (!key.matches(a[i])) {
+        return false;
       }
-      for (AhatInstance inst : p.b) {
-        Key key = Key.keyFor(inst);
-        InstanceListPair pair = byKey.get(key);
-        if (pair == null) {
-          pair = new InstanceListPair();
-          byKey.put(key, pair);
+    }
+    for (int i = bstart; i < bend; i++) {
+      if (!key.matches(b[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Diff the instances in the given ranges, which all have the same key.
+   * Leftover instances are given placeholders in the other list of p.
+   */
+  private static void match(AhatInstance[] a, int astart, int aend,
+      AhatInstance[] b, int bstart, int bend, InstanceListPair p,
+      Deque<InstanceListPair> deque, List<AhatInstance> placeholders) {
+    // Sort by retained size and assume the elements at the top of the lists
+    // correspond to each other in that order. This could probably be
+    // improved if desired, but it gives good enough results for now.
+    Arrays.sort(a, astart, aend, Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
+    Arrays.sort(b, bstart, bend, Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
+
+    int common = Math.min(aend - astart, bend - bstart);
+    for (int i = 0; i < common; i++) {
+      AhatInstance ainst = a[astart + i];
+      AhatInstance binst = b[bstart + i];
+      ainst.setBaseline(binst);
+      binst.setBaseline(ainst);
+      List<AhatInstance> adominated = ainst.getDominated();
+      List<AhatInstance> bdominated = binst.getDominated();
+      if (!adominated.isEmpty() || !bdominated.isEmpty()) {
+        deque.push(new InstanceListPair(adominated, bdominated));
+      }
+    }
+
+    // Add placeholder objects for anything leftover.
+    for (int i = astart + common; i < aend; i++) {
+      p.b.add(createPlaceHolders(a[i], placeholders));
+    }
+
+    for (int i = bstart + common; i < bend; i++) {
+      p.a.add(createPlaceHolders(b[i], placeholders));
+    }
+  }
+
+  /**
+   * Diffs pairs of lists of instances and, transitively, the lists of
+   * instances they dominate.
+   * <p>
+   * A task diffs the lists on its deque depth first. Whenever other threads
+   * of the pool may be idle, it forks the pair of lists nearest the roots of
+   * the dominator trees on its deque off to a new task, because that pair is
+   * likely to have the most work below it. Tasks never wait for the tasks
+   * they fork, so there is no limit on how deep the dominator trees can be.
+   */
+  @SuppressWarnings("serial")
+  private static class InstancesTask extends CountedCompleter<Void> {
+    private final InstancesDiff mDiff;
+    private final Deque<InstanceListPair> mDeque = new ArrayDeque<InstanceListPair>();
+
+    public InstancesTask(CountedCompleter<?> parent, InstancesDiff diff, InstanceListPair pair) {
+      super(parent);
+      mDiff = diff;
+      mDeque.push(pair);
+    }
+
+    @Override
+    public void compute() {
+      List<AhatInstance> placeholders = new ArrayList<AhatInstance>();
+      while (!mDeque.isEmpty()) {
+        instances(mDiff, mDeque.pop(), mDeque, placeholders);
+        while (mDeque.size() > 1 && getSurplusQueuedTaskCount() < 2) {
+          addToPendingCount(1);
+          new InstancesTask(this, mDiff, mDeque.removeLast()).fork();
         }
-        pair.b.add(inst);
       }
+      mDiff.placeholders.add(placeholders);
+      tryComplete();
+    }
+  }
+
+  /**
+   * Computes the key hash of every instance in a store, by instance index.
+   */
+  @SuppressWarnings("serial")
+  private static class HashTask extends RecursiveAction {
+    private static final int THRESHOLD = 4096;
+
+    private final InstanceStore mStore;
+    private final long[] mKeys;
+    private final int mStart;
+    private final int mEnd;
+
+    public HashTask(InstanceStore store, long[] keys, int start, int end) {
+      mStore = store;
+      mKeys = keys;
+      mStart = start;
+      mEnd = end;
+    }
 
-      // diff objects from the same key class.
-      for (InstanceListPair pair : byKey.values()) {
-        // Sort by retained size and assume the elements at the top of the lists
-        // correspond to each other in that order. This could probably be
-        // improved if desired, but it gives good enough results for now.
-        Collections.sort(pair.a, Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
-        Collections.sort(pair.b, Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
-
-        int common = Math.min(pair.a.size(), pair.b.size());
-        for (int i = 0; i < common; i++) {
-          AhatInstance ainst = pair.a.get(i);
-          AhatInstance binst = pair.b.get(i);
-          ainst.setBaseline(binst);
-          binst.setBaseline(ainst);
-          deque.push(new InstanceListPair(ainst.getDominated(), binst.getDominated()));
+    @Override
+    protected void compute() {
+      if (mEnd - mStart <= THRESHOLD) {
+        for (int i = mStart; i < mEnd; i++) {
+          mKeys[i] = Key.hashFor(mStore.get(i));
         }
+        return;
+      }
+
+      int mid = (mStart + mEnd) >>> 1;
+      invokeAll(new HashTask(mStore, mKeys, mStart, mid),
+                new HashTask(mStore, mKeys, mid, mEnd));
+    }
+  }
+
+  /**
+   * Returns the key hashes of the instances of the given snapshot, by
+   * instance index.
+   */
+  private static long[] keys(ForkJoinPool pool, AhatSnapshot snapshot) {
+    InstanceStore store = snapshot.getStore();
+
+    // The last index of the store is for the super root, which is never
+    // matched against anything.
+    long[] keys = new long[store.size()];
+    if (pool == null) {
+      for (int i = 0; i < keys.length - 1; i++) {
+        keys[i] = Key.hashFor(store.get(i));
+      }
+    } else {
+      pool.invoke(new HashTask(store, keys, 0, keys.length - 1));
+    }
+    return keys;
+  }
 
-        // Add placeholder objects for anything leftover.
-        for (int i = common; i < pair.a.size(); i++) {
-          p.b.add(createPlaceHolders(pair.a.get(i), placeholders));
+  /**
+   * Recursively diff the dominator trees of two snapshots, using the given
+   * number of threads.
+   * PlaceHolder objects are added to the dominator trees as needed to
+   * ensure every object has a corresponding baseline in the other tree.
+   * Returns all the PlaceHolder objects, so their Site info can be updated
+   * later on.
+   */
+  private static List<AhatInstance> instances(AhatSnapshot a, AhatSnapshot b, int threads) {
+    ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    try {
+      InstancesDiff diff = new InstancesDiff(keys(pool, a), keys(pool, b));
+      InstanceListPair roots = new InstanceListPair(a.getRooted(), b.getRooted());
+      if (pool == null) {
+        // Don't actually use recursion, because we could easily smash the
+        // stack. Instead we iterate.
+        Deque<InstanceListPair> deque = new ArrayDeque<InstanceListPair>();
+        List<AhatInstance> placeholders = new ArrayList<AhatInstance>();
+        deque.push(roots);
+        while (!deque.isEmpty()) {
+          instances(diff, deque.pop(), deque, placeholders);
         }
+        diff.placeholders.add(placeholders);
+      } else {
+        pool.invoke(new InstancesTask(null, diff, roots));
+      }
 
-        for (int i = common; i < pair.b.size(); i++) {
-          p.a.add(createPlaceHolders(pair.b.get(i), placeholders));
+      // Order the placeholders by the instances they stand in for, so they
+      // are added to sites in the same order regardless of how the work was
+      // divided between threads.
+      List<AhatInstance> aplaceholders = new ArrayList<AhatInstance>();
+      List<AhatInstance> bplaceholders = new ArrayList<AhatInstance>();
+      InstanceStore bstore = b.getStore();
+      for (List<AhatInstance> placeholders : diff.placeholders) {
+        for (AhatInstance placeholder : placeholders) {
+          boolean inA = placeholder.getBaseline().getStore() == bstore;
+          (inA ? aplaceholders : bplaceholders).add(placeholder);
         }
       }
+      Comparator<AhatInstance> byBaseline
+        = Comparator.comparingInt(placeholder -> placeholder.getBaseline().getIndex());
+      aplaceholders.sort(byBaseline);
+      bplaceholders.sort(byBaseline);
+      aplaceholders.addAll(bplaceholders);
+      return aplaceholders;
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
     }
   }
 
@@ -325,11 +631,32 @@ public class Diff {
    * to corresponding instances in snapshot <code>b</code>. The snapshots need
    * not come from the same running process, application version, or platform
    * version.
+   * <p>
+   * This uses as many threads as there are available processors.
    *
    * @param a one of the snapshots to diff
    * @param b the other of the snapshots to diff
    */
   public static void snapshots(AhatSnapshot a, AhatSnapshot b) {
+    snapshots(a, b, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Performs a diff of two snapshots using the given number of threads.
+   * Each snapshot will be set as the baseline for the other snapshot.
+   * <p>
+   * The result of the diff does not depend on the number of threads used.
+   *
+   * @param a one of the snapshots to diff
+   * @param b the other of the snapshots to diff
+   * @param threads the number of threads to use for the diff
+   * @see #snapshots(AhatSnapshot, AhatSnapshot)
+   */
+  public static void snapshots(AhatSnapshot a, AhatSnapshot b, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads < 1");
+    }
+
     a.setBaseline(b);
     b.setBaseline(a);
 
@@ -337,8 +664,7 @@ public class Diff {
     heaps(a.getHeaps(), b.getHeaps());
 
     // Diff the instances of each snapshot.
-    List<AhatInstance> placeholders = new ArrayList<AhatInstance>();
-    instances(a.getRooted(), b.getRooted(), placeholders);
+    List<AhatInstance> placeholders = instances(a, b, threads);
 
     // Diff the sites of each snapshot.
     // This requires the instances have already been diffed.
@@ -349,5 +675,9 @@ public class Diff {
     for (AhatInstance placeholder : placeholders) {
       placeholder.getBaseline().getSite().getBaseline().addInstance(placeholder);
     }
+
+    // Reindex the objects of each snapshot to include the placeholders.
+    a.getRootSite().indexObjects();
+    b.getRootSite().indexObjects();
   }
 }
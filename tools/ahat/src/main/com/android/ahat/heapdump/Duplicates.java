@@ -0,0 +1,521 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Strings and primitive arrays of a heap dump that have identical contents.
+ * <p>
+ * Duplicates are grouped by content: strings by their characters, and
+ * primitive arrays by their type and elements. Arrays that hold the value of
+ * a string are only considered as part of the string, and unreachable
+ * instances are not considered at all. For each group, all
+ * but the instance retaining the most memory are counted as wasted, because
+ * they could be replaced by references to that one instance.
+ * <p>
+ * Contents are hashed and compared by reading them straight from the heap
+ * dump, without unpacking array elements into Values, so that heap dumps
+ * with large numbers of strings and arrays can be analyzed quickly. Hashing
+ * is done in parallel.
+ */
+public class Duplicates {
+  /**
+   * A group of strings or primitive arrays with identical contents.
+   */
+  public static class Group {
+    private final List<AhatInstance> mInstances;
+    private final AhatInstance mKept;
+    private final Size mWastedSize;
+
+    Group(List<AhatInstance> instances, AhatInstance kept, Size wastedSize) {
+      mInstances = instances;
+      mKept = kept;
+      mWastedSize = wastedSize;
+    }
+
+    /**
+     * Returns the instances of the group, in order of instance id.
+     *
+     * @return the instances of the group
+     */
+    public List<AhatInstance> getInstances() {
+      return mInstances;
+    }
+
+    /**
+     * Returns the instance of the group that retains the most memory, which
+     * is the one not counted as wasted.
+     *
+     * @return the instance of the group that is kept
+     */
+    public AhatInstance getKept() {
+      return mKept;
+    }
+
+    /**
+     * Returns the total retained size of the instances of the group other
+     * than the one kept.
+     *
+     * @return the size wasted by the group
+     */
+    public Size getWastedSize() {
+      return mWastedSize;
+    }
+  }
+
+  /**
+   * The memory wasted by duplicates allocated at an allocation site.
+   */
+  public static class SiteWaste {
+    private final Site mSite;
+    private Size mWastedSize = Size.ZERO;
+    private int mNumDuplicates = 0;
+
+    SiteWaste(Site site) {
+      mSite = site;
+    }
+
+    /**
+     * Returns the allocation site.
+     *
+     * @return the allocation site
+     */
+    public Site getSite() {
+      return mSite;
+    }
+
+    /**
+     * Returns the total retained size of the duplicates allocated at the
+     * site, not including the instances kept.
+     *
+     * @return the size wasted by duplicates allocated at the site
+     */
+    public Size getWastedSize() {
+      return mWastedSize;
+    }
+
+    /**
+     * Returns the number of duplicates allocated at the site, not including
+     * the instances kept.
+     *
+     * @return the number of duplicates allocated at the site
+     */
+    public int getNumDuplicates() {
+      return mNumDuplicates;
+    }
+  }
+
+  private final List<Group> mStrings = new ArrayList<Group>();
+  private final List<Group> mArrays = new ArrayList<Group>();
+  private final List<SiteWaste> mSites = new ArrayList<SiteWaste>();
+  private Size mWastedSize = Size.ZERO;
+
+  private Duplicates() {
+  }
+
+  /**
+   * Returns the groups of duplicated strings, ordered by decreasing wasted
+   * size.
+   *
+   * @return the groups of duplicated strings
+   */
+  public List<Group> getStrings() {
+    return mStrings;
+  }
+
+  /**
+   * Returns the groups of duplicated primitive arrays, ordered by decreasing
+   * wasted size. Arrays holding the value of a string are not included.
+   *
+   * @return the groups of duplicated primitive arrays
+   */
+  public List<Group> getArrays() {
+    return mArrays;
+  }
+
+  /**
+   * Returns the memory wasted by duplicates for each allocation site with
+   * duplicates, ordered by decreasing wasted size.
+   *
+   * @return the memory wasted by duplicates for each allocation site
+   */
+  public List<SiteWaste> getSites() {
+    return mSites;
+  }
+
+  /**
+   * Returns the total size wasted by duplicated strings and arrays.
+   *
+   * @return the total size wasted by duplicates
+   */
+  public Size getWastedSize() {
+    return mWastedSize;
+  }
+
+  /**
+   * The contents of the strings and primitive arrays of a snapshot, by
+   * candidate number. Candidates are the reachable strings and primitive
+   * arrays of the snapshot, in order of instance index.
+   */
+  private static class Contents {
+    public final InstanceStore store;
+    public final Parser.HprofBuffer hprof;
+    public final int[] instances;
+
+    // The index of the array holding the contents of each candidate, which
+    // is the candidate itself for arrays, or NONE for strings whose value
+    // could not be read.
+    public final int[] arrays;
+
+    // The position in the heap dump and length in bytes of the contents of
+    // each candidate.
+    public final long[] positions;
+    public final long[] lengths;
+    public final long[] hashes;
+
+    public Contents(InstanceStore store, int[] instances) {
+      this.store = store;
+      this.hprof = store.getHprof();
+      this.instances = instances;
+      this.arrays = new int[instances.length];
+      this.positions = new long[instances.length];
+      this.lengths = new long[instances.length];
+      this.hashes = new long[instances.length];
+    }
+
+    /**
+     * Finds and hashes the contents of the given candidate.
+     */
+    public void hash(int candidate) {
+      AhatInstance inst = store.get(instances[candidate]);
+      AhatArrayInstance array = inst.asArrayInstance();
+      long offset = 0;
+      long count = 0;
+      if (array == null) {
+        // Read the value of a string the same way as
+        // AhatClassInstance.asString.
+        AhatClassInstance str = inst.asClassInstance();
+        AhatInstance value = str.getRefField("value");
+        array = value == null ? null : value.asArrayInstance();
+        if (array == null || array.getElementsPosition() < 0) {
+          arrays[candidate] = InstanceStore.NONE;
+          return;
+        }
+        count = str.getIntField("count", array.getLength());
+        offset = str.getIntField("offset", 0);
+        if (offset < 0 || count < 0 || offset + count > array.getLength()) {
+          arrays[candidate] = InstanceStore.NONE;
+          return;
+        }
+      } else {
+        count = array.getLength();
+      }
+
+      int elementSize = array.getElementSize();
+      arrays[candidate] = array.getIndex();
+      positions[candidate] = array.getElementsPosition() + offset * elementSize;
+      lengths[candidate] = count * elementSize;
+
+      // The hash includes the type of the contents, so that strings and
+      // arrays of different types with the same bytes are told apart.
+      long hash = HASH_SEED;
+      hash = (hash ^ (array == inst ? 1 : 2)) * HASH_PRIME;
+      hash = (hash ^ array.getClassObj().getIndex()) * HASH_PRIME;
+      hash = (hash ^ lengths[candidate]) * HASH_PRIME;
+      long position = positions[candidate];
+      long end = position + lengths[candidate];
+      for (; position + 8 <= end; position += 8) {
+        hash = (hash ^ hprof.getLong(position)) * HASH_PRIME;
+      }
+      for (; position < end; position++) {
+        hash = (hash ^ hprof.getByte(position)) * HASH_PRIME;
+      }
+      hashes[candidate] = mix(hash);
+    }
+
+    /**
+     * Returns true if the given candidates have the same contents.
+     */
+    public boolean same(int a, int b) {
+      AhatInstance ainst = store.get(instances[a]);
+      AhatInstance binst = store.get(instances[b]);
+      if (ainst.isArrayInstance() != binst.isArrayInstance()
+          || store.get(arrays[a]).getClassObj() != store.get(arrays[b]).getClassObj()
+          || lengths[a] != lengths[b]) {
+        return false;
+      }
+
+      long apos = positions[a];
+      long bpos = positions[b];
+      long end = apos + lengths[a];
+      for (; apos + 8 <= end; apos += 8, bpos += 8) {
+        if (hprof.getLong(apos) != hprof.getLong(bpos)) {
+          return false;
+        }
+      }
+      for (; apos < end; apos++, bpos++) {
+        if (hprof.getByte(apos) != hprof.getByte(bpos)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final long HASH_SEED = 0xcbf29ce484222325L;
+  private static final long HASH_PRIME = 0x100000001b3L;
+
+  /**
+   * Returns the given hash with its bits mixed by the finalizer of
+   * MurmurHash3. Contents are hashed a word at a time, which leaves the low
+   * bits of the hash poorly mixed.
+   */
+  private static long mix(long hash) {
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  /**
+   * Runs the given body for each value in a range, splitting the range
+   * between the threads of the pool it is invoked in.
+   */
+  @SuppressWarnings("serial")
+  private static class ForEachTask extends RecursiveAction {
+    private static final int THRESHOLD = 1024;
+
+    private final IntConsumer mBody;
+    private final int mStart;
+    private final int mEnd;
+
+    public ForEachTask(IntConsumer body, int start, int end) {
+      mBody = body;
+      mStart = start;
+      mEnd = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (mEnd - mStart <= THRESHOLD) {
+        for (int i = mStart; i < mEnd; i++) {
+          mBody.accept(i);
+        }
+        return;
+      }
+
+      int mid = (mStart + mEnd) >>> 1;
+      invokeAll(new ForEachTask(mBody, mStart, mid), new ForEachTask(mBody, mid, mEnd));
+    }
+  }
+
+  /**
+   * Runs the given body for each value from 0 up to size, using the given
+   * pool, or on the calling thread if the pool is null.
+   */
+  private static void forEach(ForkJoinPool pool, int size, IntConsumer body) {
+    if (pool == null) {
+      for (int i = 0; i < size; i++) {
+        body.accept(i);
+      }
+    } else {
+      pool.invoke(new ForEachTask(body, 0, size));
+    }
+  }
+
+  /**
+   * Finds the duplicated strings and primitive arrays of the given snapshot,
+   * using the given number of threads. The results are the same for any
+   * number of threads.
+   *
+   * @param snapshot the snapshot to find duplicates in
+   * @param threads the number of threads to use
+   * @return the duplicates of the snapshot
+   */
+  public static Duplicates find(AhatSnapshot snapshot, int threads) {
+    InstanceStore store = snapshot.getStore();
+
+    // The last index of the store is for the super root.
+    int[] candidates = new int[16];
+    int numCandidates = 0;
+    for (int i = 0; i < store.size() - 1; i++) {
+      AhatInstance inst = store.get(i);
+      if (inst.isUnreachable()) {
+        continue;
+      }
+      AhatArrayInstance array = inst.asArrayInstance();
+      if ((array != null && array.getElementsPosition() >= 0)
+          || (inst.isClassInstance() && "java.lang.String".equals(inst.getClassName()))) {
+        if (numCandidates == candidates.length) {
+          candidates = Arrays.copyOf(candidates, 2 * numCandidates);
+        }
+        candidates[numCandidates++] = i;
+      }
+    }
+    Contents contents = new Contents(store, Arrays.copyOf(candidates, numCandidates));
+
+    ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    try {
+      forEach(pool, numCandidates, contents::hash);
+
+      // Arrays holding the value of a string are left out, so that the
+      // memory they waste is not counted twice.
+      BitSet values = new BitSet(store.size());
+      for (int c = 0; c < numCandidates; c++) {
+        int array = contents.arrays[c];
+        if (array != contents.instances[c] && array != InstanceStore.NONE) {
+          values.set(array);
+        }
+      }
+
+      // Group the candidates by hash, laying out the candidates of each
+      // group contiguously in order of instance index:
+      // members[starts[g] .. starts[g+1]) are the candidates of group g.
+      IdIndex groupsByHash = new IdIndex(numCandidates);
+      int numGroups = 0;
+      int[] groups = new int[numCandidates];
+      for (int c = 0; c < numCandidates; c++) {
+        if (contents.arrays[c] == InstanceStore.NONE || values.get(contents.instances[c])) {
+          groups[c] = IdIndex.NONE;
+          continue;
+        }
+        int group = groupsByHash.get(contents.hashes[c]);
+        if (group == IdIndex.NONE) {
+          group = numGroups++;
+          groupsByHash.put(contents.hashes[c], group);
+        }
+        groups[c] = group;
+      }
+      int[] starts = new int[numGroups + 1];
+      for (int c = 0; c < numCandidates; c++) {
+        if (groups[c] != IdIndex.NONE) {
+          starts[groups[c] + 1]++;
+        }
+      }
+      for (int g = 0; g < numGroups; g++) {
+        starts[g + 1] += starts[g];
+      }
+      int[] members = new int[starts[numGroups]];
+      int[] next = Arrays.copyOf(starts, numGroups);
+      for (int c = 0; c < numCandidates; c++) {
+        if (groups[c] != IdIndex.NONE) {
+          members[next[groups[c]]++] = c;
+        }
+      }
+
+      // Verify the contents of the members of each group are the same,
+      // splitting groups on hash collisions: firsts[m] is the position in
+      // members of the first member of its group with the same contents.
+      int[] firsts = new int[members.length];
+      forEach(pool, numGroups, g -> {
+        for (int m = starts[g]; m < starts[g + 1]; m++) {
+          firsts[m] = m;
+          for (int f = starts[g]; f < m; f++) {
+            if (firsts[f] == f && contents.same(members[f], members[m])) {
+              firsts[m] = f;
+              break;
+            }
+          }
+        }
+      });
+
+      Duplicates duplicates = new Duplicates();
+      Map<Site, SiteWaste> sites = new HashMap<Site, SiteWaste>();
+      for (int g = 0; g < numGroups; g++) {
+        if (starts[g + 1] - starts[g] < 2) {
+          continue;
+        }
+
+        for (int f = starts[g]; f < starts[g + 1]; f++) {
+          if (firsts[f] != f) {
+            continue;
+          }
+
+          List<AhatInstance> instances = new ArrayList<AhatInstance>();
+          for (int m = f; m < starts[g + 1]; m++) {
+            if (firsts[m] == f) {
+              instances.add(store.get(contents.instances[members[m]]));
+            }
+          }
+          if (instances.size() > 1) {
+            duplicates.add(instances, sites);
+          }
+        }
+      }
+
+      Comparator<Group> byWasted = (a, b) -> {
+        int cmp = b.getWastedSize().compareTo(a.getWastedSize());
+        return cmp != 0 ? cmp
+          : Long.compare(a.getInstances().get(0).getId(), b.getInstances().get(0).getId());
+      };
+      duplicates.mStrings.sort(byWasted);
+      duplicates.mArrays.sort(byWasted);
+      duplicates.mSites.addAll(sites.values());
+      duplicates.mSites.sort((a, b) -> {
+        int cmp = b.getWastedSize().compareTo(a.getWastedSize());
+        return cmp != 0 ? cmp : Long.compare(a.getSite().getId(), b.getSite().getId());
+      });
+      return duplicates;
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Adds a group of instances with identical contents, in order of instance
+   * id, and the memory they waste to their allocation sites.
+   */
+  private void add(List<AhatInstance> instances, Map<Site, SiteWaste> sites) {
+    AhatInstance kept = instances.get(0);
+    for (AhatInstance inst : instances) {
+      if (inst.getTotalRetainedSize().compareTo(kept.getTotalRetainedSize()) > 0) {
+        kept = inst;
+      }
+    }
+
+    Size wasted = Size.ZERO;
+    for (AhatInstance inst : instances) {
+      if (inst != kept) {
+        Size size = inst.getTotalRetainedSize();
+        wasted = wasted.plus(size);
+        SiteWaste site = sites.get(inst.getSite());
+        if (site == null) {
+          site = new SiteWaste(inst.getSite());
+          sites.put(inst.getSite(), site);
+        }
+        site.mWastedSize = site.mWastedSize.plus(size);
+        site.mNumDuplicates++;
+      }
+    }
+
+    Group group = new Group(Collections.unmodifiableList(instances), kept, wasted);
+    (kept.isArrayInstance() ? mArrays : mStrings).add(group);
+    mWastedSize = mWastedSize.plus(wasted);
+  }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompresses a gzip or zstd compressed heap dump into a temporary file on
+ * a background thread, once started.
+ * <p>
+ * The decompressed heap dump is memory mapped a chunk at a time as soon as
+ * each chunk has been written, so that the first pass of the parser can read
+ * through the heap dump while it is still being decompressed. Once
+ * decompression has finished, the chunks cover the whole heap dump and can be
+ * read from in any order, as for an uncompressed heap dump.
+ * <p>
+ * The temporary file is created next to the compressed heap dump, where there
+ * is more likely to be room for a decompressed heap dump than in the default
+ * temporary directory, which is used instead if the heap dump's directory
+ * can't be written to. The temporary file is deleted as soon as it is
+ * created, so that it is cleaned up however ahat exits. Its contents remain
+ * accessible through the mapped chunks.
+ * <p>
+ * Zstd compressed heap dumps are decompressed using the zstd command, because
+ * the Java runtime has no built in support for zstd.
+ */
+class HprofDecompressor implements Runnable {
+  // The size of each mapped chunk of the decompressed heap dump. Chunks are
+  // smaller than for uncompressed heap dumps so that the parser can start on
+  // a chunk soon after it has been decompressed.
+  static final int CHUNK_SIZE = 1 << 26;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final File mFile;
+  private final boolean mZstd;
+  private final long mCompressedSize;
+
+  // Set by start.
+  private CountingInputStream mCompressed;
+  private InputStream mIn;
+  private Process mProcess;    // null if not decompressing with a command.
+  private FileChannel mChannel;
+
+  // Whether decompression has been started, the chunks mapped so far, and
+  // the number of compressed bytes read by the time each was written.
+  // Guarded by this.
+  private boolean mStarted = false;
+  private final List<ByteBuffer> mChunks = new ArrayList<ByteBuffer>();
+  private long[] mCompressedEnds = new long[16];
+  private boolean mDone = false;
+  private IOException mError = null;
+
+  /**
+   * An input stream that counts the bytes read through it, so that progress
+   * through a compressed file can be reported.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    private volatile long mCount = 0;
+
+    public CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        mCount++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        mCount += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      mCount += skipped;
+      return skipped;
+    }
+
+    public long getCount() {
+      return mCount;
+    }
+  }
+
+  /**
+   * Returns a decompressor for the given file if it is gzip or zstd
+   * compressed, or null if the file is not compressed. Decompression doesn't
+   * begin until the decompressor is started.
+   *
+   * @param file the possibly compressed heap dump
+   * @return the decompressor, or null if the file is not compressed
+   * @throws IOException if the file could not be read
+   */
+  static HprofDecompressor open(File file) throws IOException {
+    byte[] magic = new byte[4];
+    int length = 0;
+    try (InputStream in = new FileInputStream(file)) {
+      int n;
+      while (length < magic.length && (n = in.read(magic, length, magic.length - length)) > 0) {
+        length += n;
+      }
+    }
+
+    boolean gzip = length >= 2 && magic[0] == (byte)0x1f && magic[1] == (byte)0x8b;
+    boolean zstd = length >= 4 && magic[0] == (byte)0x28 && magic[1] == (byte)0xb5
+      && magic[2] == (byte)0x2f && magic[3] == (byte)0xfd;
+    if (!gzip && !zstd) {
+      return null;
+    }
+
+    return new HprofDecompressor(file, zstd);
+  }
+
+  private HprofDecompressor(File file, boolean zstd) {
+    mFile = file;
+    mZstd = zstd;
+    mCompressedSize = file.length();
+  }
+
+  /**
+   * Starts decompressing the file on a background thread, unless it has
+   * already been started.
+   *
+   * @throws IOException if decompression could not be started
+   */
+  synchronized void start() throws IOException {
+    if (mStarted) {
+      return;
+    }
+
+    File temp;
+    try {
+      temp = File.createTempFile("ahat-", ".hprof", mFile.getAbsoluteFile().getParentFile());
+    } catch (IOException e) {
+      temp = File.createTempFile("ahat-", ".hprof");
+    }
+    mChannel = FileChannel.open(temp.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (!temp.delete()) {
+      temp.deleteOnExit();
+    }
+
+    mCompressed = new CountingInputStream(new FileInputStream(mFile));
+    if (mZstd) {
+      try {
+        mProcess = new ProcessBuilder("zstd", "-d", "-c", "-q")
+          .redirectError(ProcessBuilder.Redirect.INHERIT)
+          .start();
+      } catch (IOException e) {
+        mCompressed.close();
+        mChannel.close();
+        throw new IOException("Unable to run the zstd command to decompress " + mFile, e);
+      }
+      mIn = mProcess.getInputStream();
+      Thread feeder = new Thread(this::feed, "ahat-decompress-input");
+      feeder.setDaemon(true);
+      feeder.start();
+    } else {
+      mProcess = null;
+      try {
+        mIn = new GZIPInputStream(mCompressed, BUFFER_SIZE);
+      } catch (IOException e) {
+        mCompressed.close();
+        mChannel.close();
+        throw e;
+      }
+    }
+
+    mStarted = true;
+    Thread thread = new Thread(this, "ahat-decompress");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Copies the compressed file to the zstd command.
+   */
+  private void feed() {
+    try (OutputStream out = mProcess.getOutputStream()) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int n;
+      while ((n = mCompressed.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+    } catch (IOException e) {
+      // The command exits with an error if it doesn't get all of its input,
+      // which is reported once the decompressed output has been read.
+    } finally {
+      try {
+        mCompressed.close();
+      } catch (IOException e) {
+        // Nothing more to do with the input.
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      // The buffer is only written once it is full, so that the chunk size,
+      // which is a multiple of the buffer size, is always reached exactly.
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      long written = 0;
+      int n;
+      while ((n = mIn.read(buffer.array(), buffer.position(), buffer.remaining())) >= 0) {
+        buffer.position(buffer.position() + n);
+        if (!buffer.hasRemaining()) {
+          written += write(buffer, written);
+          if (written % CHUNK_SIZE == 0) {
+            publish(written - CHUNK_SIZE, CHUNK_SIZE);
+          }
+        }
+      }
+      written += write(buffer, written);
+      if (written % CHUNK_SIZE != 0) {
+        publish(written - written % CHUNK_SIZE, written % CHUNK_SIZE);
+      }
+
+      if (mProcess != null) {
+        int status = mProcess.waitFor();
+        if (status != 0) {
+          throw new IOException("zstd failed to decompress " + mFile + " with status " + status);
+        }
+      }
+      finish(null);
+    } catch (IOException e) {
+      finish(e);
+    } catch (InterruptedException e) {
+      finish(new InterruptedIOException("Interrupted decompressing " + mFile));
+    } finally {
+      try {
+        mIn.close();
+        mCompressed.close();
+        mChannel.close();
+      } catch (IOException e) {
+        // The chunks that have been mapped remain valid.
+      }
+      if (mProcess != null) {
+        mProcess.destroy();
+      }
+    }
+  }
+
+  /**
+   * Writes the bytes put in the given buffer to the temporary file at the
+   * given position and clears the buffer. Returns the number of bytes
+   * written.
+   */
+  private int write(ByteBuffer buffer, long position) throws IOException {
+    buffer.flip();
+    int written = 0;
+    while (buffer.hasRemaining()) {
+      written += mChannel.write(buffer, position + written);
+    }
+    buffer.clear();
+    return written;
+  }
+
+  /**
+   * Maps the chunk of the temporary file with the given start and length,
+   * which has been written completely, and makes it available to readers.
+   */
+  private void publish(long start, long length) throws IOException {
+    ByteBuffer chunk = mChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    synchronized (this) {
+      if (mChunks.size() == mCompressedEnds.length) {
+        mCompressedEnds = Arrays.copyOf(mCompressedEnds, 2 * mChunks.size());
+      }
+      mCompressedEnds[mChunks.size()] = mCompressed.getCount();
+      mChunks.add(chunk);
+      notifyAll();
+    }
+  }
+
+  private synchronized void finish(IOException error) {
+    mDone = true;
+    mError = error;
+    notifyAll();
+  }
+
+  /**
+   * Waits until at least the given number of chunks have been mapped or
+   * decompression has finished, and returns the chunks mapped so far. Fewer
+   * chunks than asked for are returned only once all the chunks have been
+   * mapped. Starts decompression if it hasn't been started already.
+   *
+   * @param count the number of chunks to wait for
+   * @return the chunks mapped so far
+   * @throws IOException if decompression failed or was interrupted
+   */
+  synchronized ByteBuffer[] await(int count) throws IOException {
+    start();
+    while (mChunks.size() < count && !mDone) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting to decompress " + mFile);
+      }
+    }
+    if (mChunks.size() < count && mError != null) {
+      throw new IOException("Unable to decompress " + mFile, mError);
+    }
+    return mChunks.toArray(new ByteBuffer[mChunks.size()]);
+  }
+
+  /**
+   * Returns the size of the compressed file.
+   */
+  long getCompressedSize() {
+    return mCompressedSize;
+  }
+
+  /**
+   * Returns the number of bytes of the compressed file that had been read
+   * when the given chunk was mapped.
+   */
+  synchronized long getCompressedEnd(int chunk) {
+    return mCompressedEnds[chunk];
+  }
+}
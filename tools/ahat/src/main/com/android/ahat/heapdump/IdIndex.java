@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.util.Arrays;
+
+/**
+ * A map from long ids to non-negative int indices.
+ * <p>
+ * This is an open addressing hash table with linear probing that stores keys
+ * and values in primitive arrays, so that looking up an id takes constant
+ * expected time and does not allocate. It is used in place of a
+ * Map&lt;Long, Integer&gt; for the large number of id lookups done when
+ * parsing a heap dump.
+ */
+class IdIndex {
+  /**
+   * Value returned by get for ids that are not in the index.
+   */
+  static final int NONE = -1;
+
+  // Multiplier for Fibonacci hashing of keys. Ids are typically addresses
+  // with low bits that are always zero, which this mixes into the high bits
+  // used to select a slot.
+  private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  // mValues[i] is NONE for empty slots.
+  private long[] mKeys;
+  private int[] mValues;
+  private int mShift;
+  private int mSize;
+
+  /**
+   * Creates an index with room for the given number of ids before it needs
+   * to grow.
+   */
+  IdIndex(int expectedSize) {
+    allocate(capacityFor(expectedSize));
+  }
+
+  /**
+   * Returns the smallest power of two capacity that holds the given number
+   * of ids at a load factor of at most 3/4.
+   */
+  private static int capacityFor(int size) {
+    long min = Math.max(2, (4L * size + 2) / 3);
+    return (int)Long.highestOneBit(2 * min - 1);
+  }
+
+  private void allocate(int capacity) {
+    mKeys = new long[capacity];
+    mValues = new int[capacity];
+    Arrays.fill(mValues, NONE);
+    mShift = 64 - Integer.numberOfTrailingZeros(capacity);
+    mSize = 0;
+  }
+
+  private int slot(long key) {
+    return (int)((key * MULTIPLIER) >>> mShift);
+  }
+
+  /**
+   * Maps the given id to the given non-negative value, replacing any
+   * previous value for the id.
+   */
+  void put(long key, int value) {
+    if (4L * (mSize + 1) > 3L * mValues.length) {
+      long[] keys = mKeys;
+      int[] values = mValues;
+      allocate(2 * values.length);
+      for (int i = 0; i < values.length; ++i) {
+        if (values[i] != NONE) {
+          put(keys[i], values[i]);
+        }
+      }
+    }
+
+    int mask = mValues.length - 1;
+    int i = slot(key);
+    while (mValues[i] != NONE) {
+      if (mKeys[i] == key) {
+        mValues[i] = value;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    mKeys[i] = key;
+    mValues[i] = value;
+    mSize++;
+  }
+
+  /**
+   * Returns the value for the given id, or NONE if there is no value for
+   * the id.
+   */
+  int get(long key) {
+    int mask = mValues.length - 1;
+    int i = slot(key);
+    int value;
+    while ((value = mValues[i]) != NONE) {
+      if (mKeys[i] == key) {
+        return value;
+      }
+      i = (i + 1) & mask;
+    }
+    return NONE;
+  }
+
+  /**
+   * Returns the number of ids in the index.
+   */
+  int size() {
+    return mSize;
+  }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A sidecar file stored next to a heap dump with the results of analyzing
+ * the heap dump: the references between instances, reachability, reverse
+ * references, dominators and retained sizes.
+ * <p>
+ * The index is keyed by the size, modification time and a hash of the
+ * contents of the heap dump, as well as the reachability treated as
+ * retained. An index that doesn't match the heap dump is ignored, and
+ * overwritten the next time the heap dump is analyzed.
+ */
+class IndexCache {
+  private static final String SUFFIX = ".ahat-index";
+  private static final int MAGIC = 0x74616861;  // "ahat", little endian.
+  private static final int VERSION = 1;
+
+  // The size of the header, in bytes:
+  //  magic, version, hprof size, hprof modification time, hprof hash,
+  //  retained, store size, number of heaps, number of references,
+  //  number of reverse references.
+  // The header is followed by the retained size columns present for each
+  // heap, the contents of the instance store and the reverse references.
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 4 + 4;
+
+  // The number of bytes at each end of the heap dump that are hashed.
+  private static final int HASH_SIZE = 1 << 20;
+
+  // The size of the buffer used to write the index.
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  // The maximum number of bytes to map at a time when reading the index.
+  private static final int MAP_SIZE = 1 << 30;
+
+  private final File mFile;
+  private final long mHprofSize;
+  private final long mHprofModified;
+  private final long mHprofHash;
+
+  /**
+   * Creates an index cache for the given heap dump file.
+   *
+   * @throws IOException if the heap dump file cannot be read.
+   */
+  IndexCache(File hprof) throws IOException {
+    mFile = new File(hprof.getPath() + SUFFIX);
+    mHprofModified = hprof.lastModified();
+    try (FileChannel channel = FileChannel.open(hprof.toPath(), StandardOpenOption.READ)) {
+      mHprofSize = channel.size();
+      mHprofHash = hash(channel);
+    }
+  }
+
+  /**
+   * Returns a hash of the beginning and end of the given heap dump. Hashing
+   * the entire heap dump would take about as long as parsing it.
+   */
+  private static long hash(FileChannel channel) throws IOException {
+    CRC32 crc = new CRC32();
+    long size = channel.size();
+    ByteBuffer buffer = ByteBuffer.allocate(HASH_SIZE);
+    long[] starts = new long[] { 0, Math.max(HASH_SIZE, size - HASH_SIZE) };
+    for (long start : starts) {
+      buffer.clear();
+      for (long position = start;
+          buffer.hasRemaining() && position < size;
+          position = start + buffer.position()) {
+        if (channel.read(buffer, position) < 0) {
+          break;
+        }
+      }
+      buffer.flip();
+      crc.update(buffer);
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Loads the cached analysis of the heap dump into the given store, if the
+   * index exists and matches the heap dump, retained reachability and
+   * instances in the store.
+   *
+   * @return true if the index was loaded, false if it was missing or stale,
+   *         in which case the store has not been modified.
+   * @throws IOException if the index could not be read.
+   */
+  boolean load(InstanceStore store, Reachability retained) throws IOException {
+    if (!mFile.isFile()) {
+      return false;
+    }
+
+    try (FileChannel channel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE + store.getNumHeaps()) {
+        return false;
+      }
+      Reader in = new Reader(channel);
+      if (in.getInt() != MAGIC
+          || in.getInt() != VERSION
+          || in.getLong() != mHprofSize
+          || in.getLong() != mHprofModified
+          || in.getLong() != mHprofHash
+          || in.getInt() != retained.ordinal()
+          || in.getInt() != store.size()
+          || in.getInt() != store.getNumHeaps()) {
+        return false;
+      }
+
+      int numReferences = in.getInt();
+      int numReverseReferences = in.getInt();
+      byte[] columns = new byte[store.getNumHeaps()];
+      in.getBytes(columns);
+      if (channel.size() != size(store, numReferences, columns, numReverseReferences)) {
+        return false;
+      }
+
+      store.read(in, numReferences, columns);
+
+      int[] reverseOffsets = new int[store.size() + 1];
+      in.getInts(reverseOffsets);
+      int[] reverseReferences = new int[numReverseReferences];
+      in.getInts(reverseReferences);
+      store.setReverseReferences(reverseOffsets, reverseReferences);
+      store.computeDominated();
+    }
+    return true;
+  }
+
+  /**
+   * Deletes the index, if it exists.
+   */
+  void delete() {
+    mFile.delete();
+  }
+
+  /**
+   * Returns the expected size in bytes of the index for the given store.
+   */
+  private static long size(InstanceStore store, int numReferences, byte[] columns,
+      int numReverseReferences) {
+    long size = HEADER_SIZE;
+    size += columns.length;
+    size += store.serializedSize(numReferences, columns);
+    size += 4L * (store.size() + 1);
+    size += 4L * numReverseReferences;
+    return size;
+  }
+
+  /**
+   * Saves the analysis of the heap dump from the given store to the index,
+   * replacing any existing index.
+   *
+   * @throws IOException if the index could not be written.
+   */
+  void save(InstanceStore store, Reachability retained) throws IOException {
+    File tmp = new File(mFile.getPath() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp.toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+      byte[] columns = store.getRetainedSizeColumns();
+      Writer out = new Writer(channel);
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putLong(mHprofSize);
+      out.putLong(mHprofModified);
+      out.putLong(mHprofHash);
+      out.putInt(retained.ordinal());
+      out.putInt(store.size());
+      out.putInt(store.getNumHeaps());
+      out.putInt(store.getNumReferences());
+      out.putInt(store.getNumReverseReferences());
+      out.putBytes(columns, columns.length);
+      store.write(out);
+      store.writeReverseReferences(out);
+      out.flush();
+    } catch (IOException e) {
+      tmp.delete();
+      throw e;
+    }
+    Files.move(tmp.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Writes little endian values to a file channel.
+   */
+  static class Writer {
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+
+    private Writer(FileChannel channel) {
+      mChannel = channel;
+      mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Ensures there is room for at least the given number of bytes in the
+     * buffer.
+     */
+    private void reserve(int bytes) throws IOException {
+      if (mBuffer.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException {
+      mBuffer.flip();
+      while (mBuffer.hasRemaining()) {
+        mChannel.write(mBuffer);
+      }
+      mBuffer.clear();
+    }
+
+    void putInt(int value) throws IOException {
+      reserve(4);
+      mBuffer.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+      reserve(8);
+      mBuffer.putLong(value);
+    }
+
+    /**
+     * Writes the first length values of the given array.
+     */
+    void putBytes(byte[] values, int length) throws IOException {
+      for (int offset = 0; offset < length; ) {
+        reserve(1);
+        int n = Math.min(length - offset, mBuffer.remaining());
+        mBuffer.put(values, offset, n);
+        offset += n;
+      }
+    }
+
+    /**
+     * Writes the first length values of the given array.
+     */
+    void putInts(int[] values, int length) throws IOException {
+      for (int offset = 0; offset < length; ) {
+        reserve(4);
+        int n = Math.min(length - offset, mBuffer.remaining() / 4);
+        mBuffer.asIntBuffer().put(values, offset, n);
+        mBuffer.position(mBuffer.position() + 4 * n);
+        offset += n;
+      }
+    }
+
+    /**
+     * Writes the first length values of the given array.
+     */
+    void putLongs(long[] values, int length) throws IOException {
+      for (int offset = 0; offset < length; ) {
+        reserve(8);
+        int n = Math.min(length - offset, mBuffer.remaining() / 8);
+        mBuffer.asLongBuffer().put(values, offset, n);
+        mBuffer.position(mBuffer.position() + 8 * n);
+        offset += n;
+      }
+    }
+  }
+
+  /**
+   * Reads little endian values from a file channel by mapping it into
+   * memory, a window at a time.
+   */
+  static class Reader {
+    private final FileChannel mChannel;
+    private long mWindowStart = 0;
+    private MappedByteBuffer mWindow;
+
+    private Reader(FileChannel channel) throws IOException {
+      mChannel = channel;
+      map(0);
+    }
+
+    private void map(long position) throws IOException {
+      mWindowStart = position;
+      long length = Math.min(MAP_SIZE, mChannel.size() - position);
+      mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      mWindow.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the window to read from, with at least the given number of
+     * bytes remaining.
+     */
+    private ByteBuffer window(int bytes) throws IOException {
+      if (mWindow.remaining() < bytes) {
+        map(mWindowStart + mWindow.position());
+        if (mWindow.remaining() < bytes) {
+          throw new EOFException();
+        }
+      }
+      return mWindow;
+    }
+
+    int getInt() throws IOException {
+      return window(4).getInt();
+    }
+
+    long getLong() throws IOException {
+      return window(8).getLong();
+    }
+
+    /**
+     * Reads values to fill the given array.
+     */
+    void getBytes(byte[] values) throws IOException {
+      for (int offset = 0; offset < values.length; ) {
+        ByteBuffer window = window(1);
+        int n = Math.min(values.length - offset, window.remaining());
+        window.get(values, offset, n);
+        offset += n;
+      }
+    }
+
+    /**
+     * Reads values to fill the given array.
+     */
+    void getInts(int[] values) throws IOException {
+      for (int offset = 0; offset < values.length; ) {
+        ByteBuffer window = window(4);
+        int n = Math.min(values.length - offset, window.remaining() / 4);
+        window.asIntBuffer().get(values, offset, n);
+        window.position(window.position() + 4 * n);
+        offset += n;
+      }
+    }
+
+    /**
+     * Reads values to fill the given array.
+     */
+    void getLongs(long[] values) throws IOException {
+      for (int offset = 0; offset < values.length; ) {
+        ByteBuffer window = window(8);
+        int n = Math.min(values.length - offset, window.remaining() / 8);
+        window.asLongBuffer().get(values, offset, n);
+        window.position(window.position() + 8 * n);
+        offset += n;
+      }
+    }
+  }
+}
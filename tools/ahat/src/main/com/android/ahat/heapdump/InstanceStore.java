@@ -0,0 +1,553 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import com.android.ahat.progress.Progress;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Columnar storage for the per-instance state computed after parsing a heap
+ * dump, such as reachability, dominators and retained sizes.
+ * <p>
+ * Every instance of a snapshot is assigned a dense index in id order, with
+ * the snapshot's SuperRoot assigned the index one past the last instance.
+ * State is kept in parallel primitive arrays indexed by that dense index
+ * rather than in fields of each AhatInstance, which avoids a number of object
+ * references and small objects per instance. That adds up for heap dumps with
+ * tens of millions of instances.
+ * <p>
+ * The store also keeps the references between instances, used for the
+ * reachability and dominators computations, in compact primitive arrays.
+ */
+class InstanceStore {
+  /**
+   * Index used to indicate the absence of an instance.
+   */
+  static final int NONE = -1;
+
+  private static final Reachability[] REACHABILITIES = Reachability.values();
+
+  // Flags for the retained size columns present for a heap.
+  private static final byte JAVA_SIZES = 1;
+  private static final byte NATIVE_SIZES = 2;
+
+  private final Instances<AhatInstance> mInstances;
+  private final SuperRoot mSuperRoot;
+
+  // The heap dump the instances were parsed from, used to read instance
+  // field values on demand.
+  private final Parser.HprofBuffer mHprof;
+
+  // The outgoing references of each instance, not including the super root,
+  // in compressed sparse row form: the references of the instance with index
+  // i are the entries of mReferences from mReferenceOffsets[i] up to
+  // mReferenceOffsets[i + 1], in the same order as returned by
+  // AhatInstance.getReferences(). Strong references are stored as the index
+  // of the referenced instance. Other references, which are only ever
+  // through the 'referent' field of a java.lang.ref.Reference subclass, are
+  // stored as the bitwise complement of the index.
+  private int[] mReferenceOffsets;
+  private int[] mReferences;
+
+  // The reverse references of each instance in compressed sparse row form:
+  // the instances referring to the instance with index i are the indices
+  // stored in mReverseReferences from mReverseReferenceOffsets[i] up to
+  // mReverseReferenceOffsets[i + 1]. Null until reachability has been
+  // computed.
+  private int[] mReverseReferenceOffsets;
+  private int[] mReverseReferences;
+
+  // The instances immediately dominated by each instance in compressed
+  // sparse row form, ordered by index. Null until dominators have been
+  // computed.
+  private int[] mDominatedOffsets;
+  private int[] mDominated;
+
+  // Reachability of each instance, stored by ordinal.
+  private final byte[] mReachability;
+
+  // Index of the instance that first referenced each instance during the
+  // reachability traversal, or NONE if the instance is not reachable.
+  private final int[] mNextInstanceToGcRoot;
+
+  // Index of the immediate dominator of each instance, or NONE if the
+  // dominators computation did not assign a dominator to the instance.
+  private final int[] mImmediateDominator;
+
+  // Retained sizes of each instance, indexed first by heap index and then by
+  // instance index. Registered native sizes are rare, so the columns for
+  // native sizes are only allocated for heaps that have them.
+  private final long[][] mRetainedJavaSizes;
+  private final long[][] mRetainedNativeSizes;
+
+  /**
+   * Creates a store for the given instances and super root, assigning each of
+   * them their dense index.
+   */
+  InstanceStore(Instances<AhatInstance> instances, SuperRoot superRoot, int numHeaps,
+      Parser.HprofBuffer hprof) {
+    mInstances = instances;
+    mSuperRoot = superRoot;
+    mHprof = hprof;
+
+    int size = instances.size() + 1;
+    mReachability = new byte[size];
+    Arrays.fill(mReachability, (byte)Reachability.UNREACHABLE.ordinal());
+    mNextInstanceToGcRoot = new int[size];
+    Arrays.fill(mNextInstanceToGcRoot, NONE);
+    mImmediateDominator = new int[size];
+    Arrays.fill(mImmediateDominator, NONE);
+    mRetainedJavaSizes = new long[numHeaps][];
+    mRetainedNativeSizes = new long[numHeaps][];
+
+    int index = 0;
+    for (AhatInstance inst : instances) {
+      inst.setStore(this, index++);
+    }
+    superRoot.setStore(this, index);
+  }
+
+  /**
+   * Returns the number of indices in the store, including the super root.
+   */
+  int size() {
+    return mReachability.length;
+  }
+
+  /**
+   * Returns the number of heaps retained sizes are stored for.
+   */
+  int getNumHeaps() {
+    return mRetainedJavaSizes.length;
+  }
+
+  /**
+   * Returns the instance with the given index, or null for NONE.
+   */
+  AhatInstance get(int index) {
+    if (index == NONE) {
+      return null;
+    }
+    return index == mInstances.size() ? mSuperRoot : mInstances.getByIndex(index);
+  }
+
+  Instances<AhatInstance> getInstances() {
+    return mInstances;
+  }
+
+  Parser.HprofBuffer getHprof() {
+    return mHprof;
+  }
+
+  /**
+   * Returns the encoding of a reference to the instance with the given index
+   * through the 'referent' field of a java.lang.ref.Reference subclass, for
+   * use with setReferences.
+   */
+  static int nonStrongReference(int index) {
+    return ~index;
+  }
+
+  /**
+   * Sets the outgoing references of the instances, in the compressed sparse
+   * row form described for mReferenceOffsets and mReferences.
+   */
+  void setReferences(int[] offsets, int[] references) {
+    mReferenceOffsets = offsets;
+    mReferences = references;
+  }
+
+  /**
+   * Returns the position in the references of the first outgoing reference
+   * of the instance with the given index.
+   */
+  int getReferencesStart(int index) {
+    return mReferenceOffsets[index];
+  }
+
+  /**
+   * Returns the position in the references one past the last outgoing
+   * reference of the instance with the given index.
+   */
+  int getReferencesEnd(int index) {
+    return mReferenceOffsets[index + 1];
+  }
+
+  /**
+   * Returns the index of the instance referenced by the reference at the
+   * given position.
+   */
+  int getReferenceTarget(int position) {
+    int ref = mReferences[position];
+    return ref < 0 ? ~ref : ref;
+  }
+
+  /**
+   * Returns true if the reference at the given position is a strong
+   * reference. Otherwise the reachability of the reference is given by the
+   * java.lang.ref.Reference type of the referring instance.
+   */
+  boolean isStrongReference(int position) {
+    return mReferences[position] >= 0;
+  }
+
+  /**
+   * Sets the reverse references of the instances, in the compressed sparse
+   * row form described for mReverseReferenceOffsets and mReverseReferences.
+   */
+  void setReverseReferences(int[] offsets, int[] references) {
+    mReverseReferenceOffsets = offsets;
+    mReverseReferences = references;
+  }
+
+  /**
+   * Returns the total number of reverse references of all instances.
+   */
+  int getNumReverseReferences() {
+    return mReverseReferenceOffsets[mReverseReferenceOffsets.length - 1];
+  }
+
+  /**
+   * Writes the reverse references of the instances to an index cache, in
+   * the compressed sparse row form in which setReverseReferences takes
+   * them.
+   */
+  void writeReverseReferences(IndexCache.Writer out) throws IOException {
+    out.putInts(mReverseReferenceOffsets, mReverseReferenceOffsets.length);
+    out.putInts(mReverseReferences, getNumReverseReferences());
+  }
+
+  /**
+   * Returns the instances referring to the instance with the given index.
+   */
+  List<AhatInstance> getReverseReferences(int index) {
+    if (mReverseReferenceOffsets == null) {
+      return Collections.emptyList();
+    }
+    return new InstanceList(mReverseReferences,
+        mReverseReferenceOffsets[index], mReverseReferenceOffsets[index + 1]);
+  }
+
+  /**
+   * Computes the instances immediately dominated by each instance from the
+   * immediate dominators recorded in the store.
+   */
+  void computeDominated() {
+    int[] offsets = new int[size() + 1];
+    for (int dominator : mImmediateDominator) {
+      if (dominator != NONE) {
+        offsets[dominator + 1]++;
+      }
+    }
+    for (int index = 0; index < size(); ++index) {
+      offsets[index + 1] += offsets[index];
+    }
+
+    int[] dominated = new int[offsets[size()]];
+    int[] next = Arrays.copyOf(offsets, size());
+    for (int index = 0; index < size(); ++index) {
+      int dominator = mImmediateDominator[index];
+      if (dominator != NONE) {
+        dominated[next[dominator]++] = index;
+      }
+    }
+    mDominatedOffsets = offsets;
+    mDominated = dominated;
+  }
+
+  /**
+   * Returns the number of instances immediately dominated by the instance
+   * with the given index.
+   */
+  int getNumDominated(int index) {
+    if (mDominatedOffsets == null) {
+      return 0;
+    }
+    return mDominatedOffsets[index + 1] - mDominatedOffsets[index];
+  }
+
+  /**
+   * Returns the i'th instance immediately dominated by the instance with the
+   * given index.
+   */
+  AhatInstance getDominated(int index, int i) {
+    return get(mDominated[mDominatedOffsets[index] + i]);
+  }
+
+  /**
+   * An unmodifiable view of a range of instance indices as a list of
+   * instances.
+   */
+  private class InstanceList extends AbstractList<AhatInstance> implements RandomAccess {
+    private final int[] mIndices;
+    private final int mStart;
+    private final int mEnd;
+
+    public InstanceList(int[] indices, int start, int end) {
+      mIndices = indices;
+      mStart = start;
+      mEnd = end;
+    }
+
+    @Override
+    public AhatInstance get(int i) {
+      if (i < 0 || i >= mEnd - mStart) {
+        throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+      }
+      return InstanceStore.this.get(mIndices[mStart + i]);
+    }
+
+    @Override
+    public int size() {
+      return mEnd - mStart;
+    }
+  }
+
+  Reachability getReachability(int index) {
+    return REACHABILITIES[mReachability[index]];
+  }
+
+  void setReachability(int index, Reachability reachability) {
+    mReachability[index] = (byte)reachability.ordinal();
+  }
+
+  int getNextInstanceToGcRoot(int index) {
+    return mNextInstanceToGcRoot[index];
+  }
+
+  void setNextInstanceToGcRoot(int index, int next) {
+    mNextInstanceToGcRoot[index] = next;
+  }
+
+  int getImmediateDominator(int index) {
+    return mImmediateDominator[index];
+  }
+
+  void setImmediateDominator(int index, int dominator) {
+    mImmediateDominator[index] = dominator;
+  }
+
+  /**
+   * Returns the retained java size of the instance on the given heap.
+   */
+  long getRetainedJavaSize(int heap, int index) {
+    long[] sizes = mRetainedJavaSizes[heap];
+    return sizes == null ? 0 : sizes[index];
+  }
+
+  /**
+   * Returns the retained registered native size of the instance on the given
+   * heap.
+   */
+  long getRetainedNativeSize(int heap, int index) {
+    long[] sizes = mRetainedNativeSizes[heap];
+    return sizes == null ? 0 : sizes[index];
+  }
+
+  /**
+   * Adds to the retained size of the instance on the given heap.
+   */
+  void addRetainedSize(int heap, int index, long javaSize, long nativeSize) {
+    if (javaSize != 0) {
+      if (mRetainedJavaSizes[heap] == null) {
+        mRetainedJavaSizes[heap] = new long[size()];
+      }
+      mRetainedJavaSizes[heap][index] += javaSize;
+    }
+    if (nativeSize != 0) {
+      if (mRetainedNativeSizes[heap] == null) {
+        mRetainedNativeSizes[heap] = new long[size()];
+      }
+      mRetainedNativeSizes[heap][index] += nativeSize;
+    }
+  }
+
+  /**
+   * Adds the retained size of each instance in the given order to the
+   * retained size of its immediate dominator, visiting the instances in
+   * reverse order. For this to accumulate the sizes of all instances
+   * dominated by each instance, every instance must come after its immediate
+   * dominator in the order.
+   * <p>
+   * The retained size columns are independent of each other, so each
+   * column is accumulated by a separate task, using up to the given number
+   * of threads. Progress is advanced by the number of instances in the
+   * order, a share at a time as each column is done.
+   */
+  void accumulateRetainedSizes(int[] order, int threads, Progress progress) {
+    List<long[]> columns = new ArrayList<long[]>();
+    for (int i = 0; i < getNumHeaps(); ++i) {
+      if (mRetainedJavaSizes[i] != null) {
+        columns.add(mRetainedJavaSizes[i]);
+      }
+      if (mRetainedNativeSizes[i] != null) {
+        columns.add(mRetainedNativeSizes[i]);
+      }
+    }
+
+    if (columns.isEmpty()) {
+      progress.advance(order.length);
+      return;
+    }
+
+    threads = Math.min(threads, columns.size());
+    if (threads <= 1) {
+      for (int i = 0; i < columns.size(); ++i) {
+        accumulate(columns.get(i), order);
+        advanceColumns(progress, order.length, i, columns.size());
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (long[] column : columns) {
+        futures.add(executor.submit(() -> accumulate(column, order)));
+      }
+      for (int i = 0; i < futures.size(); ++i) {
+        futures.get(i).get();
+        advanceColumns(progress, order.length, i, columns.size());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while computing retained sizes", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new AssertionError(cause);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Advances progress by the share of the given number of instances for
+   * the column with the given index, out of the given number of columns.
+   */
+  private static void advanceColumns(Progress progress, long instances, int column,
+      int numColumns) {
+    progress.advance(instances * (column + 1) / numColumns - instances * column / numColumns);
+  }
+
+  private void accumulate(long[] column, int[] order) {
+    for (int i = order.length - 1; i >= 0; --i) {
+      int index = order[i];
+      int dominator = mImmediateDominator[index];
+      if (dominator != NONE) {
+        column[dominator] += column[index];
+      }
+    }
+  }
+
+  /**
+   * Returns the total number of outgoing references of all instances.
+   */
+  int getNumReferences() {
+    return mReferenceOffsets[mReferenceOffsets.length - 1];
+  }
+
+  /**
+   * Returns flags indicating which retained size columns are present for
+   * each heap, for use with write and read.
+   */
+  byte[] getRetainedSizeColumns() {
+    byte[] columns = new byte[getNumHeaps()];
+    for (int i = 0; i < columns.length; ++i) {
+      columns[i] = (byte)((mRetainedJavaSizes[i] == null ? 0 : JAVA_SIZES)
+          | (mRetainedNativeSizes[i] == null ? 0 : NATIVE_SIZES));
+    }
+    return columns;
+  }
+
+  /**
+   * Returns the number of bytes written by write for a store of this size
+   * with the given number of references and retained size columns.
+   */
+  long serializedSize(int numReferences, byte[] columns) {
+    long size = 0;
+    size += 4L * size();
+    size += 4L * numReferences;
+    size += size();
+    size += 4L * size();
+    size += 4L * size();
+    for (byte column : columns) {
+      size += (column & JAVA_SIZES) == 0 ? 0 : 8L * size();
+      size += (column & NATIVE_SIZES) == 0 ? 0 : 8L * size();
+    }
+    return size;
+  }
+
+  /**
+   * Writes the references, reachability, dominators and retained sizes of
+   * the instances to an index cache.
+   */
+  void write(IndexCache.Writer out) throws IOException {
+    out.putInts(mReferenceOffsets, mReferenceOffsets.length);
+    out.putInts(mReferences, getNumReferences());
+    out.putBytes(mReachability, mReachability.length);
+    out.putInts(mNextInstanceToGcRoot, mNextInstanceToGcRoot.length);
+    out.putInts(mImmediateDominator, mImmediateDominator.length);
+    for (int i = 0; i < getNumHeaps(); ++i) {
+      if (mRetainedJavaSizes[i] != null) {
+        out.putLongs(mRetainedJavaSizes[i], size());
+      }
+      if (mRetainedNativeSizes[i] != null) {
+        out.putLongs(mRetainedNativeSizes[i], size());
+      }
+    }
+  }
+
+  /**
+   * Reads the references, reachability, dominators and retained sizes of
+   * the instances previously written to an index cache with write.
+   */
+  void read(IndexCache.Reader in, int numReferences, byte[] columns) throws IOException {
+    int[] offsets = new int[size()];
+    in.getInts(offsets);
+    int[] references = new int[numReferences];
+    in.getInts(references);
+    setReferences(offsets, references);
+    in.getBytes(mReachability);
+    in.getInts(mNextInstanceToGcRoot);
+    in.getInts(mImmediateDominator);
+    for (int i = 0; i < getNumHeaps(); ++i) {
+      if ((columns[i] & JAVA_SIZES) != 0) {
+        mRetainedJavaSizes[i] = new long[size()];
+        in.getLongs(mRetainedJavaSizes[i]);
+      }
+      if ((columns[i] & NATIVE_SIZES) != 0) {
+        mRetainedNativeSizes[i] = new long[size()];
+        in.getLongs(mRetainedNativeSizes[i]);
+      }
+    }
+  }
+}
@@ -28,6 +28,9 @@ class Instances<T extends AhatInstance> implements Iterable<T> {
 
   private final List<T> mInstances;
 
+  // Maps the id of each instance to its position in mInstances.
+  private IdIndex mIndex;
+
   /**
    * Create a collection of instances that can be looked up by id.
    * Note: this takes ownership of the given list of instances.
@@ -35,8 +38,8 @@ class Instances<T extends AhatInstance> implements Iterable<T> {
   public Instances(List<T> instances) {
     mInstances = instances;
 
-    // Sort the instances by id so we can use binary search to lookup
-    // instances by id.
+    // Sort the instances by id, so that they are iterated over and assigned
+    // indices in id order.
     instances.sort(new Comparator<AhatInstance>() {
       @Override
       public int compare(AhatInstance a, AhatInstance b) {
@@ -62,6 +65,7 @@ class Instances<T extends AhatInstance> implements Iterable<T> {
       }
     };
     mInstances.removeIf(isDuplicate);
+    buildIndex();
   }
 
   /**
@@ -69,26 +73,33 @@ class Instances<T extends AhatInstance> implements Iterable<T> {
    * Returns null if no instance with the given id is found.
    */
   public T get(long id) {
-    // Binary search over the sorted instances.
-    int start = 0;
-    int end = mInstances.size();
-    while (start < end) {
-      int mid = start + ((end - start) / 2);
-      T midInst = mInstances.get(mid);
-      long midId = midInst.getId();
-      if (id == midId) {
-        return midInst;
-      } else if (id < midId) {
-        end = mid;
-      } else {
-        start = mid + 1;
-      }
-    }
-    return null;
+    int index = mIndex.get(id);
+    return index == IdIndex.NONE ? null : mInstances.get(index);
+  }
+
+  /**
+   * Returns the instance at the given position in id order.
+   */
+  public T getByIndex(int index) {
+    return mInstances.get(index);
   }
 
+  /**
+   * Removes all instances satisfying the given predicate. This changes the
+   * position of instances in id order, so must not be used once instances
+   * have been assigned indices in an InstanceStore.
+   */
   public void removeIf(Predicate<T> predicate) {
-    mInstances.removeIf(predicate);
+    if (mInstances.removeIf(predicate)) {
+      buildIndex();
+    }
+  }
+
+  private void buildIndex() {
+    mIndex = new IdIndex(mInstances.size());
+    for (int i = 0; i < mInstances.size(); ++i) {
+      mIndex.put(mInstances.get(i).getId(), i);
+    }
   }
 
   public int size() {
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the objects allocated under a tree of sites by class and heap,
+ * for collecting the objects of a particular class allocated under a site in
+ * time proportional to the number of objects collected.
+ * <p>
+ * The objects are numbered by their position in a depth first traversal of
+ * the site tree that visits the objects allocated at a site before the
+ * objects allocated at its child sites, which is the order
+ * {@link Site#getObjects} collects objects in. The objects allocated under
+ * a site then have consecutive positions. The positions of the objects of
+ * each combination of class and heap are kept in sorted arrays, so the
+ * objects of a class and heap allocated under a site can be found with a
+ * binary search.
+ */
+class ObjectsIndex {
+  // The objects of the site tree, by position.
+  private final AhatInstance[] mObjects;
+
+  // The range of positions of objects allocated under each site, by site id.
+  private final int[] mSiteStart;
+  private final int[] mSiteEnd;
+
+  // Buckets of objects by class name, and by the name of the class and each
+  // of its superclasses.
+  private final Map<String, List<Bucket>> mByClassName = new HashMap<String, List<Bucket>>();
+  private final Map<String, List<Bucket>> mBySuperClassName = new HashMap<String, List<Bucket>>();
+
+  /**
+   * The positions of the objects of a particular class on a particular heap.
+   */
+  private static class Bucket {
+    public final AhatHeap heap;
+    public int[] positions = new int[4];
+    public int size = 0;
+
+    public Bucket(AhatHeap heap) {
+      this.heap = heap;
+    }
+
+    public void add(int position) {
+      if (size == positions.length) {
+        positions = Arrays.copyOf(positions, 2 * size);
+      }
+      positions[size++] = position;
+    }
+
+    /**
+     * Returns the index of the first position in the bucket not less than
+     * the given position.
+     */
+    public int lowerBound(int position) {
+      int start = 0;
+      int end = size;
+      while (start < end) {
+        int mid = (start + end) >>> 1;
+        if (positions[mid] < position) {
+          start = mid + 1;
+        } else {
+          end = mid;
+        }
+      }
+      return start;
+    }
+  }
+
+  /**
+   * Builds an index of the objects allocated under the given root site.
+   * Site ids must have been assigned with {@link Site#prepareForUse}.
+   */
+  ObjectsIndex(Site root) {
+    List<AhatInstance> objects = new ArrayList<AhatInstance>();
+    List<Site> sites = new ArrayList<Site>();
+    collect(root, objects, sites);
+
+    mObjects = objects.toArray(new AhatInstance[objects.size()]);
+    mSiteStart = new int[sites.size()];
+    mSiteEnd = new int[sites.size()];
+
+    // Objects with a class are bucketed by class object. Objects without a
+    // class, such as placeholder instances, are bucketed by class name.
+    Map<Object, Map<AhatHeap, Bucket>> buckets = new HashMap<Object, Map<AhatHeap, Bucket>>();
+    Object lastKey = null;
+    Map<AhatHeap, Bucket> lastBuckets = null;
+    for (int i = 0; i < mObjects.length; ++i) {
+      AhatInstance inst = mObjects[i];
+      Object key = inst.getClassObj();
+      if (key == null) {
+        key = inst.getClassName();
+      }
+      if (!key.equals(lastKey)) {
+        lastKey = key;
+        lastBuckets = buckets.get(key);
+        if (lastBuckets == null) {
+          lastBuckets = new HashMap<AhatHeap, Bucket>();
+          buckets.put(key, lastBuckets);
+        }
+      }
+
+      AhatHeap heap = inst.getHeap();
+      Bucket bucket = lastBuckets.get(heap);
+      if (bucket == null) {
+        bucket = new Bucket(heap);
+        lastBuckets.put(heap, bucket);
+      }
+      bucket.add(i);
+    }
+
+    for (Map.Entry<Object, Map<AhatHeap, Bucket>> entry : buckets.entrySet()) {
+      Collection<Bucket> classBuckets = entry.getValue().values();
+      if (entry.getKey() instanceof AhatClassObj) {
+        AhatClassObj cls = (AhatClassObj)entry.getKey();
+        add(mByClassName, cls.getName(), classBuckets);
+        Set<String> names = new HashSet<String>();
+        for (; cls != null; cls = cls.getSuperClassObj()) {
+          if (names.add(cls.getName())) {
+            add(mBySuperClassName, cls.getName(), classBuckets);
+          }
+        }
+      } else {
+        add(mByClassName, (String)entry.getKey(), classBuckets);
+      }
+    }
+
+    // Compute the range of positions of each site from its own objects and
+    // the ranges of its children, which have larger ids.
+    int position = mObjects.length;
+    for (int i = sites.size() - 1; i >= 0; --i) {
+      Site site = sites.get(i);
+      int id = (int)site.getId();
+      int end = position;
+      for (Site child : site.getChildren()) {
+        end = Math.max(end, mSiteEnd[(int)child.getId()]);
+      }
+      position -= site.getLocalObjects().size();
+      mSiteStart[id] = position;
+      mSiteEnd[id] = end;
+    }
+  }
+
+  /**
+   * Collects the objects and sites under the given site in depth first
+   * order.
+   */
+  private static void collect(Site site, List<AhatInstance> objects, List<Site> sites) {
+    sites.add(site);
+    objects.addAll(site.getLocalObjects());
+
+    // Recursion should be okay here because the stack depth is limited by a
+    // reasonable amount (128 frames or so).
+    for (Site child : site.getChildren()) {
+      collect(child, objects, sites);
+    }
+  }
+
+  private static void add(Map<String, List<Bucket>> map, String name, Collection<Bucket> buckets) {
+    List<Bucket> list = map.get(name);
+    if (list == null) {
+      list = new ArrayList<Bucket>();
+      map.put(name, list);
+    }
+    list.addAll(buckets);
+  }
+
+  /**
+   * Collects the objects allocated under the given site, optionally
+   * filtered by heap name or class name, in the same order as
+   * {@link Site#getObjects}.
+   *
+   * @param site the site to collect objects from
+   * @param heapName the name of the heap of the objects to collect, or null
+   *                 to collect objects of every heap
+   * @param className the name of the class of the objects to collect, or
+   *                  null to collect objects of every class
+   * @param subclass whether to collect instances of subclasses of the named
+   *                 class
+   * @param objects collection to add the collected objects to
+   */
+  void getObjects(Site site, String heapName, String className, boolean subclass,
+      Collection<AhatInstance> objects) {
+    int start = mSiteStart[(int)site.getId()];
+    int end = mSiteEnd[(int)site.getId()];
+    if (className == null) {
+      for (int i = start; i < end; ++i) {
+        if (heapName == null || mObjects[i].getHeap().getName().equals(heapName)) {
+          objects.add(mObjects[i]);
+        }
+      }
+      return;
+    }
+
+    List<Bucket> buckets = (subclass ? mBySuperClassName : mByClassName).get(className);
+    if (buckets == null) {
+      return;
+    }
+
+    // Find the range of positions under the site in each matching bucket,
+    // then gather the positions from all of those ranges.
+    List<Bucket> matched = new ArrayList<Bucket>();
+    List<int[]> ranges = new ArrayList<int[]>();
+    int size = 0;
+    for (Bucket bucket : buckets) {
+      if (heapName == null || bucket.heap.getName().equals(heapName)) {
+        int from = bucket.lowerBound(start);
+        int to = bucket.lowerBound(end);
+        if (from < to) {
+          matched.add(bucket);
+          ranges.add(new int[] { from, to });
+          size += to - from;
+        }
+      }
+    }
+
+    int[] positions = new int[size];
+    int count = 0;
+    for (int i = 0; i < matched.size(); ++i) {
+      int[] range = ranges.get(i);
+      System.arraycopy(matched.get(i).positions, range[0], positions, count, range[1] - range[0]);
+      count += range[1] - range[0];
+    }
+
+    // Positions from a single bucket are already in order.
+    if (matched.size() > 1) {
+      Arrays.sort(positions);
+    }
+    for (int position : positions) {
+      objects.add(mObjects[position]);
+    }
+  }
+}
@@ -21,18 +21,22 @@ import com.android.ahat.progress.Progress;
 import com.android.ahat.proguard.ProguardMap;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Provides methods for parsing heap dumps.
@@ -54,10 +58,20 @@ import java.util.Objects;
  * </ul>
  */
 public class Parser {
+  // The approximate number of bytes of instance and array dump records to
+  // read in each parallel task.
+  private static final long INSTANCE_TASK_SIZE = 1L << 22;
+
+  // The number of instances to fix up in each parallel task.
+  private static final int FIXUP_TASK_SIZE = 1 << 16;
+
   private HprofBuffer hprof = null;
+  private File file = null;
+  private boolean indexCache = false;
   private ProguardMap map = new ProguardMap();
   private Progress progress = new NullProgress();
   private Reachability retained = Reachability.SOFT;
+  private int threads = Runtime.getRuntime().availableProcessors();
 
   /**
    * Creates an hprof Parser that parses a heap dump from a byte buffer.
@@ -70,12 +84,15 @@ public class Parser {
 
   /**
    * Creates an hprof Parser that parses a heap dump from a file.
+   * The file may be gzip or zstd compressed, in which case it is decompressed
+   * to a temporary file next to it while it is parsed.
    *
    * @param hprof file to parse the heap dump from.
    * @throws IOException if the file cannot be accessed.
    */
   public Parser(File hprof) throws IOException {
     this.hprof = new HprofBuffer(hprof);
+    this.file = hprof;
   }
 
   /**
@@ -117,6 +134,37 @@ public class Parser {
     return this;
   }
 
+  /**
+   * Sets the number of threads to use for parsing the heap dump.
+   * Defaults to the number of available processors.
+   *
+   * @param threads the number of threads to use for parsing the heap dump.
+   * @return this Parser instance.
+   */
+  public Parser threads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads < 1");
+    }
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * Sets whether to use an index cache for the heap dump. The index cache is
+   * a file stored next to the heap dump with the results of analyzing the
+   * heap dump, such as dominators and retained sizes. If enabled, the
+   * results are loaded from the index cache when it is up to date, and
+   * otherwise written to the index cache after analyzing the heap dump.
+   * This only applies to heap dumps parsed from a file. Defaults to false.
+   *
+   * @param enabled whether to use an index cache for the heap dump.
+   * @return this Parser instance.
+   */
+  public Parser indexCache(boolean enabled) {
+    this.indexCache = enabled;
+    return this;
+  }
+
   /**
    * Parse the heap dump.
    *
@@ -125,10 +173,15 @@ public class Parser {
    * @return the parsed heap dump
    */
   public AhatSnapshot parse() throws IOException, HprofFormatException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
     try {
-      return parseInternal();
+      return parseInternal(executor);
     } catch (BufferUnderflowException e) {
       throw new HprofFormatException("Unexpected end of file", e);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      executor.shutdown();
     }
   }
 
@@ -160,7 +213,12 @@ public class Parser {
     return new Parser(hprof).map(map).parse();
   }
 
-  private AhatSnapshot parseInternal() throws IOException, HprofFormatException {
+  private AhatSnapshot parseInternal(ExecutorService executor)
+    throws IOException, HprofFormatException {
+    // A compressed heap dump is decompressed while it is parsed, starting
+    // now rather than when the parser was created.
+    hprof.start();
+
     // Read, and mostly ignore, the hprof header info.
     int idSize;
     {
@@ -184,6 +242,10 @@ public class Parser {
     // AhatInstances, initialize them as much as possible and save any
     // additional temporary data we need to complete their initialization in
     // the fixup pass.
+    //
+    // All records other than instance and array dumps are read here in
+    // order. Instance and array dumps are split into tasks that are read in
+    // parallel after that, once all the classes have been defined.
     Site rootSite = new Site("ROOT");
     List<AhatInstance> instances = new ArrayList<AhatInstance>();
     List<RootData> roots = new ArrayList<RootData>();
@@ -201,17 +263,18 @@ public class Parser {
       AhatClassObj[] primArrayClasses = new AhatClassObj[Type.values().length];
       ArrayList<AhatClassObj> classes = new ArrayList<AhatClassObj>();
       Instances<AhatClassObj> classById = null;
+      InstanceTaskList instanceTasks = new InstanceTaskList();
 
-      progress.start("Reading hprof", hprof.size());
+      progress.start("Reading hprof", hprof.getProgressSize());
       while (hprof.hasRemaining()) {
-        progress.update(hprof.tell());
+        progress.update(hprof.getProgress());
         int tag = hprof.getU1();
         int time = hprof.getU4();
-        int recordLength = hprof.getU4();
+        long recordLength = hprof.getU4() & 0xFFFFFFFFL;
         switch (tag) {
           case 0x01: { // STRING
             long id = hprof.getId();
-            byte[] bytes = new byte[recordLength - idSize];
+            byte[] bytes = new byte[(int)(recordLength - idSize)];
             hprof.getBytes(bytes);
             String str = new String(bytes, StandardCharsets.UTF_8);
             strings.put(id, str);
@@ -277,12 +340,13 @@ public class Parser {
 
           case 0x0C:   // HEAP DUMP
           case 0x1C: { // HEAP DUMP SEGMENT
-            int endOfRecord = hprof.tell() + recordLength;
+            long endOfRecord = hprof.tell() + recordLength;
             if (classById == null) {
               classById = new Instances<AhatClassObj>(classes);
             }
             while (hprof.tell() < endOfRecord) {
-              progress.update(hprof.tell());
+              progress.update(hprof.getProgress());
+              long recordStart = hprof.tell();
               int subtag = hprof.getU1();
               switch (subtag) {
                 case 0x01: { // ROOT JNI GLOBAL
@@ -390,128 +454,31 @@ public class Parser {
                   break;
                 }
 
+                // Instance and array dumps are only skipped over here, to be
+                // read by worker threads once all the class dumps have been
+                // read.
                 case 0x21: { // INSTANCE DUMP
-                  long objectId = hprof.getId();
-                  int stackSerialNumber = hprof.getU4();
-                  long classId = hprof.getId();
+                  hprof.skip(idSize + 4 + idSize);
                   int numBytes = hprof.getU4();
-                  ClassInstData data = new ClassInstData(hprof.tell());
                   hprof.skip(numBytes);
-
-                  Site site = sites.get(stackSerialNumber);
-                  AhatClassObj classObj = classById.get(classId);
-                  AhatClassInstance obj = AhatClassInstance.create(classObj, objectId);
-                  obj.initialize(heaps.getCurrentHeap(), site, classObj);
-                  obj.setTemporaryUserData(data);
-                  instances.add(obj);
+                  instanceTasks.add(recordStart, hprof.tell(), heaps.getCurrentHeap());
                   break;
                 }
 
                 case 0x22: { // OBJECT ARRAY DUMP
-                  long objectId = hprof.getId();
-                  int stackSerialNumber = hprof.getU4();
+                  hprof.skip(idSize + 4);
                   int length = hprof.getU4();
-                  long classId = hprof.getId();
-                  ObjArrayData data = new ObjArrayData(length, hprof.tell());
-                  hprof.skip(length * idSize);
-
-                  Site site = sites.get(stackSerialNumber);
-                  AhatClassObj classObj = classById.get(classId);
-                  AhatArrayInstance obj = new AhatArrayInstance(objectId, idSize);
-                  obj.initialize(heaps.getCurrentHeap(), site, classObj);
-                  obj.setTemporaryUserData(data);
-                  instances.add(obj);
+                  hprof.skip(idSize + (long)length * idSize);
+                  instanceTasks.add(recordStart, hprof.tell(), heaps.getCurrentHeap());
                   break;
                 }
 
                 case 0x23: { // PRIMITIVE ARRAY DUMP
-                  long objectId = hprof.getId();
-                  int stackSerialNumber = hprof.getU4();
+                  hprof.skip(idSize + 4);
                   int length = hprof.getU4();
                   Type type = hprof.getPrimitiveType();
-                  Site site = sites.get(stackSerialNumber);
-
-                  AhatClassObj classObj = primArrayClasses[type.ordinal()];
-                  if (classObj == null) {
-                    throw new HprofFormatException(
-                        "No class definition found for " + type.name + "[]");
-                  }
-
-                  AhatArrayInstance obj = new AhatArrayInstance(objectId, idSize);
-                  obj.initialize(heaps.getCurrentHeap(), site, classObj);
-                  instances.add(obj);
-                  switch (type) {
-                    case BOOLEAN: {
-                      boolean[] data = new boolean[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getBool();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case CHAR: {
-                      char[] data = new char[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getChar();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case FLOAT: {
-                      float[] data = new float[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getFloat();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case DOUBLE: {
-                      double[] data = new double[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getDouble();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case BYTE: {
-                      byte[] data = new byte[length];
-                      hprof.getBytes(data);
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case SHORT: {
-                      short[] data = new short[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getShort();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case INT: {
-                      int[] data = new int[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getInt();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case LONG: {
-                      long[] data = new long[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getLong();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-                    default: throw new AssertionError("unsupported enum member");
-                  }
+                  hprof.skip((long)length * type.size(idSize));
+                  instanceTasks.add(recordStart, hprof.tell(), heaps.getCurrentHeap());
                   break;
                 }
 
@@ -577,6 +544,22 @@ public class Parser {
       }
       progress.done();
 
+      if (classById == null) {
+        classById = new Instances<AhatClassObj>(classes);
+      }
+      InstanceReader reader = new InstanceReader(
+          hprof, sites, classById, primArrayClasses);
+      List<Callable<List<AhatInstance>>> tasks = new ArrayList<>();
+      for (List<InstanceRun> runs : instanceTasks.getTasks()) {
+        tasks.add(() -> reader.read(runs));
+      }
+      progress.start("Reading instances", instanceTasks.getSize());
+      for (List<AhatInstance> taskInstances
+          : runTasks(executor, tasks, instanceTasks.getTaskSizes())) {
+        instances.addAll(taskInstances);
+      }
+      progress.done();
+
       instances.addAll(classes);
     }
 
@@ -595,89 +578,219 @@ public class Parser {
     });
     roots.add(null);
 
-    // Fixup pass: Label the root instances and fix up references to instances
-    // that we couldn't previously resolve.
+    // Label the root instances.
     SuperRoot superRoot = new SuperRoot();
+    for (int i = 0; roots.get(i) != null; ) {
+      long id = roots.get(i).id;
+      AhatInstance inst = mInstances.get(id);
+
+      // It's not clear why there would be a root without an associated
+      // instance dump, but it does happen in practice, for example when
+      // taking heap dumps using the RI.
+      if (inst != null) {
+        superRoot.addRoot(inst);
+      }
+      for (; roots.get(i) != null && roots.get(i).id == id; ++i) {
+        if (inst != null) {
+          inst.addRootType(roots.get(i).type);
+        }
+      }
+    }
+
+    // Fixup pass: Fix up references to instances that we couldn't previously
+    // resolve and collect the references between instances used for the
+    // reachability and dominators computations. This is done in parallel
+    // over ranges of instances, with the references from each range
+    // concatenated in order afterwards.
+    InstanceStore store = new InstanceStore(mInstances, superRoot, heaps.heaps.size(), hprof);
+
+    // Restore the references between instances and the results of the
+    // reachability, dominators and retained size computations from the index
+    // cache if it is up to date, so they don't need to be recomputed.
+    IndexCache cache = indexCache && file != null ? new IndexCache(file) : null;
+    boolean loaded = false;
+    if (cache != null) {
+      try {
+        loaded = cache.load(store, retained);
+      } catch (IOException e) {
+        // The index may be stale or corrupt. Remove it and analyze the heap
+        // dump from scratch, starting over with a new store, because the
+        // index may have been partially loaded into this one.
+        cache.delete();
+        store = new InstanceStore(mInstances, superRoot, heaps.heaps.size(), hprof);
+      }
+    }
+    boolean cached = loaded;
     {
+      int[] referenceOffsets = new int[mInstances.size() + 1];
+      List<Callable<int[]>> tasks = new ArrayList<>();
+      List<Long> taskSizes = new ArrayList<>();
+      for (int start = 0; start < mInstances.size(); start += FIXUP_TASK_SIZE) {
+        int end = Math.min(mInstances.size(), start + FIXUP_TASK_SIZE);
+        int from = start;
+        tasks.add(() -> fixup(hprof, mInstances, from, end, referenceOffsets, !cached));
+        taskSizes.add((long)(end - start));
+      }
+
       progress.start("Resolving references", mInstances.size());
-      Iterator<RootData> ri = roots.iterator();
-      RootData root = ri.next();
-      for (AhatInstance inst : mInstances) {
-        progress.advance();
-        long id = inst.getId();
-
-        // Skip past any roots that don't have associated instances.
-        // It's not clear why there would be a root without an associated
-        // instance dump, but it does happen in practice, for example when
-        // taking heap dumps using the RI.
-        while (root != null && root.id < id) {
-          root = ri.next();
+      List<int[]> taskReferences = runTasks(executor, tasks,
+          taskSizes.stream().mapToLong(Long::longValue).toArray());
+      if (!cached) {
+        int numReferences = 0;
+        for (int[] refs : taskReferences) {
+          numReferences += refs.length;
         }
-
-        // Check if this instance is a root, and if so, update its root types.
-        if (root != null && root.id == id) {
-          superRoot.addRoot(inst);
-          while (root != null && root.id == id) {
-            inst.addRootType(root.type);
-            root = ri.next();
+        int[] references = new int[numReferences];
+        int offset = 0;
+        for (int i = 0; i < tasks.size(); ++i) {
+          int[] refs = taskReferences.get(i);
+          int end = Math.min(mInstances.size(), (i + 1) * FIXUP_TASK_SIZE);
+          for (int j = i * FIXUP_TASK_SIZE; j < end; ++j) {
+            referenceOffsets[j] += offset;
           }
+          System.arraycopy(refs, 0, references, offset, refs.length);
+          offset += refs.length;
         }
+        referenceOffsets[mInstances.size()] = offset;
+        store.setReferences(referenceOffsets, references);
+      }
+      progress.done();
+    }
 
-        // Fixup the instance based on its type using the temporary data we
-        // saved during the first pass over the heap dump.
-        if (inst instanceof AhatClassInstance) {
-          ClassInstData data = (ClassInstData)inst.getTemporaryUserData();
-          inst.setTemporaryUserData(null);
-
-          // Compute the size of the fields array in advance to avoid
-          // extra allocations and copies that would come from using an array
-          // list to collect the field values.
-          int numFields = 0;
-          for (AhatClassObj cls = inst.getClassObj(); cls != null; cls = cls.getSuperClassObj()) {
-            numFields += cls.getInstanceFields().length;
-          }
+    hprof = null;
+    roots = null;
+    AhatSnapshot snapshot = new AhatSnapshot(superRoot, store, heaps.heaps, rootSite,
+        progress, retained, threads, cached);
+    if (cache != null && !cached) {
+      try {
+        cache.save(store, retained);
+      } catch (IOException e) {
+        // The index cache is only an optimization. If it can't be written,
+        // for example because the heap dump is in a read only directory, the
+        // heap dump will be analyzed from scratch again next time.
+      }
+    }
+    return snapshot;
+  }
 
-          Value[] fields = new Value[numFields];
-          int i = 0;
-          hprof.seek(data.position);
-          for (AhatClassObj cls = inst.getClassObj(); cls != null; cls = cls.getSuperClassObj()) {
-            for (Field field : cls.getInstanceFields()) {
-              fields[i++] = hprof.getValue(field.type, mInstances);
+  /**
+   * Fixes up the instances with indices in the range [start, end) and
+   * returns the references from those instances. The position of the first
+   * reference of each instance, relative to the start of the returned
+   * references, is stored in referenceOffsets. If collectReferences is
+   * false, the references from class instances, which are otherwise only
+   * read for that purpose, are skipped.
+   */
+  private static int[] fixup(HprofBuffer hprof, Instances<AhatInstance> instances,
+      int start, int end, int[] referenceOffsets, boolean collectReferences) {
+    int idSize = hprof.getIdSize();
+    IntList references = new IntList();
+    for (int index = start; index < end; ++index) {
+      AhatInstance inst = instances.getByIndex(index);
+      referenceOffsets[index] = references.size();
+
+      // Fixup the instance based on its type using the temporary data we
+      // saved during the first pass over the heap dump.
+      if (inst instanceof AhatClassInstance) {
+        if (!collectReferences) {
+          continue;
+        }
+
+        // Instance field values are read from the heap dump on demand, so
+        // only the references need to be collected here. The 'referent'
+        // field of subclasses of java.lang.ref.Reference is not a strong
+        // reference.
+        AhatClassInstance classInst = (AhatClassInstance)inst;
+        boolean isJavaLangRef = classInst.getJavaLangRefType() != Reachability.STRONG;
+        long position = classInst.getFieldsPosition();
+        for (AhatClassObj cls = inst.getClassObj(); cls != null; cls = cls.getSuperClassObj()) {
+          for (Field field : cls.getInstanceFields()) {
+            if (field.type == Type.OBJECT) {
+              AhatInstance ref = instances.get(hprof.getId(position));
+              if (ref != null) {
+                references.add(isJavaLangRef && "referent".equals(field.name)
+                    ? InstanceStore.nonStrongReference(ref.getIndex())
+                    : ref.getIndex());
+              }
             }
+            position += field.type.size(idSize);
           }
-          ((AhatClassInstance)inst).initialize(fields);
-        } else if (inst instanceof AhatClassObj) {
-          ClassObjData data = (ClassObjData)inst.getTemporaryUserData();
-          inst.setTemporaryUserData(null);
-          AhatInstance loader = mInstances.get(data.classLoaderId);
-          for (int i = 0; i < data.staticFields.length; ++i) {
-            FieldValue field = data.staticFields[i];
-            if (field.value instanceof DeferredInstanceValue) {
-              DeferredInstanceValue deferred = (DeferredInstanceValue)field.value;
-              data.staticFields[i] = new FieldValue(
-                  field.name, field.type, Value.pack(mInstances.get(deferred.getId())));
+        }
+      } else if (inst instanceof AhatClassObj) {
+        ClassObjData data = (ClassObjData)inst.getTemporaryUserData();
+        inst.setTemporaryUserData(null);
+        AhatInstance loader = instances.get(data.classLoaderId);
+        for (int i = 0; i < data.staticFields.length; ++i) {
+          FieldValue field = data.staticFields[i];
+          if (field.value instanceof DeferredInstanceValue) {
+            DeferredInstanceValue deferred = (DeferredInstanceValue)field.value;
+            AhatInstance ref = instances.get(deferred.getId());
+            data.staticFields[i] = new FieldValue(field.name, field.type, Value.pack(ref));
+            if (ref != null) {
+              references.add(ref.getIndex());
             }
           }
-          ((AhatClassObj)inst).initialize(loader, data.staticFields);
-        } else if (inst instanceof AhatArrayInstance && inst.getTemporaryUserData() != null) {
-          // TODO: Have specialized object array instance and check for that
-          // rather than checking for the presence of user data?
-          ObjArrayData data = (ObjArrayData)inst.getTemporaryUserData();
-          inst.setTemporaryUserData(null);
-          AhatInstance[] array = new AhatInstance[data.length];
-          hprof.seek(data.position);
-          for (int i = 0; i < data.length; i++) {
-            array[i] = mInstances.get(hprof.getId());
+        }
+        ((AhatClassObj)inst).initialize(loader, data.staticFields);
+      } else if (inst instanceof AhatArrayInstance && inst.getTemporaryUserData() != null) {
+        // TODO: Have specialized object array instance and check for that
+        // rather than checking for the presence of user data?
+        ObjArrayData data = (ObjArrayData)inst.getTemporaryUserData();
+        inst.setTemporaryUserData(null);
+        AhatInstance[] array = new AhatInstance[data.length];
+        long position = data.position;
+        for (int i = 0; i < data.length; i++) {
+          array[i] = instances.get(hprof.getId(position));
+          position += idSize;
+          if (array[i] != null) {
+            references.add(array[i].getIndex());
           }
-          ((AhatArrayInstance)inst).initialize(array);
         }
+        ((AhatArrayInstance)inst).initialize(array);
       }
-      progress.done();
     }
+    return references.toArray();
+  }
 
-    hprof = null;
-    roots = null;
-    return new AhatSnapshot(superRoot, mInstances, heaps.heaps, rootSite, progress, retained);
+  /**
+   * Runs the given tasks on the executor and returns their results in the
+   * same order as the tasks. Progress is advanced by the corresponding size
+   * of each task as it completes.
+   */
+  private <T> List<T> runTasks(ExecutorService executor, List<Callable<T>> tasks, long[] sizes)
+    throws IOException, HprofFormatException {
+    List<Future<T>> futures = new ArrayList<Future<T>>();
+    for (Callable<T> task : tasks) {
+      futures.add(executor.submit(task));
+    }
+
+    List<T> results = new ArrayList<T>();
+    try {
+      for (int i = 0; i < futures.size(); ++i) {
+        results.add(futures.get(i).get());
+        progress.advance(sizes[i]);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing heap dump", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof HprofFormatException) {
+        throw (HprofFormatException)cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException)cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new AssertionError(cause);
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return results;
   }
 
   private static class RootData {
@@ -690,22 +803,253 @@ public class Parser {
     }
   }
 
-  private static class ClassInstData {
-    // The byte position in the hprof file where instance field data starts.
-    public int position;
+  private static class ObjArrayData {
+    public int length;          // Number of array elements.
+    public long position;       // Position in hprof file containing element data.
 
-    public ClassInstData(int position) {
+    public ObjArrayData(int length, long position) {
+      this.length = length;
       this.position = position;
     }
   }
 
-  private static class ObjArrayData {
-    public int length;          // Number of array elements.
-    public int position;        // Position in hprof file containing element data.
+  /**
+   * A contiguous range of instance and array dump records in the heap dump,
+   * all belonging to the same heap.
+   */
+  private static class InstanceRun {
+    public final long start;
+    public long end;
+    public final AhatHeap heap;
+
+    public InstanceRun(long start, long end, AhatHeap heap) {
+      this.start = start;
+      this.end = end;
+      this.heap = heap;
+    }
+  }
 
-    public ObjArrayData(int length, int position) {
-      this.length = length;
-      this.position = position;
+  /**
+   * Splits the instance and array dump records of a heap dump into tasks of
+   * about INSTANCE_TASK_SIZE bytes each. Each task is a list of runs of
+   * records, in the order the records appear in the heap dump.
+   */
+  private static class InstanceTaskList {
+    private final List<List<InstanceRun>> mTasks = new ArrayList<List<InstanceRun>>();
+    private final List<Long> mTaskSizes = new ArrayList<Long>();
+    private List<InstanceRun> mTask = null;
+    private InstanceRun mRun = null;
+    private long mTaskSize = 0;
+    private long mSize = 0;
+
+    /**
+     * Adds the record from start to end, belonging to the given heap.
+     */
+    public void add(long start, long end, AhatHeap heap) {
+      if (mTask == null) {
+        mTask = new ArrayList<InstanceRun>();
+        mTasks.add(mTask);
+        mTaskSizes.add(0L);
+      }
+
+      if (mRun != null && mRun.end == start && mRun.heap == heap) {
+        mRun.end = end;
+      } else {
+        mRun = new InstanceRun(start, end, heap);
+        mTask.add(mRun);
+      }
+
+      mTaskSize += end - start;
+      mSize += end - start;
+      mTaskSizes.set(mTasks.size() - 1, mTaskSize);
+      if (mTaskSize >= INSTANCE_TASK_SIZE) {
+        mTask = null;
+        mRun = null;
+        mTaskSize = 0;
+      }
+    }
+
+    public List<List<InstanceRun>> getTasks() {
+      return mTasks;
+    }
+
+    public long[] getTaskSizes() {
+      return mTaskSizes.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Returns the total size in bytes of all the records added.
+     */
+    public long getSize() {
+      return mSize;
+    }
+  }
+
+  /**
+   * Reads the instance and array dump records of a heap dump. All other
+   * records must be read before the instance dump records, so that the
+   * state used here is not modified while tasks are running.
+   */
+  private static class InstanceReader {
+    private final HprofBuffer mHprof;
+    private final DenseMap<Site> mSites;
+    private final Instances<AhatClassObj> mClassById;
+    private final AhatClassObj[] mPrimArrayClasses;
+
+    public InstanceReader(HprofBuffer hprof, DenseMap<Site> sites,
+        Instances<AhatClassObj> classById, AhatClassObj[] primArrayClasses) {
+      mHprof = hprof;
+      mSites = sites;
+      mClassById = classById;
+      mPrimArrayClasses = primArrayClasses;
+    }
+
+    /**
+     * Reads the records of the given runs, returning the instances in the
+     * order they appear in the heap dump. Safe to call from multiple threads
+     * at once.
+     */
+    public List<AhatInstance> read(List<InstanceRun> runs) throws HprofFormatException {
+      HprofBuffer hprof = mHprof.duplicate();
+      List<AhatInstance> instances = new ArrayList<AhatInstance>();
+      for (InstanceRun run : runs) {
+        hprof.seek(run.start);
+        while (hprof.tell() < run.end) {
+          int subtag = hprof.getU1();
+          switch (subtag) {
+            case 0x21: { // INSTANCE DUMP
+              long objectId = hprof.getId();
+              int stackSerialNumber = hprof.getU4();
+              long classId = hprof.getId();
+              int numBytes = hprof.getU4();
+              long position = hprof.tell();
+              hprof.skip(numBytes);
+
+              Site site = mSites.get(stackSerialNumber);
+              AhatClassObj classObj = mClassById.get(classId);
+              AhatClassInstance obj = AhatClassInstance.create(classObj, objectId);
+              obj.initialize(run.heap, site, classObj);
+              obj.initialize(position);
+              instances.add(obj);
+              break;
+            }
+
+            case 0x22: { // OBJECT ARRAY DUMP
+              long objectId = hprof.getId();
+              int stackSerialNumber = hprof.getU4();
+              int length = hprof.getU4();
+              long classId = hprof.getId();
+              ObjArrayData data = new ObjArrayData(length, hprof.tell());
+              hprof.skip((long)length * hprof.getIdSize());
+
+              Site site = mSites.get(stackSerialNumber);
+              AhatClassObj classObj = mClassById.get(classId);
+              AhatArrayInstance obj = new AhatArrayInstance(objectId, hprof.getIdSize());
+              obj.initialize(run.heap, site, classObj);
+              obj.setTemporaryUserData(data);
+              instances.add(obj);
+              break;
+            }
+
+            case 0x23: { // PRIMITIVE ARRAY DUMP
+              long objectId = hprof.getId();
+              int stackSerialNumber = hprof.getU4();
+              int length = hprof.getU4();
+              Type type = hprof.getPrimitiveType();
+              Site site = mSites.get(stackSerialNumber);
+
+              AhatClassObj classObj = mPrimArrayClasses[type.ordinal()];
+              if (classObj == null) {
+                throw new HprofFormatException(
+                    "No class definition found for " + type.name + "[]");
+              }
+
+              AhatArrayInstance obj = new AhatArrayInstance(objectId, hprof.getIdSize());
+              obj.initialize(run.heap, site, classObj);
+              obj.setElementsPosition(hprof.tell());
+              instances.add(obj);
+              switch (type) {
+                case BOOLEAN: {
+                  boolean[] data = new boolean[length];
+                  for (int i = 0; i < length; ++i) {
+                    data[i] = hprof.getBool();
+                  }
+                  obj.initialize(data);
+                  break;
+                }
+
+                case CHAR: {
+                  char[] data = new char[length];
+                  for (int i = 0; i < length; ++i) {
+                    data[i] = hprof.getChar();
+                  }
+                  obj.initialize(data);
+                  break;
+                }
+
+                case FLOAT: {
+                  float[] data = new float[length];
+                  for (int i = 0; i < length; ++i) {
+                    data[i] = hprof.getFloat();
+                  }
+                  obj.initialize(data);
+                  break;
+                }
+
+                case DOUBLE: {
+                  double[] data = new double[length];
+                  for (int i = 0; i < length; ++i) {
+                    data[i] = hprof.getDouble();
+                  }
+                  obj.initialize(data);
+                  break;
+                }
+
+                case BYTE: {
+                  byte[] data = new byte[length];
+                  hprof.getBytes(data);
+                  obj.initialize(data);
+                  break;
+                }
+
+                case SHORT: {
+                  short[] data = new short[length];
+                  for (int i = 0; i < length; ++i) {
+                    data[i] = hprof.getShort();
+                  }
+                  obj.initialize(data);
+                  break;
+                }
+
+                case INT: {
+                  int[] data = new int[length];
+                  for (int i = 0; i < length; ++i) {
+                    data[i] = hprof.getInt();
+                  }
+                  obj.initialize(data);
+                  break;
+                }
+
+                case LONG: {
+                  long[] data = new long[length];
+                  for (int i = 0; i < length; ++i) {
+                    data[i] = hprof.getLong();
+                  }
+                  obj.initialize(data);
+                  break;
+                }
+                default: throw new AssertionError("unsupported enum member");
+              }
+              break;
+            }
+
+            default:
+              throw new HprofFormatException(
+                  String.format("Unexpected heap dump sub tag 0x%02x", subtag));
+          }
+        }
+      }
+      return instances;
     }
   }
 
@@ -784,6 +1128,30 @@ public class Parser {
     }
   }
 
+  /**
+   * A growable list of ints, to avoid boxing when collecting large numbers of
+   * references between instances.
+   */
+  private static class IntList {
+    private int[] mValues = new int[16];
+    private int mSize = 0;
+
+    public void add(int value) {
+      if (mSize == mValues.length) {
+        mValues = Arrays.copyOf(mValues, 2 * mSize);
+      }
+      mValues[mSize++] = value;
+    }
+
+    public int size() {
+      return mSize;
+    }
+
+    public int[] toArray() {
+      return Arrays.copyOf(mValues, mSize);
+    }
+  }
+
   /**
    * A mapping from id to elements, where certain conditions are
    * satisfied. The conditions are:
@@ -874,7 +1242,8 @@ public class Parser {
    */
   private static class UnDenseMap<T> {
     private String mElementType;
-    private Map<Long, T> mValues = new HashMap<Long, T>();
+    private IdIndex mIndex = new IdIndex(16);
+    private List<T> mValues = new ArrayList<T>();
 
     /**
      * Constructs an UnDenseMap.
@@ -887,7 +1256,13 @@ public class Parser {
     }
 
     public void put(long key, T value) {
-      mValues.put(key, value);
+      int index = mIndex.get(key);
+      if (index == IdIndex.NONE) {
+        mIndex.put(key, mValues.size());
+        mValues.add(value);
+      } else {
+        mValues.set(index, value);
+      }
     }
 
     /**
@@ -896,7 +1271,8 @@ public class Parser {
      *         given map.
      */
     public T get(long key) throws HprofFormatException {
-      T value = mValues.get(key);
+      int index = mIndex.get(key);
+      T value = index == IdIndex.NONE ? null : mValues.get(index);
       if (value == null) {
         throw new HprofFormatException(String.format(
               "%s with id 0x%x referenced before definition", mElementType, key));
@@ -906,114 +1282,381 @@ public class Parser {
   }
 
   /**
-   * Wrapper around a ByteBuffer that presents a uniform interface for
-   * accessing data from an hprof file.
+   * Wrapper around a sequence of ByteBuffers that presents a uniform interface
+   * for accessing data from an hprof file.
+   * <p>
+   * A single ByteBuffer can address at most 2GiB, so heap dumps from files
+   * are memory mapped as a sequence of fixed size chunks and all positions in
+   * the file are represented as longs. Values that straddle the boundary
+   * between two chunks are assembled a byte at a time.
+   * <p>
+   * A compressed heap dump file is decompressed by an HprofDecompressor into
+   * smaller chunks that are added to the buffer as they are decompressed.
+   * Relative gets wait for the chunks they read from, so that the first pass
+   * of the parser overlaps with decompression.
+   * <p>
+   * The buffer is kept after parsing so that instance field values can be
+   * read from the heap dump on demand. The relative get methods read from the
+   * current position, which is only used while parsing. The absolute get
+   * methods do not change the state of the buffer, and may be used from
+   * multiple threads concurrently.
    */
-  private static class HprofBuffer {
+  static class HprofBuffer {
+    // The log2 of the size of each mapped chunk of the heap dump file.
+    private static final int CHUNK_SHIFT = 30;
+
     private boolean mIdSize8;
-    private final ByteBuffer mBuffer;
+    private ByteBuffer[] mChunks;
+    private final long mChunkSize;
+    private long mSize;
+
+    // The decompressor of a compressed heap dump file, or null if the heap
+    // dump is not compressed.
+    private final HprofDecompressor mDecompressor;
+
+    // Whether mChunks holds all the chunks of the heap dump, rather than just
+    // those decompressed so far.
+    private boolean mComplete;
+
+    // The chunk currently being read, mChunks[mChunkIndex].
+    private int mChunkIndex;
+    private ByteBuffer mChunk;
 
     public HprofBuffer(File path) throws IOException {
-      FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ);
-      mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-      channel.close();
+      mDecompressor = HprofDecompressor.open(path);
+      if (mDecompressor != null) {
+        // Decompression doesn't begin until the buffer is started.
+        mChunkSize = HprofDecompressor.CHUNK_SIZE;
+        mChunks = new ByteBuffer[0];
+        mSize = 0;
+        mChunkIndex = 0;
+        mChunk = null;
+        return;
+      }
+
+      mComplete = true;
+      try (FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+        mSize = channel.size();
+        mChunkSize = 1L << CHUNK_SHIFT;
+        int numChunks = (int)Math.max(1, (mSize + mChunkSize - 1) / mChunkSize);
+        mChunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; ++i) {
+          long start = i * mChunkSize;
+          long length = Math.min(mChunkSize, mSize - start);
+          mChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+      }
+      mChunkIndex = 0;
+      mChunk = mChunks[0];
+    }
+
+    /**
+     * Starts decompressing a compressed heap dump file, and waits for its
+     * first chunk. Does nothing if the heap dump is not compressed, or if the
+     * buffer has already been started. The buffer must be started before
+     * reading from it.
+     *
+     * @throws IOException if decompression failed
+     */
+    public void start() throws IOException {
+      if (mChunk != null) {
+        return;
+      }
+
+      try {
+        if (!more()) {
+          mChunks = new ByteBuffer[] { ByteBuffer.allocate(0) };
+        }
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      mChunkIndex = 0;
+      mChunk = mChunks[0];
+    }
+
+    /**
+     * Creates a buffer reading from the same data as the given buffer, with
+     * its own independent position.
+     */
+    private HprofBuffer(HprofBuffer other) {
+      mIdSize8 = other.mIdSize8;
+      mChunks = new ByteBuffer[other.mChunks.length];
+      for (int i = 0; i < mChunks.length; ++i) {
+        mChunks[i] = other.mChunks[i].duplicate();
+      }
+      mChunkSize = other.mChunkSize;
+      mSize = other.mSize;
+      mDecompressor = other.mDecompressor;
+      mComplete = true;
+      mChunkIndex = 0;
+      mChunk = mChunks[0];
     }
 
     public HprofBuffer(ByteBuffer buffer) {
-      mBuffer = buffer;
+      mChunks = new ByteBuffer[] { buffer };
+      mChunkSize = Math.max(1, buffer.capacity());
+      mSize = buffer.capacity();
+      mDecompressor = null;
+      mComplete = true;
+      mChunkIndex = 0;
+      mChunk = buffer;
+    }
+
+    /**
+     * Returns a buffer reading from the same data as this buffer, with its
+     * own independent position, for use by another thread.
+     */
+    public HprofBuffer duplicate() {
+      while (more()) {
+        // Wait for the rest of the heap dump to be decompressed.
+      }
+      return new HprofBuffer(this);
+    }
+
+    /**
+     * Waits for the next chunk of a heap dump that is being decompressed and
+     * adds it to the buffer. Returns false if there are no more chunks.
+     *
+     * @throws UncheckedIOException if decompression failed
+     */
+    private boolean more() {
+      if (mComplete) {
+        return false;
+      }
+
+      ByteBuffer[] chunks;
+      try {
+        chunks = mDecompressor.await(mChunks.length + 1);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (chunks.length == mChunks.length) {
+        mComplete = true;
+        return false;
+      }
+
+      // The chunks already in the buffer are the same objects, so the
+      // chunk being read keeps its position.
+      mChunks = chunks;
+      mSize = (chunks.length - 1) * mChunkSize + chunks[chunks.length - 1].capacity();
+      return true;
     }
 
     public void setIdSize8() {
       mIdSize8 = true;
     }
 
+    /**
+     * Returns the size in bytes of instance ids in the heap dump.
+     */
+    public int getIdSize() {
+      return mIdSize8 ? 8 : 4;
+    }
+
     public boolean hasRemaining() {
-      return mBuffer.hasRemaining();
+      while (tell() >= mSize) {
+        if (!more()) {
+          return false;
+        }
+      }
+      return true;
     }
 
     /**
-     * Returns the size of the file in bytes.
+     * Returns the size of the file in bytes. For a compressed file that is
+     * still being decompressed, this is the size decompressed so far.
      */
-    public int size() {
-      return mBuffer.capacity();
+    public long size() {
+      return mSize;
+    }
+
+    /**
+     * Returns the size of the file as read from disk, for reporting progress
+     * of reading through the file. For a compressed file this is the size
+     * of the compressed file.
+     */
+    public long getProgressSize() {
+      return mDecompressor == null ? mSize : mDecompressor.getCompressedSize();
+    }
+
+    /**
+     * Returns the progress of reading through the file to the current
+     * position, in terms of getProgressSize.
+     */
+    public long getProgress() {
+      if (mDecompressor == null) {
+        return tell();
+      }
+
+      // Assume compression is uniform within each chunk.
+      long start = mChunkIndex == 0 ? 0 : mDecompressor.getCompressedEnd(mChunkIndex - 1);
+      long end = mDecompressor.getCompressedEnd(mChunkIndex);
+      return mChunk.capacity() == 0 ? end
+        : start + (end - start) * mChunk.position() / mChunk.capacity();
     }
 
     /**
      * Return the current absolution position in the file.
      */
-    public int tell() {
-      return mBuffer.position();
+    public long tell() {
+      return mChunkIndex * mChunkSize + mChunk.position();
     }
 
     /**
      * Seek to the given absolution position in the file.
      */
-    public void seek(int position) {
-      mBuffer.position(position);
+    public void seek(long position) {
+      while (position > mSize && more()) {
+        // Wait for the chunk with the position to be decompressed.
+      }
+      int index = (int)Math.min(position / mChunkSize, mChunks.length - 1);
+      mChunkIndex = index;
+      mChunk = mChunks[index];
+      mChunk.position((int)(position - index * mChunkSize));
     }
 
     /**
      * Skip ahead in the file by the given delta bytes. Delta may be negative
      * to skip backwards in the file.
      */
-    public void skip(int delta) {
+    public void skip(long delta) {
       seek(tell() + delta);
     }
 
+    /**
+     * Returns the chunk to read the next byte from, advancing to the
+     * following chunk if the current chunk has been read completely.
+     */
+    private ByteBuffer chunk() {
+      if (!mChunk.hasRemaining()) {
+        if (mChunkIndex + 1 >= mChunks.length && !more()) {
+          throw new BufferUnderflowException();
+        }
+        mChunk = mChunks[++mChunkIndex];
+        mChunk.position(0);
+      }
+      return mChunk;
+    }
+
+    /**
+     * Reads a big endian value of the given number of bytes a byte at a
+     * time. Used for values that straddle two chunks.
+     */
+    private long getSlow(int bytes) {
+      long value = 0;
+      for (int i = 0; i < bytes; ++i) {
+        value = (value << 8) | (chunk().get() & 0xFF);
+      }
+      return value;
+    }
+
     public int getU1() {
-      return mBuffer.get() & 0xFF;
+      return chunk().get() & 0xFF;
     }
 
     public int getU2() {
-      return mBuffer.getShort() & 0xFFFF;
+      return getShort() & 0xFFFF;
     }
 
     public int getU4() {
-      return mBuffer.getInt();
+      return getInt();
     }
 
     public long getId() {
       if (mIdSize8) {
-        return mBuffer.getLong();
+        return getLong();
       } else {
-        return mBuffer.getInt() & 0xFFFFFFFFL;
+        return getInt() & 0xFFFFFFFFL;
       }
     }
 
     public boolean getBool() {
-      return mBuffer.get() != 0;
+      return chunk().get() != 0;
     }
 
     public char getChar() {
-      return mBuffer.getChar();
+      return (char)getShort();
     }
 
     public float getFloat() {
-      return mBuffer.getFloat();
+      return Float.intBitsToFloat(getInt());
     }
 
     public double getDouble() {
-      return mBuffer.getDouble();
+      return Double.longBitsToDouble(getLong());
     }
 
     public byte getByte() {
-      return mBuffer.get();
+      return chunk().get();
     }
 
     public void getBytes(byte[] bytes) {
-      mBuffer.get(bytes);
+      int offset = 0;
+      while (offset < bytes.length) {
+        ByteBuffer chunk = chunk();
+        int length = Math.min(bytes.length - offset, chunk.remaining());
+        chunk.get(bytes, offset, length);
+        offset += length;
+      }
     }
 
     public short getShort() {
-      return mBuffer.getShort();
+      return mChunk.remaining() >= 2 ? mChunk.getShort() : (short)getSlow(2);
     }
 
     public int getInt() {
-      return mBuffer.getInt();
+      return mChunk.remaining() >= 4 ? mChunk.getInt() : (int)getSlow(4);
     }
 
     public long getLong() {
-      return mBuffer.getLong();
+      return mChunk.remaining() >= 8 ? mChunk.getLong() : getSlow(8);
+    }
+
+    /**
+     * Reads a big endian value of the given number of bytes at the given
+     * absolute position a byte at a time. Used for values that straddle two
+     * chunks.
+     */
+    private long getSlow(long position, int bytes) {
+      long value = 0;
+      for (int i = 0; i < bytes; ++i) {
+        value = (value << 8) | (getByte(position + i) & 0xFF);
+      }
+      return value;
+    }
+
+    public byte getByte(long position) {
+      int index = (int)(position / mChunkSize);
+      return mChunks[index].get((int)(position - index * mChunkSize));
+    }
+
+    public short getShort(long position) {
+      int index = (int)(position / mChunkSize);
+      int offset = (int)(position - index * mChunkSize);
+      ByteBuffer chunk = mChunks[index];
+      return offset + 2 <= chunk.limit() ? chunk.getShort(offset) : (short)getSlow(position, 2);
+    }
+
+    public int getInt(long position) {
+      int index = (int)(position / mChunkSize);
+      int offset = (int)(position - index * mChunkSize);
+      ByteBuffer chunk = mChunks[index];
+      return offset + 4 <= chunk.limit() ? chunk.getInt(offset) : (int)getSlow(position, 4);
+    }
+
+    public long getLong(long position) {
+      int index = (int)(position / mChunkSize);
+      int offset = (int)(position - index * mChunkSize);
+      ByteBuffer chunk = mChunks[index];
+      return offset + 8 <= chunk.limit() ? chunk.getLong(offset) : getSlow(position, 8);
+    }
+
+    public long getId(long position) {
+      if (mIdSize8) {
+        return getLong(position);
+      } else {
+        return getInt(position) & 0xFFFFFFFFL;
+      }
     }
 
     private static Type[] TYPES = new Type[] {
@@ -1040,20 +1683,22 @@ public class Parser {
     }
 
     /**
-     * Get a value from the hprof file, using the given instances map to
-     * convert instance ids to their corresponding AhatInstance objects.
+     * Get a value at the given absolute position in the hprof file, using the
+     * given instances map to convert instance ids to their corresponding
+     * AhatInstance objects.
      */
-    public Value getValue(Type type, Instances instances) {
+    public Value getValue(long position, Type type,
+        Instances<? extends AhatInstance> instances) {
       switch (type) {
-        case OBJECT:  return Value.pack(instances.get(getId()));
-        case BOOLEAN: return Value.pack(getBool());
-        case CHAR: return Value.pack(getChar());
-        case FLOAT: return Value.pack(getFloat());
-        case DOUBLE: return Value.pack(getDouble());
-        case BYTE: return Value.pack(getByte());
-        case SHORT: return Value.pack(getShort());
-        case INT: return Value.pack(getInt());
-        case LONG: return Value.pack(getLong());
+        case OBJECT:  return Value.pack(instances.get(getId(position)));
+        case BOOLEAN: return Value.pack(getByte(position) != 0);
+        case CHAR: return Value.pack((char)getShort(position));
+        case FLOAT: return Value.pack(Float.intBitsToFloat(getInt(position)));
+        case DOUBLE: return Value.pack(Double.longBitsToDouble(getLong(position)));
+        case BYTE: return Value.pack(getByte(position));
+        case SHORT: return Value.pack(getShort(position));
+        case INT: return Value.pack(getInt(position));
+        case LONG: return Value.pack(getLong(position));
         default: throw new AssertionError("unsupported enum member");
       }
     }
@@ -16,6 +16,7 @@
 
 package com.android.ahat.heapdump;
 
+import com.android.ahat.progress.Progress;
 import com.android.ahat.proguard.ProguardMap;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -67,6 +68,10 @@ public class Site implements Diffable<Site> {
 
   private Site mBaseline;
 
+  // Index of the objects allocated under the site tree this site belongs
+  // to, shared by all sites of the tree. Set by indexObjects.
+  private ObjectsIndex mObjectsIndex;
+
   /**
    * Summary information about retained instances allocated at a particular
    * allocation site that are instances of a particular class and allocated on
@@ -202,10 +207,12 @@ public class Site implements Diffable<Site> {
    * any of its children.
    * @param numHeaps - The number of heaps in the heap dump.
    * @param retained the weakest reachability of instances to treat as retained.
+   * @param progress used to track progress, advanced once per object
+   * allocated at this site or any of its children.
    * @return An id larger than the largest id used for this site or any of its
    * children.
    */
-  long prepareForUse(long id, int numHeaps, Reachability retained) {
+  long prepareForUse(long id, int numHeaps, Reachability retained, Progress progress) {
     mId = id++;
 
     // Count up the total sizes by heap.
@@ -225,10 +232,11 @@ public class Site implements Diffable<Site> {
         mSizesByHeap[heap.getIndex()] = mSizesByHeap[heap.getIndex()].plus(size);
       }
     }
+    progress.advance(mObjects.size());
 
     // Add objects allocated in child sites.
     for (Site child : mChildren) {
-      id = child.prepareForUse(id, numHeaps, retained);
+      id = child.prepareForUse(id, numHeaps, retained, progress);
       for (ObjectsInfo childInfo : child.mObjectsInfos) {
         ObjectsInfo info = getObjectsInfo(childInfo.heap, childInfo.classObj);
         info.numInstances += childInfo.numInstances;
@@ -267,9 +275,40 @@ public class Site implements Diffable<Site> {
    *                collected objects should be added to.
    */
   public void getObjects(String heapName, String className, Collection<AhatInstance> objects) {
+    getObjects(heapName, className, false, objects);
+  }
+
+  /**
+   * Collects the objects allocated under this site, optionally filtered by
+   * heap name or class name, optionally including instances of subclasses
+   * of the class. Includes objects allocated in children sites.
+   * <p>
+   * Once the snapshot has been loaded this takes time proportional to the
+   * number of objects collected, not the number of objects allocated under
+   * this site.
+   *
+   * @param heapName the name of the heap the collected objects should
+   *                 belong to. This may be null to indicate objects of
+   *                 every heap should be collected.
+   * @param className the name of the class the collected objects should
+   *                  belong to. This may be null to indicate objects of
+   *                  every class should be collected.
+   * @param subclass if true, include instances of subclasses of the named
+   *                 class. Ignored if className is null.
+   * @param objects out parameter. A collection of objects that all
+   *                collected objects should be added to.
+   */
+  public void getObjects(String heapName, String className, boolean subclass,
+      Collection<AhatInstance> objects) {
+    if (mObjectsIndex != null) {
+      mObjectsIndex.getObjects(this, heapName, className, subclass, objects);
+      return;
+    }
+
     Predicate<AhatInstance> predicate = x -> {
       return (heapName == null || x.getHeap().getName().equals(heapName))
-        && (className == null || x.getClassName().equals(className));
+        && (className == null
+            || (subclass ? x.isInstanceOfClass(className) : x.getClassName().equals(className)));
     };
     getObjects(predicate, x -> objects.add(x));
   }
@@ -295,6 +334,32 @@ public class Site implements Diffable<Site> {
     }
   }
 
+  /**
+   * Returns the objects allocated at this site, not including objects
+   * allocated in children sites.
+   */
+  List<AhatInstance> getLocalObjects() {
+    return mObjects;
+  }
+
+  /**
+   * Indexes the objects allocated under this site and its children to speed
+   * up {@link #getObjects(String, String, boolean, Collection)}. This must be
+   * called on the root site after prepareForUse, and again after any
+   * instances are added to the site tree.
+   */
+  void indexObjects() {
+    ObjectsIndex index = new ObjectsIndex(this);
+    setObjectsIndex(index);
+  }
+
+  private void setObjectsIndex(ObjectsIndex index) {
+    mObjectsIndex = index;
+    for (Site child : mChildren) {
+      child.setObjectsIndex(index);
+    }
+  }
+
   /**
    * Returns the ObjectsInfo at this site for the given heap and class
    * objects. Creates a new empty ObjectsInfo if none existed before.
@@ -42,6 +42,14 @@ class SuperRoot extends AhatInstance {
     return "SUPER_ROOT";
   }
 
+  /**
+   * Returns the roots added to the super root, all of which are strongly
+   * referenced from the super root.
+   */
+  List<AhatInstance> getRoots() {
+    return mRoots;
+  }
+
   @Override
   Iterable<Reference> getReferences() {
     return new AbstractList<Reference>() {
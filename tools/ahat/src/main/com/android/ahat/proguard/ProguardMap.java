@@ -23,7 +23,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
@@ -155,6 +157,11 @@ public class ProguardMap {
   private Map<String, ClassData> mClassesFromClearName = new HashMap<String, ClassData>();
   private Map<String, ClassData> mClassesFromObfuscatedName = new HashMap<String, ClassData>();
 
+  // Indices of proguard mapping files whose classes are read when they are
+  // first needed, in the order the files were added. The classes read are
+  // added to mClassesFromClearName.
+  private List<ProguardMapIndex> mIndices = new ArrayList<ProguardMapIndex>();
+
   /**
    * Information associated with a stack frame that identifies a particular
    * line of source code.
@@ -198,7 +205,8 @@ public class ProguardMap {
 
   /**
    * Creates a new empty proguard mapping.
-   * The {@link #readFromFile readFromFile} and
+   * The {@link #readFromFile readFromFile},
+   * {@link #readIndexFromFile readIndexFromFile} and
    * {@link #readFromReader readFromReader} methods can be used to populate
    * the proguard mapping with proguard mapping information.
    */
@@ -223,6 +231,49 @@ public class ProguardMap {
     readFromReader(new FileReader(mapFile));
   }
 
+  /**
+   * Adds the proguard mapping information in <code>mapFile</code> to this
+   * proguard mapping, reading only an index of the classes in the file up
+   * front. The fields and methods of a class are read from the file the
+   * first time they are needed to deobfuscate a field or stack frame of the
+   * class, which avoids parsing all of a very large mapping file when only a
+   * few of its classes are used.
+   * <p>
+   * If <code>cacheIndex</code> is true, the index is saved to
+   * <code>mapFile</code>.ahat-index and reused while the mapping file is
+   * unchanged.
+   * <p>
+   * Fields and methods are only checked for errors when they are read. A
+   * class whose fields and methods cannot be read is left with obfuscated
+   * field and method names.
+   *
+   * @param mapFile the name of a file with proguard mapping information
+   * @param cacheIndex whether to read and write a cached index of the file
+   * @throws FileNotFoundException If the <code>mapFile</code> could not be
+   *                               found
+   * @throws IOException If an input exception occurred.
+   * @throws ParseException If the classes in <code>mapFile</code> are not
+   *                        properly formatted.
+   */
+  public void readIndexFromFile(File mapFile, boolean cacheIndex)
+    throws FileNotFoundException, IOException, ParseException {
+    ProguardMapIndex index = cacheIndex ? ProguardMapIndex.load(mapFile) : null;
+    if (index == null) {
+      index = ProguardMapIndex.build(mapFile);
+      if (cacheIndex) {
+        try {
+          index.save();
+        } catch (IOException e) {
+          // The cached index is only an optimization. If it can't be
+          // written, the index is built again next time.
+        }
+      }
+    }
+    synchronized (this) {
+      mIndices.add(index);
+    }
+  }
+
   /**
    * Adds the proguard mapping information read from <code>mapReader</code> to
    * this proguard mapping.
@@ -246,12 +297,7 @@ public class ProguardMap {
         continue;
       }
 
-      // Class lines are of the form:
-      //   'clear.class.name -> obfuscated_class_name:'
-      int sep = line.indexOf(" -> ");
-      if (sep == -1 || sep + 5 >= line.length()) {
-        parseException("Error parsing class line: '" + line + "'");
-      }
+      int sep = parseClassLine(line);
       String clearClassName = line.substring(0, sep);
       String obfuscatedClassName = line.substring(sep + 4, line.length() - 1);
 
@@ -271,86 +317,110 @@ public class ProguardMap {
           line = reader.readLine();
           continue;
         }
-        int ws = trimmed.indexOf(' ');
-        sep = trimmed.indexOf(" -> ");
-        if (ws == -1 || sep == -1) {
-          parseException("Error parse field/method line: '" + line + "'");
-        }
+        parseMember(classData, line, compilerVersion);
+        line = reader.readLine();
+      }
+    }
+    reader.close();
+  }
+
+  /**
+   * Checks the format of a class line and returns the position of the
+   * separator between the clear and obfuscated class names. Class lines are
+   * of the form:
+   *   'clear.class.name -> obfuscated_class_name:'
+   */
+  static int parseClassLine(String line) throws ParseException {
+    int sep = line.indexOf(" -> ");
+    if (sep == -1 || sep + 5 >= line.length()) {
+      parseException("Error parsing class line: '" + line + "'");
+    }
+    return sep;
+  }
+
+  /**
+   * Parses a field or method line of the class with the given class data.
+   * Field and method lines are of the form:
+   *   '    type clearName -> obfuscatedName'
+   */
+  private static void parseMember(ClassData classData, String line, Version compilerVersion)
+      throws ParseException {
+    String trimmed = line.trim();
+    int ws = trimmed.indexOf(' ');
+    int sep = trimmed.indexOf(" -> ");
+    if (ws == -1 || sep == -1) {
+      parseException("Error parse field/method line: '" + line + "'");
+    }
+
+    String type = trimmed.substring(0, ws);
+    String clearName = trimmed.substring(ws + 1, sep);
+    String obfuscatedName = trimmed.substring(sep + 4, trimmed.length());
+
+    // If the clearName contains '(', then this is for a method instead of a
+    // field.
+    if (clearName.indexOf('(') == -1) {
+      classData.addField(obfuscatedName, clearName);
+    } else {
+      // For methods, the type is of the form: [#:[#:]]<returnType>
+      int obfuscatedLineStart = 0;
+      // The end of the obfuscated line range.
+      // If line does not contain explicit end range, e.g #:, it is equivalent to #:#:
+      int obfuscatedLineEnd = 0;
+      int colon = type.indexOf(':');
+      if (colon != -1) {
+        obfuscatedLineStart = Integer.parseInt(type.substring(0, colon));
+        obfuscatedLineEnd = obfuscatedLineStart;
+        type = type.substring(colon + 1);
+      }
+      colon = type.indexOf(':');
+      if (colon != -1) {
+        obfuscatedLineEnd = Integer.parseInt(type.substring(0, colon));
+        type = type.substring(colon + 1);
+      }
+      LineRange obfuscatedRange = new LineRange(obfuscatedLineStart, obfuscatedLineEnd);
 
-        String type = trimmed.substring(0, ws);
-        String clearName = trimmed.substring(ws + 1, sep);
-        String obfuscatedName = trimmed.substring(sep + 4, trimmed.length());
+      // For methods, the clearName is of the form: <clearName><sig>[:#[:#]]
+      int op = clearName.indexOf('(');
+      int cp = clearName.indexOf(')');
+      if (op == -1 || cp == -1) {
+        parseException("Error parse method line: '" + line + "'");
+      }
 
-        // If the clearName contains '(', then this is for a method instead of a
-        // field.
-        if (clearName.indexOf('(') == -1) {
-          classData.addField(obfuscatedName, clearName);
+      String sig = clearName.substring(op, cp + 1);
+
+      int clearLineStart = obfuscatedRange.start;
+      int clearLineEnd = obfuscatedRange.end;
+      colon = clearName.lastIndexOf(':');
+      if (colon != -1) {
+        if (compilerVersion.compareTo(LINE_MAPPING_BEHAVIOR_CHANGE_VERSION) < 0) {
+          // Before v3.1.4 if only one clear line was present, that implied a range equal to the
+          // obfuscated line range
+          clearLineStart = Integer.parseInt(clearName.substring(colon + 1));
+          clearLineEnd = clearLineStart + obfuscatedRange.end - obfuscatedRange.start;
         } else {
-          // For methods, the type is of the form: [#:[#:]]<returnType>
-          int obfuscatedLineStart = 0;
-          // The end of the obfuscated line range.
-          // If line does not contain explicit end range, e.g #:, it is equivalent to #:#:
-          int obfuscatedLineEnd = 0;
-          int colon = type.indexOf(':');
-          if (colon != -1) {
-            obfuscatedLineStart = Integer.parseInt(type.substring(0, colon));
-            obfuscatedLineEnd = obfuscatedLineStart;
-            type = type.substring(colon + 1);
-          }
-          colon = type.indexOf(':');
-          if (colon != -1) {
-            obfuscatedLineEnd = Integer.parseInt(type.substring(0, colon));
-            type = type.substring(colon + 1);
-          }
-          LineRange obfuscatedRange = new LineRange(obfuscatedLineStart, obfuscatedLineEnd);
-
-          // For methods, the clearName is of the form: <clearName><sig>[:#[:#]]
-          int op = clearName.indexOf('(');
-          int cp = clearName.indexOf(')');
-          if (op == -1 || cp == -1) {
-            parseException("Error parse method line: '" + line + "'");
-          }
-
-          String sig = clearName.substring(op, cp + 1);
-
-          int clearLineStart = obfuscatedRange.start;
-          int clearLineEnd = obfuscatedRange.end;
-          colon = clearName.lastIndexOf(':');
-          if (colon != -1) {
-            if (compilerVersion.compareTo(LINE_MAPPING_BEHAVIOR_CHANGE_VERSION) < 0) {
-              // Before v3.1.4 if only one clear line was present, that implied a range equal to the
-              // obfuscated line range
-              clearLineStart = Integer.parseInt(clearName.substring(colon + 1));
-              clearLineEnd = clearLineStart + obfuscatedRange.end - obfuscatedRange.start;
-            } else {
-              // From v3.1.4 if only one clear line was present, that implies that all lines map to
-              // a single clear line
-              clearLineEnd = Integer.parseInt(clearName.substring(colon + 1));
-              clearLineStart = clearLineEnd;
-            }
-            clearName = clearName.substring(0, colon);
-          }
-
-          colon = clearName.lastIndexOf(':');
-          if (colon != -1) {
-            clearLineStart = Integer.parseInt(clearName.substring(colon + 1));
-            clearName = clearName.substring(0, colon);
-          }
-          LineRange clearRange = new LineRange(clearLineStart, clearLineEnd);
-
-          clearName = clearName.substring(0, op);
-
-          String clearSig = fromProguardSignature(sig + type);
-          classData.addFrame(obfuscatedName, clearName, clearSig, obfuscatedRange, clearRange);
+          // From v3.1.4 if only one clear line was present, that implies that all lines map to
+          // a single clear line
+          clearLineEnd = Integer.parseInt(clearName.substring(colon + 1));
+          clearLineStart = clearLineEnd;
         }
+        clearName = clearName.substring(0, colon);
+      }
 
-        line = reader.readLine();
+      colon = clearName.lastIndexOf(':');
+      if (colon != -1) {
+        clearLineStart = Integer.parseInt(clearName.substring(colon + 1));
+        clearName = clearName.substring(0, colon);
       }
+      LineRange clearRange = new LineRange(clearLineStart, clearLineEnd);
+
+      clearName = clearName.substring(0, op);
+
+      String clearSig = fromProguardSignature(sig + type);
+      classData.addFrame(obfuscatedName, clearName, clearSig, obfuscatedRange, clearRange);
     }
-    reader.close();
   }
 
-  private static class Version implements Comparable<Version> {
+  static class Version implements Comparable<Version> {
     final int major;
     final int minor;
     final int build;
@@ -374,12 +444,12 @@ public class ProguardMap {
     }
   }
 
-  private boolean isCommentLine(String line) {
+  static boolean isCommentLine(String line) {
     // Comment lines start with '#' and my have leading whitespaces.
     return line.trim().startsWith("#");
   }
 
-  private Version tryParseVersion(String line, Version old) {
+  static Version tryParseVersion(String line, Version old) {
     Pattern pattern = Pattern.compile("#\\s*compiler_version:\\s*(\\d+).(\\d+).(?:(\\d+))?");
     Matcher matcher = pattern.matcher(line);
     if (matcher.find()) {
@@ -414,9 +484,72 @@ public class ProguardMap {
       baseName = baseName.substring(0, baseName.length() - ARRAY_SYMBOL.length());
     }
 
-    ClassData classData = mClassesFromObfuscatedName.get(baseName);
-    String clearBaseName = classData == null ? baseName : classData.getClearName();
-    return clearBaseName + arraySuffix;
+    String clearBaseName = getClearClassName(baseName);
+    return (clearBaseName == null ? baseName : clearBaseName) + arraySuffix;
+  }
+
+  /**
+   * Returns the clear name of the class with the given obfuscated name, or
+   * null if this proguard mapping has no class with that name.
+   */
+  private synchronized String getClearClassName(String obfuscatedClassName) {
+    ClassData classData = mClassesFromObfuscatedName.get(obfuscatedClassName);
+    if (classData != null) {
+      return classData.getClearName();
+    }
+    for (int i = mIndices.size() - 1; i >= 0; --i) {
+      ProguardMapIndex index = mIndices.get(i);
+      int record = index.findObfuscatedName(obfuscatedClassName);
+      if (record != ProguardMapIndex.NONE) {
+        return index.getClearName(record);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the class data for the class with the given clear name, reading
+   * it from an indexed mapping file if needed. Returns null if this proguard
+   * mapping has no class with that name.
+   */
+  private synchronized ClassData getClassData(String clearClassName) {
+    ClassData classData = mClassesFromClearName.get(clearClassName);
+    if (classData != null) {
+      return classData;
+    }
+    for (int i = mIndices.size() - 1; i >= 0; --i) {
+      ProguardMapIndex index = mIndices.get(i);
+      int record = index.findClearName(clearClassName);
+      if (record != ProguardMapIndex.NONE) {
+        classData = readClassData(index, record);
+        mClassesFromClearName.put(clearClassName, classData);
+        return classData;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads the fields and methods of a class from an indexed mapping file.
+   */
+  private static ClassData readClassData(ProguardMapIndex index, int record) {
+    ClassData classData = new ClassData(index.getClearName(record));
+    try (ProguardMapIndex.LineReader reader = index.openClass(record)) {
+      // Skip over the class line itself.
+      reader.readLine();
+      String line = reader.readLine();
+      while (line != null && (line.startsWith("    ") || isCommentLine(line))) {
+        if (!isCommentLine(line)) {
+          parseMember(classData, line, index.getCompilerVersion());
+        }
+        line = reader.readLine();
+      }
+    } catch (IOException | ParseException e) {
+      // Leave the fields and methods of the class obfuscated rather than
+      // partially deobfuscated.
+      classData = new ClassData(index.getClearName(record));
+    }
+    return classData;
   }
 
   /**
@@ -431,7 +564,7 @@ public class ProguardMap {
    * @return the deobfuscated field name.
    */
   public String getFieldName(String clearClass, String obfuscatedField) {
-    ClassData classData = mClassesFromClearName.get(clearClass);
+    ClassData classData = getClassData(clearClass);
     if (classData == null) {
       return obfuscatedField;
     }
@@ -456,7 +589,7 @@ public class ProguardMap {
   public Frame getFrame(String clearClassName, String obfuscatedMethodName,
       String obfuscatedSignature, String obfuscatedFilename, int obfuscatedLine) {
     String clearSignature = getSignature(obfuscatedSignature);
-    ClassData classData = mClassesFromClearName.get(clearClassName);
+    ClassData classData = getClassData(clearClassName);
     if (classData == null) {
       return new Frame(obfuscatedMethodName, clearSignature,
           obfuscatedFilename, obfuscatedLine);
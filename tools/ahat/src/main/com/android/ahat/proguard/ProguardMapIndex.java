@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.proguard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * An index of the classes in a proguard mapping file: the clear and
+ * obfuscated name of each class and the position of its class line in the
+ * file, so that the fields and methods of a class can be read from the file
+ * when they are needed.
+ * <p>
+ * The index can be cached in a sidecar file stored next to the mapping file,
+ * keyed by the size and modification time of the mapping file.
+ */
+class ProguardMapIndex {
+  /**
+   * Record number used to indicate the absence of a class.
+   */
+  static final int NONE = -1;
+
+  private static final String SUFFIX = ".ahat-index";
+  private static final int MAGIC = 0x6168706d;  // "ahpm"
+  private static final int VERSION = 1;
+
+  private final File mFile;
+  private final long mFileSize;
+  private final long mFileModified;
+
+  // The compiler version given in the comments at the start of the mapping
+  // file, which determines how the line numbers of methods are read.
+  private final ProguardMap.Version mCompilerVersion;
+
+  // The clear and obfuscated names of each class and the position of its
+  // class line in the mapping file, by record number in file order.
+  private final String[] mClearNames;
+  private final String[] mObfuscatedNames;
+  private final long[] mPositions;
+
+  // Record numbers sorted by clear and by obfuscated name. Where the same
+  // name is used for more than one class, only the last class in the file
+  // is kept, as when the whole file is read.
+  private final int[] mByClearName;
+  private final int[] mByObfuscatedName;
+
+  private ProguardMapIndex(File file, long fileSize, long fileModified,
+      ProguardMap.Version compilerVersion, String[] clearNames, String[] obfuscatedNames,
+      long[] positions, int[] byClearName, int[] byObfuscatedName) {
+    mFile = file;
+    mFileSize = fileSize;
+    mFileModified = fileModified;
+    mCompilerVersion = compilerVersion;
+    mClearNames = clearNames;
+    mObfuscatedNames = obfuscatedNames;
+    mPositions = positions;
+    mByClearName = byClearName;
+    mByObfuscatedName = byObfuscatedName;
+  }
+
+  /**
+   * Builds the index of the given mapping file by scanning it for class
+   * lines.
+   *
+   * @throws IOException if the file could not be read.
+   * @throws ParseException if a class line is not properly formatted.
+   */
+  static ProguardMapIndex build(File file) throws IOException, ParseException {
+    long fileSize = file.length();
+    long fileModified = file.lastModified();
+    ProguardMap.Version compilerVersion = new ProguardMap.Version(0, 0, 0);
+    List<String> clearNames = new ArrayList<String>();
+    List<String> obfuscatedNames = new ArrayList<String>();
+    long[] positions = new long[1024];
+    try (LineReader reader = new LineReader(new FileInputStream(file), 0)) {
+      long position = reader.getPosition();
+      for (String line = reader.readLine(); line != null;
+          position = reader.getPosition(), line = reader.readLine()) {
+        // The compiler version is only taken from comments ahead of the
+        // first class, and field and method lines only follow a class.
+        if (ProguardMap.isCommentLine(line)) {
+          if (clearNames.isEmpty()) {
+            compilerVersion = ProguardMap.tryParseVersion(line, compilerVersion);
+          }
+          continue;
+        }
+        if (!clearNames.isEmpty() && line.startsWith("    ")) {
+          continue;
+        }
+
+        int sep = ProguardMap.parseClassLine(line);
+        if (clearNames.size() == positions.length) {
+          positions = Arrays.copyOf(positions, 2 * positions.length);
+        }
+        positions[clearNames.size()] = position;
+        clearNames.add(line.substring(0, sep));
+        obfuscatedNames.add(line.substring(sep + 4, line.length() - 1));
+      }
+    }
+
+    String[] clear = clearNames.toArray(new String[clearNames.size()]);
+    String[] obfuscated = obfuscatedNames.toArray(new String[obfuscatedNames.size()]);
+    return new ProguardMapIndex(file, fileSize, fileModified, compilerVersion,
+        clear, obfuscated, Arrays.copyOf(positions, clear.length),
+        sortByName(clear), sortByName(obfuscated));
+  }
+
+  /**
+   * Returns the record numbers of the given names sorted by name, keeping
+   * only the last record with each name.
+   */
+  private static int[] sortByName(String[] names) {
+    // The sort is stable, so the last record with each name comes last
+    // among the records with that name.
+    int[] sorted = IntStream.range(0, names.length)
+      .boxed()
+      .sorted(Comparator.comparing((Integer record) -> names[record]))
+      .mapToInt(Integer::intValue)
+      .toArray();
+    int size = 0;
+    for (int i = 0; i < sorted.length; ++i) {
+      if (i + 1 == sorted.length || !names[sorted[i]].equals(names[sorted[i + 1]])) {
+        sorted[size++] = sorted[i];
+      }
+    }
+    return Arrays.copyOf(sorted, size);
+  }
+
+  /**
+   * Returns the cached index of the given mapping file, or null if there is
+   * no cached index or it does not match the mapping file.
+   */
+  static ProguardMapIndex load(File file) {
+    File cache = new File(file.getPath() + SUFFIX);
+    if (!cache.isFile()) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(cache)))) {
+      long fileSize = file.length();
+      long fileModified = file.lastModified();
+      if (in.readInt() != MAGIC
+          || in.readInt() != VERSION
+          || in.readLong() != fileSize
+          || in.readLong() != fileModified) {
+        return null;
+      }
+
+      ProguardMap.Version compilerVersion
+        = new ProguardMap.Version(in.readInt(), in.readInt(), in.readInt());
+      int numClasses = in.readInt();
+      String[] clearNames = new String[numClasses];
+      String[] obfuscatedNames = new String[numClasses];
+      long[] positions = new long[numClasses];
+      for (int i = 0; i < numClasses; ++i) {
+        positions[i] = in.readLong();
+        clearNames[i] = in.readUTF();
+        obfuscatedNames[i] = in.readUTF();
+      }
+      int[] byClearName = readRecords(in, numClasses);
+      int[] byObfuscatedName = readRecords(in, numClasses);
+      if (in.read() != -1) {
+        return null;
+      }
+      return new ProguardMapIndex(file, fileSize, fileModified, compilerVersion,
+          clearNames, obfuscatedNames, positions, byClearName, byObfuscatedName);
+    } catch (IOException e) {
+      // A cached index that can't be read is treated the same as a stale
+      // one, and replaced.
+      return null;
+    }
+  }
+
+  private static int[] readRecords(DataInputStream in, int numClasses) throws IOException {
+    int size = in.readInt();
+    if (size < 0 || size > numClasses) {
+      throw new IOException("Invalid number of records: " + size);
+    }
+    int[] records = new int[size];
+    for (int i = 0; i < size; ++i) {
+      records[i] = in.readInt();
+      if (records[i] < 0 || records[i] >= numClasses) {
+        throw new IOException("Invalid record: " + records[i]);
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Saves the index next to the mapping file, replacing any existing cached
+   * index.
+   *
+   * @throws IOException if the index could not be written.
+   */
+  void save() throws IOException {
+    File cache = new File(mFile.getPath() + SUFFIX);
+    File tmp = new File(cache.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(mFileSize);
+      out.writeLong(mFileModified);
+      out.writeInt(mCompilerVersion.major);
+      out.writeInt(mCompilerVersion.minor);
+      out.writeInt(mCompilerVersion.build);
+      out.writeInt(mClearNames.length);
+      for (int i = 0; i < mClearNames.length; ++i) {
+        out.writeLong(mPositions[i]);
+        out.writeUTF(mClearNames[i]);
+        out.writeUTF(mObfuscatedNames[i]);
+      }
+      writeRecords(out, mByClearName);
+      writeRecords(out, mByObfuscatedName);
+    } catch (IOException e) {
+      tmp.delete();
+      throw e;
+    }
+    Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static void writeRecords(DataOutputStream out, int[] records) throws IOException {
+    out.writeInt(records.length);
+    for (int record : records) {
+      out.writeInt(record);
+    }
+  }
+
+  ProguardMap.Version getCompilerVersion() {
+    return mCompilerVersion;
+  }
+
+  /**
+   * Returns the record of the class with the given clear name, or NONE if
+   * there is no such class.
+   */
+  int findClearName(String clearName) {
+    return find(mClearNames, mByClearName, clearName);
+  }
+
+  /**
+   * Returns the record of the class with the given obfuscated name, or NONE
+   * if there is no such class.
+   */
+  int findObfuscatedName(String obfuscatedName) {
+    return find(mObfuscatedNames, mByObfuscatedName, obfuscatedName);
+  }
+
+  private static int find(String[] names, int[] sorted, String name) {
+    int low = 0;
+    int high = sorted.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = names[sorted[mid]].compareTo(name);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return sorted[mid];
+      }
+    }
+    return NONE;
+  }
+
+  String getClearName(int record) {
+    return mClearNames[record];
+  }
+
+  /**
+   * Opens the mapping file for reading from the class line of the given
+   * record.
+   *
+   * @throws IOException if the mapping file could not be opened.
+   */
+  LineReader openClass(int record) throws IOException {
+    FileInputStream in = new FileInputStream(mFile);
+    try {
+      in.getChannel().position(mPositions[record]);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    return new LineReader(in, mPositions[record]);
+  }
+
+  /**
+   * Reads UTF-8 lines from a stream, keeping track of the position in the
+   * stream of the start of each line.
+   */
+  static class LineReader implements Closeable {
+    private final InputStream mIn;
+    private final byte[] mBuffer = new byte[1 << 16];
+    private int mStart = 0;
+    private int mEnd = 0;
+    private long mPosition;
+    private final ByteArrayOutputStream mLine = new ByteArrayOutputStream();
+
+    /**
+     * Creates a line reader for the given stream, which is at the given
+     * position.
+     */
+    LineReader(InputStream in, long position) {
+      mIn = in;
+      mPosition = position;
+    }
+
+    /**
+     * Returns the position in the stream of the start of the next line.
+     */
+    long getPosition() {
+      return mPosition;
+    }
+
+    /**
+     * Returns the next line, without the line terminator, or null at the end
+     * of the stream.
+     */
+    String readLine() throws IOException {
+      mLine.reset();
+      while (true) {
+        if (mStart == mEnd) {
+          int n = mIn.read(mBuffer);
+          if (n <= 0) {
+            return mLine.size() == 0 ? null : line();
+          }
+          mStart = 0;
+          mEnd = n;
+        }
+
+        for (int i = mStart; i < mEnd; ++i) {
+          if (mBuffer[i] == '\n') {
+            mLine.write(mBuffer, mStart, i - mStart);
+            mPosition += i + 1 - mStart;
+            mStart = i + 1;
+            return line();
+          }
+        }
+        mLine.write(mBuffer, mStart, mEnd - mStart);
+        mPosition += mEnd - mStart;
+        mStart = mEnd;
+      }
+    }
+
+    private String line() {
+      String line = new String(mLine.toByteArray(), StandardCharsets.UTF_8);
+      return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    @Override
+    public void close() throws IOException {
+      mIn.close();
+    }
+  }
+}
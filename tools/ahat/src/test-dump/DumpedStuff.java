@@ -178,6 +178,10 @@ public class DumpedStuff extends SuperDumpedStuff {
   public String nonAscii = "Sigma (Ʃ) is not ASCII";
   public String embeddedZero = "embedded\0...";  // Non-ASCII for string compression purposes.
   public char[] charArray = "char thing".toCharArray();
+  public String duplicateString = new String("duplicated string");
+  public String duplicateStringCopy = new String("duplicated string");
+  public int[] duplicateArray = new int[]{4, 8, 15, 16, 23, 42};
+  public int[] duplicateArrayCopy = new int[]{4, 8, 15, 16, 23, 42};
   public String nullString = null;
   public Object anObject = new Object();
   public Object aCleanedObject = new Object();
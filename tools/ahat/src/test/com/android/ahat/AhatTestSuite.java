@@ -25,19 +25,25 @@ import org.junit.runners.Suite;
   DiffFieldsTest.class,
   DiffTest.class,
   DominatorsTest.class,
+  DuplicatesTest.class,
   HtmlEscaperTest.class,
   InstanceTest.class,
   NativeAllocationTest.class,
   ObjectHandlerTest.class,
   ObjectsHandlerTest.class,
   OverviewHandlerTest.class,
+  ParserTest.class,
   PerformanceTest.class,
   ProguardMapTest.class,
   RootedHandlerTest.class,
   QueryTest.class,
+  ReportTest.class,
+  ResponseCacheTest.class,
   RiTest.class,
   SiteHandlerTest.class,
-  SiteTest.class
+  SiteTest.class,
+  SubsetSelectorTest.class,
+  TrendTest.class
 })
 
 public class AhatTestSuite {
@@ -18,9 +18,16 @@ package com.android.ahat;
 
 import com.android.ahat.heapdump.AhatHeap;
 import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Diff;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
 import com.android.ahat.heapdump.Reachability;
 import com.android.ahat.heapdump.Value;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -78,6 +85,46 @@ public class DiffTest {
     assertTrue(b.getBaseline().isPlaceHolder());
   }
 
+  /**
+   * Parses the test dump and its baseline and diffs them with the given
+   * number of threads. Returns the diffed snapshot of the test dump.
+   */
+  private static AhatSnapshot diff(int threads) throws IOException, HprofFormatException {
+    AhatSnapshot snapshot = new Parser(TestDump.dataBufferFromResource("test-dump.hprof"))
+      .parse();
+    AhatSnapshot baseline = new Parser(TestDump.dataBufferFromResource("test-dump-base.hprof"))
+      .parse();
+    Diff.snapshots(snapshot, baseline, threads);
+    return snapshot;
+  }
+
+  @Test
+  public void diffThreads() throws IOException, HprofFormatException {
+    // The diff should not depend on the number of threads used.
+    AhatSnapshot serial = diff(1);
+    AhatSnapshot parallel = diff(4);
+
+    Deque<AhatInstance> deque = new ArrayDeque<AhatInstance>(serial.getRooted());
+    while (!deque.isEmpty()) {
+      AhatInstance inst = deque.pop();
+      if (inst.isPlaceHolder()) {
+        continue;
+      }
+
+      AhatInstance base = inst.getBaseline();
+      AhatInstance other = parallel.findInstance(inst.getId());
+      assertNotNull(other);
+      assertEquals(base.isPlaceHolder(), other.getBaseline().isPlaceHolder());
+      if (!base.isPlaceHolder()) {
+        assertEquals(base.getId(), other.getBaseline().getId());
+      }
+
+      List<AhatInstance> dominated = inst.getDominated();
+      assertEquals(dominated.size(), other.getDominated().size());
+      deque.addAll(dominated);
+    }
+  }
+
   @Test
   public void diffClassRemoved() throws IOException {
     TestDump dump = TestDump.getTestDump("O.hprof", "L.hprof", null, Reachability.STRONG);
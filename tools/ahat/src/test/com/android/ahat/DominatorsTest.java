@@ -18,13 +18,16 @@ package com.android.ahat;
 
 import com.android.ahat.dominators.Dominators;
 import com.android.ahat.dominators.DominatorsComputation;
+import com.android.ahat.dominators.SemiNcaDominators;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class DominatorsTest {
@@ -307,6 +310,129 @@ public class DominatorsTest {
     assertEquals("a", graph.dom("f"));
   }
 
+  @Test
+  public void twiceRevisitSemiNca() {
+    //       /---->---\
+    //      /     /--> f -->-\
+    // --> a --> b -->--x---> c --> d
+    //            \----------->----/
+    // Run the twiceRevisit test using the Semi-NCA algorithm.
+    Graph graph = new Graph();
+    graph.node("a", "f", "b");
+    graph.node("b", "f", "d", "x");
+    graph.node("x", "c");
+    graph.node("c", "d");
+    graph.node("d");
+    graph.node("f", "c");
+    new Dominators(graph).algorithm(Dominators.Algorithm.SEMI_NCA).computeDominators("a");
+
+    assertEquals("a", graph.dom("b"));
+    assertEquals("b", graph.dom("x"));
+    assertEquals("a", graph.dom("c"));
+    assertEquals("a", graph.dom("d"));
+    assertEquals("a", graph.dom("f"));
+  }
+
+  @Test
+  public void stackOverflowSemiNca() {
+    // --> a --> b --> ... --> N
+    // Verify we don't smash the stack for deep chains with the Semi-NCA
+    // algorithm, including when compressing paths.
+    Graph graph = new Graph();
+    String root = "end";
+    graph.node(root, "n0");
+
+    for (int i = 0; i < 100000; ++i) {
+      String child = root;
+      root = "n" + i;
+      graph.node(root, child);
+    }
+
+    new Dominators(graph).algorithm(Dominators.Algorithm.SEMI_NCA).computeDominators(root);
+    assertEquals("n1", graph.dom("n0"));
+    assertEquals("n0", graph.dom("end"));
+  }
+
+  @Test
+  public void semiNcaUnreachable() {
+    // --> 0 --> 1 --> 2
+    //      \--------->/
+    //           3 --> 1
+    // Nodes not reachable from the root have no dominator.
+    int[] offsets = new int[] { 0, 2, 3, 3, 4 };
+    int[] targets = new int[] { 1, 2, 2, 1 };
+    int[] dominators = new SemiNcaDominators(4, offsets, targets).computeDominators(0);
+    assertArrayEquals(new int[] { -1, 0, 0, -1 }, dominators);
+  }
+
+  /**
+   * Returns a random graph with the given number of nodes, named by number,
+   * where node "0" is the root.
+   */
+  private static Graph randomGraph(Random random, int numNodes, int numEdges) {
+    List<List<String>> edges = new ArrayList<List<String>>();
+    for (int i = 0; i < numNodes; ++i) {
+      edges.add(new ArrayList<String>());
+    }
+    for (int i = 0; i < numEdges; ++i) {
+      int src = random.nextInt(numNodes);
+      int dst = 1 + random.nextInt(numNodes - 1);
+      edges.get(src).add(Integer.toString(dst));
+    }
+
+    Graph graph = new Graph();
+    for (int i = 0; i < numNodes; ++i) {
+      graph.node(Integer.toString(i), edges.get(i).toArray(new String[0]));
+    }
+    return graph;
+  }
+
+  @Test
+  public void semiNcaMatchesIterative() {
+    // Both algorithms should compute the same dominators for arbitrary
+    // graphs, including ones with unreachable nodes.
+    Random random = new Random(42);
+    for (int i = 0; i < 200; ++i) {
+      int numNodes = 2 + random.nextInt(200);
+      int numEdges = random.nextInt(3 * numNodes);
+      long seed = random.nextLong();
+
+      Graph iterative = randomGraph(new Random(seed), numNodes, numEdges);
+      new Dominators(iterative).computeDominators("0");
+
+      Graph semiNca = randomGraph(new Random(seed), numNodes, numEdges);
+      new Dominators(semiNca).algorithm(Dominators.Algorithm.SEMI_NCA).computeDominators("0");
+
+      for (int n = 0; n < numNodes; ++n) {
+        String node = Integer.toString(n);
+        assertEquals(iterative.dom(node), semiNca.dom(node));
+      }
+    }
+  }
+
+  @Test
+  public void semiNcaThreads() {
+    // The result should not depend on the number of threads used.
+    int numNodes = 300000;
+    Random random = new Random(42);
+    int[] offsets = new int[numNodes + 1];
+    int[] targets = new int[3 * numNodes];
+    for (int i = 0; i < numNodes; ++i) {
+      offsets[i] = 3 * i;
+      for (int j = 0; j < 3; ++j) {
+        targets[3 * i + j] = 1 + random.nextInt(numNodes - 1);
+      }
+    }
+    offsets[numNodes] = targets.length;
+
+    int[] serial = new SemiNcaDominators(numNodes, offsets, targets)
+      .computeDominators(0);
+    int[] parallel = new SemiNcaDominators(numNodes, offsets, targets)
+      .threads(4)
+      .computeDominators(0);
+    assertArrayEquals(serial, parallel);
+  }
+
   // Test the old dominators API.
   private static class Node implements DominatorsComputation.Node {
     public String name;
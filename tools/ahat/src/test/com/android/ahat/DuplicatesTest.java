@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Duplicates;
+import com.android.ahat.heapdump.Size;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicatesTest {
+  /**
+   * Returns the group of the given groups containing the given instance, or
+   * null if there is none.
+   */
+  private static Duplicates.Group findGroup(List<Duplicates.Group> groups, AhatInstance inst) {
+    for (Duplicates.Group group : groups) {
+      if (group.getInstances().contains(inst)) {
+        return group;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void duplicateStrings() throws IOException {
+    TestDump dump = TestDump.getTestDump();
+    Duplicates duplicates = Duplicates.find(dump.getAhatSnapshot(), 1);
+
+    AhatInstance str = dump.getDumpedAhatInstance("duplicateString");
+    AhatInstance copy = dump.getDumpedAhatInstance("duplicateStringCopy");
+    Duplicates.Group group = findGroup(duplicates.getStrings(), str);
+    assertNotNull(group);
+    assertTrue(group.getInstances().contains(copy));
+    assertTrue(group.getWastedSize().getSize() > 0);
+
+    // The arrays holding the values of the strings are not reported
+    // separately.
+    AhatInstance value = str.getRefField("value");
+    assertNotNull(value);
+    assertEquals(null, findGroup(duplicates.getArrays(), value));
+  }
+
+  @Test
+  public void duplicateArrays() throws IOException {
+    TestDump dump = TestDump.getTestDump();
+    Duplicates duplicates = Duplicates.find(dump.getAhatSnapshot(), 1);
+
+    AhatInstance array = dump.getDumpedAhatInstance("duplicateArray");
+    AhatInstance copy = dump.getDumpedAhatInstance("duplicateArrayCopy");
+    Duplicates.Group group = findGroup(duplicates.getArrays(), array);
+    assertNotNull(group);
+    assertTrue(group.getInstances().contains(copy));
+
+    // Arrays with different contents are not grouped.
+    assertEquals(null, findGroup(duplicates.getArrays(), dump.getDumpedAhatInstance("charArray")));
+  }
+
+  @Test
+  public void contents() throws IOException {
+    AhatSnapshot snapshot = TestDump.getTestDump().getAhatSnapshot();
+    Duplicates duplicates = Duplicates.find(snapshot, 1);
+
+    Size wasted = Size.ZERO;
+    for (Duplicates.Group group : duplicates.getStrings()) {
+      assertTrue(group.getInstances().size() > 1);
+      String expected = group.getKept().asString();
+      assertNotNull(expected);
+      for (AhatInstance inst : group.getInstances()) {
+        assertEquals(expected, inst.asString());
+      }
+      wasted = wasted.plus(group.getWastedSize());
+    }
+    for (Duplicates.Group group : duplicates.getArrays()) {
+      assertTrue(group.getInstances().size() > 1);
+      AhatInstance kept = group.getKept();
+      for (AhatInstance inst : group.getInstances()) {
+        assertEquals(kept.getClassObj(), inst.getClassObj());
+        assertEquals(kept.asArrayInstance().getValues(), inst.asArrayInstance().getValues());
+      }
+      wasted = wasted.plus(group.getWastedSize());
+    }
+    assertEquals(wasted, duplicates.getWastedSize());
+
+    Size sites = Size.ZERO;
+    for (Duplicates.SiteWaste site : duplicates.getSites()) {
+      sites = sites.plus(site.getWastedSize());
+    }
+    assertEquals(wasted, sites);
+  }
+
+  @Test
+  public void threads() throws IOException {
+    AhatSnapshot snapshot = TestDump.getTestDump().getAhatSnapshot();
+    Duplicates serial = Duplicates.find(snapshot, 1);
+    Duplicates parallel = Duplicates.find(snapshot, 4);
+    assertEquals(serial.getStrings().size(), parallel.getStrings().size());
+    for (int i = 0; i < serial.getStrings().size(); i++) {
+      assertEquals(serial.getStrings().get(i).getInstances(),
+          parallel.getStrings().get(i).getInstances());
+    }
+    assertEquals(serial.getArrays().size(), parallel.getArrays().size());
+    for (int i = 0; i < serial.getArrays().size(); i++) {
+      assertEquals(serial.getArrays().get(i).getInstances(),
+          parallel.getArrays().get(i).getInstances());
+    }
+    assertEquals(serial.getWastedSize(), parallel.getWastedSize());
+  }
+
+  @Test
+  public void noCrash() throws IOException {
+    AhatSnapshot snapshot = TestDump.getTestDump().getAhatSnapshot();
+    AhatHandler handler = new DuplicatesHandler(snapshot, 2);
+    TestHandler.testNoCrash(handler, "http://localhost:7100/duplicates");
+    TestHandler.testNoCrash(handler, "http://localhost:7100/duplicates?strings=10&sites=1000");
+  }
+}
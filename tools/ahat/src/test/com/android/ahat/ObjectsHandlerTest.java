@@ -20,6 +20,7 @@ import com.android.ahat.heapdump.AhatInstance;
 import com.android.ahat.heapdump.AhatSnapshot;
 import com.android.ahat.heapdump.Site;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.Test;
 
@@ -52,4 +53,40 @@ public class ObjectsHandlerTest {
     assertTrue(subclass.get(0).getClassName().equals("DumpedStuff"));
     assertEquals(dumped.get(0), subclass.get(0));
   }
+
+  @Test
+  public void indexMatchesScan() throws IOException {
+    // The snapshots are diffed, so include placeholder instances.
+    TestDump dump = TestDump.getTestDump();
+    indexMatchesScan(dump.getAhatSnapshot());
+    indexMatchesScan(dump.getBaselineAhatSnapshot());
+  }
+
+  private static void indexMatchesScan(AhatSnapshot snapshot) {
+    String[] classNames = new String[] {
+      "java.lang.Object", "java.lang.String", "java.lang.Class", "char[]",
+      "SuperDumpedStuff", "DumpedStuff", "NoSuchClass"
+    };
+    String[] heapNames = new String[] { null, "app", "zygote" };
+    List<Site> sites = new ArrayList<Site>();
+    sites.add(snapshot.getRootSite());
+    for (int i = 0; i < sites.size(); ++i) {
+      sites.addAll(sites.get(i).getChildren());
+    }
+
+    for (Site site : sites) {
+      for (String className : classNames) {
+        for (String heapName : heapNames) {
+          for (boolean subclass : new boolean[] { false, true }) {
+            List<AhatInstance> scanned = new ArrayList<AhatInstance>();
+            site.getObjects(x -> {
+              return (heapName == null || x.getHeap().getName().equals(heapName))
+                && (subclass ? x.isInstanceOfClass(className) : className.equals(x.getClassName()));
+            }, x -> scanned.add(x));
+            assertEquals(scanned, ObjectsHandler.getObjects(site, className, subclass, heapName));
+          }
+        }
+      }
+    }
+  }
 }
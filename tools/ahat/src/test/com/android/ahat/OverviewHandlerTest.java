@@ -30,7 +30,8 @@ public class OverviewHandlerTest {
     AhatHandler handler = new OverviewHandler(snapshot,
         new File("my.hprof.file"),
         new File("my.base.hprof.file"),
-        Reachability.SOFT);
+        Reachability.SOFT,
+        null);
     TestHandler.testNoCrash(handler, "http://localhost:7100");
   }
 }
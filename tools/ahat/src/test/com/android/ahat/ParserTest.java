@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
+import com.android.ahat.heapdump.Reachability;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParserTest {
+  /**
+   * Asserts that the given snapshots have the same rooted instances, with
+   * the same analysis results.
+   */
+  private static void assertSameRooted(AhatSnapshot expected, AhatSnapshot actual) {
+    List<AhatInstance> expectedRooted = expected.getRooted();
+    List<AhatInstance> actualRooted = actual.getRooted();
+    assertEquals(expectedRooted.size(), actualRooted.size());
+    for (int i = 0; i < expectedRooted.size(); ++i) {
+      AhatInstance e = expectedRooted.get(i);
+      AhatInstance a = actualRooted.get(i);
+      assertEquals(e.getId(), a.getId());
+      assertEquals(e.getReachability(), a.getReachability());
+      assertEquals(e.getTotalRetainedSize(), a.getTotalRetainedSize());
+      assertEquals(e.getDominated().size(), a.getDominated().size());
+      assertEquals(e.getReverseReferences().size(), a.getReverseReferences().size());
+    }
+  }
+
+  @Test
+  public void threads() throws IOException, HprofFormatException {
+    // The parsed snapshot should not depend on the number of threads used to
+    // parse it.
+    AhatSnapshot serial = new Parser(TestDump.dataBufferFromResource("test-dump.hprof"))
+      .threads(1).parse();
+    AhatSnapshot parallel = new Parser(TestDump.dataBufferFromResource("test-dump.hprof"))
+      .threads(4).parse();
+    assertSameRooted(serial, parallel);
+  }
+
+  @Test
+  public void indexCache() throws IOException, HprofFormatException {
+    // The parsed snapshot should be the same whether analyzed from scratch
+    // or restored from an index cache.
+    File dir = File.createTempFile("ahat", "test");
+    dir.delete();
+    dir.mkdir();
+    File hprof = new File(dir, "test-dump.hprof");
+    File index = new File(dir, "test-dump.hprof.ahat-index");
+    try {
+      try (FileOutputStream out = new FileOutputStream(hprof)) {
+        ByteBuffer data = TestDump.dataBufferFromResource("test-dump.hprof");
+        out.getChannel().write(data);
+      }
+
+      AhatSnapshot expected = new Parser(hprof).parse();
+      AhatSnapshot written = new Parser(hprof).indexCache(true).parse();
+      assertTrue(index.isFile());
+      AhatSnapshot restored = new Parser(hprof).indexCache(true).parse();
+      assertSameRooted(expected, written);
+      assertSameRooted(expected, restored);
+
+      // An index cache for a different retained reachability should not be
+      // used.
+      AhatSnapshot unreachable = new Parser(hprof)
+        .retained(Reachability.UNREACHABLE).parse();
+      assertSameRooted(unreachable, new Parser(hprof)
+          .retained(Reachability.UNREACHABLE).indexCache(true).parse());
+    } finally {
+      index.delete();
+      hprof.delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void gzip() throws IOException, HprofFormatException {
+    // A gzip compressed heap dump should parse the same as the uncompressed
+    // heap dump.
+    File hprof = File.createTempFile("test-dump", ".hprof.gz");
+    try {
+      try (OutputStream out = new GZIPOutputStream(new FileOutputStream(hprof))) {
+        ByteBuffer data = TestDump.dataBufferFromResource("test-dump.hprof");
+        out.write(data.array(), data.arrayOffset(), data.remaining());
+      }
+
+      AhatSnapshot expected = new Parser(TestDump.dataBufferFromResource("test-dump.hprof"))
+        .parse();
+      assertSameRooted(expected, new Parser(hprof).parse());
+    } finally {
+      hprof.delete();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedGzip() throws IOException, HprofFormatException {
+    File hprof = File.createTempFile("test-dump", ".hprof.gz");
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (OutputStream out = new GZIPOutputStream(bytes)) {
+        ByteBuffer data = TestDump.dataBufferFromResource("test-dump.hprof");
+        out.write(data.array(), data.arrayOffset(), data.remaining());
+      }
+      try (FileOutputStream out = new FileOutputStream(hprof)) {
+        out.write(bytes.toByteArray(), 0, bytes.size() / 2);
+      }
+      new Parser(hprof).parse();
+    } finally {
+      hprof.delete();
+    }
+  }
+}
@@ -17,11 +17,15 @@
 package com.android.ahat;
 
 import com.android.ahat.proguard.ProguardMap;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ProguardMapTest {
   private static final String TEST_MAP_FORMAT =
@@ -314,4 +318,87 @@ public class ProguardMapTest {
         "()V", "SourceFile.java", 0);
     assertEquals("Methods.java", frame.filename);
   }
+
+  @Test
+  public void indexedProguardMap() throws IOException, ParseException {
+    // Reading the proguard map through an index, with or without a cached
+    // index, should deobfuscate the same as reading the whole map.
+    for (String version : new String[] { "3.0.1", "3.2" }) {
+      String testMap = String.format(TEST_MAP_FORMAT, version)
+        + "class.that.is.Repeated -> e:\n"
+        + "    int first_field -> a\n"
+        + "class.that.is.Repeated -> f:\n"
+        + "    int second_field -> a\n";
+      ProguardMap expected = new ProguardMap();
+      expected.readFromReader(new StringReader(testMap));
+
+      File dir = File.createTempFile("ahat", "test");
+      dir.delete();
+      dir.mkdir();
+      File mapFile = new File(dir, "mapping.txt");
+      File index = new File(dir, "mapping.txt.ahat-index");
+      try {
+        try (FileOutputStream out = new FileOutputStream(mapFile)) {
+          out.write(testMap.getBytes(StandardCharsets.UTF_8));
+        }
+
+        ProguardMap uncached = new ProguardMap();
+        uncached.readIndexFromFile(mapFile, false);
+        assertTrue(!index.exists());
+        assertSameMapping(expected, uncached);
+
+        ProguardMap written = new ProguardMap();
+        written.readIndexFromFile(mapFile, true);
+        assertTrue(index.isFile());
+        assertSameMapping(expected, written);
+
+        ProguardMap restored = new ProguardMap();
+        restored.readIndexFromFile(mapFile, true);
+        assertSameMapping(expected, restored);
+      } finally {
+        index.delete();
+        mapFile.delete();
+        dir.delete();
+      }
+    }
+  }
+
+  private static void assertSameMapping(ProguardMap expected, ProguardMap actual) {
+    for (String name : new String[] { "a", "b", "c", "d", "d[][]", "e", "f", "foo.Bar" }) {
+      assertEquals(expected.getClassName(name), actual.getClassName(name));
+    }
+
+    String[][] fields = new String[][] {
+      { "class.with.only.Fields", "a" },
+      { "class.with.only.Fields", "abc" },
+      { "class.with.Methods", "a" },
+      { "class.with.Methods", "b" },
+      { "class.that.is.Repeated", "a" },
+      { "foo.Bar", "a" },
+    };
+    for (String[] field : fields) {
+      assertEquals(expected.getFieldName(field[0], field[1]),
+          actual.getFieldName(field[0], field[1]));
+    }
+
+    Object[][] frames = new Object[][] {
+      { "class.with.Methods", "<clinit>", "()V", 13 },
+      { "class.with.Methods", "m", "(IF)V", 45 },
+      { "class.with.Methods", "m", "(Lc;)V", 59 },
+      { "class.with.Methods", "n", "()Lc;", 64 },
+      { "class.with.Methods", "o", "()V", 103 },
+      { "class.with.Methods", "p", "()V", 94 },
+      { "foo.Bar", "m", "()V", 7 },
+    };
+    for (Object[] frame : frames) {
+      ProguardMap.Frame e = expected.getFrame((String)frame[0], (String)frame[1],
+          (String)frame[2], "SourceFile.java", (Integer)frame[3]);
+      ProguardMap.Frame a = actual.getFrame((String)frame[0], (String)frame[1],
+          (String)frame[2], "SourceFile.java", (Integer)frame[3]);
+      assertEquals(e.method, a.method);
+      assertEquals(e.signature, a.signature);
+      assertEquals(e.filename, a.filename);
+      assertEquals(e.line, a.line);
+    }
+  }
 }
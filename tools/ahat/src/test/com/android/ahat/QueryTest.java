@@ -70,4 +70,17 @@ public class QueryTest {
     assertEquals("/object?answer=43", query.with("answer", "43").toString());
     assertEquals("/object?", query.with("foo", null).toString());
   }
+
+  @Test
+  public void normalized() throws URISyntaxException {
+    String uri = "http://localhost:7100/object?foo=bar&answer=42&foo=sludge";
+    Query query = new Query(new URI(uri));
+    assertEquals("/object?answer=42&foo=sludge", query.normalized());
+
+    Query reordered = new Query(new URI("http://localhost:7100/object?foo=sludge&answer=42"));
+    assertEquals(query.normalized(), reordered.normalized());
+
+    Query empty = new Query(new URI("http://localhost:7100/object"));
+    assertEquals("/object?", empty.normalized());
+  }
 }
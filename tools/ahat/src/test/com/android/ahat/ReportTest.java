@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Reachability;
+import com.android.ahat.heapdump.Size;
+import com.android.ahat.proguard.ProguardMap;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReportTest {
+  @Test
+  public void json() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    JsonWriter json = new JsonWriter(new PrintStream(bytes, false, "UTF-8"));
+    json.beginObject();
+    json.name("string").value("a\"b\\c\nd\u0001");
+    json.name("null").value((String)null);
+    json.name("array").beginArray();
+    json.value(1);
+    json.value(true);
+    json.beginObject().endObject();
+    json.beginArray().endArray();
+    json.endArray();
+    json.endObject();
+    json.finish();
+
+    assertEquals("{\n"
+        + "  \"string\": \"a\\\"b\\\\c\\nd\\u0001\",\n"
+        + "  \"null\": null,\n"
+        + "  \"array\": [\n"
+        + "    1,\n"
+        + "    true,\n"
+        + "    {},\n"
+        + "    []\n"
+        + "  ]\n"
+        + "}\n", bytes.toString("UTF-8"));
+  }
+
+  @Test
+  public void noCrash() throws IOException {
+    TestDump dump = TestDump.getTestDump();
+    AhatSnapshot snapshot = dump.getAhatSnapshot();
+    Report report = new Report(new ProguardMap(), new File("test-dump-base.hprof"),
+        new ProguardMap(), Reachability.STRONG, 1, false, 5);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    report.write(new JsonWriter(new PrintStream(bytes, false, "UTF-8")), snapshot,
+        new File("test-dump.hprof"));
+    String text = bytes.toString("UTF-8");
+    assertTrue(text.startsWith("{"));
+    assertTrue(text.contains("\"baselineTotalSize\""));
+    assertTrue(text.contains("\"sites\""));
+  }
+
+  private static String getClassName(AhatInstance inst) {
+    return inst.getClassObj() == null ? "???" : inst.getClassObj().getName();
+  }
+
+  @Test
+  public void topClasses() throws IOException {
+    TestDump dump = TestDump.getTestDump();
+    AhatSnapshot snapshot = dump.getAhatSnapshot();
+    Report report = new Report(new ProguardMap(), new File("test-dump-base.hprof"),
+        new ProguardMap(), Reachability.STRONG, 1, false, 5);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    report.write(new JsonWriter(new PrintStream(bytes, false, "UTF-8")), snapshot,
+        new File("test-dump.hprof"));
+    String text = bytes.toString("UTF-8");
+
+    // Each class should count each of its retained instances exactly once.
+    Map<String, Long> counts = new HashMap<String, Long>();
+    Map<String, Size> sizes = new HashMap<String, Size>();
+    snapshot.getRootSite().getObjects(x -> x.isStronglyReachable(), x -> {
+      counts.merge(getClassName(x), 1L, Long::sum);
+      sizes.merge(getClassName(x), x.getSize(), Size::plus);
+    });
+    List<String> classes = new ArrayList<String>(sizes.keySet());
+    classes.sort(Comparator.comparing((String name) -> sizes.get(name)).reversed()
+        .thenComparing(name -> name));
+
+    int last = text.indexOf("\"topClasses\"");
+    assertTrue(last >= 0);
+    for (String name : classes.subList(0, Math.min(5, classes.size()))) {
+      Size size = sizes.get(name);
+      String expected = "{\n"
+          + "      \"name\": \"" + name + "\",\n"
+          + "      \"instances\": " + counts.get(name) + ",\n"
+          + "      \"size\": {\n"
+          + "        \"java\": " + size.getJavaSize() + ",\n"
+          + "        \"native\": " + size.getRegisteredNativeSize() + "\n"
+          + "      },\n";
+      int index = text.indexOf(expected, last);
+      assertTrue(name, index > last);
+      last = index;
+    }
+  }
+}
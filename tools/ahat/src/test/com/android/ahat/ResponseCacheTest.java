@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ResponseCacheTest {
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    ResponseCache cache = new ResponseCache(100);
+    cache.put("a", "A", 40);
+    cache.put("b", "B", 40);
+    assertEquals(80, cache.getSize());
+
+    // Using "a" makes "b" the least recently used entry.
+    assertEquals("A", cache.get("a"));
+    cache.put("c", "C", 40);
+    assertEquals(80, cache.getSize());
+    assertEquals("A", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals("C", cache.get("c"));
+  }
+
+  @Test
+  public void boundedBySize() {
+    ResponseCache cache = new ResponseCache(100);
+    for (int i = 0; i < 10; ++i) {
+      cache.put("small" + i, i, 10);
+    }
+    assertEquals(100, cache.getSize());
+    assertEquals(0, cache.get("small0"));
+
+    // A single large entry evicts as many small entries as needed.
+    cache.put("large", "L", 55);
+    assertEquals(95, cache.getSize());
+    // "small0" was used more recently than "small1" through "small9".
+    assertEquals(0, cache.get("small0"));
+    for (int i = 1; i <= 6; ++i) {
+      assertNull(cache.get("small" + i));
+    }
+    assertEquals(9, cache.get("small9"));
+    assertEquals("L", cache.get("large"));
+
+    // Entries larger than the cache are not cached.
+    cache.put("huge", "H", 101);
+    assertNull(cache.get("huge"));
+    assertEquals("L", cache.get("large"));
+  }
+
+  @Test
+  public void replace() {
+    ResponseCache cache = new ResponseCache(100);
+    cache.put("a", "A", 40);
+    cache.put("a", "AA", 60);
+    assertEquals(60, cache.getSize());
+    assertEquals("AA", cache.get("a"));
+  }
+
+  @Test
+  public void disabled() {
+    ResponseCache cache = new ResponseCache(0);
+    cache.putPage("/", new byte[] { 1, 2, 3 });
+    assertNull(cache.getPage("/"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void pagesAndLists() {
+    ResponseCache cache = new ResponseCache(1024);
+    byte[] page = new byte[] { 1, 2, 3 };
+    cache.putPage("/objects?id=1", page);
+    assertArrayEquals(page, cache.getPage("/objects?id=1"));
+
+    // Pages and lists with the same key are cached separately.
+    List<Integer> list = cache.getList("/objects?id=1", () -> Arrays.asList(3, 1, 2));
+    assertEquals(Arrays.asList(3, 1, 2), list);
+    assertArrayEquals(page, cache.getPage("/objects?id=1"));
+
+    // Cached lists are not recomputed.
+    List<Integer> cached = cache.getList("/objects?id=1", () -> new ArrayList<Integer>());
+    assertSame(list, cached);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SubsetSelectorTest {
+  // Compares integers by their value divided by 10, so that there are many
+  // elements that compare equal.
+  private static final Comparator<Integer> BY_TENS = (a, b) -> Integer.compare(a / 10, b / 10);
+
+  private static List<Integer> randomList(int size) {
+    Random random = new Random(size);
+    List<Integer> list = new ArrayList<Integer>();
+    for (int i = 0; i < size; ++i) {
+      list.add(random.nextInt(1000));
+    }
+    return list;
+  }
+
+  @Test
+  public void sortSelected() throws URISyntaxException {
+    for (String limit : new String[] { "0", "1", "10", "999", "1000", "1001", "all", "5000" }) {
+      Query query = new Query(new URI("http://localhost:7100/objects?n=" + limit));
+      List<Integer> elements = randomList(2000);
+      List<Integer> sorted = new ArrayList<Integer>(elements);
+      Collections.sort(sorted, BY_TENS);
+
+      List<Integer> selected = new ArrayList<Integer>(elements);
+      SubsetSelector.sortSelected(query, "n", selected, BY_TENS);
+      SubsetSelector<Integer> selector = new SubsetSelector<Integer>(query, "n", selected);
+      int shown = selector.selected().size();
+      assertEquals(sorted.subList(0, shown), selector.selected());
+
+      // All the elements are still there.
+      Collections.sort(selected);
+      Collections.sort(elements);
+      assertEquals(elements, selected);
+    }
+  }
+
+  @Test
+  public void sortSelectedCached() throws URISyntaxException {
+    ResponseCache cache = new ResponseCache(1024 * 1024);
+    List<Integer> sorted = randomList(2000);
+    Collections.sort(sorted, BY_TENS);
+
+    // Lists that are sorted in full are cached.
+    Query all = new Query(new URI("http://localhost:7100/objects?n=2000"));
+    List<Integer> first = SubsetSelector.sortSelected(all, "n", randomList(2000), BY_TENS,
+        cache, "/objects");
+    assertEquals(sorted, first);
+    List<Integer> second = SubsetSelector.sortSelected(all, "n", randomList(2000), BY_TENS,
+        cache, "/objects");
+    assertSame(first, second);
+
+    // Lists that are partially sorted are not.
+    Query some = new Query(new URI("http://localhost:7100/objects?n=10"));
+    List<Integer> elements = randomList(2000);
+    List<Integer> partial = SubsetSelector.sortSelected(some, "n", elements, BY_TENS,
+        cache, "/objects?n=10");
+    assertSame(elements, partial);
+    assertEquals(sorted.subList(0, 10), partial.subList(0, 10));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
+import com.android.ahat.heapdump.Reachability;
+import com.android.ahat.heapdump.Site;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrendTest {
+  @Test
+  public void table() {
+    Trend.Table table = new Trend.Table();
+    table.add("steady", "steady", 10, 1, 100);
+    table.add("shrinking", "shrinking", 50, 5, 101);
+    table.commit();
+
+    table.add("steady", "steady", 20, 2, 200);
+    table.add("shrinking", "shrinking", 10, 1, 201);
+    table.add("new", "new", 5, 1, 202);
+    table.add("new", "new", 5, 1, 202);
+    table.commit();
+
+    table.add("steady", "steady", 30, 3, 300);
+    table.add("shrinking", "shrinking", 40, 4, 301);
+    table.commit();
+
+    assertEquals(3, table.size());
+    assertEquals(3, table.getNumDumps());
+
+    // The steady series grows in every heap dump.
+    assertEquals(20, table.getGrowth(0));
+    assertEquals(2, table.getCountGrowth(0));
+    assertTrue(table.isMonotonic(0));
+    assertEquals(300, table.getLinkId(0));
+
+    // The shrinking series shrinks overall and in between.
+    assertEquals(-10, table.getGrowth(1));
+    assertFalse(table.isMonotonic(1));
+
+    // The new series is missing from the first and last heap dumps.
+    assertEquals(0, table.getSize(2, 0));
+    assertEquals(10, table.getSize(2, 1));
+    assertEquals(2, table.getCount(2, 1));
+    assertEquals(0, table.getSize(2, 2));
+    assertEquals(0, table.getGrowth(2));
+    assertFalse(table.isMonotonic(2));
+    assertEquals(-1, table.getLinkId(2));
+
+    assertEquals(Arrays.asList(0, 2, 1), table.ranked());
+  }
+
+  @Test
+  public void noCrash() throws IOException, HprofFormatException {
+    Trend trend = new Trend();
+    trend.add(new File("test-dump-base.hprof"),
+        new Parser(TestDump.dataBufferFromResource("test-dump-base.hprof")).parse());
+    trend.add(new File("test-dump.hprof"),
+        new Parser(TestDump.dataBufferFromResource("test-dump.hprof")).parse());
+    assertEquals(2, trend.getClasses().getNumDumps());
+    assertEquals(2, trend.getSites().getNumDumps());
+    assertEquals(2, trend.getRoots().getNumDumps());
+
+    AhatHandler handler = new TrendHandler(trend);
+    TestHandler.testNoCrash(handler, "http://localhost:7100/trend");
+    TestHandler.testNoCrash(handler, "http://localhost:7100/trend?classes=all&sites=all");
+  }
+
+  private static String getClassName(AhatInstance inst) {
+    return inst.getClassObj() == null ? "???" : inst.getClassObj().getName();
+  }
+
+  @Test
+  public void counts() throws IOException, HprofFormatException {
+    AhatSnapshot snapshot = new Parser(TestDump.dataBufferFromResource("test-dump.hprof")).parse();
+    Trend trend = new Trend();
+    trend.add(new File("test-dump.hprof"), snapshot);
+
+    // Each class should count each of its retained instances exactly once.
+    // The parser retains softly reachable instances by default.
+    Predicate<AhatInstance> retained = x -> x.getReachability().notWeakerThan(Reachability.SOFT);
+    Map<String, Long> counts = new HashMap<String, Long>();
+    Map<String, Long> sizes = new HashMap<String, Long>();
+    long[] total = new long[1];
+    snapshot.getRootSite().getObjects(retained, x -> {
+      counts.merge(getClassName(x), 1L, Long::sum);
+      sizes.merge(getClassName(x), x.getSize().getSize(), Long::sum);
+      total[0]++;
+    });
+    Trend.Table classes = trend.getClasses();
+    assertEquals(counts.size(), classes.size());
+    for (int i = 0; i < classes.size(); ++i) {
+      String className = classes.getLabel(i);
+      assertEquals(className, (long)counts.get(className), classes.getCount(i, 0));
+      assertEquals(className, (long)sizes.get(className), classes.getSize(i, 0));
+    }
+
+    // Each site should count the retained instances allocated under it,
+    // including those of its child sites, exactly once.
+    Trend.Table sites = trend.getSites();
+    boolean foundRoot = false;
+    for (int i = 0; i < sites.size(); ++i) {
+      if (sites.getLinkId(i) == -1) {
+        // Sites without retained instances aren't linked.
+        assertEquals(sites.getLabel(i), 0, sites.getCount(i, 0));
+        continue;
+      }
+      Site site = snapshot.getSite(sites.getLinkId(i));
+      long[] count = new long[1];
+      site.getObjects(retained, x -> count[0]++);
+      assertEquals(sites.getLabel(i), count[0], sites.getCount(i, 0));
+      assertEquals(sites.getLabel(i), site.getTotalSize().getSize(), sites.getSize(i, 0));
+      if (site == snapshot.getRootSite()) {
+        assertEquals(total[0], sites.getCount(i, 0));
+        foundRoot = true;
+      }
+    }
+    assertTrue(foundRoot);
+  }
+}
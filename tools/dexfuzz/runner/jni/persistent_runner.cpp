@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <errno.h>
+#include <fcntl.h>
+#include <jni.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+namespace {
+// Open path for writing, truncating it, as file descriptor fd.
+bool RedirectTo(JNIEnv* env, jstring path, int fd) {
+  const char* chars = env->GetStringUTFChars(path, nullptr);
+  if (chars == nullptr) {
+    return false;
+  }
+  int file = open(chars, O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0666);
+  env->ReleaseStringUTFChars(path, chars);
+  if (file == -1) {
+    return false;
+  }
+  bool redirected = dup2(file, fd) != -1;
+  close(file);
+  return redirected;
+}
+}  // namespace
+
+extern "C" {
+
+JNIEXPORT jint JNICALL Java_dexfuzz_runner_PersistentRunner_fork(JNIEnv*, jclass) {
+  return fork();
+}
+
+JNIEXPORT jboolean JNICALL Java_dexfuzz_runner_PersistentRunner_redirectOutput(
+    JNIEnv* env, jclass, jstring output_file, jstring error_file) {
+  return RedirectTo(env, output_file, STDOUT_FILENO) && RedirectTo(env, error_file, STDERR_FILENO);
+}
+
+JNIEXPORT jint JNICALL Java_dexfuzz_runner_PersistentRunner_waitForExit(JNIEnv*, jclass, jint pid) {
+  int status;
+  while (waitpid(pid, &status, 0) == -1) {
+    if (errno != EINTR) {
+      return -1;
+    }
+  }
+  if (WIFSIGNALED(status)) {
+    return 128 + WTERMSIG(status);
+  }
+  return WEXITSTATUS(status);
+}
+
+}  // extern "C"
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.runner;
+
+import dalvik.system.PathClassLoader;
+import dalvik.system.ZygoteHooks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Runs in a long-lived host dalvikvm started with -Xzygote, on behalf of dexfuzz's
+ * persistent-runtime Executors. Reads requests from stdin, one per line, of the form:
+ *
+ *   <DEX file>\t<output file>\t<error file>
+ *
+ * For each request, forks a child the way the zygote forks apps, and writes a line to
+ * stdout of the form:
+ *
+ *   DEXFUZZ-STARTED <pid of the child>
+ *
+ * The child sends its standard output and error to the given files, loads the DEX file,
+ * and runs main() of the class given as an argument, then exits with the status that
+ * dalvikvm would have. Once the child has exited, a line is written of the form:
+ *
+ *   DEXFUZZ-RESULT <exit status> <elapsed milliseconds>
+ *
+ * where the exit status is 128 plus the signal number if the child was killed by one.
+ * Nothing a program does can affect the programs run after it, because it only ever
+ * runs in its own child.
+ */
+public class PersistentRunner {
+  private static final String STARTED_PREFIX = "DEXFUZZ-STARTED ";
+  private static final String RESULT_PREFIX = "DEXFUZZ-RESULT ";
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: PersistentRunner <libdexfuzz-runner.so> <class to execute>");
+      System.exit(1);
+    }
+    System.load(args[0]);
+    String className = args[1];
+    BufferedReader requests = new BufferedReader(new InputStreamReader(System.in));
+
+    String request = requests.readLine();
+    while (request != null) {
+      String[] fields = request.split("\t");
+      long start = System.nanoTime();
+      ZygoteHooks.preFork();
+      int pid = fork();
+      if (pid == 0) {
+        ZygoteHooks.postForkChild(0, false, false, null);
+        ZygoteHooks.postForkCommon();
+        runChild(fields[0], fields[1], fields[2], className);
+      }
+      ZygoteHooks.postForkCommon();
+      if (pid < 0) {
+        throw new IOException("Couldn't fork a child to run " + fields[0]);
+      }
+      System.out.println(STARTED_PREFIX + pid);
+      System.out.flush();
+      int status = waitForExit(pid);
+      long elapsed = (System.nanoTime() - start) / 1000000;
+      System.out.println(RESULT_PREFIX + status + " " + elapsed);
+      System.out.flush();
+      request = requests.readLine();
+    }
+  }
+
+  /**
+   * Run the program in the child, and exit the child. Never returns.
+   */
+  private static void runChild(String dexFile, String outputFile, String errorFile,
+      String className) {
+    if (!redirectOutput(outputFile, errorFile)) {
+      Runtime.getRuntime().halt(1);
+    }
+    int status = run(dexFile, className);
+    // Like dalvikvm, don't exit until the program's other threads have finished.
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread != Thread.currentThread() && !thread.isDaemon()) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          // Just stop waiting for it.
+        }
+      }
+    }
+    System.out.flush();
+    System.err.flush();
+    System.exit(status);
+  }
+
+  private static int run(String dexFile, String className) {
+    // The program's parent is the boot class loader, so it can't see this class.
+    ClassLoader loader = new PathClassLoader(dexFile, Object.class.getClassLoader());
+    try {
+      Class<?> mainClass = Class.forName(className, true, loader);
+      Method main = mainClass.getMethod("main", String[].class);
+      main.invoke(null, (Object) new String[0]);
+      return 0;
+    } catch (InvocationTargetException e) {
+      reportUncaughtException(e.getCause(), className);
+    } catch (Throwable t) {
+      reportUncaughtException(t, className);
+    }
+    return 1;
+  }
+
+  /**
+   * Report an exception the way the runtime would if it was thrown out of main(),
+   * leaving out the frames that belong to this class and reflection.
+   */
+  private static void reportUncaughtException(Throwable t, String className) {
+    StackTraceElement[] stackTrace = t.getStackTrace();
+    for (int i = stackTrace.length - 1; i >= 0; i--) {
+      if (stackTrace[i].getClassName().equals(className)
+          && stackTrace[i].getMethodName().equals("main")) {
+        t.setStackTrace(Arrays.copyOf(stackTrace, i + 1));
+        break;
+      }
+    }
+    Thread thread = Thread.currentThread();
+    thread.getThreadGroup().uncaughtException(thread, t);
+  }
+
+  /**
+   * fork(2). Returns the child's pid in the parent, 0 in the child, or -1 on failure.
+   */
+  private static native int fork();
+
+  /**
+   * Point file descriptors 1 and 2 at the given files, truncating them, so that both
+   * the program's and the runtime's output go to them. Returns false on failure.
+   */
+  private static native boolean redirectOutput(String outputFile, String errorFile);
+
+  /**
+   * Wait for the child to exit, and return its exit status, or 128 plus the signal
+   * number if it was killed by one, as a shell would.
+   */
+  private static native int waitForExit(int pid);
+}
@@ -17,8 +17,10 @@
 package dexfuzz;
 
 import dexfuzz.fuzzers.Fuzzer;
+import dexfuzz.fuzzers.FuzzerGenerational;
 import dexfuzz.fuzzers.FuzzerMultipleExecute;
 import dexfuzz.fuzzers.FuzzerMultipleNoExecute;
+import dexfuzz.fuzzers.FuzzerMultipleParallel;
 import dexfuzz.fuzzers.FuzzerSingleExecute;
 import dexfuzz.fuzzers.FuzzerSingleNoExecute;
 import dexfuzz.listeners.BisectionSearchListener;
@@ -87,7 +89,11 @@ public class DexFuzz {
 
     // Create the Fuzzer that uses a particular strategy for fuzzing.
     Fuzzer fuzzer = null;
-    if ((Options.repeat > 1) && Options.execute) {
+    if (Options.threads > 1) {
+      fuzzer = new FuzzerMultipleParallel(multipleListener);
+    } else if (Options.useCorpus) {
+      fuzzer = new FuzzerGenerational(multipleListener);
+    } else if ((Options.repeat > 1) && Options.execute) {
       fuzzer = new FuzzerMultipleExecute(multipleListener);
     } else if ((Options.repeat > 1) && !Options.execute) {
       fuzzer = new FuzzerMultipleNoExecute(multipleListener);
@@ -99,7 +105,6 @@ public class DexFuzz {
       Log.errorAndQuit("Invalid options provided, desired fuzzer unknown.");
     }
     // TODO: Implement FuzzerFindMinimalMutations.
-    // TODO: Implement FuzzerGenerational.
 
     // Actually run the Fuzzer.
     fuzzer.run();
@@ -33,7 +33,7 @@ public class ExecutionResult {
   private String flattenedAll;
   private String flattenedAllWithNewlines;
 
-  private static final int TIMEOUT_RETURN_VALUE = 124;
+  public static final int TIMEOUT_RETURN_VALUE = 124;
   private static final int SIGABORT_RETURN_VALUE = 134;
 
   /**
@@ -53,6 +53,15 @@ public class MutationStats {
     stats.put(statName, stats.get(statName) + amt);
   }
 
+  /**
+   * Add all the stats collected by another MutationStats to this one.
+   */
+  public void add(MutationStats other) {
+    for (String statName : other.statsOrder) {
+      increaseStat(statName, other.stats.get(statName));
+    }
+  }
+
   /**
    * Get a string representing the collected stats - looks like a JSON dictionary.
    */
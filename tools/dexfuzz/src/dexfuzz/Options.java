@@ -50,6 +50,8 @@ public class Options {
   public static String deviceName = "";
   public static boolean usingSpecificDevice = false;
   public static int repeat = 1;
+  public static int threads = 1;
+  public static int verifyBatch = 1;
   public static int divergenceRetry = 10;
   public static String executeDirectory = "/data/art-test";
   public static String androidRoot = "";
@@ -57,10 +59,12 @@ public class Options {
   public static String loadMutationsFile = "mutations.dump";
   public static String reportLogFile = "report.log";
   public static String uniqueDatabaseFile = "unique_progs.db";
+  public static String corpusDirectory = "";
 
   // FLAG OPTIONS
   public static boolean execute;
   public static boolean executeOnHost;
+  public static boolean persistentRuntime;
   public static boolean noBootImage;
   public static boolean useInterpreter;
   public static boolean useOptimizing;
@@ -79,6 +83,7 @@ public class Options {
   public static boolean loadMutations;
   public static boolean runBisectionSearch;
   public static boolean quiet;
+  public static boolean useCorpus;
 
   /**
    * Print out usage information about dexfuzz, and then exit.
@@ -92,6 +97,8 @@ public class Options {
     Log.always("");
     Log.always("  --execute              : Execute the resulting fuzzed program");
     Log.always("    --host               : Execute on host");
+    Log.always("      --persistent-runtime : Keep one host runtime per backend running, and run");
+    Log.always("                           each program in a child forked from it");
     Log.always("    --device=<device>    : Execute on an ADB-connected-device, where <device> is");
     Log.always("                           the argument given to adb -s. Default execution mode.");
     Log.always("    --execute-dir=<dir>  : Push tests to this directory to execute them.");
@@ -100,6 +107,8 @@ public class Options {
     Log.always("                           Use this when pushing binaries to a custom location.");
     Log.always("    --no-boot-image      : Use this flag when boot.art is not available.");
     Log.always("    --skip-host-verify   : When executing, skip host-verification stage");
+    Log.always("    --verify-batch=<n>   : Fuzz N programs at a time, and verify them with");
+    Log.always("                           one run of dex2oat. (Default: 1)");
     Log.always("    --execute-class=<c>  : When executing, execute this class (default: Main)");
     Log.always("");
     Log.always("    --interpreter        : Include the Interpreter in comparisons");
@@ -114,11 +123,16 @@ public class Options {
     Log.always("    --dump-output        : Dump outputs of executed programs");
     Log.always("    --dump-verify        : Dump outputs of verification");
     Log.always("    --repeat=<n>         : Fuzz N programs, executing each one.");
+    Log.always("    --threads=<n>        : Spread the --repeat programs over N threads.");
+    Log.always("                           (Default: 1)");
     Log.always("    --short-timeouts     : Shorten timeouts (faster; use if");
     Log.always("                           you want to focus on output divergences)");
     Log.always("    --divergence-retry=<n> : Number of retries when checking if test is");
     Log.always("                           self-divergent. (Default: 10)");
+    Log.always("    --corpus=<dir>       : Keep programs that reach new optimizing compiler");
+    Log.always("                           statistics in <dir>, and fuzz them in turn.");
     Log.always("  --seed=<seed>          : RNG seed to use");
+    Log.always("                           (With --threads, derives the seed of each thread.)");
     Log.always("  --method-mutations=<n> : Maximum number of mutations to perform on each method.");
     Log.always("                           (Default: 3)");
     Log.always("  --min-methods=<n>      : Minimum number of methods to mutate. (Default: 2)");
@@ -156,6 +170,8 @@ public class Options {
       execute = true;
     } else if (flag.equals("host")) {
       executeOnHost = true;
+    } else if (flag.equals("persistent-runtime")) {
+      persistentRuntime = true;
     } else if (flag.equals("no-boot-image")) {
       noBootImage = true;
     } else if (flag.equals("skip-host-verify")) {
@@ -238,6 +254,13 @@ public class Options {
       maxMethods = Integer.parseInt(value);
     } else if (key.equals("repeat")) {
       repeat = Integer.parseInt(value);
+    } else if (key.equals("threads")) {
+      threads = Integer.parseInt(value);
+    } else if (key.equals("verify-batch")) {
+      verifyBatch = Integer.parseInt(value);
+    } else if (key.equals("corpus")) {
+      corpusDirectory = value;
+      useCorpus = true;
     } else if (key.equals("divergence-retry")) {
       divergenceRetry = Integer.parseInt(value);
     } else if (key.equals("log")) {
@@ -365,7 +388,40 @@ public class Options {
       Log.error("--divergence-retry cannot be negative!");
       return false;
     }
-    if (usingProvidedSeed && repeat > 1) {
+    if (threads < 1) {
+      Log.error("--threads must be at least 1!");
+      return false;
+    }
+    if (threads > 1 && repeat == 1) {
+      Log.error("Must use --repeat if you have provided --threads");
+      return false;
+    }
+    if (threads > 1 && (loadMutations || dumpMutations)) {
+      Log.error("Cannot use --threads when loading or dumping mutations");
+      return false;
+    }
+    if (verifyBatch < 1) {
+      Log.error("--verify-batch must be at least 1!");
+      return false;
+    }
+    if (verifyBatch > 1 && (!execute || repeat == 1)) {
+      Log.error("Must use --execute and --repeat if you have provided --verify-batch");
+      return false;
+    }
+    if (verifyBatch > 1 && (threads > 1 || useCorpus || executeOnHost || skipHostVerify)) {
+      Log.error("Cannot use --verify-batch with --threads, --corpus, --host"
+          + " or --skip-host-verify");
+      return false;
+    }
+    if (useCorpus && (!execute || repeat == 1)) {
+      Log.error("Must use --execute and --repeat if you have provided --corpus");
+      return false;
+    }
+    if (useCorpus && (threads > 1 || skipHostVerify || loadMutations)) {
+      Log.error("Cannot use --corpus with --threads, --skip-host-verify or --load-mutations");
+      return false;
+    }
+    if (usingProvidedSeed && repeat > 1 && threads == 1) {
       Log.error("Cannot use --repeat with --seed");
       return false;
     }
@@ -397,6 +453,10 @@ public class Options {
       Log.error("Cannot use --host and --device!");
       return false;
     }
+    if (persistentRuntime && !executeOnHost) {
+      Log.error("Cannot use --persistent-runtime without --host!");
+      return false;
+    }
     if (execute) {
       // When host-execution mode is specified, we don't need to select an architecture.
       if (!executeOnHost) {
@@ -17,186 +17,66 @@
 package dexfuzz;
 
 import java.io.BufferedReader;
-import java.io.InputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Semaphore;
 
 /**
  * process.waitFor() can block if its output buffers are not drained.
- * These threads are used to keep the buffers drained, and provide the final
- * output once the command has finished executing. Each Executor has its own
- * output and error StreamConsumers.
+ * Rather than draining them with a thread, each StreamConsumer owns a temporary
+ * file that a process's output or error stream is redirected to, so the process
+ * never blocks on its output, and the output is read back once the process has
+ * finished. Each Executor has its own output and error StreamConsumers.
  */
-public class StreamConsumer extends Thread {
-  private List<String> output;
-  private BufferedReader reader;
-
-  private State state;
-
-  private Semaphore workToBeDone;
-  private Semaphore outputIsReady;
-
-  enum State {
-    WAITING,
-    CONSUMING,
-    SHOULD_STOP_CONSUMING,
-    FINISHED,
-    ERROR
-  }
+public class StreamConsumer {
+  private File file;
 
   /**
    * Create a StreamConsumer, will be immediately ready to start consuming.
    */
   public StreamConsumer() {
-    output = new ArrayList<String>();
-    workToBeDone = new Semaphore(0);
-    outputIsReady = new Semaphore(0);
-
-    state = State.WAITING;
-  }
-
-  /**
-   * Executor should call this to provide its StreamConsumers with the Streams
-   * for a Process it is about to call waitFor() on.
-   */
-  public void giveStreamAndStartConsuming(InputStream stream) {
-    output.clear();
-
-    reader = new BufferedReader(new InputStreamReader(stream));
-
-    changeState(State.CONSUMING, State.WAITING);
-
-    // Tell consumer there is work to be done.
-    workToBeDone.release();
+    try {
+      file = File.createTempFile("dexfuzz-", ".log");
+      file.deleteOnExit();
+    } catch (IOException e) {
+      Log.errorAndQuit("StreamConsumer couldn't create a temporary file");
+    }
   }
 
   /**
-   * Executor should call this once its call to waitFor() returns.
+   * Executor should redirect a stream of the Process it is about to start
+   * to this file. The file is truncated each time a Process starts.
    */
-  public void processFinished() {
-    changeState(State.SHOULD_STOP_CONSUMING, State.CONSUMING);
+  public File getFile() {
+    return file;
   }
 
   /**
-   * Executor should call this to get the captured output of this StreamConsumer.
+   * Executor should call this once its call to waitFor() returns, to get
+   * the captured output of this StreamConsumer.
    */
   public List<String> getOutput() {
-
-    try {
-      // Wait until the output is ready.
-      outputIsReady.acquire();
-    } catch (InterruptedException e) {
-      Log.error("Client of StreamConsumer was interrupted while waiting for output?");
-      return null;
+    List<String> output = new ArrayList<String>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
+      String line = reader.readLine();
+      while (line != null) {
+        output.add(line);
+        line = reader.readLine();
+      }
+    } catch (IOException e) {
+      Log.error("StreamConsumer caught IOException while consuming");
     }
-
-    // Take a copy of the Strings, so when we call output.clear(), we don't
-    // clear the ExecutionResult's list.
-    List<String> copy = new ArrayList<String>(output);
-    return copy;
+    return output;
   }
 
   /**
    * Executor should call this when we're shutting down.
    */
   public void shutdown() {
-    changeState(State.FINISHED, State.WAITING);
-
-    // Tell Consumer there is work to be done (it will check first if FINISHED has been set.)
-    workToBeDone.release();
-  }
-
-  private void consume() {
-    try {
-
-      if (checkState(State.SHOULD_STOP_CONSUMING)) {
-        // Caller already called processFinished() before we even started
-        // consuming. Just get what we can and finish.
-        while (reader.ready()) {
-          output.add(reader.readLine());
-        }
-      } else {
-        // Caller's process is still executing, so just loop and consume.
-        while (checkState(State.CONSUMING)) {
-          Thread.sleep(50);
-          while (reader.ready()) {
-            output.add(reader.readLine());
-          }
-        }
-      }
-
-      if (checkState(State.SHOULD_STOP_CONSUMING)) {
-        changeState(State.WAITING, State.SHOULD_STOP_CONSUMING);
-      } else {
-        Log.error("StreamConsumer stopped consuming, but was not told to?");
-        setErrorState();
-      }
-
-      reader.close();
-
-    } catch (IOException e) {
-      Log.error("StreamConsumer caught IOException while consuming");
-      setErrorState();
-    } catch (InterruptedException e) {
-      Log.error("StreamConsumer caught InterruptedException while consuming");
-      setErrorState();
-    }
-
-    // Tell client of Consumer that the output is ready.
-    outputIsReady.release();
-  }
-
-  @Override
-  public void run() {
-    while (checkState(State.WAITING)) {
-      try {
-        // Wait until there is work to be done
-        workToBeDone.acquire();
-      } catch (InterruptedException e) {
-        Log.error("StreamConsumer caught InterruptedException while waiting for work");
-        setErrorState();
-        break;
-      }
-
-      // Check first if we're done
-      if (checkState(State.FINISHED)) {
-        break;
-      }
-
-      // Make sure we're either supposed to be consuming
-      // or supposed to be finishing up consuming
-      if (!(checkState(State.CONSUMING) || checkState(State.SHOULD_STOP_CONSUMING))) {
-        Log.error("invalid state: StreamConsumer told about work, but not CONSUMING?");
-        Log.error("state was: " + getCurrentState());
-        setErrorState();
-        break;
-      }
-
-      consume();
-    }
-  }
-
-  private synchronized boolean checkState(State expectedState) {
-    return (expectedState == state);
-  }
-
-  private synchronized void changeState(State newState, State previousState) {
-    if (state != previousState) {
-      Log.error("StreamConsumer Unexpected state: " + state + ", expected " + previousState);
-      state = State.ERROR;
-    } else {
-      state = newState;
-    }
-  }
-
-  private synchronized void setErrorState() {
-    state = State.ERROR;
-  }
-
-  private synchronized State getCurrentState() {
-    return state;
+    file.delete();
   }
 }
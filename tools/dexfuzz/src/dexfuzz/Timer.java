@@ -61,6 +61,13 @@ public class Timer {
     elapsedTime += (endPoint - startPoint);
   }
 
+  /**
+   * Add the time elapsed on another timer to this one.
+   */
+  public void add(Timer other) {
+    elapsedTime += other.elapsedTime;
+  }
+
   /**
    * Log the elapsed time this timer has recorded.
    */
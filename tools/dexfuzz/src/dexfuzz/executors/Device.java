@@ -78,7 +78,10 @@ public class Device {
     return androidHostOut + "/framework/x86/core.art";
   }
 
-  private String getHostCoreImagePathNoArch() {
+  /**
+   * Get the host core image, as given to dalvikvm and dex2oat on the host.
+   */
+  public String getHostCoreImagePath() {
     return androidHostOut + "/framework/core.art";
   }
 
@@ -99,9 +102,7 @@ public class Device {
     if (!isHost) {
       // Create temporary consumers for the initial test.
       StreamConsumer outputConsumer = new StreamConsumer();
-      outputConsumer.start();
       StreamConsumer errorConsumer = new StreamConsumer();
-      errorConsumer.start();
 
       // Check for ADB.
       try {
@@ -170,7 +171,7 @@ public class Device {
    * Get any extra flags required to execute ART on the host.
    */
   public String getHostExecutionFlags() {
-    return String.format("-Xnorelocate -Ximage:%s", getHostCoreImagePathNoArch());
+    return String.format("-Xnorelocate -Ximage:%s", getHostCoreImagePath());
   }
 
   public String getAndroidHostOut() {
@@ -194,31 +195,26 @@ public class Device {
     Log.info("Executing: " + command);
 
     try {
-      ProcessBuilder processBuilder = new ProcessBuilder(splitCommand(command));
-      processBuilder.environment().put("ANDROID_ROOT", androidHostOut);
-      if (Options.executeOnHost) {
-        processBuilder.environment().put("ANDROID_DATA", androidData);
-      }
-      Process process = processBuilder.start();
-
+      ProcessBuilder processBuilder = createProcessBuilder(command);
       if (captureOutput) {
-        // Give the streams to the StreamConsumers.
-        outputConsumer.giveStreamAndStartConsuming(process.getInputStream());
-        errorConsumer.giveStreamAndStartConsuming(process.getErrorStream());
+        // Send the streams to the StreamConsumers' files.
+        processBuilder.redirectOutput(outputConsumer.getFile());
+        processBuilder.redirectError(errorConsumer.getFile());
+      } else {
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        processBuilder.redirectError(ProcessBuilder.Redirect.DISCARD);
       }
+      Process process = processBuilder.start();
 
-      // Wait until the process is done - the StreamConsumers will keep the
-      // buffers drained, so this shouldn't block indefinitely.
+      // Wait until the process is done - its output goes straight to files,
+      // so this shouldn't block indefinitely.
       // Get the return value as well.
       result.returnValue = process.waitFor();
 
       Log.info("Return value: " + result.returnValue);
 
       if (captureOutput) {
-        // Tell the StreamConsumers to stop consuming, and wait for them to finish
-        // so we know we have all of the output.
-        outputConsumer.processFinished();
-        errorConsumer.processFinished();
+        // The process has exited, so the files hold all of its output.
         result.output = outputConsumer.getOutput();
         result.error = errorConsumer.getOutput();
 
@@ -237,6 +233,20 @@ public class Device {
     return result;
   }
 
+  /**
+   * Create a ProcessBuilder for the command, with the environment that the
+   * command needs to run ART. Used by executeCommand(), and by Executors that
+   * manage their own long-running processes.
+   */
+  public ProcessBuilder createProcessBuilder(String command) {
+    ProcessBuilder processBuilder = new ProcessBuilder(splitCommand(command));
+    processBuilder.environment().put("ANDROID_ROOT", androidHostOut);
+    if (Options.executeOnHost) {
+      processBuilder.environment().put("ANDROID_DATA", androidData);
+    }
+    return processBuilder;
+  }
+
   /**
    * Splits command respecting single quotes.
    */
@@ -272,12 +282,12 @@ public class Device {
   }
 
   public void cleanCodeCache(Architecture architecture, String testLocation, String programName) {
-    String command = getExecutionPrefixWithAdb("shell") + "rm -f " + getCacheLocation(architecture)
+    String command = getExecutionShellPrefix() + "rm -f " + getCacheLocation(architecture)
         + getOatFileName(testLocation, programName);
     executeCommand(command, false);
   }
 
-  public void pushProgramToDevice(String programName, String testLocation) {
+  public synchronized void pushProgramToDevice(String programName, String testLocation) {
     assert(!isHost);
     if (!programPushed) {
       String command = getExecutionPrefixWithAdb("push") + programName + " " + testLocation;
@@ -289,7 +299,7 @@ public class Device {
     }
   }
 
-  public void resetProgramPushed() {
+  public synchronized void resetProgramPushed() {
     programPushed = false;
   }
 }
@@ -17,14 +17,26 @@
 package dexfuzz.executors;
 
 import dexfuzz.ExecutionResult;
+import dexfuzz.Log;
 import dexfuzz.Options;
 import dexfuzz.StreamConsumer;
 import dexfuzz.listeners.BaseListener;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Base class containing the common methods for executing a particular backend of ART.
  */
 public abstract class Executor {
+  // Matches the statistics logged by the optimizing compiler for dex2oat --dump-stats.
+  private static final Pattern COMPILER_STAT_PATTERN = Pattern.compile("OptStat#(\\S+): (\\d+)");
+
   private StreamConsumer outputConsumer;
   private StreamConsumer errorConsumer;
 
@@ -40,6 +52,9 @@ public abstract class Executor {
   protected Device device;
   private boolean needsCleanCodeCache;
   private boolean isBisectable;
+  private Map<String, Integer> compilerStats;
+  // Set once dex2oat's output for a batch of programs couldn't be split up by program.
+  private boolean batchVerificationFailed;
 
   protected Executor(String name, int timeout, BaseListener listener, Architecture architecture,
       Device device, boolean needsCleanCodeCache, boolean isBisectable) {
@@ -65,9 +80,7 @@ public abstract class Executor {
     }
 
     outputConsumer = new StreamConsumer();
-    outputConsumer.start();
     errorConsumer = new StreamConsumer();
-    errorConsumer.start();
   }
 
   /**
@@ -80,7 +93,7 @@ public abstract class Executor {
   }
 
   /**
-   * Call this to make sure the StreamConsumer threads are stopped.
+   * Call this to make sure the StreamConsumers' files are removed.
    */
   public void shutdown() {
     outputConsumer.shutdown();
@@ -94,10 +107,7 @@ public abstract class Executor {
     executionResult = null;
   }
 
-  /**
-   * Called by the Fuzzer to verify the mutated program using the host-side dex2oat.
-   */
-  public boolean verifyOnHost(String programName) {
+  private String constructVerificationCommand(List<String> programNames, String oatFile) {
     StringBuilder commandBuilder = new StringBuilder();
     commandBuilder.append("dex2oat ");
 
@@ -105,21 +115,132 @@ public abstract class Executor {
     commandBuilder.append(" --instruction-set-features=default ");
 
     // Select the correct boot image.
-    commandBuilder.append("--boot-image=").append(device.getAndroidProductOut());
-    if (device.noBootImageAvailable()) {
+    commandBuilder.append("--boot-image=");
+    if (device.isHost()) {
+      commandBuilder.append(device.getHostCoreImagePath()).append(" ");
+    } else if (device.noBootImageAvailable()) {
+      commandBuilder.append(device.getAndroidProductOut());
       commandBuilder.append("/data/art-test/core.art ");
     } else {
+      commandBuilder.append(device.getAndroidProductOut());
       commandBuilder.append("/system/framework/boot.art ");
     }
 
-    commandBuilder.append("--oat-file=output.oat ");
+    commandBuilder.append("--oat-file=").append(oatFile).append(" ");
     commandBuilder.append("--android-root=").append(device.getAndroidHostOut()).append(" ");
-    commandBuilder.append("--dex-file=").append(programName).append(" ");
-    commandBuilder.append("--compiler-filter=verify --runtime-arg -Xnorelocate ");
+    for (String programName : programNames) {
+      commandBuilder.append("--dex-file=").append(programName).append(" ");
+    }
+    if (Options.useCorpus) {
+      commandBuilder.append("--compiler-filter=speed --dump-stats ");
+    } else {
+      commandBuilder.append("--compiler-filter=verify ");
+    }
+    if (programNames.size() > 1) {
+      // Verify each program in its own class loader, as they usually define the same
+      // classes, and have dex2oat log the name of each program before verifying it.
+      commandBuilder.append("--compile-individually --runtime-arg -verbose:compiler ");
+    }
+    commandBuilder.append("--runtime-arg -Xnorelocate ");
+    return commandBuilder.toString();
+  }
 
-    ExecutionResult verificationResult = device.executeCommand(commandBuilder.toString(), true,
+  private ExecutionResult runHostVerification(List<String> programNames) {
+    // Name the OAT file after the program, so that concurrent fuzzers don't share it.
+    String oatFile = programNames.get(0).replaceFirst("\\.dex$", "") + ".oat";
+    ExecutionResult verificationResult = device.executeCommand(
+        constructVerificationCommand(programNames, oatFile), true,
         outputConsumer, errorConsumer);
+    device.executeCommand("rm " + oatFile, false);
+    return verificationResult;
+  }
+
+  /**
+   * Called by the Fuzzer to verify the mutated program using the host-side dex2oat,
+   * reporting on it to the given listener.
+   * With --corpus, the program is also compiled, and the optimizing compiler's
+   * statistics are kept for getCompilerStats().
+   */
+  public boolean verifyOnHost(String programName, BaseListener listener) {
+    ExecutionResult verificationResult =
+        runHostVerification(Collections.singletonList(programName));
+    return checkHostVerification(verificationResult, listener);
+  }
+
+  /**
+   * Called by the Fuzzer to verify several mutated programs with one run of the
+   * host-side dex2oat. Returns the part of dex2oat's output about each program, to be
+   * given to checkHostVerification() in turn, or null if the programs must be verified
+   * one at a time with verifyOnHost() instead. That is the case if dex2oat failed,
+   * e.g. because one of the programs crashed it, or if its output couldn't be split up
+   * by program, after which batch verification is turned off for the rest of the run.
+   */
+  public List<ExecutionResult> verifyBatchOnHost(List<String> programNames) {
+    if (batchVerificationFailed) {
+      return null;
+    }
+
+    ExecutionResult batchResult = runHostVerification(programNames);
+    if (batchResult.returnValue != 0) {
+      Log.info("Batch verification failed, verifying separately.");
+      return null;
+    }
+    List<ExecutionResult> results = splitBatchVerification(batchResult, programNames);
+    if (results == null) {
+      Log.error("Couldn't split up the output of dex2oat by program, "
+          + "verifying programs separately from now on.");
+      batchVerificationFailed = true;
+    }
+    return results;
+  }
 
+  /**
+   * Split up the output of a successful run of dex2oat on several programs, as
+   * given to it with --compile-individually and -verbose:compiler. Returns the part
+   * of the output about each program, or null if it can't be found.
+   */
+  static List<ExecutionResult> splitBatchVerification(ExecutionResult batchResult,
+      List<String> programNames) {
+    // dex2oat verifies the programs in order. It logs the name of each program before
+    // verifying it, and that it has unloaded the program's classes after, so
+    // everything logged in between is about that program. Anything logged before the
+    // first program is about all of them. Anything logged after a program has been
+    // unloaded, such as the summary dex2oat logs when it has finished, is about none
+    // of them.
+    List<String> commonLines = new ArrayList<String>();
+    List<ExecutionResult> results = new ArrayList<ExecutionResult>();
+    ExecutionResult result = null;
+    for (String line : batchResult.error) {
+      if (results.size() < programNames.size()
+          && line.endsWith("] Compiling " + programNames.get(results.size()))) {
+        result = new ExecutionResult();
+        result.returnValue = batchResult.returnValue;
+        result.output = new ArrayList<String>(batchResult.output);
+        result.error = new ArrayList<String>(commonLines);
+        results.add(result);
+      } else if (result != null) {
+        if (line.endsWith("] Unloaded classloader") || line.contains("] dex2oat took ")) {
+          result = null;
+        } else {
+          result.error.add(line);
+        }
+      } else if (results.isEmpty()) {
+        commonLines.add(line);
+      }
+    }
+    if (results.size() != programNames.size()) {
+      return null;
+    }
+    return results;
+  }
+
+  /**
+   * Check the output of dex2oat from verifyOnHost(), or from verifyBatchOnHost() for
+   * one program, and report on it to the listener. Returns true if the program
+   * passed verification.
+   */
+  public boolean checkHostVerification(ExecutionResult verificationResult,
+      BaseListener listener) {
     boolean success = true;
 
     if (verificationResult.isSigabort()) {
@@ -127,10 +248,16 @@ public abstract class Executor {
       success = false;
     }
 
+    compilerStats = new HashMap<String, Integer>();
     if (success) {
       // Search for a keyword that indicates verification was not successful.
       // TODO: Determine if dex2oat crashed?
       for (String line : verificationResult.error) {
+        Matcher matcher = COMPILER_STAT_PATTERN.matcher(line);
+        if (matcher.find()) {
+          compilerStats.put(matcher.group(1), Integer.parseInt(matcher.group(2)));
+          continue;
+        }
         if (line.contains("Verification error")
             || line.contains("Failure to verify dex file")) {
           success = false;
@@ -146,11 +273,17 @@ public abstract class Executor {
       listener.handleFailedHostVerification(verificationResult);
     }
 
-    device.executeCommand("rm output.oat", false);
-
     return success;
   }
 
+  /**
+   * Get the number of times each optimizing compiler statistic was recorded while
+   * compiling the program given to the last verifyOnHost(), when using --corpus.
+   */
+  public Map<String, Integer> getCompilerStats() {
+    return compilerStats;
+  }
+
   /**
    * Called by the Fuzzer to upload the program to the target device.
    */
@@ -186,6 +319,16 @@ public abstract class Executor {
     executionResult = executeCommandWithTimeout(command, true);
   }
 
+  /**
+   * Called by the Fuzzer when the program's output diverged, so that executors that
+   * don't start a fresh runtime for each program can run it again in one, and only
+   * divergences that dalvikvm reproduces are reported.
+   * Returns true if the program was run again.
+   */
+  public boolean reexecuteInFreshRuntime(String programName) {
+    return false;
+  }
+
   /**
    * Runs bisection bug search.
    */
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.executors;
+
+import dexfuzz.ExecutionResult;
+import dexfuzz.Log;
+import dexfuzz.Options;
+import dexfuzz.StreamConsumer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A host dalvikvm process running dexfuzz.runner.PersistentRunner as a zygote, which
+ * has already started up and loaded the boot image, and forks a child to run each
+ * program it is sent. Used by the persistent-runtime Executors instead of starting
+ * dalvikvm for every program.
+ *
+ * The runner is sent one request line per program, naming the DEX file and the files
+ * that the child's standard output and error should be written to. It replies with a
+ * line holding the child's pid once it has forked, and a line holding the child's exit
+ * status once the child has exited. If the program times out, the child is killed;
+ * the runner itself is only restarted if it stops replying.
+ */
+class PersistentRuntime {
+  private static final String RUNNER_CLASS = "dexfuzz.runner.PersistentRunner";
+  private static final String STARTED_PREFIX = "DEXFUZZ-STARTED ";
+  private static final String RESULT_PREFIX = "DEXFUZZ-RESULT ";
+  // Put on the reply queue when the runtime closes its output, i.e. when it has exited.
+  private static final String EXITED = "";
+  // How long to wait for the runner to reply after a timed out program is killed.
+  private static final int KILL_TIMEOUT = 5;
+
+  private Device device;
+  private String command;
+  private int timeout;
+
+  private StreamConsumer outputConsumer;
+  private StreamConsumer errorConsumer;
+  private StreamConsumer runtimeErrorConsumer;
+
+  private Process process;
+  private Writer requests;
+  private BlockingQueue<String> replies;
+
+  /**
+   * Create a PersistentRuntime that will start the runner using the given dalvikvm
+   * command and flags, to execute executeClass of each program, allowing each program
+   * to run for timeout seconds.
+   * The runtime is not started until the first program is executed.
+   */
+  PersistentRuntime(Device device, String runtimeCommand, String executeClass,
+      int timeout) {
+    this.device = device;
+    this.timeout = timeout;
+
+    String runnerJar = device.getAndroidHostOut() + "/framework/dexfuzz-runner-hostdex.jar";
+    // The persistent-runtime Executors all run dalvikvm32.
+    String runnerLibrary = device.getAndroidHostOut() + "/lib/libdexfuzz-runner.so";
+    for (String path : new String[] { runnerJar, runnerLibrary }) {
+      if (!new File(path).exists()) {
+        Log.errorAndQuit("Persistent runtime runner not found at " + path
+            + ". Did you forget to build it?");
+      }
+    }
+    command = runtimeCommand + "-Xzygote -cp " + runnerJar + " " + RUNNER_CLASS + " "
+        + runnerLibrary + " " + executeClass;
+
+    outputConsumer = new StreamConsumer();
+    errorConsumer = new StreamConsumer();
+    runtimeErrorConsumer = new StreamConsumer();
+  }
+
+  private void start() {
+    Log.info("Starting persistent runtime: " + command);
+    ProcessBuilder processBuilder = device.createProcessBuilder(command);
+    // Use the same environment as Executor.execute() gives dalvikvm.
+    String androidRoot = Options.androidRoot.trim();
+    if (androidRoot.length() != 0) {
+      Map<String, String> environment = processBuilder.environment();
+      environment.put("PATH", androidRoot + "/bin");
+      environment.put("ANDROID_ROOT", androidRoot);
+      environment.put("LD_LIBRARY_PATH", androidRoot + "/lib:" + androidRoot + "/lib64");
+    }
+    // The children log to their own error files, so this only holds the runtime's
+    // own logging. It is truncated before each program, so append to it rather
+    // than writing at the offset the runtime last wrote to.
+    truncate(runtimeErrorConsumer.getFile());
+    processBuilder.redirectError(ProcessBuilder.Redirect.appendTo(runtimeErrorConsumer.getFile()));
+    try {
+      process = processBuilder.start();
+    } catch (IOException e) {
+      Log.errorAndQuit("PersistentRuntime.start() caught an IOException");
+    }
+    requests = new OutputStreamWriter(process.getOutputStream());
+
+    // Read the replies on their own thread, so that execute() can wait for them
+    // with a timeout.
+    BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+    Thread thread = new Thread(() -> {
+      try {
+        String line = reader.readLine();
+        while (line != null) {
+          if (line.startsWith(STARTED_PREFIX) || line.startsWith(RESULT_PREFIX)) {
+            queue.add(line);
+          }
+          line = reader.readLine();
+        }
+      } catch (IOException e) {
+        // The runtime has gone, treat it the same as it exiting.
+      }
+      queue.add(EXITED);
+    }, "dexfuzz-persistent-runtime");
+    thread.setDaemon(true);
+    thread.start();
+    replies = queue;
+  }
+
+  private void stop() {
+    process.destroyForcibly();
+    try {
+      process.waitFor();
+    } catch (InterruptedException e) {
+      Log.errorAndQuit("PersistentRuntime caught an InterruptedException");
+    }
+    process = null;
+  }
+
+  /**
+   * Get the next reply from the runner, or null if there is none by the deadline,
+   * given in System.nanoTime() terms.
+   */
+  private String nextReply(long deadline) {
+    try {
+      return replies.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Log.errorAndQuit("PersistentRuntime caught an InterruptedException");
+    }
+    return null;
+  }
+
+  /**
+   * Run the program in testLocation in a child of the runtime, starting the runtime
+   * if needed.
+   */
+  ExecutionResult execute(String testLocation, String programName,
+      Architecture architecture) {
+    if (process == null) {
+      start();
+    }
+    // Run a copy of the program under a name that is never reused, so that nothing
+    // cached for an earlier program at the same path can be used for this one.
+    File program = new File(testLocation, programName);
+    File copy = null;
+    try {
+      copy = File.createTempFile("persistent", "_" + programName, new File(testLocation));
+      Files.copy(program.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      Log.errorAndQuit("PersistentRuntime couldn't copy " + program.getPath());
+    }
+    // The child truncates these when it starts, but it may not get that far.
+    truncate(outputConsumer.getFile());
+    truncate(errorConsumer.getFile());
+    truncate(runtimeErrorConsumer.getFile());
+
+    ExecutionResult result = new ExecutionResult();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+    String reply = EXITED;
+    try {
+      requests.write(copy.getPath() + "\t" + outputConsumer.getFile().getPath()
+          + "\t" + errorConsumer.getFile().getPath() + "\n");
+      requests.flush();
+      reply = nextReply(deadline);
+    } catch (IOException e) {
+      // The runtime has already exited, so it can't take the request.
+    }
+    long pid = -1;
+    if (reply != null && reply.startsWith(STARTED_PREFIX)) {
+      pid = Long.parseLong(reply.substring(STARTED_PREFIX.length()));
+      reply = nextReply(deadline);
+    }
+
+    if (reply == null) {
+      Log.info("Program timed out in the persistent runtime, killing it.");
+      result.returnValue = ExecutionResult.TIMEOUT_RETURN_VALUE;
+      if (pid != -1) {
+        ProcessHandle.of(pid).ifPresent(ProcessHandle::destroyForcibly);
+        reply = nextReply(System.nanoTime() + TimeUnit.SECONDS.toNanos(KILL_TIMEOUT));
+      }
+      if (reply == null || !reply.startsWith(RESULT_PREFIX)) {
+        Log.info("Persistent runtime stopped replying, killing it.");
+        stop();
+      }
+    } else if (reply.startsWith(RESULT_PREFIX)) {
+      String[] fields = reply.substring(RESULT_PREFIX.length()).split(" ");
+      result.returnValue = Integer.parseInt(fields[0]);
+      Log.info("Persistent runtime ran " + programName + " in " + fields[1] + "ms");
+    } else {
+      // Programs can't exit the runtime, only their own process, so the runtime
+      // itself has failed.
+      for (String line : runtimeErrorConsumer.getOutput()) {
+        Log.error(line);
+      }
+      Log.errorAndQuit("Persistent runtime exited unexpectedly.");
+    }
+    Log.info("Return value: " + result.returnValue);
+
+    copy.delete();
+    device.cleanCodeCache(architecture, testLocation, copy.getName());
+
+    result.output = outputConsumer.getOutput();
+    result.error = errorConsumer.getOutput();
+    result.error.addAll(runtimeErrorConsumer.getOutput());
+    result.output.add("RETURN CODE: " + result.returnValue);
+    return result;
+  }
+
+  private void truncate(File file) {
+    try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+      output.setLength(0);
+    } catch (IOException e) {
+      Log.errorAndQuit("PersistentRuntime couldn't truncate " + file.getPath());
+    }
+  }
+
+  /**
+   * Stop the runtime, if it is running, and remove the StreamConsumers' files.
+   */
+  void shutdown() {
+    if (process != null) {
+      stop();
+    }
+    outputConsumer.shutdown();
+    errorConsumer.shutdown();
+    runtimeErrorConsumer.shutdown();
+  }
+}
@@ -22,17 +22,30 @@ import dexfuzz.listeners.BaseListener;
 public class X86InterpreterExecutor extends Executor {
 
   public X86InterpreterExecutor(BaseListener listener, Device device) {
-    super("x86 Interpreter", 30, listener, Architecture.X86, device,
+    this(listener, device, "x86 Interpreter");
+  }
+
+  protected X86InterpreterExecutor(BaseListener listener, Device device, String name) {
+    super(name, 30, listener, Architecture.X86, device,
         /*needsCleanCodeCache*/ false, /*isBisectable*/ false);
   }
 
-  @Override
-  protected String constructCommand(String programName) {
+  /**
+   * Get the dalvikvm command and runtime flags, without the program to execute.
+   */
+  protected String constructRuntimeCommand() {
     StringBuilder commandBuilder = new StringBuilder();
     commandBuilder.append("dalvikvm32 -Xint ");
     if (Options.executeOnHost) {
       commandBuilder.append(device.getHostExecutionFlags()).append(" ");
     }
+    return commandBuilder.toString();
+  }
+
+  @Override
+  protected String constructCommand(String programName) {
+    StringBuilder commandBuilder = new StringBuilder();
+    commandBuilder.append(constructRuntimeCommand());
     commandBuilder.append("-cp ").append(testLocation).append("/").append(programName).append(" ");
     commandBuilder.append(executeClass);
     return commandBuilder.toString();
@@ -22,12 +22,18 @@ import dexfuzz.listeners.BaseListener;
 public class X86OptimizingBackendExecutor extends Executor {
 
   public X86OptimizingBackendExecutor(BaseListener listener, Device device) {
-    super("x86 Optimizing Backend", 5, listener, Architecture.X86, device,
+    this(listener, device, "x86 Optimizing Backend");
+  }
+
+  protected X86OptimizingBackendExecutor(BaseListener listener, Device device, String name) {
+    super(name, 5, listener, Architecture.X86, device,
         /*needsCleanCodeCache*/ true, /*isBisectable*/ true);
   }
 
-  @Override
-  protected String constructCommand(String programName) {
+  /**
+   * Get the dalvikvm command and runtime flags, without the program to execute.
+   */
+  protected String constructRuntimeCommand() {
     StringBuilder commandBuilder = new StringBuilder();
     commandBuilder.append("dalvikvm32 -Xcompiler-option --compiler-backend=Optimizing ");
     // The -Xno-dex-file-fallback option ensures that the execution does not default to
@@ -36,6 +42,13 @@ public class X86OptimizingBackendExecutor extends Executor {
     if (Options.executeOnHost) {
       commandBuilder.append(device.getHostExecutionFlags()).append(" ");
     }
+    return commandBuilder.toString();
+  }
+
+  @Override
+  protected String constructCommand(String programName) {
+    StringBuilder commandBuilder = new StringBuilder();
+    commandBuilder.append(constructRuntimeCommand());
     commandBuilder.append("-cp ").append(testLocation).append("/").append(programName).append(" ");
     commandBuilder.append(executeClass);
     return commandBuilder.toString();
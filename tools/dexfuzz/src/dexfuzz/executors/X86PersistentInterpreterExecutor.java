@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.executors;
+
+import dexfuzz.listeners.BaseListener;
+
+/**
+ * Runs the x86 Interpreter on the host in a PersistentRuntime, rather than
+ * starting dalvikvm for every program. Divergent programs are run again with
+ * dalvikvm before they are reported, and bisection search also uses dalvikvm.
+ */
+public class X86PersistentInterpreterExecutor extends X86InterpreterExecutor {
+  private PersistentRuntime runtime;
+
+  public X86PersistentInterpreterExecutor(BaseListener listener, Device device) {
+    super(listener, device, "x86 Interpreter (persistent)");
+    runtime = new PersistentRuntime(device, constructRuntimeCommand(), executeClass, timeout);
+  }
+
+  @Override
+  public void execute(String programName) {
+    executionResult = runtime.execute(testLocation, programName, architecture);
+  }
+
+  @Override
+  public boolean reexecuteInFreshRuntime(String programName) {
+    reset();
+    prepareProgramForExecution(programName);
+    super.execute(programName);
+    return true;
+  }
+
+  @Override
+  public void shutdown() {
+    runtime.shutdown();
+    super.shutdown();
+  }
+}
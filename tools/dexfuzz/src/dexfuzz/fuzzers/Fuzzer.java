@@ -16,6 +16,7 @@
 
 package dexfuzz.fuzzers;
 
+import dexfuzz.ExecutionResult;
 import dexfuzz.Log;
 import dexfuzz.Options;
 import dexfuzz.Timer;
@@ -28,12 +29,15 @@ import dexfuzz.executors.Device;
 import dexfuzz.executors.Executor;
 import dexfuzz.executors.X86InterpreterExecutor;
 import dexfuzz.executors.X86OptimizingBackendExecutor;
+import dexfuzz.executors.X86PersistentInterpreterExecutor;
+import dexfuzz.executors.X86PersistentOptimizingBackendExecutor;
 import dexfuzz.executors.X86_64InterpreterExecutor;
 import dexfuzz.executors.X86_64OptimizingBackendExecutor;
 import dexfuzz.listeners.BaseListener;
 import dexfuzz.program.Mutation;
 import dexfuzz.program.Program;
-import dexfuzz.rawdex.DexRandomAccessFile;
+import dexfuzz.program.mutators.CodeMutator;
+import dexfuzz.rawdex.DexBuffer;
 import dexfuzz.rawdex.OffsetTracker;
 import dexfuzz.rawdex.RawDexFile;
 
@@ -45,6 +49,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A particular fuzzing strategy, this class provides the common methods
@@ -55,11 +63,33 @@ public abstract class Fuzzer {
   private List<Executor> executors;
   private OffsetTracker offsetTracker;
 
+  /**
+   * The executors, grouped by architecture. Each group's executors must run in order,
+   * but different groups are independent, so they are run at the same time on
+   * executionPool, if there is more than one group.
+   */
+  private List<List<Executor>> executorGroups;
+  private ExecutorService executionPool;
+
+  /**
+   * The contents of each seed file, so that each file is only read once. A fresh
+   * RawDexFile is parsed from these bytes for every program, as mutation changes the
+   * RawDexFile in place. Parsing only reads the bytes, so they are never changed.
+   */
+  private Map<String, byte[]> seedCache = new HashMap<String, byte[]>();
+
   /**
    * This is the executor that we use to test for self-divergent programs.
    */
   private Executor goldenExecutor;
 
+  /**
+   * The host verification output for programs verified by verifyBatchOnHost(),
+   * waiting for execute() to check it.
+   */
+  private Map<String, ExecutionResult> batchVerificationResults =
+      new HashMap<String, ExecutionResult>();
+
   /*
    * These two flags are set during fuzz(), and then cleared at the end of execute().
    */
@@ -78,6 +108,7 @@ public abstract class Fuzzer {
   protected Fuzzer(BaseListener listener) {
     totalTimer.start();
     executors = new ArrayList<Executor>();
+    executorGroups = new ArrayList<List<Executor>>();
     this.listener = listener;
   }
 
@@ -87,6 +118,19 @@ public abstract class Fuzzer {
 
   protected abstract String getNextOutputFilename();
 
+  /**
+   * Returns the seed for the RNG of the next Program to be fuzzed. By default this is the
+   * seed given with --seed, or the current time, which is reported to the listener.
+   */
+  protected long getNextSeed() {
+    if (Options.usingProvidedSeed) {
+      return Options.rngSeed;
+    }
+    long seed = System.currentTimeMillis();
+    listener.handleSeed(seed);
+    return seed;
+  }
+
   /**
    * Call this after fuzzer execution to print out timing results.
    */
@@ -100,10 +144,26 @@ public abstract class Fuzzer {
     totalTimer.printTime(listener);
   }
 
+  /**
+   * Add the time recorded by another Fuzzer's phase timers to this Fuzzer's timers.
+   * The total time is not added, as the other Fuzzer is expected to have run
+   * concurrently with this one.
+   */
+  protected void addTimingInfo(Fuzzer other) {
+    timerDexInput.add(other.timerDexInput);
+    timerProgGen.add(other.timerProgGen);
+    timerMutation.add(other.timerMutation);
+    timerDexOutput.add(other.timerDexOutput);
+    timerChecksumCalc.add(other.timerChecksumCalc);
+  }
+
   /**
    * Make sure this is called to correctly shutdown each Executor's StreamConsumers.
    */
   public void shutdown() {
+    if (executionPool != null) {
+      executionPool.shutdown();
+    }
     if (executors != null) {
       for (Executor executor : executors) {
         executor.shutdown();
@@ -117,16 +177,17 @@ public abstract class Fuzzer {
     // This is because intepreter execution relies on there being an OAT file already
     // created to produce correct debug information. Otherwise we will see
     // false-positive divergences.
+    List<Executor> group = new ArrayList<Executor>();
     try {
       if (Options.useOptimizing) {
         Constructor<? extends Executor> constructor =
             optimizing.getConstructor(BaseListener.class, Device.class);
-        executors.add(constructor.newInstance(listener, device));
+        group.add(constructor.newInstance(listener, device));
       }
       if (Options.useInterpreter) {
         Constructor<? extends Executor> constructor =
             interpreter.getConstructor(BaseListener.class, Device.class);
-        executors.add(constructor.newInstance(listener, device));
+        group.add(constructor.newInstance(listener, device));
       }
     } catch (NoSuchMethodException e) {
       Log.errorAndQuit("Executor doesn't have correct constructor.");
@@ -139,6 +200,10 @@ public abstract class Fuzzer {
     } catch (InvocationTargetException e) {
       Log.errorAndQuit("Instantiation of Executor threw an Exception!");
     }
+    if (!group.isEmpty()) {
+      executors.addAll(group);
+      executorGroups.add(group);
+    }
   }
 
   protected void addExecutors() {
@@ -165,12 +230,37 @@ public abstract class Fuzzer {
     }
 
     if (Options.useArchX86) {
-      addExecutorsForArchitecture(device, X86OptimizingBackendExecutor.class,
-          X86InterpreterExecutor.class);
+      if (Options.persistentRuntime) {
+        addExecutorsForArchitecture(device, X86PersistentOptimizingBackendExecutor.class,
+            X86PersistentInterpreterExecutor.class);
+      } else {
+        addExecutorsForArchitecture(device, X86OptimizingBackendExecutor.class,
+            X86InterpreterExecutor.class);
+      }
     }
 
     // Add the first backend as the golden executor for self-divergence tests.
     goldenExecutor = executors.get(0);
+
+    if (executorGroups.size() > 1) {
+      executionPool = Executors.newFixedThreadPool(executorGroups.size());
+    }
+  }
+
+  /**
+   * Fuzzer subclasses can override this to pick mutators by score. See
+   * Program.setMutatorScores().
+   */
+  protected Map<Class<? extends CodeMutator>, Integer> getMutatorScores() {
+    return null;
+  }
+
+  /**
+   * Fuzzer subclasses can override this to find out which optimizing compiler
+   * statistics the program produced when it was verified on the host, with --corpus.
+   */
+  protected void handleCompilerStats(Program program, String programName,
+      Map<String, Integer> compilerStats) {
   }
 
   /**
@@ -187,6 +277,7 @@ public abstract class Fuzzer {
     // Mutate the program.
     if (!Options.skipMutation) {
       timerMutation.start();
+      program.setMutatorScores(getMutatorScores());
       program.mutateTheProgram();
 
       mutatedSuccessfully = program.updateRawDexFile();
@@ -208,6 +299,34 @@ public abstract class Fuzzer {
     return mutatedSuccessfully && savedSuccessfully;
   }
 
+  /**
+   * Used by Fuzzers that fuzz several programs before executing any of them, to
+   * restore what safeToExecute() said after fuzzing the program about to be executed.
+   */
+  protected void setSafeToExecute(boolean safe) {
+    mutatedSuccessfully = safe;
+    savedSuccessfully = safe;
+  }
+
+  /**
+   * Verify several saved programs with one run of the host-side dex2oat, rather than
+   * one run each. Each program's verification is still reported when execute() is
+   * called for it, to the listener in use at the time. Programs that couldn't be
+   * verified together are verified separately by execute().
+   */
+  protected void verifyBatchOnHost(List<String> programNames) {
+    if (programNames.size() < 2 || Options.skipHostVerify || Options.executeOnHost) {
+      return;
+    }
+    List<ExecutionResult> results = goldenExecutor.verifyBatchOnHost(programNames);
+    if (results == null) {
+      return;
+    }
+    for (int i = 0; i < programNames.size(); i++) {
+      batchVerificationResults.put(programNames.get(i), results.get(i));
+    }
+  }
+
   protected void execute(Program program) {
     if (!safeToExecute()) {
       Log.errorAndQuit("Your Fuzzer subclass called execute() "
@@ -217,20 +336,27 @@ public abstract class Fuzzer {
     String programName = getNextOutputFilename();
     boolean verified = true;
 
-    if (!Options.skipHostVerify && !Options.executeOnHost) {
-      verified = goldenExecutor.verifyOnHost(programName);
+    // --corpus needs the host compilation for its compiler statistics, even on the host.
+    if (Options.useCorpus || (!Options.skipHostVerify && !Options.executeOnHost)) {
+      ExecutionResult batchResult = batchVerificationResults.remove(programName);
+      if (batchResult != null) {
+        verified = goldenExecutor.checkHostVerification(batchResult, listener);
+      } else {
+        verified = goldenExecutor.verifyOnHost(programName, listener);
+      }
       if (verified) {
         listener.handleSuccessfulHostVerification();
+        if (Options.useCorpus) {
+          handleCompilerStats(program, programName, goldenExecutor.getCompilerStats());
+        }
       }
     }
 
     if (verified) {
       boolean skipAnalysis = false;
 
+      runExecutors(programName);
       for (Executor executor : executors) {
-        executor.reset();
-        executor.prepareProgramForExecution(programName);
-        executor.execute(programName);
         if (!executor.didTargetVerify()) {
           listener.handleFailedTargetVerification();
           skipAnalysis = true;
@@ -251,6 +377,51 @@ public abstract class Fuzzer {
     savedSuccessfully = false;
   }
 
+  /**
+   * Runs every group of executors on the program, at the same time if there is more
+   * than one group, so this takes about as long as the slowest group.
+   */
+  private void runExecutors(String programName) {
+    if (executionPool == null) {
+      for (List<Executor> group : executorGroups) {
+        runExecutorGroup(group, programName);
+      }
+      return;
+    }
+
+    List<Future<?>> results = new ArrayList<Future<?>>();
+    for (List<Executor> group : executorGroups) {
+      results.add(executionPool.submit(() -> runExecutorGroup(group, programName)));
+    }
+    for (Future<?> result : results) {
+      try {
+        result.get();
+      } catch (InterruptedException e) {
+        Log.errorAndQuit("Interrupted while waiting for executors to finish.");
+      } catch (ExecutionException e) {
+        Log.errorAndQuit("Executor threw an Exception: " + e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Runs a group of executors on the program in order, stopping at the first
+   * executor that fails target verification. The remaining executors are left
+   * reset, but execute() will have stopped checking before it reaches them.
+   */
+  private void runExecutorGroup(List<Executor> group, String programName) {
+    for (Executor executor : group) {
+      executor.reset();
+    }
+    for (Executor executor : group) {
+      executor.prepareProgramForExecution(programName);
+      executor.execute(programName);
+      if (!executor.didTargetVerify()) {
+        break;
+      }
+    }
+  }
+
   /**
    * Checks if the different outputs we observed align with different architectures.
    */
@@ -323,22 +494,18 @@ public abstract class Fuzzer {
     }
 
     // Check divergences.
-    // Construct a map {output1: [executor that produced output1, ...], output2: [...]}
-    // If the map has more than one output, we had divergence, report it.
-    Map<String, List<Executor>> outputMap = new HashMap<String, List<Executor>>();
-    for (Executor executor : executors) {
-      String output = executor.getResult().getFlattenedOutput();
-      if (Options.dumpOutput) {
+    // If more than one output was produced, we had divergence, report it.
+    Map<String, List<Executor>> outputMap = mapOutputsToExecutors();
+    if (outputMap.size() > 1 && reexecuteInFreshRuntimes(programName)) {
+      // Only report divergences that are still there when every executor starts
+      // a fresh runtime for the program.
+      outputMap = mapOutputsToExecutors();
+    }
+    if (Options.dumpOutput) {
+      for (Executor executor : executors) {
         listener.handleDumpOutput(
             executor.getResult().getFlattenedOutputWithNewlines(), executor);
       }
-      if (outputMap.containsKey(output)) {
-        outputMap.get(output).add(executor);
-      } else {
-        List<Executor> newList = new ArrayList<Executor>();
-        newList.add(executor);
-        outputMap.put(output, newList);
-      }
     }
 
     if (outputMap.size() > 1) {
@@ -368,21 +535,58 @@ public abstract class Fuzzer {
     }
   }
 
+  /**
+   * Construct a map {output1: [executor that produced output1, ...], output2: [...]}
+   */
+  private Map<String, List<Executor>> mapOutputsToExecutors() {
+    Map<String, List<Executor>> outputMap = new HashMap<String, List<Executor>>();
+    for (Executor executor : executors) {
+      String output = executor.getResult().getFlattenedOutput();
+      if (outputMap.containsKey(output)) {
+        outputMap.get(output).add(executor);
+      } else {
+        List<Executor> newList = new ArrayList<Executor>();
+        newList.add(executor);
+        outputMap.put(output, newList);
+      }
+    }
+    return outputMap;
+  }
+
+  /**
+   * Run the program again with any executors that don't start a fresh runtime for
+   * each program, see Executor.reexecuteInFreshRuntime().
+   * Returns true if any executor ran it again.
+   */
+  private boolean reexecuteInFreshRuntimes(String programName) {
+    boolean reexecuted = false;
+    for (Executor executor : executors) {
+      if (executor.reexecuteInFreshRuntime(programName)) {
+        reexecuted = true;
+      }
+    }
+    return reexecuted;
+  }
+
   private Program loadProgram(String inputName, List<Mutation> mutations) {
     Program program = null;
     try {
-      DexRandomAccessFile input = new DexRandomAccessFile(inputName, "r");
+      // Read the raw DexFile, which is then parsed in memory.
+      timerDexInput.start();
+      byte[] seed = seedCache.get(inputName);
+      if (seed == null) {
+        seed = DexBuffer.readFromFile(inputName).getData();
+        seedCache.put(inputName, seed);
+      }
+      DexBuffer input = new DexBuffer(seed);
       offsetTracker = new OffsetTracker();
       input.setOffsetTracker(offsetTracker);
-      // Read the raw DexFile
       RawDexFile rawDexFile = new RawDexFile();
-      timerDexInput.start();
       rawDexFile.read(input);
       timerDexInput.stop();
-      input.close();
       // Create the program view.
       timerProgGen.start();
-      program = new Program(rawDexFile, mutations, listener);
+      program = new Program(rawDexFile, mutations, listener, getNextSeed());
       timerProgGen.stop();
     } catch (FileNotFoundException e) {
       Log.errorAndQuit("Couldn't open a file called " + inputName);
@@ -396,12 +600,9 @@ public abstract class Fuzzer {
     boolean success = false;
 
     try {
-      // Write out the results of mutation.
-      DexRandomAccessFile output = new DexRandomAccessFile(outputName, "rw");
+      // Write out the results of mutation, in memory.
+      DexBuffer output = new DexBuffer();
       output.setOffsetTracker(offsetTracker);
-      // Delete the contents of the file, in case it already existed.
-      output.setLength(0);
-      // Write out the file.
       timerDexOutput.start();
       program.writeRawDexFile(output);
       timerDexOutput.stop();
@@ -409,7 +610,10 @@ public abstract class Fuzzer {
       timerChecksumCalc.start();
       program.updateRawDexFileHeader(output);
       timerChecksumCalc.stop();
-      output.close();
+      // Write out the file, replacing it if it already existed.
+      timerDexOutput.start();
+      output.writeToFile(outputName);
+      timerDexOutput.stop();
       success = true;
     } catch (FileNotFoundException e) {
       Log.errorAndQuit("Couldn't open a file called " + outputName);
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.fuzzers;
+
+import dexfuzz.Log;
+import dexfuzz.Options;
+import dexfuzz.listeners.BaseListener;
+import dexfuzz.program.Mutation;
+import dexfuzz.program.Program;
+import dexfuzz.program.mutators.CodeMutator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Fuzz programs multiple times, testing each, and keep the programs that make the
+ * optimizing compiler do something new in a corpus, to be fuzzed in turn.
+ *
+ * What the compiler does is judged by the statistics it logs for dex2oat --dump-stats
+ * during host verification. Each statistic, with its count rounded down to a power
+ * of two, is a feature. A program with a feature not seen before is copied to the
+ * --corpus directory, and its new features are added to the features file there, so
+ * that a later run with the same corpus knows which features have been seen. Programs
+ * to fuzz are picked from the inputs and the corpus, favouring those that have led to
+ * new features and have been fuzzed the least, and mutators are picked favouring
+ * those that have produced new features.
+ */
+public class FuzzerGenerational extends FuzzerMultipleExecute {
+  /**
+   * A program that can be fuzzed: one of the inputs, or a program in the corpus.
+   */
+  private static class CorpusEntry {
+    public String filename;
+    public int newFeatures;
+    public int timesFuzzed;
+
+    public CorpusEntry(String filename, int newFeatures) {
+      this.filename = filename;
+      this.newFeatures = newFeatures;
+    }
+
+    public double getWeight() {
+      return (1.0 + newFeatures) / (1.0 + timesFuzzed);
+    }
+  }
+
+  private File corpusDirectory;
+  private File featuresFile;
+  private int corpusFiles;
+  private List<CorpusEntry> entries;
+  private CorpusEntry currentEntry;
+  private Set<String> features;
+  private Map<Class<? extends CodeMutator>, Integer> mutatorScores;
+  private Random rng;
+
+  public FuzzerGenerational(BaseListener listener) {
+    super(listener);
+    entries = new ArrayList<CorpusEntry>();
+    features = new HashSet<String>();
+    mutatorScores = new HashMap<Class<? extends CodeMutator>, Integer>();
+    rng = new Random();
+
+    for (String inputFile : Options.inputFileList) {
+      entries.add(new CorpusEntry(inputFile, 0));
+    }
+
+    // Pick up where a previous run using this corpus left off.
+    corpusDirectory = new File(Options.corpusDirectory);
+    if (!corpusDirectory.isDirectory() && !corpusDirectory.mkdirs()) {
+      Log.errorAndQuit("Couldn't create corpus directory " + corpusDirectory.getPath());
+    }
+    String[] filenames = corpusDirectory.list((dir, name) -> name.endsWith(".dex"));
+    Arrays.sort(filenames);
+    for (String filename : filenames) {
+      entries.add(new CorpusEntry(new File(corpusDirectory, filename).getPath(), 0));
+    }
+    corpusFiles = filenames.length;
+    featuresFile = new File(corpusDirectory, "features");
+    if (featuresFile.exists()) {
+      try {
+        features.addAll(Files.readAllLines(featuresFile.toPath()));
+      } catch (IOException e) {
+        Log.errorAndQuit("Couldn't read corpus features " + featuresFile.getPath());
+      }
+    }
+    listener.handleMessage("Loaded " + corpusFiles + " programs and " + features.size()
+        + " compiler features from corpus " + corpusDirectory.getPath());
+  }
+
+  @Override
+  protected String getNextInputFilename() {
+    double totalWeight = 0.0;
+    for (CorpusEntry entry : entries) {
+      totalWeight += entry.getWeight();
+    }
+    double weight = rng.nextDouble() * totalWeight;
+    currentEntry = entries.get(entries.size() - 1);
+    for (CorpusEntry entry : entries) {
+      weight -= entry.getWeight();
+      if (weight < 0.0) {
+        currentEntry = entry;
+        break;
+      }
+    }
+    currentEntry.timesFuzzed++;
+    listener.handleFuzzingFile(currentEntry.filename);
+    return currentEntry.filename;
+  }
+
+  @Override
+  protected Map<Class<? extends CodeMutator>, Integer> getMutatorScores() {
+    return mutatorScores;
+  }
+
+  @Override
+  protected void handleCompilerStats(Program program, String programName,
+      Map<String, Integer> compilerStats) {
+    List<String> newFeatureList = new ArrayList<String>();
+    for (Map.Entry<String, Integer> stat : compilerStats.entrySet()) {
+      int bucket = Integer.highestOneBit(stat.getValue());
+      String feature = stat.getKey() + ":" + bucket;
+      if (features.add(feature)) {
+        newFeatureList.add(feature);
+      }
+    }
+    int newFeatures = newFeatureList.size();
+    if (newFeatures == 0) {
+      return;
+    }
+
+    String filename = new File(corpusDirectory,
+        String.format("%09d_%s", corpusFiles, Options.outputFile)).getPath();
+    try {
+      Files.copy(Paths.get(programName), Paths.get(filename),
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      Log.errorAndQuit("Couldn't copy " + programName + " to the corpus");
+    }
+    try {
+      Files.write(featuresFile.toPath(), newFeatureList,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      Log.errorAndQuit("Couldn't write corpus features " + featuresFile.getPath());
+    }
+    corpusFiles++;
+    entries.add(new CorpusEntry(filename, newFeatures));
+
+    // Credit the program that was mutated, and the mutators that were used.
+    currentEntry.newFeatures += newFeatures;
+    for (Mutation mutation : program.getMutations()) {
+      mutatorScores.merge(mutation.mutatorClass, newFeatures, Integer::sum);
+    }
+    listener.handleMessage("Added " + filename + " to the corpus, with " + newFeatures
+        + " new compiler features");
+  }
+
+  @Override
+  public void run() {
+    super.run();
+    listener.handleMessage("Corpus has " + corpusFiles + " programs, and has seen "
+        + features.size() + " compiler features");
+  }
+}
@@ -18,8 +18,12 @@ package dexfuzz.fuzzers;
 
 import dexfuzz.Options;
 import dexfuzz.listeners.BaseListener;
+import dexfuzz.listeners.BufferingListener;
 import dexfuzz.program.Program;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Fuzz programs multiple times, testing each.
  */
@@ -31,6 +35,10 @@ public class FuzzerMultipleExecute extends FuzzerMultiple {
 
   @Override
   protected String getNextOutputFilename() {
+    if (Options.verifyBatch > 1) {
+      // Each program in a batch needs its own output, until the batch is executed.
+      return String.format("batch%d_%s", iterations % Options.verifyBatch, Options.outputFile);
+    }
     // In MultipleExecute, always use the same output.
     return Options.outputFile;
   }
@@ -38,6 +46,13 @@ public class FuzzerMultipleExecute extends FuzzerMultiple {
   @Override
   public void run() {
     // TODO: Test that all seed files execute correctly before they are mutated!
+    if (Options.verifyBatch > 1) {
+      for (int first = 0; first < Options.repeat; first += Options.verifyBatch) {
+        runBatch(first, Math.min(first + Options.verifyBatch, Options.repeat));
+      }
+      listener.handleSummary();
+      return;
+    }
     for (iterations = 0; iterations < Options.repeat; iterations++) {
       listener.handleIterationStarted(iterations);
       Program program = fuzz();
@@ -48,4 +63,43 @@ public class FuzzerMultipleExecute extends FuzzerMultiple {
     }
     listener.handleSummary();
   }
+
+  /**
+   * Fuzz the programs for iterations [first, end), verify them all on the host
+   * together, and then execute each one. Each iteration's events are held back
+   * until it finishes, so they are reported in the same order as without batching.
+   */
+  private void runBatch(int first, int end) {
+    BaseListener sharedListener = listener;
+    List<BaseListener> listeners = new ArrayList<BaseListener>();
+    List<Program> programs = new ArrayList<Program>();
+    List<String> programNames = new ArrayList<String>();
+    for (iterations = first; iterations < end; iterations++) {
+      listener = new BufferingListener(sharedListener);
+      listener.handleIterationStarted(iterations);
+      Program program = fuzz();
+      if (safeToExecute()) {
+        programNames.add(getNextOutputFilename());
+      } else {
+        program = null;
+      }
+      setSafeToExecute(false);
+      listeners.add(listener);
+      programs.add(program);
+    }
+
+    listener = sharedListener;
+    verifyBatchOnHost(programNames);
+
+    for (iterations = first; iterations < end; iterations++) {
+      listener = listeners.get(iterations - first);
+      Program program = programs.get(iterations - first);
+      if (program != null) {
+        setSafeToExecute(true);
+        execute(program);
+      }
+      listener.handleIterationFinished(iterations);
+    }
+    listener = sharedListener;
+  }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.fuzzers;
+
+import dexfuzz.Log;
+import dexfuzz.MutationStats;
+import dexfuzz.Options;
+import dexfuzz.listeners.BaseListener;
+import dexfuzz.listeners.BufferingListener;
+import dexfuzz.program.Program;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fuzz programs multiple times on --threads threads, executing each one if
+ * --execute was given. Every thread has its own Fuzzer, with its own RNG,
+ * Executors and output file. Iteration i is always fuzzed by thread
+ * (i % threads), using the seeds drawn from that thread's RNG in order, so
+ * a run can be reproduced by giving the same --seed, --repeat and --threads.
+ */
+public class FuzzerMultipleParallel extends FuzzerMultiple {
+  private List<Worker> workers;
+
+  public FuzzerMultipleParallel(BaseListener listener) {
+    super(listener);
+
+    long seed = Options.rngSeed;
+    if (!Options.usingProvidedSeed) {
+      seed = System.currentTimeMillis();
+    }
+    listener.handleMessage("Seeding " + Options.threads + " threads with --seed=" + seed);
+
+    Random rng = new Random(seed);
+    workers = new ArrayList<Worker>();
+    for (int i = 0; i < Options.threads; i++) {
+      workers.add(new Worker(listener, i, rng.nextLong()));
+    }
+  }
+
+  @Override
+  protected String getNextOutputFilename() {
+    // Only the Workers produce output.
+    return Options.outputFile;
+  }
+
+  @Override
+  public void run() {
+    List<Thread> threads = new ArrayList<Thread>();
+    for (Worker worker : workers) {
+      Thread thread = new Thread(worker, "dexfuzz-" + worker.index);
+      thread.setUncaughtExceptionHandler((t, e) -> {
+        e.printStackTrace();
+        Log.errorAndQuit(t.getName() + " failed: " + e);
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Log.errorAndQuit("Interrupted while waiting for " + thread.getName());
+      }
+    }
+
+    MutationStats mutationStats = new MutationStats();
+    for (Worker worker : workers) {
+      addTimingInfo(worker);
+      mutationStats.add(worker.mutationStats);
+    }
+    listener.handleMessage("Mutation stats for all iterations: "
+        + mutationStats.getStatsString());
+    listener.handleSummary();
+  }
+
+  @Override
+  public void shutdown() {
+    super.shutdown();
+    for (Worker worker : workers) {
+      worker.shutdown();
+    }
+  }
+
+  /**
+   * Fuzzes every threads'th iteration, starting from its index, on its own thread.
+   */
+  private static class Worker extends FuzzerMultiple implements Runnable {
+    private int index;
+    private Random rng;
+    private MutationStats mutationStats;
+
+    public Worker(BaseListener sharedListener, int index, long seed) {
+      super(new BufferingListener(sharedListener));
+      this.index = index;
+      rng = new Random(seed);
+      mutationStats = new MutationStats();
+      if (Options.execute) {
+        addExecutors();
+      }
+    }
+
+    @Override
+    protected long getNextSeed() {
+      long seed = rng.nextLong();
+      listener.handleSeed(seed);
+      return seed;
+    }
+
+    @Override
+    protected String getNextOutputFilename() {
+      if (Options.execute) {
+        // Each Worker executes one program at a time, so it can reuse its output.
+        return String.format("thread%d_%s", index, Options.outputFile);
+      }
+      return String.format("%09d_%s", iterations, Options.outputFile);
+    }
+
+    @Override
+    public void run() {
+      for (iterations = index; iterations < Options.repeat; iterations += Options.threads) {
+        listener.handleIterationStarted(iterations);
+        Program program = fuzz();
+        mutationStats.add(program.getMutationStats());
+        if (Options.execute && safeToExecute()) {
+          execute(program);
+        }
+        listener.handleIterationFinished(iterations);
+      }
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.listeners;
+
+import dexfuzz.ExecutionResult;
+import dexfuzz.executors.Executor;
+import dexfuzz.program.Mutation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the events reported by one fuzzing thread, and passes them on to a
+ * listener shared between threads when each iteration finishes. The events of
+ * an iteration are passed on together, holding the shared listener's lock, so
+ * the shared listener sees the same sequence of events as it would if all
+ * iterations were run on one thread.
+ *
+ * Events are passed on by the fuzzing thread before it starts its next
+ * iteration, so the Executors and files they refer to are still valid.
+ */
+public class BufferingListener extends BaseListener {
+  private BaseListener target;
+  private List<Runnable> events;
+
+  public BufferingListener(BaseListener target) {
+    this.target = target;
+    events = new ArrayList<Runnable>();
+  }
+
+  /**
+   * Pass on all events collected so far to the shared listener.
+   */
+  public void flush() {
+    synchronized (target) {
+      for (Runnable event : events) {
+        event.run();
+      }
+    }
+    events.clear();
+  }
+
+  @Override
+  public void handleSuccessfulHostVerification() {
+    events.add(() -> target.handleSuccessfulHostVerification());
+  }
+
+  @Override
+  public void handleFailedHostVerification(ExecutionResult verificationResult) {
+    events.add(() -> target.handleFailedHostVerification(verificationResult));
+  }
+
+  @Override
+  public void handleFailedTargetVerification() {
+    events.add(() -> target.handleFailedTargetVerification());
+  }
+
+  @Override
+  public void handleIterationStarted(int iteration) {
+    events.add(() -> target.handleIterationStarted(iteration));
+  }
+
+  @Override
+  public void handleIterationFinished(int iteration) {
+    events.add(() -> target.handleIterationFinished(iteration));
+    flush();
+  }
+
+  @Override
+  public void handleTimeouts(List<Executor> timedOut, List<Executor> didNotTimeOut) {
+    events.add(() -> target.handleTimeouts(timedOut, didNotTimeOut));
+  }
+
+  @Override
+  public void handleDivergences(Map<String, List<Executor>> outputMap) {
+    events.add(() -> target.handleDivergences(outputMap));
+  }
+
+  @Override
+  public void handleFuzzingFile(String inputFile) {
+    events.add(() -> target.handleFuzzingFile(inputFile));
+  }
+
+  @Override
+  public void handleSeed(long seed) {
+    events.add(() -> target.handleSeed(seed));
+  }
+
+  @Override
+  public void handleHostVerificationSigabort(ExecutionResult verificationResult) {
+    events.add(() -> target.handleHostVerificationSigabort(verificationResult));
+  }
+
+  @Override
+  public void handleSuccess(Map<String, List<Executor>> outputMap) {
+    events.add(() -> target.handleSuccess(outputMap));
+  }
+
+  @Override
+  public void handleDumpOutput(String outputLine, Executor executor) {
+    events.add(() -> target.handleDumpOutput(outputLine, executor));
+  }
+
+  @Override
+  public void handleDumpVerify(String verifyLine) {
+    events.add(() -> target.handleDumpVerify(verifyLine));
+  }
+
+  @Override
+  public void handleMutationStats(String statsString) {
+    events.add(() -> target.handleMutationStats(statsString));
+  }
+
+  @Override
+  public void handleTiming(String name, float elapsedTime) {
+    events.add(() -> target.handleTiming(name, elapsedTime));
+  }
+
+  @Override
+  public void handleMutationFail() {
+    events.add(() -> target.handleMutationFail());
+  }
+
+  @Override
+  public void handleSummary() {
+    events.add(() -> target.handleSummary());
+  }
+
+  @Override
+  public void handleSuccessfullyFuzzedFile(String programName) {
+    events.add(() -> target.handleSuccessfullyFuzzedFile(programName));
+  }
+
+  @Override
+  public void handleSelfDivergence() {
+    events.add(() -> target.handleSelfDivergence());
+  }
+
+  @Override
+  public void handleMessage(String msg) {
+    events.add(() -> target.handleMessage(msg));
+  }
+
+  @Override
+  public void handleMutations(List<Mutation> mutations) {
+    events.add(() -> target.handleMutations(mutations));
+  }
+
+  @Override
+  public void handleArchitectureSplit() {
+    events.add(() -> target.handleArchitectureSplit());
+  }
+}
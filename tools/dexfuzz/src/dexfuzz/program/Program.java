@@ -47,7 +47,7 @@ import dexfuzz.program.mutators.VRegChanger;
 import dexfuzz.rawdex.ClassDataItem;
 import dexfuzz.rawdex.ClassDefItem;
 import dexfuzz.rawdex.CodeItem;
-import dexfuzz.rawdex.DexRandomAccessFile;
+import dexfuzz.rawdex.DexBuffer;
 import dexfuzz.rawdex.EncodedField;
 import dexfuzz.rawdex.EncodedMethod;
 import dexfuzz.rawdex.FieldIdItem;
@@ -104,10 +104,18 @@ public class Program {
 
   /**
    * A list of all the MutatableCode that the CodeTranslator produced from
-   * CodeItems that are acceptable to mutate.
+   * CodeItems that are acceptable to mutate. Each MutatableCode is only produced
+   * when getMutatableCode() first asks for it, so that creating a Program
+   * doesn't cost more for methods that aren't chosen for mutation. Until then,
+   * its entry is null.
    */
   private List<MutatableCode> mutatableCodes;
 
+  /**
+   * The index of the CodeItem that each entry of mutatableCodes is produced from.
+   */
+  private List<Integer> mutatableCodeItemIdxs;
+
   /**
    * A list of all MutatableCode items that were mutated when mutateTheProgram()
    * was called. updateRawDexFile() will update the relevant CodeItems when called,
@@ -125,6 +133,11 @@ public class Program {
    */
   private Map<Class<? extends CodeMutator>, CodeMutator> mutatorsLookupByClass;
 
+  /**
+   * If set, the scores used to pick mutators, rather than picking them uniformly.
+   */
+  private Map<Class<? extends CodeMutator>, Integer> mutatorScores;
+
   /**
    * Tracks mutation stats.
    */
@@ -149,24 +162,18 @@ public class Program {
 
   /**
    * Construct the mutatable Program based on the raw DEX file that was parsed initially.
+   * The Fuzzer chooses the seed, so that it can hand out a separate RNG stream to each
+   * Program it creates.
    */
   public Program(RawDexFile rawDexFile, List<Mutation> previousMutations,
-      BaseListener listener) {
+      BaseListener listener, long seed) {
     this.listener = listener;
 
     idCreator = new IdCreator(rawDexFile);
 
     // Set up the RNG.
-    rng = new Random();
-    if (Options.usingProvidedSeed) {
-      rng.setSeed(Options.rngSeed);
-      rngSeed = Options.rngSeed;
-    } else {
-      long seed = System.currentTimeMillis();
-      listener.handleSeed(seed);
-      rng.setSeed(seed);
-      rngSeed = seed;
-    }
+    rng = new Random(seed);
+    rngSeed = seed;
 
     if (previousMutations != null) {
       mutations = previousMutations;
@@ -188,6 +195,7 @@ public class Program {
     this.rawDexFile = rawDexFile;
 
     mutatableCodes = new ArrayList<MutatableCode>();
+    mutatableCodeItemIdxs = new ArrayList<Integer>();
     mutatedCodes = new ArrayList<MutatableCode>();
 
     translator = new CodeTranslator();
@@ -226,9 +234,8 @@ public class Program {
     for (CodeItem codeItem : rawDexFile.codeItems) {
       if (legalToMutate(codeItem)) {
         Log.debug("Legal to mutate code item " + codeItemIdx);
-        int mutatableCodeIdx = mutatableCodes.size();
-        mutatableCodes.add(translator.codeItemToMutatableCode(this, codeItem,
-            codeItemIdx, mutatableCodeIdx));
+        mutatableCodes.add(null);
+        mutatableCodeItemIdxs.add(codeItemIdx);
       } else {
         Log.debug("Not legal to mutate code item " + codeItemIdx);
       }
@@ -236,6 +243,22 @@ public class Program {
     }
   }
 
+  /**
+   * Get the MutatableCode with the given index, producing it from its CodeItem
+   * if this is the first time it has been asked for. Any index updates made to the
+   * CodeItem before then are picked up when it is translated.
+   */
+  private MutatableCode getMutatableCode(int mutatableCodeIdx) {
+    MutatableCode mutatableCode = mutatableCodes.get(mutatableCodeIdx);
+    if (mutatableCode == null) {
+      int codeItemIdx = mutatableCodeItemIdxs.get(mutatableCodeIdx);
+      mutatableCode = translator.codeItemToMutatableCode(this,
+          rawDexFile.codeItems.get(codeItemIdx), codeItemIdx, mutatableCodeIdx);
+      mutatableCodes.set(mutatableCodeIdx, mutatableCode);
+    }
+    return mutatableCode;
+  }
+
   private void registerMutator(CodeMutator mutator) {
     if (mutator.canBeTriggered()) {
       Log.debug("Registering mutator " + mutator.getClass().getSimpleName());
@@ -408,8 +431,7 @@ public class Program {
     boolean hadToBail = false;
 
     while (mutationsApplied < mutations) {
-      int mutatorIdx = rng.nextInt(mutators.size());
-      CodeMutator mutator = mutators.get(mutatorIdx);
+      CodeMutator mutator = pickMutator();
       Log.info("Running mutator " + mutator.getClass().getSimpleName());
       if (mutator.attemptToMutate(mutatableCode)) {
         mutationsApplied++;
@@ -433,6 +455,37 @@ public class Program {
     return ((mutationsApplied == 0) && hadToBail);
   }
 
+  private CodeMutator pickMutator() {
+    if (mutatorScores == null) {
+      return mutators.get(rng.nextInt(mutators.size()));
+    }
+    int totalWeight = 0;
+    for (CodeMutator mutator : mutators) {
+      totalWeight += getMutatorWeight(mutator);
+    }
+    int weight = rng.nextInt(totalWeight);
+    for (CodeMutator mutator : mutators) {
+      weight -= getMutatorWeight(mutator);
+      if (weight < 0) {
+        return mutator;
+      }
+    }
+    return mutators.get(mutators.size() - 1);
+  }
+
+  private int getMutatorWeight(CodeMutator mutator) {
+    return 1 + mutatorScores.getOrDefault(mutator.getClass(), 0);
+  }
+
+  /**
+   * Pick each mutator with a chance proportional to one more than its score,
+   * instead of with equal chance. Must be called before mutateTheProgram().
+   * Mutators that aren't in the map have a score of 0.
+   */
+  public void setMutatorScores(Map<Class<? extends CodeMutator>, Integer> mutatorScores) {
+    this.mutatorScores = mutatorScores;
+  }
+
   /**
    * Go through each mutatable method in turn, and attempt to mutate it.
    * Afterwards, call updateRawDexFile() to apply the results of mutation to the
@@ -457,7 +510,8 @@ public class Program {
     if (methodsToMutate == mutatableCodes.size()) {
       // Just do them all in order.
       Log.info("Mutating all possible methods.");
-      for (MutatableCode mutatableCode : mutatableCodes) {
+      for (int i = 0; i < mutatableCodes.size(); i++) {
+        MutatableCode mutatableCode = getMutatableCode(i);
         if (mutatableCode == null) {
           Log.errorAndQuit("Why do you have a null MutatableCode?");
         }
@@ -469,7 +523,7 @@ public class Program {
       Log.info("Randomly selecting " + methodsToMutate + " methods to mutate.");
       while (mutatedCodes.size() < methodsToMutate) {
         int randomMethodIdx = rng.nextInt(mutatableCodes.size());
-        MutatableCode mutatableCode = mutatableCodes.get(randomMethodIdx);
+        MutatableCode mutatableCode = getMutatableCode(randomMethodIdx);
         if (mutatableCode == null) {
           Log.errorAndQuit("Why do you have a null MutatableCode?");
         }
@@ -521,7 +575,7 @@ public class Program {
     Log.info("Applying preloaded list of mutations...");
     for (Mutation mutation : mutations) {
       // Repopulate the MutatableCode field from the recorded index into the Program's list.
-      mutation.mutatableCode = mutatableCodes.get(mutation.mutatableCodeIdx);
+      mutation.mutatableCode = getMutatableCode(mutation.mutatableCodeIdx);
 
       // Get the right mutator.
       CodeMutator mutator = mutatorsLookupByClass.get(mutation.mutatorClass);
@@ -541,6 +595,10 @@ public class Program {
     return mutations;
   }
 
+  public MutationStats getMutationStats() {
+    return mutationStats;
+  }
+
   /**
    * Updates any CodeItems that need to be updated after mutation.
    */
@@ -554,11 +612,11 @@ public class Program {
     return anythingMutated;
   }
 
-  public void writeRawDexFile(DexRandomAccessFile file) throws IOException {
+  public void writeRawDexFile(DexBuffer file) throws IOException {
     rawDexFile.write(file);
   }
 
-  public void updateRawDexFileHeader(DexRandomAccessFile file) throws IOException {
+  public void updateRawDexFileHeader(DexBuffer file) throws IOException {
     rawDexFile.updateHeader(file);
   }
 
@@ -23,13 +23,13 @@ public class AnnotationElement implements RawDexObject {
   public EncodedValue value;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     nameIdx = file.readUleb128();
     (value = new EncodedValue()).read(file);
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUleb128(nameIdx);
     value.write(file);
   }
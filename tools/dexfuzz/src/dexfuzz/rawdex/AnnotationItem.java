@@ -23,14 +23,14 @@ public class AnnotationItem implements RawDexObject {
   public EncodedAnnotation annotation;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     visibility = file.readUnsignedByte();
     (annotation = new EncodedAnnotation()).read(file);
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeByte(visibility);
     annotation.write(file);
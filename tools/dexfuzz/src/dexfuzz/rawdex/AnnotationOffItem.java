@@ -22,12 +22,12 @@ public class AnnotationOffItem implements RawDexObject {
   public Offset annotationOff;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     annotationOff = file.getOffsetTracker().getNewOffset(file.readUInt());
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().tryToWriteOffset(annotationOff, file, false /* ULEB128 */);
   }
 
@@ -23,7 +23,7 @@ public class AnnotationSetItem implements RawDexObject {
   public AnnotationOffItem[] entries;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.alignForwards(4);
     file.getOffsetTracker().getNewOffsettable(file, this);
     size = file.readUInt();
@@ -34,7 +34,7 @@ public class AnnotationSetItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.alignForwards(4);
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUInt(size);
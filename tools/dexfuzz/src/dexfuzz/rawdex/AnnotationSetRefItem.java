@@ -22,12 +22,12 @@ public class AnnotationSetRefItem implements RawDexObject {
   public Offset annotationsOff;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     annotationsOff = file.getOffsetTracker().getNewOffset(file.readUInt());
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().tryToWriteOffset(annotationsOff, file, false /* ULEB128 */);
   }
 
@@ -28,7 +28,7 @@ public class AnnotationsDirectoryItem implements RawDexObject {
   public ParameterAnnotation[] parameterAnnotations;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.alignForwards(4);
     file.getOffsetTracker().getNewOffsettable(file, this);
     classAnnotationsOff = file.getOffsetTracker().getNewOffset(file.readUInt());
@@ -56,7 +56,7 @@ public class AnnotationsDirectoryItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.alignForwards(4);
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.getOffsetTracker().tryToWriteOffset(classAnnotationsOff, file, false /* ULEB128 */);
@@ -36,7 +36,7 @@ public class ClassDataItem implements RawDexObject {
   public MetaInfo meta = new MetaInfo();
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     staticFieldsSize = file.readUleb128();
     instanceFieldsSize = file.readUleb128();
@@ -62,7 +62,7 @@ public class ClassDataItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUleb128(staticFieldsSize);
     file.writeUleb128(instanceFieldsSize);
@@ -37,7 +37,7 @@ public class ClassDefItem implements RawDexObject {
   public MetaInfo meta = new MetaInfo();
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     classIdx = file.readUInt();
     accessFlags = file.readUInt();
@@ -50,7 +50,7 @@ public class ClassDefItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUInt(classIdx);
     file.writeUInt(accessFlags);
@@ -45,7 +45,7 @@ public class CodeItem implements RawDexObject {
   public MethodMetaInfo meta = new MethodMetaInfo();
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.alignForwards(4);
     file.getOffsetTracker().getNewOffsettable(file, this);
     registersSize = file.readUShort();
@@ -68,7 +68,7 @@ public class CodeItem implements RawDexObject {
     }
   }
 
-  private void populateInstructionList(DexRandomAccessFile file) throws IOException {
+  private void populateInstructionList(DexBuffer file) throws IOException {
     insns = new LinkedList<Instruction>();
     long insnsOffset = file.getFilePointer();
     if (insnsOffset != 0) {
@@ -88,7 +88,7 @@ public class CodeItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.alignForwards(4);
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUShort(registersSize);
@@ -30,7 +30,7 @@ public class DebugInfoItem implements RawDexObject {
   }
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     data = new byte[size];
     file.read(data);
@@ -42,7 +42,7 @@ public class DebugInfoItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.write(data);
   }
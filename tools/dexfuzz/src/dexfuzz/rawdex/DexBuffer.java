@@ -18,16 +18,26 @@ package dexfuzz.rawdex;
 
 import dexfuzz.Log;
 
-import java.io.FileNotFoundException;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.util.Arrays;
 
 /**
- * An extension to RandomAccessFile that allows reading/writing
- * DEX files in little-endian form, the variable-length LEB format
- * and also provides word-alignment functions.
+ * An in-memory DEX file that can be read/written in little-endian form,
+ * the variable-length LEB format, and also provides word-alignment functions.
+ * Seeking, reading and writing behave as they do for a RandomAccessFile: writing
+ * past the end of the buffer extends it, filling any gap with zeroes.
+ * The file system is only accessed by readFromFile() and writeToFile().
  */
-public class DexRandomAccessFile extends RandomAccessFile {
+public class DexBuffer {
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+
+  private byte[] data;
+  private int length;
+  private int position;
+
   private OffsetTracker offsetTracker;
 
   public OffsetTracker getOffsetTracker() {
@@ -39,21 +49,146 @@ public class DexRandomAccessFile extends RandomAccessFile {
   }
 
   /**
-   * Constructor, passes straight on to RandomAccessFile currently.
-   * @param filename The file to open.
-   * @param mode Strings "r" or "rw" work best.
+   * Create an empty buffer, to write a DEX file to.
+   */
+  public DexBuffer() {
+    data = new byte[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Create a buffer holding the given bytes of a DEX file, positioned at the start.
+   */
+  public DexBuffer(byte[] bytes) {
+    data = bytes;
+    length = bytes.length;
+  }
+
+  /**
+   * Read the whole of the named file into a new buffer. The array returned by
+   * getData() holds exactly the contents of the file.
+   */
+  public static DexBuffer readFromFile(String filename) throws IOException {
+    try (FileInputStream input = new FileInputStream(filename)) {
+      return new DexBuffer(input.readAllBytes());
+    }
+  }
+
+  /**
+   * Write the contents of the buffer to the named file, replacing any existing contents.
    */
-  public DexRandomAccessFile(String filename, String mode)
-      throws FileNotFoundException {
-    super(filename, mode);
+  public void writeToFile(String filename) throws IOException {
+    try (FileOutputStream output = new FileOutputStream(filename)) {
+      output.write(data, 0, length);
+    }
+  }
+
+  /**
+   * @return The array backing this buffer. Only the first length() bytes are valid.
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  public long length() {
+    return length;
+  }
+
+  /**
+   * Truncate or extend the buffer to the given length.
+   */
+  public void setLength(long newLength) {
+    int newLengthInt = (int) newLength;
+    if (newLengthInt < length) {
+      // Clear the discarded bytes, as they would be zeroes if the buffer was extended again.
+      Arrays.fill(data, newLengthInt, length, (byte) 0);
+    } else {
+      ensureCapacity(newLengthInt);
+    }
+    length = newLengthInt;
+    if (position > length) {
+      position = length;
+    }
+  }
+
+  public long getFilePointer() {
+    return position;
+  }
+
+  public void seek(long offset) throws IOException {
+    if (offset < 0) {
+      throw new IOException("Negative seek offset " + offset);
+    }
+    position = (int) offset;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > data.length) {
+      data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+    }
+  }
+
+  /**
+   * Make sure that count more bytes can be read from the current position.
+   */
+  private void checkRead(int count) throws EOFException {
+    if (position + count > length) {
+      throw new EOFException("Read past the end of the DEX file at " + position);
+    }
+  }
+
+  /**
+   * Make sure that count more bytes can be written at the current position.
+   */
+  private void prepareWrite(int count) {
+    int end = position + count;
+    ensureCapacity(end);
+    if (end > length) {
+      length = end;
+    }
+  }
+
+  public byte readByte() throws IOException {
+    checkRead(1);
+    return data[position++];
+  }
+
+  public int readUnsignedByte() throws IOException {
+    checkRead(1);
+    return data[position++] & 0xff;
+  }
+
+  /**
+   * Read up to bytes.length bytes into bytes.
+   * @return The number of bytes read, or -1 if at the end of the buffer.
+   */
+  public int read(byte[] bytes) throws IOException {
+    if (position >= length) {
+      return -1;
+    }
+    int count = Math.min(bytes.length, length - position);
+    System.arraycopy(data, position, bytes, 0, count);
+    position += count;
+    return count;
+  }
+
+  public void writeByte(int value) throws IOException {
+    prepareWrite(1);
+    data[position++] = (byte) value;
+  }
+
+  public void write(byte[] bytes) throws IOException {
+    prepareWrite(bytes.length);
+    System.arraycopy(bytes, 0, data, position, bytes.length);
+    position += bytes.length;
   }
 
   /**
    * @return A 16-bit number, read from the file as little-endian.
    */
   public short readUShort() throws IOException {
-    int b1 = readUnsignedByte();
-    int b2 = readUnsignedByte();
+    checkRead(2);
+    int b1 = data[position++] & 0xff;
+    int b2 = data[position++] & 0xff;
     return (short) ((b2 << 8) | b1);
   }
 
@@ -61,20 +196,20 @@ public class DexRandomAccessFile extends RandomAccessFile {
    * @param value A 16-bit number to be written to the file in little-endian.
    */
   public void writeUShort(short value) throws IOException {
-    int b1 = value & 0xff;
-    int b2 = (value & 0xff00) >> 8;
-    writeByte(b1);
-    writeByte(b2);
+    prepareWrite(2);
+    data[position++] = (byte) value;
+    data[position++] = (byte) (value >> 8);
   }
 
   /**
    * @return A 32-bit number, read from the file as little-endian.
    */
   public int readUInt() throws IOException {
-    int b1 = readUnsignedByte();
-    int b2 = readUnsignedByte();
-    int b3 = readUnsignedByte();
-    int b4 = readUnsignedByte();
+    checkRead(4);
+    int b1 = data[position++] & 0xff;
+    int b2 = data[position++] & 0xff;
+    int b3 = data[position++] & 0xff;
+    int b4 = data[position++] & 0xff;
     return (b4 << 24) | (b3 << 16) | (b2 << 8) | b1;
   }
 
@@ -82,14 +217,11 @@ public class DexRandomAccessFile extends RandomAccessFile {
    * @param value A 32-bit number to be written to the file in little-endian.
    */
   public void writeUInt(int value) throws IOException {
-    int b1 = value & 0xff;
-    writeByte(b1);
-    int b2 = (value & 0xff00) >> 8;
-    writeByte(b2);
-    int b3 = (value & 0xff0000) >> 16;
-    writeByte(b3);
-    int b4 = (value & 0xff000000) >> 24;
-    writeByte(b4);
+    prepareWrite(4);
+    data[position++] = (byte) value;
+    data[position++] = (byte) (value >> 8);
+    data[position++] = (byte) (value >> 16);
+    data[position++] = (byte) (value >> 24);
   }
 
   /**
@@ -292,7 +424,7 @@ public class DexRandomAccessFile extends RandomAccessFile {
   }
 
   /**
-   * Align the file handle's seek pointer to the next N bytes.
+   * Align the buffer's position to the next N bytes.
    * @param alignment N to align to.
    */
   public void alignForwards(int alignment) throws IOException {
@@ -305,7 +437,7 @@ public class DexRandomAccessFile extends RandomAccessFile {
   }
 
   /**
-   * Align the file handle's seek pointer backwards to the previous N bytes.
+   * Align the buffer's position backwards to the previous N bytes.
    * @param alignment N to align to.
    */
   public void alignBackwards(int alignment) throws IOException {
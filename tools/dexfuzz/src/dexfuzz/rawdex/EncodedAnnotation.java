@@ -24,7 +24,7 @@ public class EncodedAnnotation implements RawDexObject {
   public AnnotationElement[] elements;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     typeIdx = file.readUleb128();
     size = file.readUleb128();
     if (size != 0) {
@@ -36,7 +36,7 @@ public class EncodedAnnotation implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUleb128(typeIdx);
     file.writeUleb128(size);
     if (size != 0) {
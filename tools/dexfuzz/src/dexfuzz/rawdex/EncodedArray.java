@@ -23,7 +23,7 @@ public class EncodedArray implements RawDexObject {
   public EncodedValue[] values;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     size = file.readUleb128();
     if (size != 0) {
       values = new EncodedValue[size];
@@ -34,7 +34,7 @@ public class EncodedArray implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUleb128(size);
     if (size != 0) {
       for (EncodedValue encodedValue : values) {
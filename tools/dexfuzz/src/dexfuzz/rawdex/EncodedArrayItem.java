@@ -22,13 +22,13 @@ public class EncodedArrayItem implements RawDexObject {
   public EncodedArray value;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     (value = new EncodedArray()).read(file);
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     value.write(file);
   }
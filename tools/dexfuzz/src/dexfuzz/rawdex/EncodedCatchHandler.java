@@ -24,7 +24,7 @@ public class EncodedCatchHandler implements RawDexObject {
   public int catchAllAddr;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     size = file.readSleb128();
     int absoluteSize = Math.abs(size);
     if (absoluteSize > 0) {
@@ -39,7 +39,7 @@ public class EncodedCatchHandler implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeSleb128(size);
     if (handlers != null) {
       for (EncodedTypeAddrPair encodedTypeAddrPair : handlers) {
@@ -23,7 +23,7 @@ public class EncodedCatchHandlerList implements RawDexObject {
   public EncodedCatchHandler[] list;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     size = file.readUleb128();
     list = new EncodedCatchHandler[size];
     for (int i = 0; i < size; i++) {
@@ -32,7 +32,7 @@ public class EncodedCatchHandlerList implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUleb128(size);
     for (EncodedCatchHandler encodedCatchHandler : list) {
       encodedCatchHandler.write(file);
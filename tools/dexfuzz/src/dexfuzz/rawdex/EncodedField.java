@@ -23,13 +23,13 @@ public class EncodedField implements RawDexObject {
   public int accessFlags;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     fieldIdxDiff = file.readUleb128();
     accessFlags = file.readUleb128();
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUleb128(fieldIdxDiff);
     file.writeUleb128(accessFlags);
   }
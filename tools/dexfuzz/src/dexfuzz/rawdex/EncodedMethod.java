@@ -26,7 +26,7 @@ public class EncodedMethod implements RawDexObject {
   public Offset codeOff;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     methodIdxDiff = file.readUleb128();
     accessFlags = file.readUleb128();
     codeOff = file.getOffsetTracker().getNewOffset(file.readUleb128());
@@ -36,7 +36,7 @@ public class EncodedMethod implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUleb128(methodIdxDiff);
     file.writeUleb128(accessFlags);
     file.getOffsetTracker().tryToWriteOffset(codeOff, file, true /* ULEB128 */);
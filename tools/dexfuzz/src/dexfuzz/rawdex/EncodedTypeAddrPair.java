@@ -23,13 +23,13 @@ public class EncodedTypeAddrPair implements RawDexObject {
   public int addr;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     typeIdx = file.readUleb128();
     addr = file.readUleb128();
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUleb128(typeIdx);
     file.writeUleb128(addr);
   }
@@ -32,7 +32,7 @@ public class EncodedValue implements RawDexObject {
   private static final byte VALUE_BOOLEAN = 0x1f;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     int valueArgAndType = file.readUnsignedByte();
 
     // Get lower 5 bits.
@@ -74,7 +74,7 @@ public class EncodedValue implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     int valueArgAndType = ((valueType) | (valueArg << 5));
     file.writeByte(valueArgAndType);
 
@@ -24,7 +24,7 @@ public class FieldIdItem implements RawDexObject {
   public int nameIdx;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     classIdx = file.readUShort();
     typeIdx = file.readUShort();
@@ -32,7 +32,7 @@ public class FieldIdItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUShort(classIdx);
     file.writeUShort(typeIdx);
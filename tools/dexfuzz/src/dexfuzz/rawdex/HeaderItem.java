@@ -23,7 +23,7 @@ import java.io.IOException;
 public class HeaderItem implements RawDexObject {
   public byte[] magic;
   public int checksum;
-  public byte[] signature; // Verification doesn't depend on this, so we don't update it.
+  public byte[] signature;
   public int fileSize;
   public int headerSize;
   public int endianTag;
@@ -46,7 +46,7 @@ public class HeaderItem implements RawDexObject {
   public Offset dataOff;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     magic = new byte[8];
     for (int i = 0; i < 8; i++) {
@@ -87,7 +87,7 @@ public class HeaderItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     for (int i = 0; i < 8; i++) {
       file.writeByte(magic[i]);
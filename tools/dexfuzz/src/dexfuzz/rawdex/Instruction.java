@@ -113,7 +113,7 @@ public class Instruction implements RawDexObject {
   }
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     // Remember the offset, so after reading the opcode, we can read the whole
     // insn into raw_bytes.
     long offset = file.getFilePointer();
@@ -143,7 +143,7 @@ public class Instruction implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     if (justRaw) {
       // It is the responsibility of the CodeTranslator to make
       // sure the raw bytes have been updated.
@@ -165,7 +165,7 @@ public class Instruction implements RawDexObject {
     return info.format.getSize();
   }
 
-  private int readOpcode(DexRandomAccessFile file) throws IOException {
+  private int readOpcode(DexBuffer file) throws IOException {
     short firstCodeWord = file.readUShort();
     int opcode = (firstCodeWord & 0xff);
     int upperBits = (firstCodeWord & 0xff00) >> 8;
@@ -43,7 +43,7 @@ public class MapItem implements RawDexObject {
   public Offset offset;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     type = file.readUShort();
     file.readUShort(); // Unused padding.
     size = file.readUInt();
@@ -55,7 +55,7 @@ public class MapItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUShort(type);
     file.writeUShort((short) 0); // Unused padding.
     file.writeUInt(size);
@@ -34,7 +34,7 @@ public class MapList implements RawDexObject {
   }
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     // Find the map list.
     file.seek(rawDexFile.header.mapOff.getOriginalOffset());
 
@@ -207,7 +207,7 @@ public class MapList implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.alignForwards(4);
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUInt(mapItems.size());
@@ -23,13 +23,13 @@ public class MethodAnnotation implements RawDexObject {
   public Offset annotationsOff;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     methodIdx = file.readUInt();
     annotationsOff = file.getOffsetTracker().getNewOffset(file.readUInt());
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUInt(methodIdx);
     file.getOffsetTracker().tryToWriteOffset(annotationsOff, file, false /* ULEB128 */);
   }
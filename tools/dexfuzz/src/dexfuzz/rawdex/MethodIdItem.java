@@ -24,7 +24,7 @@ public class MethodIdItem implements RawDexObject {
   public int nameIdx;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     classIdx = file.readUShort();
     protoIdx = file.readUShort();
@@ -32,7 +32,7 @@ public class MethodIdItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUShort(classIdx);
     file.writeUShort(protoIdx);
@@ -124,7 +124,7 @@ public class OffsetTracker {
    * @param file Used for recording position into the new Offsettable.
    * @param item Used for recording the relevant Item into the new Offsettable.
    */
-  public void getNewOffsettable(DexRandomAccessFile file, RawDexObject item) throws IOException {
+  public void getNewOffsettable(DexBuffer file, RawDexObject item) throws IOException {
     Offsettable offsettable = new Offsettable(item, false);
     offsettable.setOriginalPosition((int) file.getFilePointer());
     offsettableMap.put(offsettable.getOriginalPosition(), offsettable);
@@ -181,7 +181,7 @@ public class OffsetTracker {
    * (with the exception of the map list, see above)
    * @param file Used for recording the new position.
    */
-  public void updatePositionOfNextOffsettable(DexRandomAccessFile file) throws IOException {
+  public void updatePositionOfNextOffsettable(DexBuffer file) throws IOException {
     if (offsettableTableIdx == offsettableTable.size()) {
       Log.errorAndQuit("Not all created Offsettable items have been added to the "
           + "Offsettable Table!");
@@ -201,7 +201,7 @@ public class OffsetTracker {
    * @param file Used for writing out to the file.
    * @param useUleb128 Whether or not the offset should be written in UINT or ULEB128 form.
    */
-  public void tryToWriteOffset(Offset offset, DexRandomAccessFile file, boolean useUleb128)
+  public void tryToWriteOffset(Offset offset, DexBuffer file, boolean useUleb128)
       throws IOException {
     if (!offset.isNewOffset() && (!offset.pointsToSomething())) {
       if (useUleb128) {
@@ -236,7 +236,7 @@ public class OffsetTracker {
    * associated Offsettables hadn't had their new positions calculated yet.
    * @param file Used for writing out to the file.
    */
-  public void updateOffsets(DexRandomAccessFile file) throws IOException {
+  public void updateOffsets(DexBuffer file) throws IOException {
     if (offsettableTableIdx != offsettableTable.size()) {
       Log.errorAndQuit("Being asked to update dangling offsets but the "
           + "correct number of offsettables has not been written out!");
@@ -24,7 +24,7 @@ public class ProtoIdItem implements RawDexObject {
   public Offset parametersOff;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     shortyIdx = file.readUInt();
     returnTypeIdx = file.readUInt();
@@ -32,7 +32,7 @@ public class ProtoIdItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUInt(shortyIdx);
     file.writeUInt(returnTypeIdx);
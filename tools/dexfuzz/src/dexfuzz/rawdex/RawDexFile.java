@@ -19,8 +19,11 @@ package dexfuzz.rawdex;
 import dexfuzz.Log;
 
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.Adler32;
 
 public class RawDexFile implements RawDexObject {
   private OffsetTracker offsetTracker;
@@ -50,7 +53,7 @@ public class RawDexFile implements RawDexObject {
   public List<EncodedArrayItem> encodedArrayItems;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     // Get a reference to the OffsetTracker, so that IdCreator can use it.
     offsetTracker = file.getOffsetTracker();
 
@@ -74,7 +77,7 @@ public class RawDexFile implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.seek(0);
 
     // We read the header first, and then the map list, and then everything
@@ -303,24 +306,33 @@ public class RawDexFile implements RawDexObject {
   }
 
   /**
-   * Given a DexRandomAccessFile, calculate the correct adler32 checksum for it.
+   * Given a DexBuffer, calculate the correct SHA-1 signature for it.
    */
-  private int calculateAdler32Checksum(DexRandomAccessFile file) throws IOException {
-    // Skip magic + checksum.
-    file.seek(12);
-    int a = 1;
-    int b = 0;
-    while (file.getFilePointer() < file.length()) {
-      a = (a + file.readUnsignedByte()) % 65521;
-      b = (b + a) % 65521;
+  private byte[] calculateSignature(DexBuffer file) throws IOException {
+    try {
+      // Skip magic + checksum + signature.
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(file.getData(), 32, (int) file.length() - 32);
+      return digest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException("SHA-1 is not available to sign the DEX file", e);
     }
-    return (b << 16) | a;
   }
 
   /**
-   * Given a DexRandomAccessFile, update the file size, data size, and checksum.
+   * Given a DexBuffer, calculate the correct adler32 checksum for it.
    */
-  public void updateHeader(DexRandomAccessFile file) throws IOException {
+  private int calculateAdler32Checksum(DexBuffer file) {
+    // Skip magic + checksum.
+    Adler32 adler32 = new Adler32();
+    adler32.update(file.getData(), 12, (int) file.length() - 12);
+    return (int) adler32.getValue();
+  }
+
+  /**
+   * Given a DexBuffer, update the file size, data size, signature and checksum.
+   */
+  public void updateHeader(DexBuffer file) throws IOException {
     // File size must be updated before checksum.
     int newFileSize = (int) file.length();
     file.seek(32);
@@ -331,6 +343,11 @@ public class RawDexFile implements RawDexObject {
     file.seek(104);
     file.writeUInt(newDataSize);
 
+    // The signature covers everything after it, and the checksum covers the signature.
+    byte[] newSignature = calculateSignature(file);
+    file.seek(12);
+    file.write(newSignature);
+
     // Now update the checksum.
     int newChecksum = calculateAdler32Checksum(file);
     file.seek(8);
@@ -338,6 +355,7 @@ public class RawDexFile implements RawDexObject {
 
     header.fileSize = newFileSize;
     header.dataSize = newDataSize;
+    header.signature = newSignature;
     header.checksum = newChecksum;
   }
 
@@ -27,14 +27,14 @@ public interface RawDexObject {
    * @param file Input file, should already be "seeked" to the correct position.
    * @throws IOException If there's a problem writing to the file.
    */
-  public void read(DexRandomAccessFile file) throws IOException;
+  public void read(DexBuffer file) throws IOException;
 
   /**
    * Write information for this DEX data to the file.
    * @param file Output file, should already be "seeked" to the correct position.
    * @throws IOException If there's a problem writing to the file.
    */
-  public void write(DexRandomAccessFile file) throws IOException;
+  public void write(DexBuffer file) throws IOException;
 
   public static enum IndexUpdateKind {
     STRING_ID,
@@ -28,7 +28,7 @@ public class StringDataItem implements RawDexObject {
   private boolean writeRawBytes;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     size = file.readUleb128();
     if (size != 0) {
@@ -46,7 +46,7 @@ public class StringDataItem implements RawDexObject {
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUleb128(size);
     if (size > 0) {
@@ -22,13 +22,13 @@ public class StringIdItem implements RawDexObject {
   public Offset stringDataOff;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     stringDataOff = file.getOffsetTracker().getNewOffset(file.readUInt());
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.getOffsetTracker().tryToWriteOffset(stringDataOff, file, false /* ULEB128 */);
   }
@@ -24,14 +24,14 @@ public class TryItem implements RawDexObject {
   public short handlerOff; // Not a global offset; don't need to adjust like an Offset.
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     startAddr = file.readUInt();
     insnCount = file.readUShort();
     handlerOff = file.readUShort();
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUInt(startAddr);
     file.writeUShort(insnCount);
     file.writeUShort(handlerOff);
@@ -22,13 +22,13 @@ public class TypeIdItem implements RawDexObject {
   public int descriptorIdx;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     file.getOffsetTracker().getNewOffsettable(file, this);
     descriptorIdx = file.readUInt();
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.getOffsetTracker().updatePositionOfNextOffsettable(file);
     file.writeUInt(descriptorIdx);
   }
@@ -22,12 +22,12 @@ public class TypeItem implements RawDexObject {
   public short typeIdx;
 
   @Override
-  public void read(DexRandomAccessFile file) throws IOException {
+  public void read(DexBuffer file) throws IOException {
     typeIdx = file.readUShort();
   }
 
   @Override
-  public void write(DexRandomAccessFile file) throws IOException {
+  public void write(DexBuffer file) throws IOException {
     file.writeUShort(typeIdx);
   }
 
@@ -16,7 +16,7 @@
 
 package dexfuzz.rawdex.formats;
 
-import dexfuzz.rawdex.DexRandomAccessFile;
+import dexfuzz.rawdex.DexBuffer;
 import dexfuzz.rawdex.Instruction;
 
 import java.io.IOException;
@@ -48,7 +48,7 @@ public abstract class AbstractFormat {
    * Given a file handle and an instruction, write that Instruction out to the file
    * correctly, considering the current format.
    */
-  public abstract void writeToFile(DexRandomAccessFile file, Instruction insn) throws IOException;
+  public abstract void writeToFile(DexBuffer file, Instruction insn) throws IOException;
 
   /**
    * Read the value of vA, considering this format.
@@ -16,7 +16,7 @@
 
 package dexfuzz.rawdex.formats;
 
-import dexfuzz.rawdex.DexRandomAccessFile;
+import dexfuzz.rawdex.DexBuffer;
 import dexfuzz.rawdex.Instruction;
 
 import java.io.IOException;
@@ -28,7 +28,7 @@ public class Format00x extends AbstractFormat {
   }
 
   @Override
-  public void writeToFile(DexRandomAccessFile file, Instruction insn) throws IOException {
+  public void writeToFile(DexBuffer file, Instruction insn) throws IOException {
     return;
   }
 
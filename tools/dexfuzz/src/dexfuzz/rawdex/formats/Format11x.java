@@ -16,14 +16,14 @@
 
 package dexfuzz.rawdex.formats;
 
-import dexfuzz.rawdex.DexRandomAccessFile;
+import dexfuzz.rawdex.DexBuffer;
 import dexfuzz.rawdex.Instruction;
 
 import java.io.IOException;
 
 public class Format11x extends Format1 implements ContainsVRegs {
   @Override
-  public void writeToFile(DexRandomAccessFile file, Instruction insn) throws IOException {
+  public void writeToFile(DexBuffer file, Instruction insn) throws IOException {
     file.writeByte((byte) insn.info.value);
     file.writeByte((byte) insn.vregA);
     return;
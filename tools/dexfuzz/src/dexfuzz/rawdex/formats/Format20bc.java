@@ -16,7 +16,7 @@
 
 package dexfuzz.rawdex.formats;
 
-import dexfuzz.rawdex.DexRandomAccessFile;
+import dexfuzz.rawdex.DexBuffer;
 import dexfuzz.rawdex.Instruction;
 
 import java.io.IOException;
@@ -27,7 +27,7 @@ import java.io.IOException;
 // Therefore, no need to say this implements ContainsPoolIndex, even though it is a *c format
 public class Format20bc extends Format2 {
   @Override
-  public void writeToFile(DexRandomAccessFile file, Instruction insn) throws IOException {
+  public void writeToFile(DexBuffer file, Instruction insn) throws IOException {
     file.writeByte((byte) insn.info.value);
     file.writeByte((byte) insn.vregA);
     file.writeUShort((short) insn.vregB);
@@ -16,7 +16,7 @@
 
 package dexfuzz.rawdex.formats;
 
-import dexfuzz.rawdex.DexRandomAccessFile;
+import dexfuzz.rawdex.DexBuffer;
 import dexfuzz.rawdex.Instruction;
 import dexfuzz.rawdex.OpcodeInfo;
 
@@ -24,7 +24,7 @@ import java.io.IOException;
 
 public class Format22cs extends Format2 implements ContainsVRegs, ContainsPoolIndex {
   @Override
-  public void writeToFile(DexRandomAccessFile file, Instruction insn) throws IOException {
+  public void writeToFile(DexBuffer file, Instruction insn) throws IOException {
     throw new Error("Did not expect to have to write a 22cs instruction!");
     // If for some reason 22cs instructions were in DEX files in the future, uncomment:
     //file.writeByte((byte) insn.info.value);
@@ -16,7 +16,7 @@
 
 package dexfuzz.rawdex.formats;
 
-import dexfuzz.rawdex.DexRandomAccessFile;
+import dexfuzz.rawdex.DexBuffer;
 import dexfuzz.rawdex.Instruction;
 import dexfuzz.rawdex.OpcodeInfo;
 
@@ -24,7 +24,7 @@ import java.io.IOException;
 
 public class Format31c extends Format3 implements ContainsVRegs, ContainsPoolIndex {
   @Override
-  public void writeToFile(DexRandomAccessFile file, Instruction insn) throws IOException {
+  public void writeToFile(DexBuffer file, Instruction insn) throws IOException {
     file.writeByte((byte) insn.info.value);
     file.writeByte((byte) insn.vregA);
     file.writeUInt((int) insn.vregB);
@@ -16,7 +16,7 @@
 
 package dexfuzz.rawdex.formats;
 
-import dexfuzz.rawdex.DexRandomAccessFile;
+import dexfuzz.rawdex.DexBuffer;
 import dexfuzz.rawdex.Instruction;
 import dexfuzz.rawdex.Opcode;
 import dexfuzz.rawdex.OpcodeInfo;
@@ -25,7 +25,7 @@ import java.io.IOException;
 
 public class Format35c extends Format3 implements ContainsPoolIndex {
   @Override
-  public void writeToFile(DexRandomAccessFile file, Instruction insn) throws IOException {
+  public void writeToFile(DexBuffer file, Instruction insn) throws IOException {
     file.writeByte((byte) insn.info.value);
     file.writeByte((byte) (insn.invokeFormatInfo.vregG | (insn.vregA << 4)));
     file.writeUShort((short) insn.vregB);
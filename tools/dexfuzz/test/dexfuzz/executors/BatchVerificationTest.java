@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.executors;
+
+import dexfuzz.ExecutionResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BatchVerificationTest {
+  // Log lines in the format dex2oat writes them to standard error on the host.
+  private static String log(String message) {
+    return "dex2oat I 10-18 12:00:00  4242  4242 " + message;
+  }
+
+  private static ExecutionResult result(String... errorLines) {
+    ExecutionResult result = new ExecutionResult();
+    result.returnValue = 0;
+    result.output = new ArrayList<String>();
+    result.error = Arrays.asList(errorLines);
+    return result;
+  }
+
+  private static final List<String> PROGRAMS = Arrays.asList(
+      "/tmp/batch0_fuzzed.dex", "/tmp/batch1_fuzzed.dex", "/tmp/batch2_fuzzed.dex");
+
+  @Test
+  public void split() {
+    ExecutionResult batch = result(
+        log("dex2oat.cc:2850] --instruction-set=x86 --dex-file=..."),
+        log("dex2oat.cc:1801] Compiling /tmp/batch0_fuzzed.dex"),
+        log("dex2oat.cc:1818] Unloaded classloader"),
+        log("dex2oat.cc:1801] Compiling /tmp/batch1_fuzzed.dex"),
+        "dex2oat W 10-18 12:00:00  4242  4243 method_verifier.cc:5118] "
+            + "Verification error in void Main.foo()",
+        log("dex2oat.cc:1818] Unloaded classloader"),
+        log("dex2oat.cc:1801] Compiling /tmp/batch2_fuzzed.dex"),
+        log("dex2oat.cc:1818] Unloaded classloader"),
+        log("dex2oat.cc:2870] dex2oat took 1.234s (2.345s cpu) (threads: 4)"));
+
+    List<ExecutionResult> results = Executor.splitBatchVerification(batch, PROGRAMS);
+    assertEquals(3, results.size());
+    assertEquals(Arrays.asList(batch.error.get(0)), results.get(0).error);
+    assertEquals(Arrays.asList(batch.error.get(0), batch.error.get(4)), results.get(1).error);
+    assertEquals(Arrays.asList(batch.error.get(0)), results.get(2).error);
+    for (ExecutionResult result : results) {
+      assertEquals(0, result.returnValue);
+    }
+  }
+
+  @Test
+  public void splitWithoutUnloading() {
+    // The summary ends the last program even if unloading its classes isn't logged.
+    ExecutionResult batch = result(
+        log("dex2oat.cc:1801] Compiling /tmp/batch0_fuzzed.dex"),
+        log("dex2oat.cc:1801] Compiling /tmp/batch1_fuzzed.dex"),
+        log("dex2oat.cc:1801] Compiling /tmp/batch2_fuzzed.dex"),
+        log("dex2oat.cc:2870] dex2oat took 1.234s (2.345s cpu) (threads: 4)"));
+
+    List<ExecutionResult> results = Executor.splitBatchVerification(batch, PROGRAMS);
+    assertEquals(3, results.size());
+    for (ExecutionResult result : results) {
+      assertEquals(0, result.error.size());
+    }
+  }
+
+  @Test
+  public void missingProgram() {
+    ExecutionResult batch = result(
+        log("dex2oat.cc:1801] Compiling /tmp/batch0_fuzzed.dex"),
+        log("dex2oat.cc:1818] Unloaded classloader"),
+        log("dex2oat.cc:1801] Compiling /tmp/batch2_fuzzed.dex"),
+        log("dex2oat.cc:1818] Unloaded classloader"));
+    assertNull(Executor.splitBatchVerification(batch, PROGRAMS));
+  }
+
+  @Test
+  public void notCompiledIndividually() {
+    ExecutionResult batch = result(
+        log("dex2oat.cc:2870] dex2oat took 1.234s (2.345s cpu) (threads: 4)"));
+    assertNull(Executor.splitBatchVerification(batch, PROGRAMS));
+  }
+}